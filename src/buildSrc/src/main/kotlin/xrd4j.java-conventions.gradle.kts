@@ -96,6 +96,8 @@ tasks.withType<Jar>() {
 
 tasks.withType<Test>() {
     useJUnitPlatform()
+    // Benchmarks are run only with -Pxrd4j.benchmark=true
+    systemProperty("xrd4j.benchmark", project.findProperty("xrd4j.benchmark") ?: "false")
     // testLogging.showStandardStreams = true
 }
 
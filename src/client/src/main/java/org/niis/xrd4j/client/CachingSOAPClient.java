@@ -0,0 +1,374 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client;
+
+import org.niis.xrd4j.client.cache.TtlCache;
+import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.common.member.AbstractMember;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.ExecutorHelper;
+import org.niis.xrd4j.common.util.MessageHelper;
+
+import org.w3c.dom.NodeList;
+
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * This class represents a SOAP client that caches the responses of the
+ * listClients, listCentralServices, listMethods and allowedMethods meta
+ * services. All the other requests are passed to the underlying SOAPClient
+ * as such.
+ *
+ * The responses are cached by the meta service, the security server URL and
+ * the consumer and producer of the request. A response is fresh for the TTL,
+ * after which it's returned for the stale period while it's refreshed in the
+ * background. Responses containing an error message are not cached. Cached
+ * lists are unmodifiable and cached ServiceResponse objects are shared between
+ * callers, so they must not be modified.
+ *
+ * The meta service requests are sent using a copy of the given ServiceRequest,
+ * so the request of the caller is not modified, not even by a background
+ * refresh running in another thread.
+ */
+public class CachingSOAPClient implements SOAPClient, Closeable {
+
+    /**
+     * Default time in milliseconds after which a cached response is stale.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60000L;
+    /**
+     * Default time in milliseconds after the TTL during which a stale
+     * response is returned and refreshed in the background.
+     */
+    public static final long DEFAULT_STALE_MILLIS = 300000L;
+    /**
+     * Default maximum number of cached responses.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final SOAPClient soapClient;
+    private final TtlCache<List<String>, Object> cache;
+
+    /**
+     * Constructs and initializes a new CachingSOAPClient that uses the default
+     * cache settings.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     */
+    public CachingSOAPClient(SOAPClient soapClient) {
+        this(soapClient, new TtlCache<>(DEFAULT_TTL_MILLIS, DEFAULT_STALE_MILLIS, DEFAULT_MAX_SIZE, ExecutorHelper.getDefaultExecutor()));
+    }
+
+    /**
+     * Constructs and initializes a new CachingSOAPClient.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     * @param ttlMillis time in milliseconds after which a cached response is
+     * stale
+     * @param staleMillis time in milliseconds after the TTL during which a
+     * stale response is returned and refreshed in the background
+     * @param maxSize maximum number of cached responses
+     * @param refreshExecutor Executor that runs the background refreshes
+     */
+    public CachingSOAPClient(SOAPClient soapClient, long ttlMillis, long staleMillis, int maxSize, Executor refreshExecutor) {
+        this(soapClient, new TtlCache<>(ttlMillis, staleMillis, maxSize, refreshExecutor));
+    }
+
+    /**
+     * Constructs and initializes a new CachingSOAPClient that uses the given
+     * cache.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     * @param cache cache of the meta service responses
+     */
+    CachingSOAPClient(SOAPClient soapClient, TtlCache<List<String>, Object> cache) {
+        this.soapClient = soapClient;
+        this.cache = cache;
+        this.cache.setCacheable(CachingSOAPClient::isCacheable);
+    }
+
+    /**
+     * Returns the cache of the meta service responses. The cache can be used
+     * for reading the hit and miss statistics and for invalidating entries.
+     *
+     * @return cache of the meta service responses
+     */
+    public TtlCache<List<String>, Object> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sends the given message to the specified endpoint. The response is not
+     * cached.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent.
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    public SOAPMessage send(final SOAPMessage request, final String url) throws SOAPException {
+        return this.soapClient.send(request, url);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint. The response is not
+     * cached.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return the ServiceResponse object that is the response to the message
+     * that was sent.
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    public <T1, T2> ServiceResponse<T1, T2> send(final ServiceRequest<T1> request, final String url,
+                                                 final ServiceRequestSerializer<T1> serializer,
+                                                 final ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException {
+        return this.soapClient.send(request, url, serializer, deserializer);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. The response is not cached.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    @Override
+    public CompletableFuture<SOAPMessage> sendAsync(final SOAPMessage request, final String url) {
+        return this.soapClient.sendAsync(request, url);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. The response is not cached.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the ServiceResponse object that is
+     * the response to the message that was sent.
+     */
+    @Override
+    public <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendAsync(final ServiceRequest<T1> request, final String url,
+                                                                       final ServiceRequestSerializer<T1> serializer,
+                                                                       final ServiceResponseDeserializer<T1, T2> deserializer) {
+        return this.soapClient.sendAsync(request, url, serializer, deserializer);
+    }
+
+    /**
+     * Returns the cached list of the clients of the given security server, or
+     * calls listClients meta service if there's no valid cached list.
+     *
+     * @param url URL of X-Road security server
+     * @return unmodifiable list of ConsumerMembers
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ConsumerMember> listClients(final String url) {
+        return (List<ConsumerMember>) this.cache.get(key(Constants.META_SERVICE_LIST_CLIENTS, url, null),
+                () -> unmodifiable(this.soapClient.listClients(url)));
+    }
+
+    /**
+     * Returns the cached list of the central services of the given security
+     * server, or calls listCentralServices meta service if there's no valid
+     * cached list.
+     *
+     * @param url URL of X-Road security server
+     * @return unmodifiable list of ProducerMembers
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ProducerMember> listCentralServices(final String url) {
+        return (List<ProducerMember>) this.cache.get(key(Constants.META_SERVICE_LIST_CENTRAL_SERVICES, url, null),
+                () -> unmodifiable(this.soapClient.listCentralServices(url)));
+    }
+
+    /**
+     * Returns the cached listMethods response of the given request, or calls
+     * listMethods meta service if there's no valid cached response.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a list of ProducerMember objects
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ServiceResponse<String, List<ProducerMember>> listMethods(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        ServiceRequest<String> copy = copy(request);
+        return (ServiceResponse<String, List<ProducerMember>>) this.cache.get(key(Constants.META_SERVICE_LIST_METHODS, url, copy),
+                () -> this.soapClient.listMethods(copy, url));
+    }
+
+    /**
+     * Returns the cached allowedMethods response of the given request, or
+     * calls allowedMethods meta service if there's no valid cached response.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a list of ProducerMember objects
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ServiceResponse<String, List<ProducerMember>> allowedMethods(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        ServiceRequest<String> copy = copy(request);
+        return (ServiceResponse<String, List<ProducerMember>>) this.cache.get(key(Constants.META_SERVICE_ALLOWED_METHODS, url, copy),
+                () -> this.soapClient.allowedMethods(copy, url));
+    }
+
+    /**
+     * Calls getSecurityServerMetrics monitoring service. The response is not
+     * cached.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a NodeList containing the response
+     * data
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    public ServiceResponse<String, NodeList> getSecurityServerMetrics(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        return this.soapClient.getSecurityServerMetrics(request, url);
+    }
+
+    /**
+     * Closes the underlying SOAPClient if it's closeable.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.soapClient instanceof Closeable) {
+            ((Closeable) this.soapClient).close();
+        }
+    }
+
+    /**
+     * Returns the cache key of a meta service request. The key contains the
+     * member identifiers of the consumer and the producer, but not the service
+     * code and version of the producer, which are replaced by the meta
+     * service call.
+     *
+     * @param service name of the meta service
+     * @param url URL of X-Road security server
+     * @param request the ServiceRequest object, may be null
+     * @return cache key
+     */
+    private static List<String> key(String service, String url, ServiceRequest<?> request) {
+        if (request == null) {
+            return Arrays.asList(service, url);
+        }
+        AbstractMember consumer = request.getConsumer();
+        AbstractMember producer = request.getProducer();
+        return Arrays.asList(service, url,
+                consumer.getXRoadInstance(), consumer.getMemberClass(), consumer.getMemberCode(), consumer.getSubsystemCode(),
+                producer.getXRoadInstance(), producer.getMemberClass(), producer.getMemberCode(), producer.getSubsystemCode());
+    }
+
+    /**
+     * Returns a copy of the given meta service request. The consumer and the
+     * producer are copied too, because the meta service call modifies the
+     * producer. The copy gets a new message id, because it may be sent later
+     * by a background refresh, and the id of the caller's request must not be
+     * reused.
+     *
+     * @param request the ServiceRequest object to be copied
+     * @return copy of the request
+     */
+    private static ServiceRequest<String> copy(ServiceRequest<String> request) {
+        ServiceRequest<String> copy = new ServiceRequest<>();
+        copy.setConsumer(new ConsumerMember(request.getConsumer()));
+        copy.setProducer(new ProducerMember(request.getProducer()));
+        copy.setSecurityServer(request.getSecurityServer());
+        copy.setId(MessageHelper.generateId());
+        copy.setUserId(request.getUserId());
+        copy.setIssue(request.getIssue());
+        copy.setProtocolVersion(request.getProtocolVersion());
+        copy.setProcessingWrappers(request.isProcessingWrappers());
+        copy.setSecurityToken(request.getSecurityToken());
+        copy.setSecurityTokenType(request.getSecurityTokenType());
+        copy.setRequestData(request.getRequestData());
+        copy.setAddNamespaceToRequest(request.isAddNamespaceToRequest());
+        return copy;
+    }
+
+    /**
+     * Returns an unmodifiable view of the given list.
+     *
+     * @param <T> type of the list elements
+     * @param list list to be wrapped, may be null
+     * @return unmodifiable list, or null
+     */
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list == null ? null : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns true if the given meta service response can be cached.
+     * ServiceResponses containing an error message are not cached.
+     *
+     * @param response meta service response
+     * @return true if the response can be cached
+     */
+    private static boolean isCacheable(Object response) {
+        if (response instanceof ServiceResponse) {
+            return ((ServiceResponse<?, ?>) response).getErrorMessage() == null;
+        }
+        return response != null;
+    }
+}
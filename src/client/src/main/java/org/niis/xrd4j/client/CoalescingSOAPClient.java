@@ -0,0 +1,483 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client;
+
+import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.serializer.AbstractStreamingRequestSerializer;
+import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.MessageHelper;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
+
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents a SOAP client that coalesces identical concurrent
+ * requests: when a request is identical to a request that is already in
+ * flight, it's not sent again, but it receives the result of the request in
+ * flight. This prevents thundering herds on the security servers, e.g. when a
+ * cached response expires and many threads request it at the same time.
+ *
+ * The listClients, listCentralServices, listMethods and allowedMethods meta
+ * service calls are always coalesced. ServiceRequests are coalesced only if
+ * their service code is one of the given service codes, because the services
+ * must be idempotent. Two ServiceRequests are identical if they have the same
+ * URL, consumer, producer, user id and SOAP body. The SOAP headers, e.g. the
+ * message id, are not compared. Requests with attachments, requests of
+ * streaming serializers and SOAPMessages are never coalesced. Requests of
+ * streaming serializers and SOAPMessages are passed to the underlying client
+ * as such, and requests with attachments are sent using the message that was
+ * already serialized for computing the key.
+ *
+ * A blocking call waits for the result of an identical call in flight at most
+ * the given maximum wait time. If the result is not received in time, the
+ * request is sent by the waiting caller itself.
+ *
+ * Coalesced callers share the same response object, so it must not be
+ * modified. Results are shared only while the request is in flight - this
+ * class does not cache responses.
+ */
+public class CoalescingSOAPClient implements SOAPClient, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingSOAPClient.class);
+    private static final String SEND = "send";
+    private static final String SEND_ASYNC = "sendAsync";
+
+    /**
+     * Default maximum time in milliseconds that a blocking call waits for the
+     * result of an identical call in flight.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    private final SOAPClient soapClient;
+    private final Set<String> serviceCodes;
+    private final long maxWaitMillis;
+    private final Map<List<String>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Constructs and initializes a new CoalescingSOAPClient that coalesces
+     * meta service calls only.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     */
+    public CoalescingSOAPClient(SOAPClient soapClient) {
+        this(soapClient, Collections.emptySet());
+    }
+
+    /**
+     * Constructs and initializes a new CoalescingSOAPClient.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     * @param serviceCodes service codes of the idempotent services whose
+     * requests are coalesced
+     */
+    public CoalescingSOAPClient(SOAPClient soapClient, Set<String> serviceCodes) {
+        this(soapClient, serviceCodes, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Constructs and initializes a new CoalescingSOAPClient.
+     *
+     * @param soapClient SOAPClient that sends the requests
+     * @param serviceCodes service codes of the idempotent services whose
+     * requests are coalesced
+     * @param maxWaitMillis maximum time in milliseconds that a blocking call
+     * waits for the result of an identical call in flight before sending the
+     * request itself
+     */
+    public CoalescingSOAPClient(SOAPClient soapClient, Set<String> serviceCodes, long maxWaitMillis) {
+        this.soapClient = soapClient;
+        this.serviceCodes = Collections.unmodifiableSet(new HashSet<>(serviceCodes));
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Returns the number of requests that received the result of an identical
+     * request in flight instead of being sent.
+     *
+     * @return number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Returns the number of distinct requests in flight.
+     *
+     * @return number of requests in flight
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Sends the given message to the specified endpoint. SOAPMessages are not
+     * coalesced.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent.
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    public SOAPMessage send(final SOAPMessage request, final String url) throws SOAPException {
+        return this.soapClient.send(request, url);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint, or waits for the
+     * response of an identical request in flight.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return the ServiceResponse object that is the response to the message
+     * that was sent.
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T1, T2> ServiceResponse<T1, T2> send(final ServiceRequest<T1> request, final String url,
+                                                 final ServiceRequestSerializer<T1> serializer,
+                                                 final ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException {
+        if (!this.isCoalesced(request, serializer)) {
+            return this.soapClient.send(request, url, serializer, deserializer);
+        }
+        SOAPMessage soapRequest = serializer.serialize(request);
+        List<String> key = requestKey(SEND, request, url, soapRequest, deserializer);
+        if (key == null) {
+            return this.soapClient.send(request, url, r -> soapRequest, deserializer);
+        }
+        return (ServiceResponse<T1, T2>) this.coalesce(key, () -> this.soapClient.send(request, url, r -> soapRequest, deserializer));
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. SOAPMessages are not coalesced.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    @Override
+    public CompletableFuture<SOAPMessage> sendAsync(final SOAPMessage request, final String url) {
+        return this.soapClient.sendAsync(request, url);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread, or returns a future completed with the response of an
+     * identical request in flight. Cancelling the returned future does not
+     * cancel a request that is shared with other callers.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the ServiceResponse object that is
+     * the response to the message that was sent.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendAsync(final ServiceRequest<T1> request, final String url,
+                                                                       final ServiceRequestSerializer<T1> serializer,
+                                                                       final ServiceResponseDeserializer<T1, T2> deserializer) {
+        if (!this.isCoalesced(request, serializer)) {
+            return this.soapClient.sendAsync(request, url, serializer, deserializer);
+        }
+        SOAPMessage soapRequest = serializer.serialize(request);
+        List<String> key = requestKey(SEND_ASYNC, request, url, soapRequest, deserializer);
+        if (key == null) {
+            return this.soapClient.sendAsync(request, url, r -> soapRequest, deserializer);
+        }
+        CompletableFuture<Object> shared = new CompletableFuture<>();
+        CompletableFuture<Object> existing = this.inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            this.coalesced.increment();
+            LOGGER.debug("Coalesce request to \"{}\". Request id : \"{}\"", url, request.getId());
+            return existing.thenApply(response -> (ServiceResponse<T1, T2>) response);
+        }
+        try {
+            this.soapClient.sendAsync(request, url, r -> soapRequest, deserializer).whenComplete((response, throwable) -> {
+                this.inFlight.remove(key, shared);
+                if (throwable == null) {
+                    shared.complete(response);
+                } else {
+                    shared.completeExceptionally(throwable);
+                }
+            });
+        } catch (RuntimeException ex) {
+            this.inFlight.remove(key, shared);
+            shared.completeExceptionally(ex);
+            throw ex;
+        }
+        // Callers get a dependent future, so that one of them can't cancel the shared request
+        return shared.thenApply(response -> (ServiceResponse<T1, T2>) response);
+    }
+
+    /**
+     * Calls listClients meta service, or waits for the response of an
+     * identical call in flight.
+     *
+     * @param url URL of X-Road security server
+     * @return list of ConsumerMembers
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ConsumerMember> listClients(final String url) {
+        return (List<ConsumerMember>) this.coalesce(Arrays.asList(Constants.META_SERVICE_LIST_CLIENTS, url),
+                () -> this.soapClient.listClients(url));
+    }
+
+    /**
+     * Calls listCentralServices meta service, or waits for the response of an
+     * identical call in flight.
+     *
+     * @param url URL of X-Road security server
+     * @return list of ProducerMembers
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ProducerMember> listCentralServices(final String url) {
+        return (List<ProducerMember>) this.coalesce(Arrays.asList(Constants.META_SERVICE_LIST_CENTRAL_SERVICES, url),
+                () -> this.soapClient.listCentralServices(url));
+    }
+
+    /**
+     * Calls listMethods meta service, or waits for the response of an
+     * identical call in flight.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a list of ProducerMember objects
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ServiceResponse<String, List<ProducerMember>> listMethods(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        return (ServiceResponse<String, List<ProducerMember>>) this.coalesce(metaServiceKey(Constants.META_SERVICE_LIST_METHODS, request, url),
+                () -> this.soapClient.listMethods(request, url));
+    }
+
+    /**
+     * Calls allowedMethods meta service, or waits for the response of an
+     * identical call in flight.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a list of ProducerMember objects
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ServiceResponse<String, List<ProducerMember>> allowedMethods(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        return (ServiceResponse<String, List<ProducerMember>>) this.coalesce(metaServiceKey(Constants.META_SERVICE_ALLOWED_METHODS, request, url),
+                () -> this.soapClient.allowedMethods(request, url));
+    }
+
+    /**
+     * Calls getSecurityServerMetrics monitoring service. Monitoring requests
+     * are not coalesced.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return ServiceResponse that holds a NodeList containing the response
+     * data
+     * @throws SOAPException if there's a SOAP error
+     */
+    @Override
+    public ServiceResponse<String, NodeList> getSecurityServerMetrics(final ServiceRequest<String> request, final String url)
+            throws SOAPException {
+        return this.soapClient.getSecurityServerMetrics(request, url);
+    }
+
+    /**
+     * Closes the underlying SOAPClient if it's closeable.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.soapClient instanceof Closeable) {
+            ((Closeable) this.soapClient).close();
+        }
+    }
+
+    /**
+     * Makes the given call unless an identical call is in flight, in which
+     * case its result is waited for. If the identical call doesn't complete
+     * within the maximum wait time, the given call is made without sharing its
+     * result. The key identifies the operation too, so the exception of an
+     * identical call is of the type thrown by the call.
+     *
+     * @param <E> type of the exception thrown by the call
+     * @param key key that identifies identical calls
+     * @param call the call
+     * @return result of the call
+     * @throws E if the call fails
+     */
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> Object coalesce(List<String> key, Call<E> call) throws E {
+        CompletableFuture<Object> shared = new CompletableFuture<>();
+        CompletableFuture<Object> existing = this.inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            this.coalesced.increment();
+            LOGGER.debug("Coalesce request \"{}\".", key.get(0));
+            try {
+                return existing.get(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                this.coalesced.decrement();
+                LOGGER.warn("Coalesced request \"{}\" was not completed in {} ms. Send the request.", key.get(0), this.maxWaitMillis);
+                return call.call();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new XRd4JRuntimeException("Interrupted while waiting for a coalesced request.");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (E) cause;
+            }
+        }
+        try {
+            Object result = call.call();
+            shared.complete(result);
+            return result;
+        } catch (Exception ex) {
+            shared.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.inFlight.remove(key, shared);
+        }
+    }
+
+    /**
+     * Returns true if the given request may be coalesced. Requests of
+     * streaming serializers are not coalesced, because their body is not
+     * known before it's written to the connection.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param serializer serializer of the request
+     * @return true if the request may be coalesced
+     */
+    private boolean isCoalesced(ServiceRequest<?> request, ServiceRequestSerializer<?> serializer) {
+        return request.getProducer() != null && this.serviceCodes.contains(request.getProducer().getServiceCode())
+                && !(serializer instanceof AbstractStreamingRequestSerializer);
+    }
+
+    /**
+     * Returns the key that identifies identical meta service calls.
+     *
+     * @param service name of the meta service
+     * @param request the ServiceRequest object to be sent
+     * @param url URL where the request is sent
+     * @return key of the call
+     */
+    private static List<String> metaServiceKey(String service, ServiceRequest<?> request, String url) {
+        return Arrays.asList(service, url, String.valueOf(request.getConsumer()), String.valueOf(request.getProducer()),
+                request.getUserId());
+    }
+
+    /**
+     * Returns the key that identifies identical ServiceRequests, or null if
+     * the request can't be coalesced. The key contains a hash of the SOAP
+     * body instead of the body itself.
+     *
+     * @param operation name of the operation
+     * @param request the ServiceRequest object to be sent
+     * @param url URL where the request is sent
+     * @param soapRequest serialized request
+     * @param deserializer deserializer of the response
+     * @return key of the request, or null
+     */
+    private static List<String> requestKey(String operation, ServiceRequest<?> request, String url, SOAPMessage soapRequest,
+                                           ServiceResponseDeserializer<?, ?> deserializer) {
+        String bodyHash;
+        try {
+            if (soapRequest.countAttachments() > 0) {
+                return null;
+            }
+            bodyHash = MessageHelper.calculateHash(SOAPHelper.toString(soapRequest.getSOAPBody()));
+        } catch (SOAPException ex) {
+            LOGGER.warn("Unable to read SOAP body. The request is not coalesced. Error : {}", ex.getMessage());
+            return null;
+        }
+        if (bodyHash == null) {
+            return null;
+        }
+        return Arrays.asList(operation, url, String.valueOf(request.getConsumer()), String.valueOf(request.getProducer()),
+                request.getUserId(), deserializer.getClass().getName(), bodyHash);
+    }
+
+    /**
+     * A call whose result can be shared.
+     *
+     * @param <E> type of the exception thrown by the call
+     */
+    @FunctionalInterface
+    private interface Call<E extends Exception> {
+        Object call() throws E;
+    }
+}
@@ -28,6 +28,7 @@ import org.niis.xrd4j.common.member.ConsumerMember;
 import org.niis.xrd4j.common.member.ProducerMember;
 import org.niis.xrd4j.common.message.ServiceRequest;
 import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.ExecutorHelper;
 
 import org.w3c.dom.NodeList;
 
@@ -35,6 +36,8 @@ import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class defines an interface for load balanced SOAP client that can be
@@ -75,6 +78,61 @@ public interface LoadBalancedSOAPClient {
     <T1, T2> ServiceResponse<T1, T2> send(ServiceRequest<T1> request, ServiceRequestSerializer<T1> serializer,
                          ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException;
 
+    /**
+     * Sends the given message to one of the defined endpoints without
+     * blocking the calling thread. If sending the message fails, the returned
+     * future is completed exceptionally with a CompletionException that wraps
+     * the original exception.
+     *
+     * The default implementation calls send in the shared executor of
+     * ExecutorHelper, so it blocks a thread of the executor.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    default CompletableFuture<SOAPMessage> sendAsync(SOAPMessage request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.send(request);
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, ExecutorHelper.getDefaultExecutor());
+    }
+
+    /**
+     * Sends the given message to one of the defined endpoints without
+     * blocking the calling thread. Serialization and deserialization from/to
+     * SOAPMessage is done inside the method. If sending the message fails, the
+     * returned future is completed exceptionally with a CompletionException
+     * that wraps the original exception.
+     *
+     * The default implementation calls send in the shared executor of
+     * ExecutorHelper, so it blocks a thread of the executor.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the ServiceResponse object that is
+     * the response to the message that was sent.
+     */
+    default <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendAsync(ServiceRequest<T1> request,
+                                                                        ServiceRequestSerializer<T1> serializer,
+                                                                        ServiceResponseDeserializer<T1, T2> deserializer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.send(request, serializer, deserializer);
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, ExecutorHelper.getDefaultExecutor());
+    }
+
     /**
      * Calls listClients meta service and retrieves list of all the potential
      * service providers (i.e., members and subsystems) of an X-Road instance.
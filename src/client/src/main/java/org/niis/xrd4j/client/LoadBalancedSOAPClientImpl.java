@@ -23,7 +23,19 @@
 package org.niis.xrd4j.client;
 
 import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.loadbalancing.CircuitBreaker;
+import org.niis.xrd4j.client.loadbalancing.CircuitBreakerConfig;
+import org.niis.xrd4j.client.loadbalancing.Endpoint;
+import org.niis.xrd4j.client.loadbalancing.HedgingPolicy;
+import org.niis.xrd4j.client.loadbalancing.LoadBalancingStrategy;
+import org.niis.xrd4j.client.loadbalancing.RetryPolicy;
+import org.niis.xrd4j.client.loadbalancing.RoundRobinStrategy;
 import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.client.transport.CallDeadline;
+import org.niis.xrd4j.client.transport.HttpStatusException;
+import org.niis.xrd4j.client.transport.PooledHttpSOAPTransport;
+import org.niis.xrd4j.client.transport.SOAPTransport;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
 import org.niis.xrd4j.common.member.ConsumerMember;
 import org.niis.xrd4j.common.member.ProducerMember;
 import org.niis.xrd4j.common.message.ServiceRequest;
@@ -36,42 +48,216 @@ import org.w3c.dom.NodeList;
 import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
- * This class represents a round-robin load balanced SOAP client that can be
- * used for sending SOAPMessage and ServiceRequest objects to multiple SOAP
- * endpoints. This class holds a list of server URLs and going down the list of
- * security servers in the group, the round-robin load balancer forwards a
- * client request to each server in turn. However, this class does not provide
- * high availability features - if a request fails, it is not sent again to
- * another endpoint. In addition, repeatedly failing endpoints are not removed
- * from the list and they keep on receiving requests.
+ * This class represents a load balanced SOAP client that can be used for
+ * sending SOAPMessage and ServiceRequest objects to multiple SOAP endpoints.
+ * This class holds a list of server URLs and a LoadBalancingStrategy that
+ * selects the security server where each request is sent. By default the
+ * round-robin strategy is used, which forwards a client request to each server
+ * in turn. If a RetryPolicy is set, requests that fail with an error that is
+ * safe to retry are sent again to another endpoint, and the deadline of the
+ * policy bounds the call. By default failed requests are not retried and the
+ * calls have no deadline. Blocking calls are sent in the calling thread.
+ *
+ * If a HedgingPolicy is set, ServiceRequests to the idempotent services
+ * defined by the policy are hedged: if no response has been received within
+ * the hedge delay, the request is sent to another endpoint too. The first
+ * response is returned and the other request is cancelled. The number of
+ * hedged requests is limited by the budget of the policy.
+ *
+ * The health of each endpoint is tracked by a circuit breaker. An endpoint is
+ * ejected, i.e. skipped when selecting the target, after too many consecutive
+ * failures or when its error rate is too high. After a while probe requests
+ * are sent to the ejected endpoint and it's re-admitted if they succeed. If
+ * all the endpoints are ejected, the strategy selects between all of them.
+ * Only transport errors are counted as failures - a SOAP fault
+ * returned by the endpoint is a successful request, and serialization,
+ * deserialization and validation errors are not recorded at all.
+ *
+ * The endpoints are held in an immutable snapshot that is replaced as a whole
+ * when the endpoint list or the circuit breaker settings are changed, so the
+ * endpoint list can be changed at runtime without pausing the requests in
+ * flight. Selecting the target endpoint does not take any locks.
+ *
+ * All the endpoints share the same pooled keep-alive HTTP transport, so
+ * connections to each security server are reused between requests. The client
+ * should be closed when it's no longer needed.
  *
  * @author Petteri Kivimäki
  */
-public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
+public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient, Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancedSOAPClientImpl.class);
-    private final SOAPClient soapClient;
-    private final List<String> endpointUrls;
-    private int nextTarget;
+    private final SOAPClientImpl soapClient;
+    // Immutable snapshot of the endpoints, replaced as a whole
+    private volatile List<Endpoint> endpoints;
+    // Guarded by this
+    private CircuitBreakerConfig circuitBreakerConfig;
+    private volatile LoadBalancingStrategy loadBalancingStrategy;
+    private volatile RetryPolicy retryPolicy;
+    private volatile HedgingPolicy hedgingPolicy;
 
     /**
-     * Constructs and initializes a new LoadBalancedSOAPClientImpl object.
+     * Constructs and initializes a new LoadBalancedSOAPClientImpl object that
+     * uses the shared pooled HTTP transport.
      *
      * @param endpointUrls list of security server URLs where the requests are
      * sent
      * @throws SOAPException if there's an error
      */
     public LoadBalancedSOAPClientImpl(List<String> endpointUrls) throws SOAPException {
-        this.endpointUrls = endpointUrls;
-        this.soapClient = new SOAPClientImpl();
-        this.nextTarget = 0;
+        this(endpointUrls, PooledHttpSOAPTransport.getDefault());
+    }
+
+    /**
+     * Constructs and initializes a new LoadBalancedSOAPClientImpl object that
+     * sends the requests to all the endpoints using the given transport.
+     *
+     * @param endpointUrls list of security server URLs where the requests are
+     * sent
+     * @param transport SOAPTransport used for sending the messages
+     */
+    public LoadBalancedSOAPClientImpl(List<String> endpointUrls, SOAPTransport transport) {
+        this(endpointUrls, new SOAPClientImpl(transport));
+    }
+
+    /**
+     * Constructs and initializes a new LoadBalancedSOAPClientImpl object that
+     * sends the requests to all the endpoints using the given transport, and
+     * runs asynchronous requests using the given executor.
+     *
+     * @param endpointUrls list of security server URLs where the requests are
+     * sent
+     * @param transport SOAPTransport used for sending the messages
+     * @param executor Executor that runs asynchronous requests
+     */
+    public LoadBalancedSOAPClientImpl(List<String> endpointUrls, SOAPTransport transport, Executor executor) {
+        this(endpointUrls, new SOAPClientImpl(transport, executor));
+    }
+
+    /**
+     * Constructs and initializes a new LoadBalancedSOAPClientImpl object.
+     *
+     * @param endpointUrls list of security server URLs where the requests are
+     * sent
+     * @param soapClient SOAPClientImpl used for sending the messages
+     */
+    private LoadBalancedSOAPClientImpl(List<String> endpointUrls, SOAPClientImpl soapClient) {
+        this.soapClient = soapClient;
+        this.circuitBreakerConfig = new CircuitBreakerConfig();
+        this.loadBalancingStrategy = new RoundRobinStrategy();
+        this.retryPolicy = RetryPolicy.noRetries();
         LOGGER.debug("Create new LoadBalancedSOAPClientImpl with {} endpoint URLs", endpointUrls.size());
-        for (String url : this.endpointUrls) {
-            LOGGER.debug("Found URL: \"{}\"", url);
+        this.endpoints = createEndpoints(endpointUrls, this.circuitBreakerConfig);
+    }
+
+    /**
+     * Sets the settings of the circuit breakers that track the health of the
+     * endpoints. The health information collected so far is discarded.
+     *
+     * @param circuitBreakerConfig new circuit breaker settings
+     */
+    public synchronized void setCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+        this.circuitBreakerConfig = circuitBreakerConfig;
+        this.endpoints = createEndpoints(this.getEndpointUrls(), circuitBreakerConfig);
+    }
+
+    /**
+     * Replaces the list of security server URLs where the requests are sent.
+     * The endpoints that are on both the old and the new list keep their
+     * health information and statistics. The requests in flight are not
+     * affected, and the requests sent after this method has returned are
+     * sent to the endpoints on the new list.
+     *
+     * @param endpointUrls new list of security server URLs
+     */
+    public synchronized void setEndpointUrls(List<String> endpointUrls) {
+        Map<String, Endpoint> existing = new HashMap<>();
+        for (Endpoint endpoint : this.endpoints) {
+            existing.putIfAbsent(endpoint.getUrl(), endpoint);
+        }
+        List<Endpoint> list = new ArrayList<>(endpointUrls.size());
+        for (String url : endpointUrls) {
+            Endpoint endpoint = existing.get(url);
+            if (endpoint == null) {
+                LOGGER.debug("Add URL: \"{}\"", url);
+                endpoint = new Endpoint(url, this.circuitBreakerConfig);
+            }
+            list.add(endpoint);
         }
+        this.endpoints = Collections.unmodifiableList(list);
+        LOGGER.info("Endpoint list updated. {} endpoint URLs.", list.size());
+    }
+
+    /**
+     * Returns the current list of security server URLs where the requests
+     * are sent.
+     *
+     * @return list of security server URLs
+     */
+    public List<String> getEndpointUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Endpoint endpoint : this.endpoints) {
+            urls.add(endpoint.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Sets the strategy that selects the endpoint where each request is sent.
+     *
+     * @param loadBalancingStrategy new load balancing strategy
+     */
+    public void setLoadBalancingStrategy(LoadBalancingStrategy loadBalancingStrategy) {
+        this.loadBalancingStrategy = loadBalancingStrategy;
+    }
+
+    /**
+     * Sets the policy that defines when and how failed requests are retried
+     * on another endpoint. By default requests are not retried.
+     *
+     * @param retryPolicy new retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the policy that defines which requests are hedged and when. By
+     * default requests are not hedged. Null disables hedging.
+     *
+     * @param hedgingPolicy new hedging policy
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Returns the endpoints of this client and their health information.
+     *
+     * @return unmodifiable list of endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        return this.endpoints;
     }
 
     /**
@@ -86,7 +272,7 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public SOAPMessage send(final SOAPMessage request) throws SOAPException {
-        return this.soapClient.send(request, this.getTargetUrl());
+        return this.execute(target -> this.soapClient.send(request, target));
     }
 
     /**
@@ -109,7 +295,50 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
     @Override
     public <T1, T2> ServiceResponse<T1, T2> send(final ServiceRequest<T1> request, final ServiceRequestSerializer<T1> serializer,
                                 final ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException {
-        return this.soapClient.send(request, this.getTargetUrl(), serializer, deserializer);
+        HedgingPolicy policy = this.hedgingPolicy;
+        if (this.isHedged(policy, request)) {
+            return await(this.sendHedged(policy, request, serializer, deserializer));
+        }
+        return this.execute(target -> this.soapClient.send(request, target, serializer, deserializer));
+    }
+
+    /**
+     * Sends the given message to one of the defined endpoints without
+     * blocking the calling thread.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    @Override
+    public CompletableFuture<SOAPMessage> sendAsync(final SOAPMessage request) {
+        return this.executeAsync(target -> this.soapClient.sendAsync(request, target));
+    }
+
+    /**
+     * Sends the given message to one of the defined endpoints without
+     * blocking the calling thread. Serialization and deserialization from/to
+     * SOAPMessage is done inside the method.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the ServiceResponse object that is
+     * the response to the message that was sent.
+     */
+    @Override
+    public <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendAsync(final ServiceRequest<T1> request,
+                                                                       final ServiceRequestSerializer<T1> serializer,
+                                                                       final ServiceResponseDeserializer<T1, T2> deserializer) {
+        HedgingPolicy policy = this.hedgingPolicy;
+        if (this.isHedged(policy, request)) {
+            return this.sendHedged(policy, request, serializer, deserializer);
+        }
+        return this.executeAsync(target -> this.soapClient.sendAsync(request, target, serializer, deserializer));
     }
 
     /**
@@ -121,7 +350,11 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public List<ConsumerMember> listClients() {
-        return this.soapClient.listClients(this.getTargetUrl());
+        try {
+            return this.execute(this.soapClient::listClients);
+        } catch (SOAPException ex) {
+            throw new XRd4JRuntimeException(ex.getMessage());
+        }
     }
 
     /**
@@ -133,7 +366,11 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public List<ProducerMember> listCentralServices() {
-        return this.soapClient.listCentralServices(this.getTargetUrl());
+        try {
+            return this.execute(this.soapClient::listCentralServices);
+        } catch (SOAPException ex) {
+            throw new XRd4JRuntimeException(ex.getMessage());
+        }
     }
 
     /**
@@ -147,7 +384,7 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public ServiceResponse<String, List<ProducerMember>> listMethods(final ServiceRequest<String> request) throws SOAPException {
-        return this.soapClient.listMethods(request, this.getTargetUrl());
+        return this.execute(target -> this.soapClient.listMethods(request, target));
     }
 
     /**
@@ -162,7 +399,7 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public ServiceResponse<String, List<ProducerMember>> allowedMethods(final ServiceRequest<String> request) throws SOAPException {
-        return this.soapClient.allowedMethods(request, this.getTargetUrl());
+        return this.execute(target -> this.soapClient.allowedMethods(request, target));
     }
 
     /**
@@ -177,22 +414,503 @@ public class LoadBalancedSOAPClientImpl implements LoadBalancedSOAPClient {
      */
     @Override
     public ServiceResponse<String, NodeList> getSecurityServerMetrics(final ServiceRequest<String> request, final String url) throws SOAPException {
-        return this.soapClient.getSecurityServerMetrics(request, this.getTargetUrl());
+        return this.execute(target -> this.soapClient.getSecurityServerMetrics(request, target));
     }
 
     /**
-     * Returns the next target URL in turn and updates the pointer holding the
-     * value of the next target.
+     * Closes the transport used by this client.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.soapClient.close();
+    }
+
+    /**
+     * Returns the URL of the next target endpoint selected by the load
+     * balancing strategy. The outcome of a request sent to the returned URL is
+     * not tracked, so no probe permission of a half-open circuit breaker is
+     * used.
      *
      * @return target URL
      */
     protected String getTargetUrl() {
-        // Get the next target URL
-        String target = this.endpointUrls.get(this.nextTarget);
-        LOGGER.trace("Current nextTarget: \"{}\", targetUrl: \"{}\"", this.nextTarget, target);
-        // Update next pointer
-        this.nextTarget = this.nextTarget == this.endpointUrls.size() - 1 ? 0 : this.nextTarget + 1;
-        LOGGER.trace("New nextTarget: \"{}\"", this.nextTarget);
-        return target;
+        return this.selectEndpoint(Collections.emptySet(), false).endpoint.getUrl();
+    }
+
+    /**
+     * Returns the endpoint selected by the load balancing strategy among the
+     * endpoints whose circuit breakers permit a request. Ejected endpoints are
+     * skipped. If all the endpoints are ejected, the strategy selects between
+     * all of them. A permission is acquired from the circuit breaker of the
+     * returned endpoint, so the outcome of the request must be recorded in
+     * the endpoint with the permission of the target.
+     *
+     * @return target endpoint and the permission of the request
+     */
+    Target selectEndpoint() {
+        return this.selectEndpoint(Collections.emptySet(), true);
+    }
+
+    /**
+     * Returns the endpoint selected by the load balancing strategy. The
+     * endpoints that have already been tried are selected only if no other
+     * endpoint is available.
+     *
+     * @param tried endpoints that have already been tried
+     * @param acquire if true, a permission is acquired from the circuit
+     * breaker of the selected endpoint
+     * @return target endpoint and the permission of the request
+     */
+    private Target selectEndpoint(Set<Endpoint> tried, boolean acquire) {
+        List<Endpoint> current = this.endpoints;
+        if (current.isEmpty()) {
+            throw new IndexOutOfBoundsException("No endpoint URLs defined.");
+        }
+        LoadBalancingStrategy strategy = this.loadBalancingStrategy;
+        List<Endpoint> candidates = availableEndpoints(current, tried);
+        if (candidates.isEmpty() && !tried.isEmpty()) {
+            candidates = availableEndpoints(current, Collections.emptySet());
+        }
+        while (!candidates.isEmpty()) {
+            Endpoint candidate = strategy.select(current, candidates);
+            CircuitBreaker breaker = candidate.getCircuitBreaker();
+            CircuitBreaker.Permit permit = acquire ? breaker.tryAcquirePermission()
+                    : breaker.isCallPermitted() ? CircuitBreaker.Permit.CALL : null;
+            if (permit != null) {
+                LOGGER.trace("Target endpoint: \"{}\"", candidate);
+                return new Target(candidate, permit);
+            }
+            // The breaker was opened or its probes were taken meanwhile
+            LOGGER.trace("Skip ejected endpoint: \"{}\"", candidate);
+            candidates = new ArrayList<>(candidates);
+            candidates.remove(candidate);
+        }
+        Endpoint fallback = strategy.select(current, current);
+        LOGGER.warn("All the endpoints are ejected. Send request to \"{}\".", fallback.getUrl());
+        return new Target(fallback, CircuitBreaker.Permit.CALL);
+    }
+
+    /**
+     * Sends a blocking request to the selected endpoint in the calling thread
+     * and records the outcome in the endpoint's health information. If the
+     * request fails with an error that is safe to retry, it's retried on
+     * another endpoint as defined by the retry policy. The deadline of the
+     * retry policy is set as the CallDeadline of the calling thread, so a
+     * transport that supports it aborts an attempt that has not received a
+     * response when the deadline is exceeded.
+     *
+     * @param <T> type of the response
+     * @param call call that sends the request to the given URL
+     * @return response of the call
+     * @throws SOAPException if the call fails or the deadline is exceeded
+     */
+    private <T> T execute(EndpointCall<T> call) throws SOAPException {
+        RetryPolicy policy = this.retryPolicy;
+        CallDeadline deadline = CallDeadline.after(policy.getDeadlineMillis());
+        Set<Endpoint> tried = new HashSet<>();
+        for (int attempt = 1;; attempt++) {
+            Target target = this.selectEndpoint(tried, true);
+            Endpoint endpoint = target.endpoint;
+            endpoint.requestStarted();
+            tried.add(endpoint);
+            long start = System.nanoTime();
+            T response;
+            CallDeadline previous = CallDeadline.setCurrent(deadline);
+            try {
+                response = call.call(endpoint.getUrl());
+            } catch (SOAPException | RuntimeException ex) {
+                if (!isTransportError(ex)) {
+                    endpoint.requestAborted(target.permit);
+                    throw ex;
+                }
+                endpoint.requestFailed(target.permit);
+                if (deadline.isExceeded()) {
+                    LOGGER.warn("No response from \"{}\" before the deadline of the call.", endpoint.getUrl());
+                    throw new SOAPException("Deadline of the call exceeded. No response from \"" + endpoint.getUrl() + "\".", ex);
+                }
+                long backoff = this.getRetryBackoff(policy, attempt, deadline, endpoint, ex);
+                if (backoff < 0) {
+                    throw ex;
+                }
+                sleepBackoff(backoff);
+                continue;
+            } catch (Error ex) {
+                endpoint.requestAborted(target.permit);
+                throw ex;
+            } finally {
+                CallDeadline.setCurrent(previous);
+            }
+            endpoint.requestSucceeded(System.nanoTime() - start, target.permit);
+            return response;
+        }
+    }
+
+    /**
+     * Blocks the calling thread for the backoff delay before a retry.
+     *
+     * @param backoff delay in nanoseconds
+     * @throws SOAPException if the thread is interrupted
+     */
+    private static void sleepBackoff(long backoff) throws SOAPException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(backoff);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SOAPException("Interrupted while waiting for a retry.", ex);
+        }
+    }
+
+    /**
+     * Sends an asynchronous request to the selected endpoint and records the
+     * outcome in the endpoint's health information when the request is
+     * completed. If the request fails with an error that is safe to retry,
+     * it's retried on another endpoint as defined by the retry policy. Each
+     * attempt times out when the deadline of the retry policy, if any, is
+     * exceeded.
+     *
+     * @param <T> type of the response
+     * @param call call that sends the request to the given URL
+     * @return future that is completed with the response
+     */
+    private <T> CompletableFuture<T> executeAsync(Function<String, CompletableFuture<T>> call) {
+        RetryPolicy policy = this.retryPolicy;
+        return this.executeAsync(call, policy, CallDeadline.after(policy.getDeadlineMillis()), new HashSet<>());
+    }
+
+    /**
+     * Sends an asynchronous request to an endpoint that has not been tried
+     * yet, if possible. The endpoints where the request is sent are added to
+     * the given set, so requests sharing the set are sent to different
+     * endpoints.
+     *
+     * @param <T> type of the response
+     * @param call call that sends the request to the given URL
+     * @param policy retry policy
+     * @param deadline deadline of the call
+     * @param tried endpoints that have already been tried
+     * @return future that is completed with the response
+     */
+    private <T> CompletableFuture<T> executeAsync(Function<String, CompletableFuture<T>> call, RetryPolicy policy,
+                                                  CallDeadline deadline, Set<Endpoint> tried) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        this.attemptAsync(call, result, policy, deadline, 1, tried);
+        return result;
+    }
+
+    /**
+     * Returns true if the given request is hedged.
+     *
+     * @param policy hedging policy, may be null
+     * @param request request to be sent
+     * @return true if the request is hedged
+     */
+    private boolean isHedged(HedgingPolicy policy, ServiceRequest<?> request) {
+        return policy != null && this.endpoints.size() > 1 && request.getProducer() != null
+                && policy.isHedged(request.getProducer().getServiceCode());
+    }
+
+    /**
+     * Sends the given request to the selected endpoint, and if no response
+     * has been received within the hedge delay and the budget allows, to
+     * another endpoint too. The first successful response completes the
+     * result and the other request is cancelled. The result fails only if
+     * both the requests fail. Each request is serialized separately, because
+     * SOAPMessage is not thread safe. The hedge delay is based on the latency
+     * of the endpoint where the first request was sent, and both the requests
+     * share the deadline of the call.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param policy hedging policy
+     * @param request the ServiceRequest object to be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the first response
+     */
+    private <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendHedged(final HedgingPolicy policy, final ServiceRequest<T1> request,
+                                                                         final ServiceRequestSerializer<T1> serializer,
+                                                                         final ServiceResponseDeserializer<T1, T2> deserializer) {
+        Function<String, CompletableFuture<ServiceResponse<T1, T2>>> call =
+                target -> this.soapClient.sendAsync(request, target, serializer, deserializer);
+        // The endpoints are kept in the order they were selected, so the first
+        // one is the endpoint of the primary request
+        Set<Endpoint> tried = Collections.synchronizedSet(new LinkedHashSet<>());
+        RetryPolicy retry = this.retryPolicy;
+        CallDeadline deadline = CallDeadline.after(retry.getDeadlineMillis());
+        policy.onRequest();
+        CompletableFuture<ServiceResponse<T1, T2>> primary = this.executeAsync(call, retry, deadline, tried);
+        if (primary.isDone()) {
+            return primary;
+        }
+        CompletableFuture<ServiceResponse<T1, T2>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        completeFirst(result, primary, pending);
+        Endpoint selected;
+        synchronized (tried) {
+            selected = tried.iterator().next();
+        }
+        long delay = policy.getDelayNanos(selected);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+            if (result.isDone() || deadline.isExceeded() || !policy.tryAcquireHedge()) {
+                return;
+            }
+            LOGGER.debug("No response in {} ms. Send hedged request. Request id : \"{}\"", TimeUnit.NANOSECONDS.toMillis(delay), request.getId());
+            pending.incrementAndGet();
+            try {
+                completeFirst(result, this.executeAsync(call, retry, deadline, tried), pending);
+            } catch (RuntimeException ex) {
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Completes the result with the response of the given request if it
+     * succeeds, or with its error if no other request is pending. When the
+     * result is completed, the request is cancelled unless it has completed
+     * already.
+     *
+     * @param <T> type of the response
+     * @param result future that is completed with the first response
+     * @param leg one of the requests sent
+     * @param pending number of requests that have not failed
+     */
+    private static <T> void completeFirst(CompletableFuture<T> result, CompletableFuture<T> leg, AtomicInteger pending) {
+        leg.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                result.complete(response);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(throwable);
+            }
+        });
+        result.whenComplete((response, throwable) -> leg.cancel(true));
+    }
+
+    /**
+     * Waits for the given future to complete and returns its result. The
+     * errors are rethrown as such if possible.
+     *
+     * @param <T> type of the response
+     * @param future future to wait for
+     * @return result of the future
+     * @throws SOAPException if there's a SOAP error
+     */
+    private static <T> T await(CompletableFuture<T> future) throws SOAPException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SOAPException("Interrupted while waiting for the response.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SOAPException) {
+                throw (SOAPException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SOAPException(cause);
+        }
+    }
+
+    /**
+     * Makes a single attempt of an asynchronous request. Errors thrown before
+     * the first attempt has been sent are thrown to the caller, and errors of
+     * the later attempts complete the result. If the deadline is bounded,
+     * the attempt is completed with TimeoutException, which cancels the
+     * request in flight, if there's no response when the deadline is
+     * exceeded.
+     *
+     * @param <T> type of the response
+     * @param call call that sends the request to the given URL
+     * @param result future that is completed with the response
+     * @param policy retry policy
+     * @param deadline deadline of the call
+     * @param attempt number of the attempt, starting from 1
+     * @param tried endpoints that have already been tried, the selected
+     * endpoint is added to the set
+     */
+    private <T> void attemptAsync(Function<String, CompletableFuture<T>> call, CompletableFuture<T> result, RetryPolicy policy,
+                                  CallDeadline deadline, int attempt, Set<Endpoint> tried) {
+        Target target;
+        CompletableFuture<T> future;
+        try {
+            target = this.selectEndpoint(tried, true);
+            target.endpoint.requestStarted();
+            tried.add(target.endpoint);
+        } catch (RuntimeException ex) {
+            if (attempt == 1) {
+                throw ex;
+            }
+            result.completeExceptionally(ex);
+            return;
+        }
+        Endpoint endpoint = target.endpoint;
+        CircuitBreaker.Permit permit = target.permit;
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<T> pending = call.apply(endpoint.getUrl());
+            future = deadline.isBounded() ? pending.orTimeout(deadline.getRemainingNanos(), TimeUnit.NANOSECONDS) : pending;
+        } catch (RuntimeException ex) {
+            endpoint.requestAborted(permit);
+            if (attempt == 1) {
+                throw ex;
+            }
+            result.completeExceptionally(ex);
+            return;
+        }
+        // Cancelling the result must cancel the request in flight
+        result.whenComplete((response, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                future.cancel(true);
+            }
+        });
+        future.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                endpoint.requestSucceeded(System.nanoTime() - start, permit);
+                result.complete(response);
+            } else if (throwable instanceof CancellationException) {
+                endpoint.requestCancelled(permit);
+                result.completeExceptionally(throwable);
+            } else if (!isTransportError(throwable)) {
+                endpoint.requestAborted(permit);
+                result.completeExceptionally(throwable);
+            } else if (throwable instanceof TimeoutException) {
+                endpoint.requestFailed(permit);
+                LOGGER.warn("No response from \"{}\" before the deadline of the call.", endpoint.getUrl());
+                result.completeExceptionally(new SOAPException("Deadline of the call exceeded. No response from \""
+                        + endpoint.getUrl() + "\".", throwable));
+            } else {
+                endpoint.requestFailed(permit);
+                long backoff = this.getRetryBackoff(policy, attempt, deadline, endpoint, throwable);
+                if (backoff < 0 || result.isDone()) {
+                    result.completeExceptionally(throwable);
+                    return;
+                }
+                CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS)
+                        .execute(() -> this.attemptAsync(call, result, policy, deadline, attempt + 1, tried));
+            }
+        });
+    }
+
+    /**
+     * Decides whether a failed request is retried and returns the delay
+     * before the retry.
+     *
+     * @param policy retry policy
+     * @param attempt number of the failed attempt, starting from 1
+     * @param deadline deadline of the call
+     * @param endpoint endpoint where the failed request was sent
+     * @param error error that occurred
+     * @return delay in nanoseconds, or -1 if the request is not retried
+     */
+    private long getRetryBackoff(RetryPolicy policy, int attempt, CallDeadline deadline, Endpoint endpoint, Throwable error) {
+        if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(error)) {
+            return -1;
+        }
+        long backoff = policy.getBackoffNanos(attempt);
+        if (backoff >= deadline.getRemainingNanos()) {
+            LOGGER.warn("Request to \"{}\" failed. Deadline of the call does not allow a retry.", endpoint.getUrl());
+            return -1;
+        }
+        endpoint.requestRetried();
+        LOGGER.warn("Request to \"{}\" failed. Retry in {} ms, attempt {} of {}. Error : {}", endpoint.getUrl(),
+                TimeUnit.NANOSECONDS.toMillis(backoff), attempt + 1, policy.getMaxAttempts(), error.getMessage());
+        return backoff;
+    }
+
+    /**
+     * Returns true if the given error was caused by the transport, i.e. the
+     * endpoint could not be reached, it did not respond in time or it
+     * returned an unexpected HTTP status code. Only transport errors tell
+     * something about the health of the endpoint - serialization,
+     * deserialization and validation errors do not.
+     *
+     * @param error error thrown by the call
+     * @return true if the error is a transport error
+     */
+    private static boolean isTransportError(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof XRd4JRuntimeException) {
+                return false;
+            }
+            if (t instanceof IOException || t instanceof HttpStatusException || t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the endpoints that are not ejected and have not been tried.
+     * The given list is returned as such if all the endpoints are included.
+     *
+     * @param all all the endpoints
+     * @param tried endpoints that have already been tried
+     * @return available endpoints
+     */
+    private static List<Endpoint> availableEndpoints(List<Endpoint> all, Set<Endpoint> tried) {
+        List<Endpoint> available = null;
+        for (int i = 0; i < all.size(); i++) {
+            Endpoint endpoint = all.get(i);
+            boolean include = endpoint.isAvailable() && !tried.contains(endpoint);
+            if (available != null) {
+                if (include) {
+                    available.add(endpoint);
+                }
+            } else if (!include) {
+                available = new ArrayList<>(all.subList(0, i));
+            }
+        }
+        return available == null ? all : available;
+    }
+
+    /**
+     * Creates endpoints for the given URLs.
+     *
+     * @param urls endpoint URLs
+     * @param config circuit breaker settings
+     * @return unmodifiable list of endpoints
+     */
+    private static List<Endpoint> createEndpoints(List<String> urls, CircuitBreakerConfig config) {
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            LOGGER.debug("Found URL: \"{}\"", url);
+            list.add(new Endpoint(url, config));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Holds the endpoint selected for a request and the circuit breaker
+     * permission of the request.
+     */
+    static final class Target {
+        final Endpoint endpoint;
+        final CircuitBreaker.Permit permit;
+
+        Target(Endpoint endpoint, CircuitBreaker.Permit permit) {
+            this.endpoint = endpoint;
+            this.permit = permit;
+        }
+    }
+
+    /**
+     * A call that sends a request to the given endpoint URL.
+     *
+     * @param <T> type of the response
+     */
+    @FunctionalInterface
+    private interface EndpointCall<T> {
+        T call(String url) throws SOAPException;
     }
 }
@@ -22,19 +22,30 @@
  */
 package org.niis.xrd4j.client;
 
+import org.niis.xrd4j.client.deserializer.AbstractStreamingResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.GetSecurityServerMetricsResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.ListCentralServicesResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.ListClientsResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.ListServicesResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.metrics.ClientMetrics;
+import org.niis.xrd4j.client.serializer.AbstractStreamingRequestSerializer;
 import org.niis.xrd4j.client.serializer.DefaultServiceRequestSerializer;
 import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.client.transport.PooledHttpSOAPTransport;
+import org.niis.xrd4j.client.transport.SAAJSOAPTransport;
+import org.niis.xrd4j.client.transport.SOAPRequestWriter;
+import org.niis.xrd4j.client.transport.SOAPResponseHandler;
+import org.niis.xrd4j.client.transport.SOAPTransport;
+import org.niis.xrd4j.common.capture.PayloadCapture;
 import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
 import org.niis.xrd4j.common.member.ConsumerMember;
 import org.niis.xrd4j.common.member.ProducerMember;
 import org.niis.xrd4j.common.message.ServiceRequest;
 import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.metrics.MetricsRegistry;
 import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.ExecutorHelper;
 import org.niis.xrd4j.common.util.SOAPHelper;
 import org.niis.xrd4j.rest.ClientResponse;
 import org.niis.xrd4j.rest.client.RESTClient;
@@ -44,44 +55,122 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.NodeList;
 
-import jakarta.xml.soap.SOAPConnection;
 import jakarta.xml.soap.SOAPConnectionFactory;
 import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
+import javax.xml.stream.XMLStreamException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * This class represents a SOAP client that can be used for sending SOAPMessage
- * and ServiceRequest objects to SOAP endpoints.
+ * and ServiceRequest objects to SOAP endpoints. The messages are sent using
+ * a SOAPTransport. By default the shared PooledHttpSOAPTransport is used,
+ * which means that HTTP connections are kept alive and reused between
+ * requests. Closing the client matters only if it was constructed with its
+ * own transport, in which case closing releases the connections of that
+ * transport. Closing a client that uses the shared transport has no effect.
+ *
+ * Asynchronous requests are run using an executor that defaults to the shared
+ * executor returned by ExecutorHelper, which uses virtual threads when the
+ * runtime supports them.
  *
  * @author Petteri Kivimäki
  */
-public class SOAPClientImpl implements SOAPClient {
+public class SOAPClientImpl implements SOAPClient, Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SOAPClientImpl.class);
     private static final String SEND_SOAP_TO = "Send SOAP message to \"{}\".";
     private static final String CALL_METASERVICE = "Call \"{}\" meta service.";
-    private final SOAPConnectionFactory connectionFactory;
+    private static final String CONTENT_TYPE = SOAPTransport.CONTENT_TYPE;
+    private static final String MULTIPART = "multipart/";
+    private static final String OUTGOING_REQUEST = "Outgoing SOAP request";
+    private static final String INCOMING_RESPONSE = "Incoming SOAP response";
+    private final SOAPTransport transport;
+    private final Executor executor;
+    private PayloadCapture payloadCapture = PayloadCapture.getDefault();
+    private volatile MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
 
     /**
-     * Constructs and initializes a new SOAPClientImpl.
+     * Constructs and initializes a new SOAPClientImpl that uses the shared
+     * pooled keep-alive HTTP transport with default settings. All the
+     * clients created with this constructor share the same connection pool,
+     * so they don't have to be closed.
      *
      * @throws SOAPException if there's a SOAP error
      */
     public SOAPClientImpl() throws SOAPException {
-        this(SOAPConnectionFactory.newInstance());
+        this(PooledHttpSOAPTransport.getDefault());
+    }
+
+    /**
+     * Constructs and initializes a new SOAPClientImpl that uses the given
+     * transport. The same transport instance can be shared by multiple
+     * clients.
+     *
+     * @param transport SOAPTransport used for sending the messages
+     */
+    public SOAPClientImpl(SOAPTransport transport) {
+        this(transport, ExecutorHelper.getDefaultExecutor());
+    }
+
+    /**
+     * Constructs and initializes a new SOAPClientImpl that uses the given
+     * transport, and runs asynchronous requests using the given executor.
+     *
+     * @param transport SOAPTransport used for sending the messages
+     * @param executor Executor that runs asynchronous requests
+     */
+    public SOAPClientImpl(SOAPTransport transport, Executor executor) {
+        this.transport = transport;
+        this.executor = executor;
     }
 
     /**
-     * Constructs and initializes a new SOAPClientImpl.
+     * Constructs and initializes a new SOAPClientImpl that opens a new
+     * SOAPConnection for each request.
      *
      * @param connectionFactory SOAPConnectionFactory object
      */
     SOAPClientImpl(SOAPConnectionFactory connectionFactory) {
-        this.connectionFactory = connectionFactory;
+        this(new SAAJSOAPTransport(connectionFactory));
+    }
+
+    /**
+     * Sets the PayloadCapture that captures the sampled request and response
+     * payloads. By default the shared instance is used, which writes the
+     * payloads to the trace log.
+     *
+     * @param payloadCapture new value
+     */
+    public void setPayloadCapture(PayloadCapture payloadCapture) {
+        this.payloadCapture = payloadCapture;
+    }
+
+    /**
+     * Sets the MetricsRegistry where the serialize, call and deserialize
+     * times and the failed calls are recorded, tagged with the endpoint, the
+     * producer and the service code. By default the shared instance is used,
+     * and null disables the metrics.
+     *
+     * @param metricsRegistry new value
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
     }
 
     /**
@@ -97,29 +186,160 @@ public class SOAPClientImpl implements SOAPClient {
      */
     @Override
     public SOAPMessage send(final SOAPMessage request, final String url) throws SOAPException {
-        URL client;
+        return this.call(request, url, ClientMetrics.labels(url, null));
+    }
+
+    /**
+     * Sends the given message to the specified endpoint and records the call
+     * time using the given labels.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param labels metric labels of the request
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent.
+     * @throws SOAPException if there's a SOAP error
+     */
+    private SOAPMessage call(final SOAPMessage request, final String url, final String[] labels) throws SOAPException {
+        validateUrl(url);
+        LOGGER.debug(SEND_SOAP_TO, url);
+        boolean captured = this.payloadCapture.sample(request);
+        if (captured) {
+            this.payloadCapture.capture(OUTGOING_REQUEST, request);
+        }
+        SOAPMessage response;
+        long start = System.nanoTime();
+        try {
+            response = this.transport.call(request, url);
+        } catch (SOAPException | RuntimeException ex) {
+            this.error(labels);
+            throw ex;
+        }
+        this.record(ClientMetrics.CALL_SECONDS, ClientMetrics.CALL_HELP, labels, System.nanoTime() - start);
+        LOGGER.debug("SOAP response received.");
+        if (captured) {
+            this.payloadCapture.capture(INCOMING_RESPONSE, response);
+        }
+        return response;
+    }
+
+    /**
+     * Serializes the given ServiceRequest to SOAPMessage.
+     *
+     * @param <T1> runtime type of the request data
+     * @param request the ServiceRequest object to be serialized
+     * @param url URL where the request is sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param labels metric labels of the request
+     * @return serialized request
+     */
+    private <T1> SOAPMessage serialize(final ServiceRequest<T1> request, final String url, final ServiceRequestSerializer<T1> serializer,
+                                       final String[] labels) {
+        long start = System.nanoTime();
+        SOAPMessage soapRequest = serializer.serialize(request);
+        this.record(ClientMetrics.SERIALIZE_SECONDS, ClientMetrics.SERIALIZE_HELP, labels, System.nanoTime() - start);
+        logRequest(request, url);
+        return soapRequest;
+    }
+
+    /**
+     * Logs the given request that is sent to the given URL.
+     *
+     * @param request the ServiceRequest object to be sent
+     * @param url URL where the request is sent
+     */
+    private static void logRequest(final ServiceRequest<?> request, final String url) {
+        LOGGER.info("Send ServiceRequest to \"{}\". Request id : \"{}\"", url, request.getId());
+        LOGGER.debug("Consumer : {}", request.getConsumer().toString());
+        LOGGER.debug("Producer : {}", request.getProducer().toString());
+    }
+
+    /**
+     * Deserializes the given SOAPMessage response to ServiceResponse.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object that was sent
+     * @param soapResponse the response to be deserialized
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @param labels metric labels of the request
+     * @return deserialized response
+     */
+    private <T1, T2> ServiceResponse<T1, T2> deserialize(final ServiceRequest<T1> request, final SOAPMessage soapResponse,
+                                                         final ServiceResponseDeserializer<T1, T2> deserializer, final String[] labels) {
+        String producerNamespaceURI = request.getProducer().getNamespaceUrl() == null
+                || request.getProducer().getNamespaceUrl().isEmpty() ? "*" : request.getProducer().getNamespaceUrl();
+        long start = System.nanoTime();
+        ServiceResponse<T1, T2> response = deserializer.deserialize(soapResponse, producerNamespaceURI, request.isProcessingWrappers());
+        this.record(ClientMetrics.DESERIALIZE_SECONDS, ClientMetrics.DESERIALIZE_HELP, labels, System.nanoTime() - start);
+        LOGGER.info("ServiceResponse received. Request id : \"{}\"", request.getId());
+        return response;
+    }
+
+    /**
+     * Checks that the given url is a valid URL.
+     *
+     * @param url URL to be checked
+     * @throws XRd4JRuntimeException if the url is malformed
+     */
+    private static void validateUrl(final String url) {
         try {
-            client = new URL(url);
+            new URL(url);
         } catch (MalformedURLException ex) {
             LOGGER.error(ex.getMessage(), ex);
             throw new XRd4JRuntimeException(ex.getMessage());
         }
+    }
 
-        try (SOAPConnection connection = connectionFactory.createConnection()) {
-            LOGGER.debug(SEND_SOAP_TO, url);
-            LOGGER.trace("Outgoing SOAP request : \"{}\".", SOAPHelper.toString(request));
-            SOAPMessage response = connection.call(request, client);
-            LOGGER.debug("SOAP response received.");
-            LOGGER.trace("Incoming SOAP response : \"{}\".", SOAPHelper.toString(response));
-            return response;
+    /**
+     * Records the given time to the given histogram.
+     *
+     * @param name name of the histogram
+     * @param help description of the histogram
+     * @param labels metric labels of the request
+     * @param nanos time in nanoseconds
+     */
+    private void record(final String name, final String help, final String[] labels, final long nanos) {
+        MetricsRegistry registry = this.metricsRegistry;
+        if (registry != null) {
+            registry.histogram(name, help, labels).record(nanos);
+        }
+    }
+
+    /**
+     * Counts a failed call.
+     *
+     * @param labels metric labels of the request
+     */
+    private void error(final String[] labels) {
+        MetricsRegistry registry = this.metricsRegistry;
+        if (registry != null) {
+            registry.counter(ClientMetrics.ERRORS, ClientMetrics.ERRORS_HELP, labels).increment();
         }
     }
 
+    /**
+     * Closes the transport used by this client. If the transport is shared
+     * with other clients, it's closed for them too. The shared default
+     * transport used by the no-argument constructor is never closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.transport.close();
+    }
+
     /**
      * Sends the given message to the specified endpoint and blocks until it has
      * returned the response. Null is returned if the given url is malformed or
      * if sending the message fails. Serialization and deserialization from/to
-     * SOAPMessage is done inside the method.
+     * SOAPMessage is done inside the method. A streaming serializer writes the
+     * request straight to the HTTP request body, and a streaming deserializer
+     * reads the response straight from the HTTP response body, in which case
+     * the returned ServiceResponse does not hold a SOAPMessage.
      *
      * @param <T1> runtime type of the request data
      * @param <T2> runtime type of the response data
@@ -137,18 +357,340 @@ public class SOAPClientImpl implements SOAPClient {
     public <T1, T2> ServiceResponse<T1, T2> send(final ServiceRequest<T1> request, final String url,
                                 final ServiceRequestSerializer<T1> serializer,
                                 final ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException {
-        SOAPMessage soapRequest = serializer.serialize(request);
-        LOGGER.info("Send ServiceRequest to \"{}\". Request id : \"{}\"", url, request.getId());
-        LOGGER.debug("Consumer : {}", request.getConsumer().toString());
-        LOGGER.debug("Producer : {}", request.getProducer().toString());
-        SOAPMessage soapResponse = this.send(soapRequest, url);
+        if (serializer instanceof AbstractStreamingRequestSerializer) {
+            return this.writeAndSend(request, url, (AbstractStreamingRequestSerializer<T1>) serializer, deserializer);
+        }
+        if (deserializer instanceof AbstractStreamingResponseDeserializer) {
+            return this.sendStreaming(request, url, serializer, (AbstractStreamingResponseDeserializer<T1, T2>) deserializer);
+        }
+        String[] labels = ClientMetrics.labels(url, request);
+        SOAPMessage soapRequest = this.serialize(request, url, serializer, labels);
+        SOAPMessage soapResponse = this.call(soapRequest, url, labels);
+        return this.deserialize(request, soapResponse, deserializer, labels);
+    }
+
+    /**
+     * Writes the given request straight to the HTTP request body, so that no
+     * SOAPMessage is built for the request. The response is deserialized from
+     * the HTTP response body with StAX if the deserializer supports it, and
+     * otherwise it's converted to SOAPMessage first.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the streaming serializer that writes the request
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes the response to ServiceResponse
+     * @return the ServiceResponse object that is the response to the message
+     * that was sent; null if the response is empty
+     * @throws SOAPException if there's a SOAP error
+     */
+    private <T1, T2> ServiceResponse<T1, T2> writeAndSend(final ServiceRequest<T1> request, final String url,
+                                                          final AbstractStreamingRequestSerializer<T1> serializer,
+                                                          final ServiceResponseDeserializer<T1, T2> deserializer) throws SOAPException {
+        validateUrl(url);
+        logRequest(request, url);
+        String[] labels = ClientMetrics.labels(url, request);
+        boolean captured = this.payloadCapture.sample(request.getProducer().getServiceCode());
+        SOAPRequestWriter writer = this.requestWriter(request, serializer, labels, captured);
+        ServiceResponse<T1, T2> response;
+        long start = System.nanoTime();
+        try {
+            response = this.transport.call(writer, url, this.responseHandler(request, deserializer, captured));
+        } catch (SOAPException | RuntimeException ex) {
+            this.error(labels);
+            throw ex;
+        }
+        this.record(ClientMetrics.CALL_SECONDS, ClientMetrics.CALL_HELP, labels, System.nanoTime() - start);
+        LOGGER.info("ServiceResponse received. Request id : \"{}\"", request.getId());
+        return response;
+    }
+
+    /**
+     * Returns a writer that serializes the given request straight to the
+     * HTTP request body and records the serialize time, which includes
+     * writing to the connection. A captured request is serialized to a
+     * buffer first, so that it can be captured before it's written.
+     *
+     * @param <T1> runtime type of the request data
+     * @param request the ServiceRequest object to be sent
+     * @param serializer the streaming serializer that writes the request
+     * @param labels metric labels of the request
+     * @param captured true if the request is captured
+     * @return request writer
+     */
+    private <T1> SOAPRequestWriter requestWriter(final ServiceRequest<T1> request, final AbstractStreamingRequestSerializer<T1> serializer,
+                                                 final String[] labels, final boolean captured) {
+        final PayloadCapture capture = this.payloadCapture;
+        return out -> {
+            long start = System.nanoTime();
+            try {
+                if (captured) {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    serializer.serialize(request, buffer);
+                    capture.capture(OUTGOING_REQUEST, request.getProducer().getServiceCode(), buffer.toString(StandardCharsets.UTF_8));
+                    buffer.writeTo(out);
+                } else {
+                    serializer.serialize(request, out);
+                }
+            } catch (XMLStreamException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+            this.record(ClientMetrics.SERIALIZE_SECONDS, ClientMetrics.SERIALIZE_HELP, labels, System.nanoTime() - start);
+        };
+    }
+
+    /**
+     * Returns a handler that deserializes the response body. The body is
+     * deserialized with StAX if the deserializer is a streaming deserializer
+     * and the response is not multipart. Otherwise the body is converted to
+     * SOAPMessage before deserializing it. A captured response is read to a
+     * buffer first, so that it can be captured before it's deserialized.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object that was sent
+     * @param deserializer the ServiceResponseDeserializer object
+     * @param captured true if the response is captured
+     * @return response handler
+     */
+    private <T1, T2> SOAPResponseHandler<ServiceResponse<T1, T2>> responseHandler(final ServiceRequest<T1> request,
+                                                                                 final ServiceResponseDeserializer<T1, T2> deserializer,
+                                                                                 final boolean captured) {
         String producerNamespaceURI = request.getProducer().getNamespaceUrl() == null
                 || request.getProducer().getNamespaceUrl().isEmpty() ? "*" : request.getProducer().getNamespaceUrl();
-        ServiceResponse<T1, T2> response = deserializer.deserialize(soapResponse, producerNamespaceURI, request.isProcessingWrappers());
+        final PayloadCapture capture = this.payloadCapture;
+        return (headers, body) -> {
+            InputStream in = body;
+            if (captured) {
+                byte[] bytes = body.readAllBytes();
+                capture.capture(INCOMING_RESPONSE, request.getProducer().getServiceCode(), new String(bytes, StandardCharsets.UTF_8));
+                in = new ByteArrayInputStream(bytes);
+            }
+            String[] contentType = headers.getHeader(CONTENT_TYPE);
+            boolean multipart = contentType != null && contentType.length > 0
+                    && contentType[0].regionMatches(true, 0, MULTIPART, 0, MULTIPART.length());
+            if (!multipart && deserializer instanceof AbstractStreamingResponseDeserializer) {
+                return ((AbstractStreamingResponseDeserializer<T1, T2>) deserializer).deserialize(in, producerNamespaceURI,
+                        request.isProcessingWrappers());
+            }
+            if (multipart) {
+                LOGGER.debug("Multipart response received. Deserialize SOAPMessage.");
+            }
+            return deserializer.deserialize(SOAPHelper.createSOAPMessage(headers, in), producerNamespaceURI, request.isProcessingWrappers());
+        };
+    }
+
+    /**
+     * Sends the given message to the specified endpoint and blocks until it has
+     * returned the response. The response is deserialized with StAX straight
+     * from the HTTP response body, without building a SOAPMessage, if the
+     * transport supports streaming. Multipart responses, i.e. responses with
+     * attachments, are converted to SOAPMessage before deserializing them.
+     * The returned ServiceResponse does not hold a SOAPMessage.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the streaming deserializer that deserializes the
+     * response to ServiceResponse
+     * @return the ServiceResponse object that is the response to the message
+     * that was sent; null if the response is empty or deserializing it fails
+     * @throws SOAPException if there's a SOAP error
+     */
+    private <T1, T2> ServiceResponse<T1, T2> sendStreaming(final ServiceRequest<T1> request, final String url,
+                                                           final ServiceRequestSerializer<T1> serializer,
+                                                           final AbstractStreamingResponseDeserializer<T1, T2> deserializer)
+            throws SOAPException {
+        String[] labels = ClientMetrics.labels(url, request);
+        SOAPMessage soapRequest = this.serialize(request, url, serializer, labels);
+        validateUrl(url);
+        boolean captured = this.payloadCapture.sample(soapRequest);
+        if (captured) {
+            this.payloadCapture.capture(OUTGOING_REQUEST, soapRequest);
+        }
+        ServiceResponse<T1, T2> response;
+        long start = System.nanoTime();
+        try {
+            response = this.transport.call(soapRequest, url, this.responseHandler(request, deserializer, captured));
+        } catch (SOAPException | RuntimeException ex) {
+            this.error(labels);
+            throw ex;
+        }
+        this.record(ClientMetrics.CALL_SECONDS, ClientMetrics.CALL_HELP, labels, System.nanoTime() - start);
         LOGGER.info("ServiceResponse received. Request id : \"{}\"", request.getId());
         return response;
     }
 
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. If the url is malformed, the returned future is
+     * completed exceptionally with XRd4JRuntimeException.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    @Override
+    public CompletableFuture<SOAPMessage> sendAsync(final SOAPMessage request, final String url) {
+        return this.callAsync(request, url, ClientMetrics.labels(url, null));
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread and records the call time using the given labels.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param labels metric labels of the request
+     * @return future that is completed with the SOAPMessage object that is the
+     * response to the request message that was sent.
+     */
+    private CompletableFuture<SOAPMessage> callAsync(final SOAPMessage request, final String url, final String[] labels) {
+        try {
+            validateUrl(url);
+        } catch (XRd4JRuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        LOGGER.debug("Send SOAP message asynchronously to \"{}\".", url);
+        final PayloadCapture capture = this.payloadCapture;
+        final boolean captured = capture.sample(request);
+        if (captured) {
+            capture.capture(OUTGOING_REQUEST, request);
+        }
+        final long start = System.nanoTime();
+        CompletableFuture<SOAPMessage> call = this.transport.callAsync(request, url, this.executor);
+        call.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                this.record(ClientMetrics.CALL_SECONDS, ClientMetrics.CALL_HELP, labels, System.nanoTime() - start);
+            } else if (!(throwable instanceof CancellationException)) {
+                this.error(labels);
+            }
+        });
+        CompletableFuture<SOAPMessage> result = call.thenApply(response -> {
+            LOGGER.debug("SOAP response received.");
+            if (captured) {
+                capture.capture(INCOMING_RESPONSE, response);
+            }
+            return response;
+        });
+        // Cancelling the result or completing it with a timeout must cancel
+        // the underlying request too
+        result.whenComplete((response, throwable) -> {
+            if (throwable != null && !call.isDone()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. The request is serialized in the executor of the client
+     * and the response is deserialized in the thread that receives it.
+     * Serialization errors complete the returned future exceptionally. The
+     * streaming serializers and deserializers are used in the same way as in
+     * send.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param serializer the ServiceRequestSerializer object that serializes the
+     * request to SOAPMessage
+     * @param deserializer the ServiceResponseDeserializer object that
+     * deserializes SOAPMessage response to ServiceResponse
+     * @return future that is completed with the ServiceResponse object that is
+     * the response to the message that was sent.
+     */
+    @Override
+    public <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> sendAsync(final ServiceRequest<T1> request, final String url,
+                                                                       final ServiceRequestSerializer<T1> serializer,
+                                                                       final ServiceResponseDeserializer<T1, T2> deserializer) {
+        String[] labels = ClientMetrics.labels(url, request);
+        if (serializer instanceof AbstractStreamingRequestSerializer) {
+            try {
+                validateUrl(url);
+            } catch (XRd4JRuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+            logRequest(request, url);
+            boolean captured = this.payloadCapture.sample(request.getProducer().getServiceCode());
+            SOAPRequestWriter writer = this.requestWriter(request, (AbstractStreamingRequestSerializer<T1>) serializer, labels, captured);
+            return this.exchangeAsync(request, labels,
+                    () -> this.transport.callAsync(writer, url, this.responseHandler(request, deserializer, captured), this.executor));
+        }
+        boolean streaming = deserializer instanceof AbstractStreamingResponseDeserializer;
+        AtomicReference<CompletableFuture<?>> call = new AtomicReference<>();
+        CompletableFuture<ServiceResponse<T1, T2>> result = CompletableFuture
+                .supplyAsync(() -> this.serialize(request, url, serializer, labels), this.executor)
+                .thenCompose(soapRequest -> {
+                    if (streaming) {
+                        validateUrl(url);
+                        boolean captured = this.payloadCapture.sample(soapRequest);
+                        if (captured) {
+                            this.payloadCapture.capture(OUTGOING_REQUEST, soapRequest);
+                        }
+                        CompletableFuture<ServiceResponse<T1, T2>> pending = this.exchangeAsync(request, labels,
+                                () -> this.transport.callAsync(soapRequest, url, this.responseHandler(request, deserializer, captured),
+                                        this.executor));
+                        call.set(pending);
+                        return pending;
+                    }
+                    CompletableFuture<SOAPMessage> pending = this.callAsync(soapRequest, url, labels);
+                    call.set(pending);
+                    return pending.thenApply(soapResponse -> this.deserialize(request, soapResponse, deserializer, labels));
+                });
+        // Cancelling the result or completing it with a timeout must cancel
+        // the underlying request too
+        result.whenComplete((response, throwable) -> {
+            CompletableFuture<?> pending = call.get();
+            if (throwable != null && pending != null && !pending.isDone()) {
+                pending.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts the given exchange that sends a request and handles the response
+     * as a stream, and records the call time or the failure when it's
+     * completed.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param request the ServiceRequest object to be sent
+     * @param labels metric labels of the request
+     * @param exchange exchange that sends the request
+     * @return future that is completed with the ServiceResponse object
+     */
+    private <T1, T2> CompletableFuture<ServiceResponse<T1, T2>> exchangeAsync(final ServiceRequest<T1> request, final String[] labels,
+                                                                            final Supplier<CompletableFuture<ServiceResponse<T1, T2>>> exchange) {
+        final long start = System.nanoTime();
+        CompletableFuture<ServiceResponse<T1, T2>> call = exchange.get();
+        CompletableFuture<ServiceResponse<T1, T2>> result = call.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                this.record(ClientMetrics.CALL_SECONDS, ClientMetrics.CALL_HELP, labels, System.nanoTime() - start);
+                LOGGER.info("ServiceResponse received. Request id : \"{}\"", request.getId());
+            } else if (!(throwable instanceof CancellationException)) {
+                this.error(labels);
+            }
+        });
+        // Cancelling the result or completing it with a timeout must cancel
+        // the underlying request too
+        result.whenComplete((response, throwable) -> {
+            if (throwable != null && !call.isDone()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
     /**
      * Calls listClients meta service and retrieves list of all the potential
      * service providers (i.e., members and subsystems) of an X-Road instance.
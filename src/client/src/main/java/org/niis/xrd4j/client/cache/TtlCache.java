@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * This class implements a size bounded cache whose entries expire after a
+ * time to live (TTL). After the TTL an entry is stale: it's still returned
+ * during the stale period, but it's refreshed in the background, so callers
+ * don't have to wait for the value to be loaded. When an entry is older than
+ * the TTL and the stale period together, the value is loaded again in the
+ * calling thread.
+ *
+ * When the cache is full, the least recently used entry is evicted. The
+ * entries are held in an access ordered LinkedHashMap, so finding the entry
+ * to evict takes constant time. The map is guarded by its own lock, which is
+ * not held while a value is loaded. The number of hits, misses, stale hits,
+ * refreshes and evictions is recorded.
+ *
+ * Loaded values are cached only if they're accepted by the cacheable
+ * predicate, which by default accepts all non-null values. A rejected value
+ * is returned to the caller, and a rejected refresh keeps the stale value.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class TtlCache<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TtlCache.class);
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    // Access ordered, guarded by itself
+    private final Map<K, Entry<V>> entries;
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final int maxSize;
+    private final Executor refreshExecutor;
+    private final LongSupplier clock;
+    private volatile Predicate<? super V> cacheable = Objects::nonNull;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs and initializes a new TtlCache.
+     *
+     * @param ttlMillis time in milliseconds after which an entry is stale
+     * @param staleMillis time in milliseconds after the TTL during which a
+     * stale entry is returned and refreshed in the background, zero disables
+     * background refresh
+     * @param maxSize maximum number of entries
+     * @param refreshExecutor Executor that runs the background refreshes
+     */
+    public TtlCache(long ttlMillis, long staleMillis, int maxSize, Executor refreshExecutor) {
+        this(ttlMillis, staleMillis, maxSize, refreshExecutor, System::nanoTime);
+    }
+
+    /**
+     * Constructs and initializes a new TtlCache that uses the given clock.
+     *
+     * @param ttlMillis time in milliseconds after which an entry is stale
+     * @param staleMillis time in milliseconds after the TTL during which a
+     * stale entry is returned
+     * @param maxSize maximum number of entries
+     * @param refreshExecutor Executor that runs the background refreshes
+     * @param clock clock returning the current time in nanoseconds
+     */
+    TtlCache(long ttlMillis, long staleMillis, int maxSize, Executor refreshExecutor, LongSupplier clock) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMillis);
+        this.maxSize = maxSize;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, Entry<V>>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, TtlCache.Entry<V>> eldest) {
+                if (this.size() <= TtlCache.this.maxSize) {
+                    return false;
+                }
+                TtlCache.this.evictions.increment();
+                LOGGER.debug("Cache is full. Evicted entry \"{}\".", eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the value of the given key. If the cache has no valid value for
+     * the key, the value is loaded using the given loader and stored in the
+     * cache if it's cacheable.
+     *
+     * @param <E> type of the exception thrown by the loader
+     * @param key key of the value
+     * @param loader loader that loads the value
+     * @return value of the key
+     * @throws E if loading the value fails
+     */
+    public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+        long now = this.clock.getAsLong();
+        Entry<V> entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+        }
+        if (entry != null) {
+            long age = now - entry.loaded;
+            if (age < this.ttlNanos) {
+                this.hits.increment();
+                return entry.value;
+            }
+            if (age < this.ttlNanos + this.staleNanos) {
+                this.staleHits.increment();
+                this.refresh(key, entry, loader);
+                return entry.value;
+            }
+        }
+        this.misses.increment();
+        V value = loader.load();
+        if (this.cacheable.test(value)) {
+            this.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Sets the predicate that decides whether a loaded value is cached.
+     * Null values are never cached.
+     *
+     * @param cacheable new predicate
+     */
+    public void setCacheable(Predicate<? super V> cacheable) {
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * Stores the given value in the cache.
+     *
+     * @param key key of the value
+     * @param value value to be stored, null removes the key
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            this.invalidate(key);
+            return;
+        }
+        long now = this.clock.getAsLong();
+        synchronized (this.entries) {
+            this.entries.put(key, new Entry<>(value, now));
+        }
+    }
+
+    /**
+     * Removes the value of the given key from the cache.
+     *
+     * @param key key of the value
+     */
+    public void invalidate(K key) {
+        synchronized (this.entries) {
+            this.entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the values from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests that returned a fresh value.
+     *
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of requests that returned a stale value and
+     * triggered a background refresh.
+     *
+     * @return number of stale hits
+     */
+    public long getStaleHitCount() {
+        return this.staleHits.sum();
+    }
+
+    /**
+     * Returns the number of requests that loaded the value in the calling
+     * thread.
+     *
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the number of completed background refreshes.
+     *
+     * @return number of refreshes
+     */
+    public long getRefreshCount() {
+        return this.refreshes.sum();
+    }
+
+    /**
+     * Returns the number of background refreshes that failed or loaded a
+     * value that is not cacheable.
+     *
+     * @return number of failed refreshes
+     */
+    public long getRefreshFailureCount() {
+        return this.refreshFailures.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Returns the ratio of hits, fresh or stale, to all the requests.
+     *
+     * @return hit rate between 0 and 1, or 0 if there are no requests
+     */
+    public double getHitRate() {
+        long hitCount = this.getHitCount() + this.getStaleHitCount();
+        long total = hitCount + this.getMissCount();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * Refreshes the given stale entry in the background unless it's being
+     * refreshed already. If the refresh fails, the stale value is kept until
+     * the end of the stale period.
+     *
+     * @param key key of the entry
+     * @param entry stale entry
+     * @param loader loader that loads the value
+     */
+    private void refresh(K key, Entry<V> entry, Loader<V, ?> loader) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.load();
+                    if (value == null || !this.cacheable.test(value)) {
+                        this.refreshFailures.increment();
+                        LOGGER.debug("Refreshed value of cache entry \"{}\" is not cacheable.", key);
+                        return;
+                    }
+                    // Don't resurrect an entry that was invalidated meanwhile
+                    synchronized (this.entries) {
+                        if (this.entries.get(key) == entry) {
+                            this.entries.put(key, new Entry<>(value, this.clock.getAsLong()));
+                        }
+                    }
+                    this.refreshes.increment();
+                } catch (Exception ex) {
+                    this.refreshFailures.increment();
+                    LOGGER.warn("Refreshing cache entry \"{}\" failed : {}", key, ex.getMessage());
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            entry.refreshing.set(false);
+            LOGGER.warn("Refreshing cache entry \"{}\" was rejected.", key);
+        }
+    }
+
+    /**
+     * Loads the value of a cache entry.
+     *
+     * @param <V> type of the value
+     * @param <E> type of the exception thrown by the loader
+     */
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+
+        /**
+         * Loads the value.
+         *
+         * @return loaded value
+         * @throws E if loading the value fails
+         */
+        V load() throws E;
+    }
+
+    /**
+     * A cached value and its load time.
+     *
+     * @param <V> type of the value
+     */
+    private static final class Entry<V> {
+        private final V value;
+        private final long loaded;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(V value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+}
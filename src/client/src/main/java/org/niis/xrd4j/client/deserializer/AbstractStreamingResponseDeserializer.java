@@ -0,0 +1,724 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.deserializer;
+
+import org.niis.xrd4j.common.deserializer.AbstractHeaderDeserializer;
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ObjectType;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.ErrorMessage;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.XMLFactoryRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.SOAPConstants;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This abstract class serves as a base class for response deserializers that
+ * parse the response with StAX instead of building a DOM tree. The SOAP
+ * header and body are read in a single pass straight from the input stream,
+ * so the memory use does not grow with the size of the response beyond the
+ * objects created by the subclass. This is an alternative to
+ * AbstractResponseDeserializer for large responses.
+ *
+ * The subclasses implement the deserialization of the request and response
+ * elements. They get an XMLStreamReader positioned at the START_ELEMENT of
+ * the element, and they should read the element until its END_ELEMENT.
+ * Whatever the subclass leaves unread is skipped. A non-technical error
+ * message, i.e. faultCode and faultString children of the response element,
+ * is detected while the response element is read, and if one is found, the
+ * error message is set and the response data is discarded.
+ *
+ * The response can be deserialized from an InputStream, e.g. an HTTP response
+ * body, or from a SOAPMessage. In the latter case the SOAP envelope is
+ * serialized to bytes and parsed again, so there's no benefit compared to the
+ * DOM based deserializer. ServiceResponses deserialized from a stream don't hold a
+ * SOAPMessage.
+ *
+ * @param <T1> runtime type of the request data
+ * @param <T2> runtime type of the response data
+ */
+public abstract class AbstractStreamingResponseDeserializer<T1, T2> extends AbstractHeaderDeserializer
+        implements ServiceResponseDeserializer<T1, T2> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractStreamingResponseDeserializer.class);
+    private static final XMLInputFactory INPUT_FACTORY = XMLFactoryRegistry.getXMLInputFactory();
+    private static final String ELEM_HEADER = "Header";
+    private static final String ELEM_BODY = "Body";
+    private static final String ELEM_FAULT = "Fault";
+    private static final String ELEM_FAULT_CODE = "faultcode";
+    private static final String ELEM_FAULT_STRING = "faultstring";
+    private static final String ELEM_FAULT_ACTOR = "faultactor";
+    private static final String ELEM_DETAIL = "detail";
+    private static final String ELEM_REQUEST = "request";
+    private static final String ELEM_RESPONSE = "response";
+
+    /**
+     * This boolean value tells if the response is from X-Road meta service.
+     */
+    protected boolean isMetaServiceResponse = false;
+
+    /**
+     * Deserializes SOAP body's request element. The reader is positioned at
+     * the START_ELEMENT of the request element.
+     *
+     * @param reader XMLStreamReader positioned at the request element
+     * @return application specific object representing the request element
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    protected abstract T1 deserializeRequestData(XMLStreamReader reader) throws XMLStreamException;
+
+    /**
+     * Deserializes SOAP body's response element. The reader is positioned at
+     * the START_ELEMENT of the response element.
+     *
+     * @param reader XMLStreamReader positioned at the response element
+     * @return application specific object representing the response element
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    protected abstract T2 deserializeResponseData(XMLStreamReader reader) throws XMLStreamException;
+
+    /**
+     * Deserializes fault detail element as String. All the text content of
+     * the element and its children is presented as one concatenated String.
+     * The reader is positioned at the START_ELEMENT of the detail element. If
+     * detail element has children, this method can be overridden.
+     *
+     * @param reader XMLStreamReader positioned at the detail element
+     * @return detail element's value as string
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    protected Object deserializeFaultDetail(final XMLStreamReader reader) throws XMLStreamException {
+        LOGGER.debug("Deserialize fault detail. Default implementation is assuming String value.");
+        StringBuilder builder = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                builder.append(reader.getText());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Deserializes the given SOAPMessage object to ServiceResponse object.
+     *
+     * @param message SOAP message to be deserialized
+     * @return ServiceResponse object that represents the given SOAPMessage
+     * object; if the operation fails, null is returned
+     */
+    @Override
+    public final ServiceResponse<T1, T2> deserialize(final SOAPMessage message) {
+        return this.deserialize(message, "*");
+    }
+
+    /**
+     * Deserializes the given SOAPMessage object to ServiceResponse object. If
+     * service producer's namespace URI is given, then it's used for finding the
+     * response from the SOAP mesagge's body. Value "*" means that the namespace
+     * is ignored.
+     *
+     * @param message SOAP message to be deserialized
+     * @param producerNamespaceURI service producer's namespace URI
+     * @return ServiceResponse object that represents the given SOAPMessage
+     * object; if the operation fails, null is returned
+     */
+    @Override
+    public final ServiceResponse<T1, T2> deserialize(final SOAPMessage message, final String producerNamespaceURI) {
+        return this.deserialize(message, producerNamespaceURI, Constants.DEFAULT_PROCESSING_WRAPPERS);
+    }
+
+    /**
+     * Deserializes the given SOAPMessage object to ServiceResponse object. The
+     * SOAP envelope of the message is serialized to a byte array and parsed
+     * with StAX.
+     *
+     * @param message SOAP message to be deserialized
+     * @param producerNamespaceURI service producer's namespace URI
+     * @param processingWrappers Indicates if "request" and "response" wrappers
+     * should be processed
+     * @return ServiceResponse object that represents the given SOAPMessage
+     * object; if the operation fails, null is returned
+     */
+    @Override
+    public final ServiceResponse<T1, T2> deserialize(final SOAPMessage message, final String producerNamespaceURI, boolean processingWrappers) {
+        try {
+            ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+            XMLFactoryRegistry.transform(new DOMSource(message.getSOAPPart().getEnvelope()), new StreamResult(envelope));
+            ServiceResponse<T1, T2> response = this.deserialize(
+                    INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(envelope.toByteArray())), producerNamespaceURI, processingWrappers);
+            if (response != null) {
+                response.setSoapMessage(message);
+            }
+            return response;
+        } catch (SOAPException | TransformerException | XMLStreamException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return null;
+    }
+
+    /**
+     * Deserializes the SOAP message read from the given stream to
+     * ServiceResponse object. The stream is not closed.
+     *
+     * @param in stream containing the SOAP envelope
+     * @param producerNamespaceURI service producer's namespace URI, "*" means
+     * that the namespace is ignored
+     * @param processingWrappers Indicates if "request" and "response" wrappers
+     * should be processed
+     * @return ServiceResponse object that represents the SOAP message; if the
+     * operation fails, null is returned
+     */
+    public final ServiceResponse<T1, T2> deserialize(final InputStream in, final String producerNamespaceURI, boolean processingWrappers) {
+        try {
+            return this.deserialize(INPUT_FACTORY.createXMLStreamReader(in), producerNamespaceURI, processingWrappers);
+        } catch (XMLStreamException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return null;
+    }
+
+    /**
+     * Deserializes the SOAP envelope read by the given reader. The reader is
+     * closed.
+     *
+     * @param reader XMLStreamReader positioned at the start of the document
+     * @param producerNamespaceURI service producer's namespace URI
+     * @param processingWrappers Indicates if "request" and "response" wrappers
+     * should be processed
+     * @return ServiceResponse object; if the operation fails, null is returned
+     */
+    private ServiceResponse<T1, T2> deserialize(final XMLStreamReader reader, final String producerNamespaceURI, boolean processingWrappers) {
+        LOGGER.debug("Deserialize SOAP message as a stream. Producer namespace URI \"{}\".", producerNamespaceURI);
+        try {
+            ServiceResponse<T1, T2> response = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (isEnvelopeElement(reader, ELEM_HEADER) && response == null) {
+                    response = this.deserializeHeader(reader);
+                } else if (isEnvelopeElement(reader, ELEM_BODY)) {
+                    if (response == null) {
+                        LOGGER.warn("No SOAP header or an empty SOAP header was found.");
+                        response = new ServiceResponse<>();
+                    }
+                    response.setProcessingWrappers(processingWrappers);
+                    this.deserializeBody(reader, response, producerNamespaceURI);
+                    LOGGER.debug("SOAP message was succesfully deserialized.");
+                    return response;
+                }
+            }
+            LOGGER.warn("SOAP body was not found.");
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                LOGGER.debug(ex.getMessage(), ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the reader is positioned at the given SOAP 1.1 or SOAP 1.2
+     * envelope element.
+     *
+     * @param reader XMLStreamReader positioned at a START_ELEMENT
+     * @param name local name of the element
+     * @return true if the element is the given envelope element
+     */
+    private static boolean isEnvelopeElement(final XMLStreamReader reader, final String name) {
+        String namespace = reader.getNamespaceURI();
+        return name.equals(reader.getLocalName())
+                && (SOAPConstants.URI_NS_SOAP_1_1_ENVELOPE.equals(namespace) || SOAPConstants.URI_NS_SOAP_1_2_ENVELOPE.equals(namespace));
+    }
+
+    /**
+     * Deserializes SOAP header to ServiceResponse object. The reader is
+     * positioned at the START_ELEMENT of the header and it's left at the
+     * END_ELEMENT of the header.
+     *
+     * @param reader XMLStreamReader positioned at the header
+     * @return ServiceResponse object that represents the SOAP header
+     * @throws XMLStreamException if there's an error reading the header
+     * @throws XRd4JException if there's a XRd4J exception
+     */
+    private ServiceResponse<T1, T2> deserializeHeader(final XMLStreamReader reader) throws XMLStreamException, XRd4JException {
+        LOGGER.debug("Deserialize SOAP header.");
+        HeaderValues values = new HeaderValues();
+        boolean empty = true;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            empty = false;
+            String namespace = reader.getNamespaceURI();
+            String name = reader.getLocalName();
+            if (Constants.NS_XRD_URL.equals(namespace)) {
+                this.deserializeHeaderElement(reader, name, values);
+            } else if (Constants.NS_EXT_SECURITY_TOKEN_URL.equals(namespace) && Constants.NS_EXT_ELEM_SECURITY_TOKEN.equals(name)) {
+                values.securityTokenType = reader.getAttributeValue(null, Constants.NS_EXT_ATTR_TOKEN_TYPE);
+                values.securityToken = reader.getElementText();
+            } else {
+                skipElement(reader);
+            }
+        }
+        // Check that SOAP header isn't empty
+        if (empty) {
+            LOGGER.warn("No SOAP header or an empty SOAP header was found.");
+            return new ServiceResponse<>();
+        }
+        ConsumerMember consumer = null;
+        ProducerMember producer = null;
+        SecurityServer securityServer = null;
+        if (values.client != null && values.clientObjectType != null) {
+            consumer = super.getConsumerMember(values.client, values.clientObjectType);
+        } else {
+            LOGGER.warn("Deserializing \"ConsumerMember\" failed.");
+        }
+        if (values.service != null && values.serviceObjectType != null) {
+            producer = super.getProducerMember(values.service, values.serviceObjectType);
+        } else {
+            LOGGER.warn("Deserializing \"ProducerMember\" failed.");
+        }
+        try {
+            // Not mandatory - can be null
+            if (values.securityServer != null) {
+                securityServer = super.getSecurityServer(values.securityServer);
+            }
+        } catch (XRd4JException ex) {
+            LOGGER.warn("Deserializing \"SecurityServer\" failed.");
+        }
+        ServiceResponse<T1, T2> response = new ServiceResponse<>(consumer, producer, values.id);
+        response.setSecurityServer(securityServer);
+        response.setUserId(values.userId);
+        response.setRequestHash(values.requestHash);
+        response.setRequestHashAlgorithm(values.requestHashAlgorithm);
+        response.setIssue(values.issue);
+        response.setProtocolVersion(values.protocolVersion);
+        response.setSecurityToken(values.securityToken);
+        response.setSecurityTokenType(values.securityTokenType);
+        LOGGER.debug("SOAP header was succesfully deserialized.");
+        return response;
+    }
+
+    /**
+     * Deserializes a single X-Road header element. The element is read until
+     * its END_ELEMENT.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @param name local name of the element
+     * @param values values of the header
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private void deserializeHeaderElement(final XMLStreamReader reader, final String name, final HeaderValues values)
+            throws XMLStreamException {
+        switch (name) {
+            case Constants.NS_XRD_ELEM_CLIENT:
+                values.clientObjectType = readObjectType(reader);
+                values.client = readLeafValues(reader);
+                break;
+            case Constants.NS_XRD_ELEM_SERVICE:
+                values.serviceObjectType = readObjectType(reader);
+                values.service = readLeafValues(reader);
+                break;
+            case Constants.NS_XRD_ELEM_SECURITY_SERVER:
+                values.securityServer = readLeafValues(reader);
+                break;
+            case Constants.NS_XRD_ELEM_ID:
+                values.id = reader.getElementText();
+                break;
+            case Constants.NS_XRD_ELEM_USER_ID:
+                values.userId = reader.getElementText();
+                break;
+            case Constants.NS_XRD_ELEM_ISSUE:
+                values.issue = reader.getElementText();
+                break;
+            case Constants.NS_XRD_ELEM_PROTOCOL_VERSION:
+                values.protocolVersion = reader.getElementText();
+                break;
+            case Constants.NS_XRD_ELEM_REQUEST_HASH:
+                values.requestHashAlgorithm = reader.getAttributeValue(null, Constants.ATTR_ALGORITHM_ID);
+                values.requestHash = reader.getElementText();
+                break;
+            default:
+                skipElement(reader);
+        }
+    }
+
+    /**
+     * Deserializes SOAP body, including request and response elements. The
+     * reader is positioned at the START_ELEMENT of the body.
+     *
+     * @param reader XMLStreamReader positioned at the body
+     * @param response ServiceResponse where the data is set
+     * @param producerNamespaceURI namespace URI of the producer member
+     * @throws XMLStreamException if there's an error reading the body
+     */
+    private void deserializeBody(final XMLStreamReader reader, final ServiceResponse<T1, T2> response, final String producerNamespaceURI)
+            throws XMLStreamException {
+        LOGGER.debug("Deserialize SOAP body.");
+        String responseName = response.getProducer() == null ? null : response.getProducer().getServiceCode() + "Response";
+        if (responseName == null) {
+            LOGGER.warn("Producer is null. SOAP header is probably missing.");
+        }
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals(responseName)
+                        && ("*".equals(producerNamespaceURI) || producerNamespaceURI.equals(reader.getNamespaceURI()))) {
+                    LOGGER.debug("Found service response element.");
+                    response.getProducer().setNamespaceUrl(reader.getNamespaceURI());
+                    response.getProducer().setNamespacePrefix(reader.getPrefix());
+                    this.deserializeServiceResponse(reader, response);
+                    LOGGER.debug("SOAP body was succesfully deserialized.");
+                } else if (ELEM_FAULT.equals(reader.getLocalName())) {
+                    LOGGER.warn("Standard SOAP error message found inside SOAP Body.");
+                    this.deserializeSOAPFault(reader, response);
+                } else {
+                    depth++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deserializes the service response element. The reader is left at the
+     * END_ELEMENT of the element.
+     *
+     * @param reader XMLStreamReader positioned at the service response element
+     * @param response ServiceResponse where the data is set
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private void deserializeServiceResponse(final XMLStreamReader reader, final ServiceResponse<T1, T2> response)
+            throws XMLStreamException {
+        if (!response.isProcessingWrappers()) {
+            LOGGER.debug("Skipping procession of \"request\" and \"response\" wrappers in response message.");
+            this.deserializeResponseElement(reader, response);
+            return;
+        }
+        LOGGER.debug("Processing \"request\" and \"response\" wrappers in response message.");
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (ELEM_REQUEST.equals(reader.getLocalName())) {
+                LOGGER.debug("Deserialize request element.");
+                ElementReader element = new ElementReader(reader, false);
+                response.setRequestData(this.deserializeRequestData(element));
+                element.skipToEnd();
+                LOGGER.debug("Request element was succesfully deserialized.");
+            } else if (ELEM_RESPONSE.equals(reader.getLocalName())) {
+                this.deserializeResponseElement(reader, response);
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    /**
+     * Deserializes the response element, or the non-technical SOAP error
+     * message inside it. The reader is left at the END_ELEMENT of the
+     * element.
+     *
+     * @param reader XMLStreamReader positioned at the response element
+     * @param response ServiceResponse where the data is set
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private void deserializeResponseElement(final XMLStreamReader reader, final ServiceResponse<T1, T2> response)
+            throws XMLStreamException {
+        LOGGER.debug("Deserialize response element.");
+        ElementReader element = new ElementReader(reader, !this.isMetaServiceResponse);
+        T2 responseData = null;
+        try {
+            responseData = this.deserializeResponseData(element);
+        } catch (XMLStreamException | RuntimeException ex) {
+            // Deserializing an error message as data may fail
+            element.skipToEnd();
+            if (!element.hasError()) {
+                throw ex;
+            }
+        }
+        element.skipToEnd();
+        if (element.hasError()) {
+            LOGGER.warn("A non-technical SOAP error message was found instead of response.");
+            response.setErrorMessage(new ErrorMessage(element.faultCode, element.faultString));
+        } else {
+            response.setResponseData(responseData);
+            LOGGER.debug("Response element was succesfully deserialized.");
+        }
+    }
+
+    /**
+     * Deserializes standard SOAP error message. The reader is left at the
+     * END_ELEMENT of the fault.
+     *
+     * @param reader XMLStreamReader positioned at the fault element
+     * @param response ServiceResponse where the error message is set
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private void deserializeSOAPFault(final XMLStreamReader reader, final ServiceResponse<T1, T2> response) throws XMLStreamException {
+        LOGGER.debug("Deserialize SOAP fault.");
+        String faultCode = null;
+        String faultString = null;
+        String faultActor = null;
+        Object detail = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if (ELEM_FAULT_CODE.equalsIgnoreCase(name)) {
+                faultCode = reader.getElementText();
+            } else if (ELEM_FAULT_STRING.equalsIgnoreCase(name)) {
+                faultString = reader.getElementText();
+            } else if (ELEM_FAULT_ACTOR.equalsIgnoreCase(name)) {
+                faultActor = reader.getElementText();
+            } else if (ELEM_DETAIL.equalsIgnoreCase(name)) {
+                ElementReader element = new ElementReader(reader, false);
+                detail = this.deserializeFaultDetail(element);
+                element.skipToEnd();
+            } else {
+                skipElement(reader);
+            }
+        }
+        response.setErrorMessage(new ErrorMessage(faultCode, faultString, faultActor, detail));
+        LOGGER.info("SOAP fault was succesfully deserialized.");
+    }
+
+    /**
+     * Reads the objectType attribute of the current element.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @return object type, or null if the attribute is missing or invalid
+     */
+    private static ObjectType readObjectType(final XMLStreamReader reader) {
+        String value = reader.getAttributeValue(Constants.NS_ID_URL, Constants.NS_ID_ATTR_OBJECT_TYPE);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(ObjectType.class, value.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Invalid object type : \"{}\"", value);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the current element and returns the values of its leaf
+     * elements, local name as the key and trimmed text as the value, in the
+     * same way as SOAPHelper.nodesToMap does. The reader is left at the
+     * END_ELEMENT of the element.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @return values of the leaf elements
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private static Map<String, String> readLeafValues(final XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> map = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        boolean leaf = false;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                leaf = true;
+                text.setLength(0);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (leaf) {
+                    map.put(reader.getLocalName(), text.toString().trim());
+                }
+                leaf = false;
+            } else if (leaf && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                text.append(reader.getText());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Skips the current element. The reader is left at the END_ELEMENT of
+     * the element.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Values read from the SOAP header.
+     */
+    private static final class HeaderValues {
+        private Map<String, String> client;
+        private ObjectType clientObjectType;
+        private Map<String, String> service;
+        private ObjectType serviceObjectType;
+        private Map<String, String> securityServer;
+        private String id;
+        private String userId;
+        private String issue;
+        private String protocolVersion;
+        private String requestHash;
+        private String requestHashAlgorithm;
+        private String securityToken;
+        private String securityTokenType;
+    }
+
+    /**
+     * A reader given to the subclasses for reading a single element. The
+     * reader tracks the depth of the element, so that the rest of the element
+     * can be skipped after the subclass has returned, and optionally records
+     * the faultCode and faultString children of the element.
+     */
+    private static final class ElementReader extends StreamReaderDelegate {
+        private final boolean recordErrors;
+        // Number of open elements, including the element itself
+        private int depth = 1;
+        private String errorElement;
+        private StringBuilder errorText;
+        private String faultCode;
+        private String faultString;
+
+        ElementReader(XMLStreamReader reader, boolean recordErrors) {
+            super(reader);
+            this.recordErrors = recordErrors;
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            int event = super.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                this.depth++;
+                this.startErrorElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                this.depth--;
+                if (this.errorElement != null && this.depth == 1) {
+                    this.endErrorElement(this.errorText.toString());
+                }
+            } else if (this.errorElement != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                this.errorText.append(super.getText());
+            }
+            return event;
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int event = this.next();
+            while ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) && this.isWhiteSpace()
+                    || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.COMMENT
+                    || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                event = this.next();
+            }
+            if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+                throw new XMLStreamException("Expected start or end tag.", this.getLocation());
+            }
+            return event;
+        }
+
+        @Override
+        public String getElementText() throws XMLStreamException {
+            boolean error = this.errorElement != null && this.depth == 2;
+            String text = super.getElementText();
+            this.depth--;
+            if (error) {
+                this.endErrorElement(text);
+            }
+            return text;
+        }
+
+        /**
+         * Returns true if a faultCode or faultString child was found.
+         *
+         * @return true if an error message was found
+         */
+        boolean hasError() {
+            return this.faultCode != null || this.faultString != null;
+        }
+
+        /**
+         * Reads the rest of the element until its END_ELEMENT.
+         *
+         * @throws XMLStreamException if there's an error reading the element
+         */
+        void skipToEnd() throws XMLStreamException {
+            while (this.depth > 0) {
+                this.next();
+            }
+        }
+
+        private void startErrorElement() {
+            String name = super.getLocalName();
+            if (this.recordErrors && this.depth == 2 && (ELEM_FAULT_CODE.equalsIgnoreCase(name) || ELEM_FAULT_STRING.equalsIgnoreCase(name))) {
+                this.errorElement = name;
+                this.errorText = new StringBuilder();
+            }
+        }
+
+        private void endErrorElement(String text) {
+            if (ELEM_FAULT_CODE.equalsIgnoreCase(this.errorElement)) {
+                this.faultCode = text;
+            } else {
+                this.faultString = text;
+            }
+            this.errorElement = null;
+            this.errorText = null;
+        }
+    }
+}
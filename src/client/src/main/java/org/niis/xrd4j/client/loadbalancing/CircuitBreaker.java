@@ -0,0 +1,349 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * This class implements a circuit breaker that tracks the health of a single
+ * endpoint. In closed state all calls are permitted. The circuit is opened
+ * when the number of consecutive failures or the error rate in the sliding
+ * window of the latest calls reaches the configured threshold. In open state
+ * no calls are permitted until the open duration has elapsed, after which the
+ * circuit moves to half-open state and a limited number of probe calls are
+ * let through. If all the probes succeed the circuit is closed, and if any of
+ * them fails the circuit is opened again.
+ *
+ * The outcome of a call is attributed by the permission the call was made
+ * with, not by the state of the breaker when the call completes. Only the
+ * outcomes of the probes of the current half-open period change the
+ * half-open state, and only the outcomes of the other calls are recorded in
+ * closed state.
+ *
+ * Checking whether a call is permitted does not take a lock in closed state.
+ * Recording the outcome of a call synchronizes on the breaker, which is never
+ * shared between endpoints.
+ */
+public class CircuitBreaker {
+
+    /**
+     * State of a circuit breaker.
+     */
+    public enum State {
+        /**
+         * Calls are permitted.
+         */
+        CLOSED,
+        /**
+         * Calls are not permitted.
+         */
+        OPEN,
+        /**
+         * A limited number of probe calls are permitted.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Permission to make a call, returned by tryAcquirePermission. The outcome
+     * of the call is recorded with the same permission.
+     */
+    public static final class Permit {
+
+        /**
+         * Permission of a call that is not a probe. It's also used to record
+         * the outcome of a call made without a permission, e.g. when all the
+         * endpoints are ejected.
+         */
+        public static final Permit CALL = new Permit(0);
+
+        // Half-open period of a probe, 0 if the call is not a probe
+        private final long period;
+
+        private Permit(long period) {
+            this.period = period;
+        }
+
+        /**
+         * Returns true if the permission was granted to a probe call in
+         * half-open state.
+         *
+         * @return true if the call is a probe
+         */
+        public boolean isProbe() {
+            return this.period != 0;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int consecutiveFailureThreshold;
+    private final double errorRateThreshold;
+    private final int minimumNumberOfCalls;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier nanoClock;
+
+    // Outcomes of the latest calls in closed state, true = failure
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+    private int consecutiveFailures;
+    private int probesPermitted;
+    private int probesSucceeded;
+    private long halfOpenPeriod;
+
+    private volatile State state;
+    private volatile long openedAt;
+
+    /**
+     * Constructs and initializes a new CircuitBreaker.
+     *
+     * @param name name of the circuit breaker used in log messages, e.g. the
+     * URL of the endpoint
+     * @param config circuit breaker settings
+     */
+    public CircuitBreaker(String name, CircuitBreakerConfig config) {
+        this(name, config, System::nanoTime);
+    }
+
+    /**
+     * Constructs and initializes a new CircuitBreaker that reads the current
+     * time from the given clock.
+     *
+     * @param name name of the circuit breaker used in log messages
+     * @param config circuit breaker settings
+     * @param nanoClock clock returning the current time in nanoseconds
+     */
+    CircuitBreaker(String name, CircuitBreakerConfig config, LongSupplier nanoClock) {
+        if (config.getSlidingWindowSize() < 1 || config.getConsecutiveFailureThreshold() < 1 || config.getHalfOpenProbes() < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker configuration.");
+        }
+        this.name = name;
+        this.consecutiveFailureThreshold = config.getConsecutiveFailureThreshold();
+        this.errorRateThreshold = config.getErrorRateThreshold();
+        this.minimumNumberOfCalls = Math.min(config.getMinimumNumberOfCalls(), config.getSlidingWindowSize());
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenDurationMillis());
+        this.halfOpenProbes = config.getHalfOpenProbes();
+        this.nanoClock = nanoClock;
+        this.window = new boolean[config.getSlidingWindowSize()];
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Returns true if a call would currently be permitted. Unlike
+     * tryAcquirePermission, this method does not change the state of the
+     * breaker.
+     *
+     * @return true if a call would be permitted
+     */
+    public boolean isCallPermitted() {
+        State current = this.state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            return this.openDurationElapsed();
+        }
+        synchronized (this) {
+            return this.state != State.HALF_OPEN || this.probesPermitted < this.halfOpenProbes;
+        }
+    }
+
+    /**
+     * Tries to acquire a permission to make a call. In closed state the
+     * permission is always granted. In open state the permission is granted
+     * only if the open duration has elapsed, in which case the breaker moves
+     * to half-open state. In half-open state the permission is granted until
+     * the configured number of probe calls has been made.
+     *
+     * @return permission of the call, or null if the call is not permitted
+     */
+    public Permit tryAcquirePermission() {
+        if (this.state == State.CLOSED) {
+            return Permit.CALL;
+        }
+        synchronized (this) {
+            if (this.state == State.OPEN) {
+                if (!this.openDurationElapsed()) {
+                    return null;
+                }
+                LOGGER.info("Circuit breaker \"{}\" is half-open. Permit {} probe calls.", this.name, this.halfOpenProbes);
+                this.state = State.HALF_OPEN;
+                this.halfOpenPeriod++;
+                this.probesPermitted = 0;
+                this.probesSucceeded = 0;
+            }
+            if (this.state == State.HALF_OPEN) {
+                if (this.probesPermitted >= this.halfOpenProbes) {
+                    return null;
+                }
+                this.probesPermitted++;
+                return new Permit(this.halfOpenPeriod);
+            }
+            return Permit.CALL;
+        }
+    }
+
+    /**
+     * Releases a permission acquired with tryAcquirePermission without
+     * recording an outcome, e.g. when the call was cancelled. Releasing a
+     * probe of the current half-open period lets another probe call
+     * through.
+     *
+     * @param permit permission of the call
+     */
+    public synchronized void releasePermission(Permit permit) {
+        if (this.isCurrentProbe(permit)) {
+            this.probesPermitted--;
+        }
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @param permit permission of the call
+     */
+    public synchronized void onSuccess(Permit permit) {
+        if (this.isCurrentProbe(permit)) {
+            this.probesSucceeded++;
+            if (this.probesSucceeded >= this.halfOpenProbes) {
+                LOGGER.info("Circuit breaker \"{}\" is closed. Endpoint is re-admitted.", this.name);
+                this.reset();
+            }
+        } else if (!permit.isProbe() && this.state == State.CLOSED) {
+            this.consecutiveFailures = 0;
+            this.record(false);
+        }
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @param permit permission of the call
+     */
+    public synchronized void onFailure(Permit permit) {
+        if (this.isCurrentProbe(permit)) {
+            LOGGER.warn("Probe call through circuit breaker \"{}\" failed. Circuit is opened again.", this.name);
+            this.open();
+        } else if (!permit.isProbe() && this.state == State.CLOSED) {
+            this.consecutiveFailures++;
+            this.record(true);
+            if (this.consecutiveFailures >= this.consecutiveFailureThreshold) {
+                LOGGER.warn("Circuit breaker \"{}\" is opened after {} consecutive failures.", this.name, this.consecutiveFailures);
+                this.open();
+            } else if (this.windowCount >= this.minimumNumberOfCalls
+                    && (double) this.windowFailures / this.windowCount >= this.errorRateThreshold) {
+                LOGGER.warn("Circuit breaker \"{}\" is opened. Error rate {} of the latest {} calls.", this.name,
+                        (double) this.windowFailures / this.windowCount, this.windowCount);
+                this.open();
+            }
+        }
+    }
+
+    /**
+     * Returns the current state of the breaker. An open breaker whose open
+     * duration has elapsed is reported as open until the next call is
+     * permitted.
+     *
+     * @return current state
+     */
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * Returns the name of the breaker.
+     *
+     * @return name of the breaker
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns true if the given permission was granted to a probe of the
+     * current half-open period. The outcomes of the probes of an earlier
+     * period are ignored.
+     *
+     * @param permit permission of a call
+     * @return true if the call is a probe of the current period
+     */
+    private boolean isCurrentProbe(Permit permit) {
+        return this.state == State.HALF_OPEN && permit.period == this.halfOpenPeriod;
+    }
+
+    /**
+     * Adds the outcome of a call to the sliding window.
+     *
+     * @param failure true if the call failed
+     */
+    private void record(boolean failure) {
+        if (this.windowCount == this.window.length) {
+            if (this.window[this.windowIndex]) {
+                this.windowFailures--;
+            }
+        } else {
+            this.windowCount++;
+        }
+        this.window[this.windowIndex] = failure;
+        if (failure) {
+            this.windowFailures++;
+        }
+        this.windowIndex = (this.windowIndex + 1) % this.window.length;
+    }
+
+    /**
+     * Moves the breaker to open state.
+     */
+    private void open() {
+        this.openedAt = this.nanoClock.getAsLong();
+        this.state = State.OPEN;
+    }
+
+    /**
+     * Moves the breaker to closed state and clears the statistics.
+     */
+    private void reset() {
+        this.windowIndex = 0;
+        this.windowCount = 0;
+        this.windowFailures = 0;
+        this.consecutiveFailures = 0;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Returns true if the open duration has elapsed.
+     *
+     * @return true if the open duration has elapsed
+     */
+    private boolean openDurationElapsed() {
+        return this.nanoClock.getAsLong() - this.openedAt >= this.openDurationNanos;
+    }
+}
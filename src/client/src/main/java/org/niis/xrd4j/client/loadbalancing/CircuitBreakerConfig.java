@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+/**
+ * This class holds the settings of the circuit breakers that track the health
+ * of load balanced endpoints. A circuit is opened, i.e. the endpoint is
+ * ejected, when the number of consecutive failures reaches the given
+ * threshold, or when the error rate in the sliding window of the latest calls
+ * reaches the given rate. After the open duration has elapsed, the given
+ * number of probe calls are let through. If they all succeed the endpoint is
+ * re-admitted, otherwise the circuit is opened again.
+ */
+public class CircuitBreakerConfig {
+
+    /**
+     * Default number of consecutive failures that opens the circuit.
+     */
+    public static final int DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD = 5;
+    /**
+     * Default error rate that opens the circuit.
+     */
+    public static final double DEFAULT_ERROR_RATE_THRESHOLD = 0.5;
+    /**
+     * Default size of the sliding window used for calculating the error rate.
+     */
+    public static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+    /**
+     * Default minimum number of calls in the sliding window before the error
+     * rate is evaluated.
+     */
+    public static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 10;
+    /**
+     * Default time in milliseconds the circuit stays open.
+     */
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000L;
+    /**
+     * Default number of probe calls permitted in half-open state.
+     */
+    public static final int DEFAULT_HALF_OPEN_PROBES = 1;
+
+    private int consecutiveFailureThreshold = DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD;
+    private double errorRateThreshold = DEFAULT_ERROR_RATE_THRESHOLD;
+    private int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+    private int minimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+    private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+    private int halfOpenProbes = DEFAULT_HALF_OPEN_PROBES;
+
+    /**
+     * Returns the number of consecutive failures that opens the circuit.
+     *
+     * @return consecutive failure threshold
+     */
+    public int getConsecutiveFailureThreshold() {
+        return consecutiveFailureThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures that opens the circuit.
+     *
+     * @param consecutiveFailureThreshold new value
+     */
+    public void setConsecutiveFailureThreshold(int consecutiveFailureThreshold) {
+        this.consecutiveFailureThreshold = consecutiveFailureThreshold;
+    }
+
+    /**
+     * Returns the error rate, between 0 and 1, that opens the circuit.
+     *
+     * @return error rate threshold
+     */
+    public double getErrorRateThreshold() {
+        return errorRateThreshold;
+    }
+
+    /**
+     * Sets the error rate, between 0 and 1, that opens the circuit.
+     *
+     * @param errorRateThreshold new value
+     */
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    /**
+     * Returns the number of latest calls used for calculating the error rate.
+     *
+     * @return sliding window size
+     */
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * Sets the number of latest calls used for calculating the error rate.
+     *
+     * @param slidingWindowSize new value
+     */
+    public void setSlidingWindowSize(int slidingWindowSize) {
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    /**
+     * Returns the minimum number of calls in the sliding window before the
+     * error rate is evaluated.
+     *
+     * @return minimum number of calls
+     */
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    /**
+     * Sets the minimum number of calls in the sliding window before the
+     * error rate is evaluated.
+     *
+     * @param minimumNumberOfCalls new value
+     */
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    /**
+     * Returns the time in milliseconds the circuit stays open before probe
+     * calls are permitted.
+     *
+     * @return open duration in milliseconds
+     */
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds the circuit stays open before probe
+     * calls are permitted.
+     *
+     * @param openDurationMillis new value
+     */
+    public void setOpenDurationMillis(long openDurationMillis) {
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * Returns the number of probe calls permitted in half-open state. All of
+     * them must succeed before the circuit is closed.
+     *
+     * @return number of probe calls
+     */
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * Sets the number of probe calls permitted in half-open state. All of
+     * them must succeed before the circuit is closed.
+     *
+     * @param halfOpenProbes new value
+     */
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.niis.xrd4j.common.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a single load balanced endpoint, i.e. a security
+ * server URL, and holds the health information and statistics of the
+ * endpoint. The statistics, the number of requests in flight, the
+ * exponentially weighted moving average (EWMA) of the response latency and
+ * the latency histogram, are used by load balancing strategies and hedging.
+ * They are updated without locking.
+ */
+public class Endpoint {
+
+    /**
+     * Weight of the latest sample in the latency EWMA.
+     */
+    private static final double EWMA_ALPHA = 0.3;
+    /**
+     * Number of samples after which the latency histogram is decayed.
+     */
+    private static final int HISTOGRAM_DECAY_INTERVAL = 1000;
+
+    private final String url;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    // Latency EWMA in nanoseconds stored as double bits, 0 if there are no samples
+    private final AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+
+    /**
+     * Constructs and initializes a new Endpoint.
+     *
+     * @param url URL of the endpoint
+     * @param circuitBreakerConfig settings of the endpoint's circuit breaker
+     */
+    public Endpoint(String url, CircuitBreakerConfig circuitBreakerConfig) {
+        this(url, new CircuitBreaker(url, circuitBreakerConfig));
+    }
+
+    /**
+     * Constructs and initializes a new Endpoint.
+     *
+     * @param url URL of the endpoint
+     * @param circuitBreaker circuit breaker of the endpoint
+     */
+    Endpoint(String url, CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the URL of the endpoint.
+     *
+     * @return URL of the endpoint
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the circuit breaker of the endpoint.
+     *
+     * @return circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns true if the endpoint has not been ejected, i.e. requests can
+     * currently be sent to it.
+     *
+     * @return true if the endpoint is available
+     */
+    public boolean isAvailable() {
+        return this.circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * Returns the number of requests that have been sent to the endpoint and
+     * have not completed yet.
+     *
+     * @return number of requests in flight
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the latency of
+     * successful requests in nanoseconds. Zero is returned if no request has
+     * succeeded yet.
+     *
+     * @return latency EWMA in nanoseconds
+     */
+    public double getLatencyEwmaNanos() {
+        return Double.longBitsToDouble(this.latencyEwma.get());
+    }
+
+    /**
+     * Returns the histogram of the latencies of successful requests. The
+     * histogram is decayed periodically, so it reflects the recent
+     * latencies.
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return this.latencyHistogram;
+    }
+
+    /**
+     * Returns the number of failed requests to this endpoint that were
+     * retried on another endpoint.
+     *
+     * @return number of retried requests
+     */
+    public long getRetryCount() {
+        return this.retries.get();
+    }
+
+    /**
+     * Records that a failed request to this endpoint is retried.
+     */
+    public void requestRetried() {
+        this.retries.incrementAndGet();
+    }
+
+    /**
+     * Records that a request was sent to the endpoint.
+     */
+    public void requestStarted() {
+        this.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records a successful request.
+     *
+     * @param latencyNanos latency of the request in nanoseconds
+     * @param permit circuit breaker permission of the request
+     */
+    public void requestSucceeded(long latencyNanos, CircuitBreaker.Permit permit) {
+        this.inFlight.decrementAndGet();
+        this.latencyEwma.getAndUpdate(bits -> {
+            double current = Double.longBitsToDouble(bits);
+            double updated = current == 0.0 ? latencyNanos : current + EWMA_ALPHA * (latencyNanos - current);
+            return Double.doubleToLongBits(updated);
+        });
+        this.latencyHistogram.record(latencyNanos);
+        if (this.samples.incrementAndGet() % HISTOGRAM_DECAY_INTERVAL == 0) {
+            this.latencyHistogram.decay();
+        }
+        this.circuitBreaker.onSuccess(permit);
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param permit circuit breaker permission of the request
+     */
+    public void requestFailed(CircuitBreaker.Permit permit) {
+        this.inFlight.decrementAndGet();
+        this.circuitBreaker.onFailure(permit);
+    }
+
+    /**
+     * Records a request that was cancelled before it completed. No outcome
+     * is recorded in the circuit breaker.
+     *
+     * @param permit circuit breaker permission of the request
+     */
+    public void requestCancelled(CircuitBreaker.Permit permit) {
+        this.inFlight.decrementAndGet();
+        this.circuitBreaker.releasePermission(permit);
+    }
+
+    /**
+     * Records a request that failed with an error that tells nothing about
+     * the health of the endpoint, e.g. a serialization or deserialization
+     * error. No outcome is recorded in the circuit breaker.
+     *
+     * @param permit circuit breaker permission of the request
+     */
+    public void requestAborted(CircuitBreaker.Permit permit) {
+        this.inFlight.decrementAndGet();
+        this.circuitBreaker.releasePermission(permit);
+    }
+
+    @Override
+    public String toString() {
+        return this.url + " (" + this.circuitBreaker.getState() + ", in flight: " + this.getInFlight() + ")";
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines when hedged requests are sent. A hedged request is a
+ * duplicate of a request that is sent to another endpoint if no response has
+ * been received within the hedge delay. The first response is used and the
+ * other request is cancelled. Hedging is applied only to the services whose
+ * service codes have been defined, and they must be idempotent, because both
+ * requests may be processed.
+ *
+ * The hedge delay is the configured percentile of the latencies recently
+ * observed on the endpoint where the original request was sent, limited
+ * between the minimum and maximum delay. Until the endpoint has enough latency
+ * samples, the default delay is used.
+ *
+ * The number of hedged requests is limited by a budget: each hedgeable
+ * request earns the budget ratio of a hedge token, e.g. 0.05, and each hedged
+ * request spends one token. Unused tokens are accumulated up to the maximum
+ * burst. The budget starts full. The budget state is shared by all the
+ * requests of a client.
+ */
+public class HedgingPolicy {
+
+    /**
+     * Default latency percentile used as the hedge delay.
+     */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    /**
+     * Default delay in milliseconds used until there are enough samples.
+     */
+    public static final long DEFAULT_DELAY_MILLIS = 100L;
+    /**
+     * Default minimum hedge delay in milliseconds.
+     */
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 5L;
+    /**
+     * Default maximum hedge delay in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000L;
+    /**
+     * Default minimum number of latency samples before the percentile is
+     * used.
+     */
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    /**
+     * Default ratio of hedged requests to hedgeable requests.
+     */
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+    /**
+     * Default maximum number of accumulated hedge tokens.
+     */
+    public static final int DEFAULT_MAX_BURST = 10;
+
+    // Hedge tokens are stored in fixed point
+    private static final long TOKEN_SCALE = 1000L;
+
+    private final Set<String> serviceCodes;
+    private final AtomicLong tokens = new AtomicLong(DEFAULT_MAX_BURST * TOKEN_SCALE);
+    private double percentile = DEFAULT_PERCENTILE;
+    private long defaultDelayMillis = DEFAULT_DELAY_MILLIS;
+    private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private int maxBurst = DEFAULT_MAX_BURST;
+
+    /**
+     * Constructs and initializes a new HedgingPolicy.
+     *
+     * @param serviceCodes service codes of the idempotent services whose
+     * requests may be hedged
+     */
+    public HedgingPolicy(Set<String> serviceCodes) {
+        this.serviceCodes = Collections.unmodifiableSet(new HashSet<>(serviceCodes));
+    }
+
+    /**
+     * Returns true if requests to the given service may be hedged.
+     *
+     * @param serviceCode service code
+     * @return true if requests to the service may be hedged
+     */
+    public boolean isHedged(String serviceCode) {
+        return serviceCode != null && this.serviceCodes.contains(serviceCode);
+    }
+
+    /**
+     * Returns the hedge delay of a request sent to the given endpoint.
+     *
+     * @param endpoint endpoint where the original request was sent
+     * @return hedge delay in nanoseconds
+     */
+    public long getDelayNanos(Endpoint endpoint) {
+        if (endpoint.getLatencyHistogram().getCount() < this.minSamples) {
+            return TimeUnit.MILLISECONDS.toNanos(this.defaultDelayMillis);
+        }
+        long delay = endpoint.getLatencyHistogram().getPercentileNanos(this.percentile);
+        return Math.min(Math.max(delay, TimeUnit.MILLISECONDS.toNanos(this.minDelayMillis)),
+                TimeUnit.MILLISECONDS.toNanos(this.maxDelayMillis));
+    }
+
+    /**
+     * Adds the budget ratio of a hedge token to the budget. Called for each
+     * hedgeable request.
+     */
+    public void onRequest() {
+        long earned = (long) (this.budgetRatio * TOKEN_SCALE);
+        long max = this.maxBurst * TOKEN_SCALE;
+        this.tokens.getAndUpdate(current -> Math.min(current + earned, max));
+    }
+
+    /**
+     * Tries to spend a hedge token from the budget.
+     *
+     * @return true if a hedged request may be sent
+     */
+    public boolean tryAcquireHedge() {
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current < TOKEN_SCALE) {
+                return false;
+            }
+        } while (!this.tokens.compareAndSet(current, current - TOKEN_SCALE));
+        return true;
+    }
+
+    /**
+     * Returns the service codes of the services whose requests may be hedged.
+     *
+     * @return unmodifiable set of service codes
+     */
+    public Set<String> getServiceCodes() {
+        return serviceCodes;
+    }
+
+    /**
+     * Returns the latency percentile, between 0 and 1, used as the hedge
+     * delay.
+     *
+     * @return latency percentile
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the latency percentile, between 0 and 1, used as the hedge delay.
+     *
+     * @param percentile new value
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Returns the delay in milliseconds used until the endpoint has enough
+     * latency samples.
+     *
+     * @return default delay in milliseconds
+     */
+    public long getDefaultDelayMillis() {
+        return defaultDelayMillis;
+    }
+
+    /**
+     * Sets the delay in milliseconds used until the endpoint has enough
+     * latency samples.
+     *
+     * @param defaultDelayMillis new value
+     */
+    public void setDefaultDelayMillis(long defaultDelayMillis) {
+        this.defaultDelayMillis = defaultDelayMillis;
+    }
+
+    /**
+     * Returns the minimum hedge delay in milliseconds.
+     *
+     * @return minimum delay in milliseconds
+     */
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    /**
+     * Sets the minimum hedge delay in milliseconds.
+     *
+     * @param minDelayMillis new value
+     */
+    public void setMinDelayMillis(long minDelayMillis) {
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Returns the maximum hedge delay in milliseconds.
+     *
+     * @return maximum delay in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Sets the maximum hedge delay in milliseconds.
+     *
+     * @param maxDelayMillis new value
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Returns the minimum number of latency samples before the percentile is
+     * used.
+     *
+     * @return minimum number of samples
+     */
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * Sets the minimum number of latency samples before the percentile is
+     * used.
+     *
+     * @param minSamples new value
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Returns the ratio of hedged requests to hedgeable requests.
+     *
+     * @return budget ratio
+     */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * Sets the ratio of hedged requests to hedgeable requests, e.g. 0.05
+     * allows at most 5% extra requests.
+     *
+     * @param budgetRatio new value
+     */
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * Returns the maximum number of accumulated hedge tokens.
+     *
+     * @return maximum burst
+     */
+    public int getMaxBurst() {
+        return maxBurst;
+    }
+
+    /**
+     * Sets the maximum number of accumulated hedge tokens. The budget is
+     * refilled to the new maximum.
+     *
+     * @param maxBurst new value
+     */
+    public void setMaxBurst(int maxBurst) {
+        this.maxBurst = maxBurst;
+        this.tokens.set(maxBurst * TOKEN_SCALE);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements a strategy that selects the candidate with the
+ * least requests in flight. The candidates are scanned starting from a
+ * rotating offset, so ties are broken in round-robin fashion.
+ */
+public class LeastOutstandingRequestsStrategy implements LoadBalancingStrategy {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Selects the candidate with the least requests in flight.
+     *
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint
+     */
+    @Override
+    public Endpoint select(List<Endpoint> candidates) {
+        int size = candidates.size();
+        int offset = Math.floorMod(this.counter.getAndIncrement(), size);
+        Endpoint selected = null;
+        int least = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Endpoint candidate = candidates.get((offset + i) % size);
+            int inFlight = candidate.getInFlight();
+            if (inFlight < least) {
+                selected = candidate;
+                least = inFlight;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import java.util.List;
+
+/**
+ * This interface defines a strategy that selects the endpoint where the next
+ * request is sent. The strategy is given the endpoints that are currently
+ * available, i.e. not ejected by their circuit breakers. Implementations are
+ * called concurrently by all the request threads and must be thread-safe.
+ */
+public interface LoadBalancingStrategy {
+
+    /**
+     * Selects the endpoint where the next request is sent.
+     *
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint, one of the candidates
+     */
+    Endpoint select(List<Endpoint> candidates);
+
+    /**
+     * Selects the endpoint where the next request is sent. The strategy is
+     * given all the endpoints of the client too, so that it can keep its
+     * state when some of them are temporarily not available. By default the
+     * endpoints are ignored.
+     *
+     * @param endpoints all the endpoints of the client
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint, one of the candidates
+     */
+    default Endpoint select(List<Endpoint> endpoints, List<Endpoint> candidates) {
+        return this.select(candidates);
+    }
+}
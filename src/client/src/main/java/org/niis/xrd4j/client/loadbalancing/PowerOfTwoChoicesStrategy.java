@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class implements the power of two choices strategy. Two distinct
+ * candidates are picked at random and the one with the lower cost is
+ * selected. The cost of an endpoint is its latency EWMA multiplied by the
+ * number of requests in flight plus one, so that a fast endpoint that is
+ * already busy is not flooded with requests. Endpoints that have no latency
+ * samples yet have zero cost and are therefore tried first.
+ */
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+
+    /**
+     * Selects the cheaper one of two random candidates.
+     *
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint
+     */
+    @Override
+    public Endpoint select(List<Endpoint> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return cost(b) < cost(a) ? b : a;
+    }
+
+    /**
+     * Returns the cost of the given endpoint.
+     *
+     * @param endpoint endpoint
+     * @return cost of the endpoint
+     */
+    private static double cost(Endpoint endpoint) {
+        return endpoint.getLatencyEwmaNanos() * (endpoint.getInFlight() + 1);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.niis.xrd4j.client.transport.HttpStatusException;
+
+import org.apache.hc.client5.http.ConnectTimeoutException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class defines when and how a failed request is retried on another
+ * endpoint. Only errors that guarantee the endpoint has not processed the
+ * request are retried: the connection could not be established (connection
+ * refused, no route to host, unknown host or connect timeout), or the
+ * endpoint returned HTTP 503 Service Unavailable. A timeout while waiting for
+ * the response is never retried, because the request may have been
+ * processed.
+ *
+ * Before each retry the client waits for a backoff delay with full jitter,
+ * i.e. a random delay between zero and the exponentially growing backoff
+ * limit. No retry is started if it could not be started before the deadline
+ * of the call. The deadline is measured from the start of the first attempt,
+ * and it bounds the attempts too: an attempt that has not received a response
+ * when the deadline is exceeded fails with a timeout. A policy without a
+ * deadline leaves the attempts to be bounded by the timeouts of the
+ * transport.
+ */
+public class RetryPolicy {
+
+    /**
+     * Default maximum number of attempts, including the first one.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /**
+     * Default backoff limit of the first retry in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 50L;
+    /**
+     * Default maximum backoff limit in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000L;
+    /**
+     * Default deadline of a call in milliseconds.
+     */
+    public static final long DEFAULT_DEADLINE_MILLIS = 10000L;
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+    /**
+     * Returns a policy that never retries and has no deadline, so the calls
+     * are bounded only by the timeouts of the transport.
+     *
+     * @return policy that never retries
+     */
+    public static RetryPolicy noRetries() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(1);
+        policy.setDeadlineMillis(0);
+        return policy;
+    }
+
+    /**
+     * Returns true if the given error is safe to retry, i.e. the endpoint
+     * has not processed the request. The whole cause chain of the error is
+     * checked.
+     *
+     * @param error error to be checked
+     * @return true if the error is safe to retry
+     */
+    public boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException
+                    || t instanceof ConnectTimeoutException) {
+                return true;
+            }
+            if (t instanceof HttpStatusException && ((HttpStatusException) t).getStatusCode() == HTTP_SERVICE_UNAVAILABLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the delay before the given retry. The delay is a random value
+     * between zero and the backoff limit, which is doubled on each retry
+     * starting from the initial backoff and capped to the maximum backoff.
+     *
+     * @param retry number of the retry, starting from 1
+     * @return delay in nanoseconds
+     */
+    public long getBackoffNanos(int retry) {
+        int shift = Math.min(Math.max(retry - 1, 0), MAX_BACKOFF_SHIFT);
+        long limit = Math.min(this.maxBackoffMillis, this.initialBackoffMillis << shift);
+        long limitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(limit, 0));
+        return limitNanos == 0 ? 0 : ThreadLocalRandom.current().nextLong(limitNanos + 1);
+    }
+
+    /**
+     * Returns the maximum number of attempts, including the first one.
+     *
+     * @return maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of attempts, including the first one. Value 1
+     * disables retries.
+     *
+     * @param maxAttempts new value
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the backoff limit of the first retry in milliseconds.
+     *
+     * @return initial backoff in milliseconds
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Sets the backoff limit of the first retry in milliseconds.
+     *
+     * @param initialBackoffMillis new value
+     */
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Returns the maximum backoff limit in milliseconds.
+     *
+     * @return maximum backoff in milliseconds
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * Sets the maximum backoff limit in milliseconds.
+     *
+     * @param maxBackoffMillis new value
+     */
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Returns the deadline of a call in milliseconds. Zero or a negative
+     * value means that the call has no deadline.
+     *
+     * @return deadline in milliseconds
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Sets the deadline of a call in milliseconds. No retry is started after
+     * the deadline, and an attempt still waiting for the response at the
+     * deadline fails. Zero or a negative value disables the deadline.
+     *
+     * @param deadlineMillis new value
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements a weighted round-robin strategy. Each endpoint
+ * receives requests in proportion to its weight. The requests are
+ * interleaved, e.g. with weights A=3 and B=1 the order is A, B, A, A, so that
+ * an endpoint does not receive a burst of consecutive requests. Endpoints
+ * whose weight is not defined have the default weight 1.
+ *
+ * The schedule is built for all the endpoints of the client, and the
+ * endpoints that are not available are skipped when the next endpoint is
+ * selected. This way the schedule is not rebuilt each time an endpoint is
+ * ejected or returns.
+ */
+public class WeightedRoundRobinStrategy implements LoadBalancingStrategy {
+
+    /**
+     * Weight of the endpoints whose weight is not defined.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final Map<String, Integer> weights;
+    private final AtomicInteger counter = new AtomicInteger();
+    private volatile Schedule schedule;
+
+    /**
+     * Constructs and initializes a new WeightedRoundRobinStrategy.
+     *
+     * @param weights endpoint weights by URL, each weight must be positive
+     */
+    public WeightedRoundRobinStrategy(Map<String, Integer> weights) {
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() < 1) {
+                throw new IllegalArgumentException("Invalid weight for endpoint \"" + entry.getKey() + "\": " + entry.getValue());
+            }
+        }
+        this.weights = Collections.unmodifiableMap(new HashMap<>(weights));
+    }
+
+    /**
+     * Selects the next candidate in the weighted schedule of the given
+     * candidates.
+     *
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint
+     */
+    @Override
+    public Endpoint select(List<Endpoint> candidates) {
+        return this.select(candidates, candidates);
+    }
+
+    /**
+     * Selects the next candidate in the weighted schedule of all the
+     * endpoints. The endpoints that are not candidates are skipped.
+     *
+     * @param endpoints all the endpoints of the client
+     * @param candidates available endpoints, never empty
+     * @return selected endpoint
+     */
+    @Override
+    public Endpoint select(List<Endpoint> endpoints, List<Endpoint> candidates) {
+        Schedule current = this.schedule;
+        if (current == null || !current.endpoints.equals(endpoints)) {
+            current = new Schedule(endpoints, this.buildOrder(endpoints));
+            this.schedule = current;
+        }
+        int size = current.order.size();
+        int start = this.counter.getAndIncrement();
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = current.order.get(Math.floorMod(start + i, size));
+            if (candidates == endpoints || candidates.contains(endpoint)) {
+                return endpoint;
+            }
+        }
+        // The candidates are not in the schedule
+        return candidates.get(Math.floorMod(start, candidates.size()));
+    }
+
+    /**
+     * Returns the weight of the given endpoint.
+     *
+     * @param endpoint endpoint
+     * @return weight of the endpoint
+     */
+    public int getWeight(Endpoint endpoint) {
+        return this.weights.getOrDefault(endpoint.getUrl(), DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Builds the interleaved order of the given endpoints. On round n each
+     * endpoint whose weight is greater than n is added to the order.
+     *
+     * @param candidates endpoints to be scheduled
+     * @return interleaved order
+     */
+    private List<Endpoint> buildOrder(List<Endpoint> candidates) {
+        int maxWeight = 0;
+        for (Endpoint candidate : candidates) {
+            maxWeight = Math.max(maxWeight, this.getWeight(candidate));
+        }
+        List<Endpoint> order = new ArrayList<>();
+        for (int round = 0; round < maxWeight; round++) {
+            for (Endpoint candidate : candidates) {
+                if (this.getWeight(candidate) > round) {
+                    order.add(candidate);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Holds the interleaved order built for a list of endpoints.
+     */
+    private static final class Schedule {
+        private final List<Endpoint> endpoints;
+        private final List<Endpoint> order;
+
+        Schedule(List<Endpoint> endpoints, List<Endpoint> order) {
+            this.endpoints = new ArrayList<>(endpoints);
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.metrics;
+
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+/**
+ * This class defines the names, descriptions and labels of the metrics
+ * recorded by the client module. Each metric is tagged with the endpoint
+ * where the request is sent, the producer and the service code.
+ */
+public final class ClientMetrics {
+
+    /**
+     * Time spent serializing requests.
+     */
+    public static final String SERIALIZE_SECONDS = "xrd4j_client_serialize_seconds";
+    /**
+     * Description of SERIALIZE_SECONDS.
+     */
+    public static final String SERIALIZE_HELP = "Time spent serializing requests.";
+    /**
+     * Time from sending the request until the response has been received.
+     */
+    public static final String CALL_SECONDS = "xrd4j_client_call_seconds";
+    /**
+     * Description of CALL_SECONDS.
+     */
+    public static final String CALL_HELP = "Time spent waiting for responses, including streamed deserialization.";
+    /**
+     * Time spent deserializing responses.
+     */
+    public static final String DESERIALIZE_SECONDS = "xrd4j_client_deserialize_seconds";
+    /**
+     * Description of DESERIALIZE_SECONDS.
+     */
+    public static final String DESERIALIZE_HELP = "Time spent deserializing responses.";
+    /**
+     * Number of failed calls.
+     */
+    public static final String ERRORS = "xrd4j_client_errors_total";
+    /**
+     * Description of ERRORS.
+     */
+    public static final String ERRORS_HELP = "Calls that failed before a response was received.";
+    /**
+     * Label value used when the producer or the service is not known.
+     */
+    public static final String UNKNOWN = "unknown";
+
+    private static final String ENDPOINT = "endpoint";
+    private static final String PRODUCER = "producer";
+    private static final String SERVICE_CODE = "service_code";
+
+    /**
+     * Constructs and initializes a new ClientMetrics object. Should never be
+     * used.
+     */
+    private ClientMetrics() {
+    }
+
+    /**
+     * Returns the labels of the given request sent to the given endpoint.
+     * The producer is identified by its X-Road instance, member class,
+     * member code and subsystem code.
+     *
+     * @param url URL where the request is sent
+     * @param request ServiceRequest or null
+     * @return label names and values
+     */
+    public static String[] labels(String url, ServiceRequest<?> request) {
+        ProducerMember producer = request == null ? null : request.getProducer();
+        if (producer == null) {
+            return labels(url, null, null);
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(producer.getXRoadInstance()).append('.').append(producer.getMemberClass()).append('.').append(producer.getMemberCode());
+        if (producer.getSubsystemCode() != null && !producer.getSubsystemCode().isEmpty()) {
+            builder.append('.').append(producer.getSubsystemCode());
+        }
+        return labels(url, builder.toString(), producer.getServiceCode());
+    }
+
+    /**
+     * Returns the labels of the given endpoint, producer and service code.
+     *
+     * @param url URL where the request is sent
+     * @param producer producer identifier or null
+     * @param serviceCode service code or null
+     * @return label names and values
+     */
+    public static String[] labels(String url, String producer, String serviceCode) {
+        return new String[]{ENDPOINT, url == null ? UNKNOWN : url, PRODUCER, producer == null ? UNKNOWN : producer,
+            SERVICE_CODE, serviceCode == null ? UNKNOWN : serviceCode};
+    }
+}
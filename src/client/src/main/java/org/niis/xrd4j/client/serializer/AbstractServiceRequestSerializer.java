@@ -30,7 +30,6 @@ import org.niis.xrd4j.common.util.SOAPHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jakarta.xml.soap.MessageFactory;
 import jakarta.xml.soap.Name;
 import jakarta.xml.soap.SOAPBody;
 import jakarta.xml.soap.SOAPBodyElement;
@@ -78,8 +77,7 @@ public abstract class AbstractServiceRequestSerializer<T> extends AbstractHeader
     public final SOAPMessage serialize(final ServiceRequest<T> request) {
         try {
             LOGGER.debug("Serialize ServiceRequest message to SOAP.");
-            MessageFactory myMsgFct = MessageFactory.newInstance();
-            SOAPMessage message = myMsgFct.createMessage();
+            SOAPMessage message = SOAPHelper.createSOAPMessage();
 
             request.setSoapMessage(message);
 
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.serializer;
+
+import org.niis.xrd4j.client.transport.SOAPTransport;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.serializer.AbstractStreamingHeaderSerializer;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPMessage;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This abstract class serves as base class for serializer classes that write
+ * ServiceRequest objects straight to an OutputStream using a XMLStreamWriter,
+ * without building a SOAPMessage. All the subclasses must implement the
+ * serializeRequest method which takes care of writing the application
+ * specific request object inside the request element. This class takes care
+ * of writing the SOAP envelope, the X-Road headers and the body.
+ *
+ * SOAPClientImpl writes requests serialized with this class straight to the
+ * HTTP request body. Other clients can still use the serialize method that
+ * returns a SOAPMessage, but then the benefit of streaming is lost.
+ *
+ * @param <T> runtime type of the request data
+ */
+public abstract class AbstractStreamingRequestSerializer<T> extends AbstractStreamingHeaderSerializer implements ServiceRequestSerializer<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractStreamingRequestSerializer.class);
+    // Used for the request element if the producer's namespace has no prefix
+    // and the namespace must not be inherited by the children
+    private static final String DEFAULT_NAMESPACE_PREFIX = "ns1";
+    private static final String ELEM_BODY = "Body";
+    private static final String ELEM_REQUEST = "request";
+
+    /**
+     * Writes the application specific request part inside the request
+     * element. The start tag of the request element has been written, so the
+     * subclass may still write attributes and namespace declarations. The
+     * subclass must close all the elements it has opened, but not the request
+     * element itself. Child elements should be written without namespace,
+     * e.g. using writeStartElement(localName). If the producer's namespace is
+     * added to the request, it's declared as the default namespace of the
+     * request element and the children inherit it.
+     *
+     * @param request ServiceRequest holding the application specific request
+     * object
+     * @param writer writer positioned inside the request element
+     * @throws XMLStreamException if writing the request fails
+     */
+    protected abstract void serializeRequest(ServiceRequest<T> request, XMLStreamWriter writer) throws XMLStreamException;
+
+    /**
+     * Writes the given ServiceRequest as a SOAP envelope to the given stream
+     * using UTF-8 encoding. The stream is not closed.
+     *
+     * @param request ServiceRequest to be serialized
+     * @param out stream where the SOAP envelope is written
+     * @throws XMLStreamException if writing the request fails
+     * @throws IOException if an I/O error occurs
+     */
+    public final void serialize(final ServiceRequest<T> request, final OutputStream out) throws XMLStreamException, IOException {
+        LOGGER.debug("Write ServiceRequest message to stream.");
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+        try {
+            super.serializeEnvelopeStart(request, writer, out);
+            this.serializeBody(request, writer);
+            super.serializeEnvelopeEnd(writer);
+        } finally {
+            writer.close();
+        }
+        LOGGER.debug("ServiceRequest message was written succesfully.");
+    }
+
+    /**
+     * Serializes the given ServiceRequest to SOAPMessage. The request is
+     * written to a buffer that is then parsed to SOAPMessage, so this is
+     * slower than writing the request to a stream.
+     *
+     * @param request ServiceRequest to be serialized
+     * @return SOAPMessage representing the given ServiceRequest; null if the
+     * operation fails
+     */
+    @Override
+    public final SOAPMessage serialize(final ServiceRequest<T> request) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            this.serialize(request, out);
+            MimeHeaders headers = new MimeHeaders();
+            headers.addHeader(SOAPTransport.CONTENT_TYPE, SOAPTransport.TEXT_XML_UTF_8);
+            SOAPMessage message = SOAPHelper.createSOAPMessage(headers, new ByteArrayInputStream(out.toByteArray()));
+            request.setSoapMessage(message);
+            return message;
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+        LOGGER.warn("Failed to serialize ServiceRequest message to SOAP.");
+        return null;
+    }
+
+    /**
+     * Writes SOAP body, including the request element.
+     *
+     * @param request ServiceRequest to be serialized
+     * @param writer writer where the body is written
+     * @throws XMLStreamException if writing the body fails
+     */
+    private void serializeBody(final ServiceRequest<T> request, final XMLStreamWriter writer) throws XMLStreamException {
+        LOGGER.debug("Write SOAP body.");
+        String serviceCode = request.getProducer().getServiceCode();
+        String namespace = request.getProducer().getNamespaceUrl();
+        boolean hasNamespace = namespace != null && !namespace.isEmpty();
+        boolean qualified = hasNamespace && request.isAddNamespaceToRequest();
+        String prefix = request.getProducer().getNamespacePrefix() == null ? "" : request.getProducer().getNamespacePrefix();
+        if (hasNamespace && prefix.isEmpty() && !qualified) {
+            prefix = DEFAULT_NAMESPACE_PREFIX;
+        }
+        LOGGER.debug("Use producer namespace \"{}\".", namespace);
+
+        writer.writeStartElement(SOAP_ENV_PREFIX, ELEM_BODY, SOAP_ENV_URI);
+        if (hasNamespace) {
+            writer.writeStartElement(prefix, serviceCode, namespace);
+            if (prefix.isEmpty()) {
+                writer.writeDefaultNamespace(namespace);
+            } else {
+                writer.writeNamespace(prefix, namespace);
+            }
+        } else {
+            writer.writeStartElement(serviceCode);
+        }
+        if (request.getRequestData() != null) {
+            // Check if it is needed to process "request" and "response" wrappers
+            if (request.isProcessingWrappers()) {
+                LOGGER.debug("Adding \"request\" wrapper to request message.");
+                if (qualified) {
+                    writer.writeStartElement(prefix, ELEM_REQUEST, namespace);
+                } else {
+                    writer.writeStartElement(ELEM_REQUEST);
+                }
+            } else {
+                LOGGER.debug("Skipping addition of \"request\" wrapper to request message.");
+            }
+            // Children of the request element inherit the producer's namespace
+            if (qualified && !prefix.isEmpty()) {
+                writer.writeDefaultNamespace(namespace);
+            }
+            LOGGER.trace("Passing processing to subclass implementing \"serializeRequest\" method.");
+            this.serializeRequest(request, writer);
+            if (request.isProcessingWrappers()) {
+                writer.writeEndElement();
+            }
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        LOGGER.debug("SOAP body was written succesfully.");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents the deadline of a call, i.e. the point of time after
+ * which the caller stops waiting for the response. A deadline can be set for
+ * the blocking calls made by the current thread, in which case transports
+ * that support it, e.g. PooledHttpSOAPTransport, use the remaining time as
+ * the timeout of the request. The call is then bounded without running it in
+ * another thread. Transports that don't support it are bounded only by their
+ * own timeouts.
+ */
+public final class CallDeadline {
+
+    /**
+     * Deadline that is never exceeded.
+     */
+    public static final CallDeadline NONE = new CallDeadline(0L, false);
+
+    private static final ThreadLocal<CallDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private CallDeadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Returns a deadline that is exceeded after the given number of
+     * milliseconds from now. Zero or a negative value returns NONE.
+     *
+     * @param millis time until the deadline in milliseconds
+     * @return new deadline
+     */
+    public static CallDeadline after(long millis) {
+        if (millis <= 0) {
+            return NONE;
+        }
+        return new CallDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true);
+    }
+
+    /**
+     * Returns the deadline of the blocking calls made by the current thread.
+     * NONE is returned if no deadline has been set.
+     *
+     * @return deadline of the current thread
+     */
+    public static CallDeadline current() {
+        CallDeadline deadline = CURRENT.get();
+        return deadline == null ? NONE : deadline;
+    }
+
+    /**
+     * Sets the deadline of the blocking calls made by the current thread and
+     * returns the previous one. The previous deadline must be restored with
+     * this method when the call has completed.
+     *
+     * @param deadline new deadline of the current thread
+     * @return previous deadline of the current thread
+     */
+    public static CallDeadline setCurrent(CallDeadline deadline) {
+        CallDeadline previous = current();
+        if (deadline == null || deadline == NONE) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns true if this deadline can be exceeded, i.e. it's not NONE.
+     *
+     * @return true if the deadline is bounded
+     */
+    public boolean isBounded() {
+        return this.bounded;
+    }
+
+    /**
+     * Returns the time remaining until the deadline in nanoseconds. The value
+     * is zero or negative if the deadline has been exceeded, and
+     * Long.MAX_VALUE if the deadline is not bounded.
+     *
+     * @return remaining time in nanoseconds
+     */
+    public long getRemainingNanos() {
+        return this.bounded ? this.deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the deadline has been exceeded.
+     *
+     * @return true if the deadline has been exceeded
+     */
+    public boolean isExceeded() {
+        return this.getRemainingNanos() <= 0;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import jakarta.xml.soap.SOAPException;
+
+/**
+ * This exception is thrown by a transport when the endpoint returns an HTTP
+ * status code that does not contain a SOAP response.
+ */
+public class HttpStatusException extends SOAPException {
+
+    private final int statusCode;
+
+    /**
+     * Constructs and initializes a new HttpStatusException.
+     *
+     * @param statusCode HTTP status code returned by the endpoint
+     * @param reason a description of what caused the exception
+     */
+    public HttpStatusException(int statusCode, String reason) {
+        super(reason);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the HTTP status code returned by the endpoint.
+     *
+     * @return HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
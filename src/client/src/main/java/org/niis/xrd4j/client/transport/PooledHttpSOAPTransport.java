@@ -0,0 +1,717 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityTemplate;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.MimeHeader;
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a transport that keeps persistent HTTP connections
+ * to SOAP endpoints in a bounded pool. Connections are reused across requests
+ * (HTTP keep-alive), so TCP and TLS setup is paid only when a new connection
+ * is needed. The number of connections is limited both per endpoint (route)
+ * and in total, and connections that have been idle longer than the given
+ * idle timeout are evicted by a background thread.
+ *
+ * TLS connections use the default SSL socket factory and host name verifier
+ * of HttpsURLConnection at the time each connection is opened, so the settings
+ * made with ClientUtil are honoured the same way as with SAAJSOAPTransport,
+ * also by the shared instance. Pooled connections opened before the change
+ * keep their settings until they are evicted.
+ *
+ * If a CallDeadline has been set for the calling thread, the time remaining
+ * until the deadline bounds both waiting for a pooled connection and waiting
+ * for the response of a blocking call.
+ *
+ * The transport must be closed when it's no longer needed, otherwise the
+ * pooled connections and the eviction thread are not released. The shared
+ * instance returned by getDefault() is an exception: it lives as long as the
+ * JVM, and closing it has no effect.
+ */
+public class PooledHttpSOAPTransport implements SOAPTransport {
+
+    /**
+     * Default maximum number of connections per endpoint.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    /**
+     * Default maximum number of connections in total.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+    /**
+     * Default time in milliseconds after which idle connections are evicted.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000L;
+    /**
+     * Default connect timeout in milliseconds.
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000L;
+    /**
+     * Default socket (read) timeout in milliseconds.
+     */
+    public static final long DEFAULT_SOCKET_TIMEOUT_MILLIS = 60000L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledHttpSOAPTransport.class);
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String SOAP_ACTION = "SOAPAction";
+    private static final ContentType REQUEST_CONTENT_TYPE = ContentType.create(Constants.TEXT_XML, StandardCharsets.UTF_8);
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_MULTIPLE_CHOICES = 300;
+    private static final int HTTP_INTERNAL_SERVER_ERROR = 500;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private volatile boolean shared;
+
+    /**
+     * Constructs and initializes a new PooledHttpSOAPTransport using the
+     * default pool size, idle timeout and timeouts.
+     */
+    public PooledHttpSOAPTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs and initializes a new PooledHttpSOAPTransport using the
+     * default connect and socket timeouts.
+     *
+     * @param maxConnectionsPerRoute maximum number of connections per endpoint
+     * @param maxConnectionsTotal maximum number of connections in total
+     * @param idleTimeoutMillis time in milliseconds after which idle
+     * connections are evicted
+     */
+    public PooledHttpSOAPTransport(int maxConnectionsPerRoute, int maxConnectionsTotal, long idleTimeoutMillis) {
+        this(maxConnectionsPerRoute, maxConnectionsTotal, idleTimeoutMillis, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_SOCKET_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs and initializes a new PooledHttpSOAPTransport.
+     *
+     * @param maxConnectionsPerRoute maximum number of connections per endpoint
+     * @param maxConnectionsTotal maximum number of connections in total
+     * @param idleTimeoutMillis time in milliseconds after which idle
+     * connections are evicted
+     * @param connectTimeoutMillis connect timeout in milliseconds
+     * @param socketTimeoutMillis socket (read) timeout in milliseconds
+     */
+    public PooledHttpSOAPTransport(int maxConnectionsPerRoute, int maxConnectionsTotal, long idleTimeoutMillis,
+                                   long connectTimeoutMillis, long socketTimeoutMillis) {
+        if (maxConnectionsPerRoute < 1 || maxConnectionsTotal < maxConnectionsPerRoute) {
+            throw new IllegalArgumentException("Invalid connection pool size: maxConnectionsPerRoute = "
+                    + maxConnectionsPerRoute + ", maxConnectionsTotal = " + maxConnectionsTotal);
+        }
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+                .setSocketTimeout(Timeout.ofMilliseconds(socketTimeoutMillis))
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(idleTimeoutMillis / 2))
+                .build();
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setMaxConnTotal(maxConnectionsTotal)
+                .setDefaultConnectionConfig(connectionConfig)
+                .setSSLSocketFactory(new DefaultTlsSocketFactory())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleTimeoutMillis))
+                .evictExpiredConnections()
+                .disableAutomaticRetries()
+                .disableCookieManagement()
+                .disableRedirectHandling()
+                .useSystemProperties()
+                .build();
+        LOGGER.debug("Create new PooledHttpSOAPTransport. Max connections per route : {}, max connections total : {}, "
+                + "idle timeout : {} ms.", maxConnectionsPerRoute, maxConnectionsTotal, idleTimeoutMillis);
+    }
+
+    /**
+     * Returns the shared instance that uses the default pool size, idle
+     * timeout and timeouts. The instance is created when it's first needed,
+     * and it can't be closed.
+     *
+     * @return shared PooledHttpSOAPTransport
+     */
+    public static PooledHttpSOAPTransport getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Sends the given message to the specified endpoint using a pooled
+     * connection and blocks until it has returned the response. The connection
+     * is returned to the pool after the response has been read.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent; null if the endpoint returned an empty response
+     * @throws SOAPException if sending the message fails or the endpoint
+     * returned an unexpected HTTP status code
+     */
+    @Override
+    public SOAPMessage call(final SOAPMessage request, final String url) throws SOAPException {
+        return this.execute(this.buildHttpPost(request, url), url);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint and passes the HTTP
+     * response body to the given handler as a stream, so the response is not
+     * buffered in memory. The connection is returned to the pool after the
+     * handler has returned. The status code is checked in the same way as in
+     * call(SOAPMessage, String), and the handler is not called if the
+     * response has no body.
+     *
+     * @param <T> type of the result
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @return result of the handler; null if the endpoint returned an empty
+     * response
+     * @throws SOAPException if sending the message fails, the endpoint
+     * returned an unexpected HTTP status code or the handler fails
+     */
+    @Override
+    public <T> T call(final SOAPMessage request, final String url, final SOAPResponseHandler<T> handler) throws SOAPException {
+        return this.execute(this.buildHttpPost(request, url), url, handler);
+    }
+
+    /**
+     * Writes the given request straight to the HTTP request body and passes
+     * the HTTP response body to the given handler as a stream. Neither the
+     * request nor the response is buffered in memory or converted to
+     * SOAPMessage. The request is sent using chunked transfer encoding.
+     *
+     * @param <T> type of the result
+     * @param request writer that writes the SOAP envelope
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @return result of the handler; null if the endpoint returned an empty
+     * response
+     * @throws SOAPException if sending the message fails, the endpoint
+     * returned an unexpected HTTP status code or the handler fails
+     */
+    @Override
+    public <T> T call(final SOAPRequestWriter request, final String url, final SOAPResponseHandler<T> handler) throws SOAPException {
+        return this.execute(buildHttpPost(request, url), url, handler);
+    }
+
+    /**
+     * Executes the given HTTP request and passes the response body to the
+     * given handler.
+     *
+     * @param <T> type of the result
+     * @param post HTTP request to be executed
+     * @param url URL where the message is sent
+     * @param handler handler that processes the response
+     * @return result of the handler; null if the endpoint returned an empty
+     * response
+     * @throws SOAPException if sending the message fails, the endpoint
+     * returned an unexpected HTTP status code or the handler fails
+     */
+    private <T> T execute(final HttpPost post, final String url, final SOAPResponseHandler<T> handler) throws SOAPException {
+        applyDeadline(post);
+        try {
+            return this.httpClient.execute(post, response -> {
+                LOGGER.trace("HTTP response received. Status code : {}.", response.getCode());
+                try {
+                    checkStatus(response.getCode(), response.getReasonPhrase());
+                    HttpEntity entity = response.getEntity();
+                    if (response.getCode() == HTTP_NO_CONTENT || entity == null || entity.getContentLength() == 0) {
+                        LOGGER.debug("Empty HTTP response received.");
+                        return null;
+                    }
+                    try (InputStream body = entity.getContent()) {
+                        return handler.handle(toMimeHeaders(response), body);
+                    }
+                } catch (SOAPException ex) {
+                    // Tunnel the SOAPException through the response handler
+                    throw new SOAPIOException(ex);
+                }
+            });
+        } catch (SOAPIOException ex) {
+            throw ex.getSOAPException();
+        } catch (IOException ex) {
+            throw new SOAPException("Sending SOAP message to \"" + url + "\" failed : " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. The message is serialized in the calling thread and the
+     * HTTP exchange is run using the given executor. Cancelling the returned
+     * future aborts the HTTP request, which releases the connection.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param executor executor that runs the HTTP exchange
+     * @return future that is completed with the response message
+     */
+    @Override
+    public CompletableFuture<SOAPMessage> callAsync(final SOAPMessage request, final String url, final Executor executor) {
+        HttpPost post;
+        try {
+            post = this.buildHttpPost(request, url);
+        } catch (SOAPException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return executeAsync(post, url, executor, () -> this.execute(post, url));
+    }
+
+    /**
+     * Sends the given message to the specified endpoint and passes the HTTP
+     * response body to the given handler as a stream without blocking the
+     * calling thread. The message is serialized in the calling thread and the
+     * HTTP exchange and the handler are run using the given executor.
+     * Cancelling the returned future aborts the HTTP request, which releases
+     * the connection.
+     *
+     * @param <T> type of the result
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @param executor executor that runs the HTTP exchange
+     * @return future that is completed with the result of the handler
+     */
+    @Override
+    public <T> CompletableFuture<T> callAsync(final SOAPMessage request, final String url, final SOAPResponseHandler<T> handler,
+                                              final Executor executor) {
+        HttpPost post;
+        try {
+            post = this.buildHttpPost(request, url);
+        } catch (SOAPException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return executeAsync(post, url, executor, () -> this.execute(post, url, handler));
+    }
+
+    /**
+     * Writes the given request straight to the HTTP request body and passes
+     * the HTTP response body to the given handler as a stream without
+     * blocking the calling thread. The request is written, and the handler
+     * is run, using the given executor. Cancelling the returned future
+     * aborts the HTTP request, which releases the connection.
+     *
+     * @param <T> type of the result
+     * @param request writer that writes the SOAP envelope
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @param executor executor that runs the HTTP exchange
+     * @return future that is completed with the result of the handler
+     */
+    @Override
+    public <T> CompletableFuture<T> callAsync(final SOAPRequestWriter request, final String url, final SOAPResponseHandler<T> handler,
+                                              final Executor executor) {
+        HttpPost post = buildHttpPost(request, url);
+        return executeAsync(post, url, executor, () -> this.execute(post, url, handler));
+    }
+
+    /**
+     * Runs the given HTTP exchange using the given executor. Cancelling the
+     * returned future aborts the HTTP request.
+     *
+     * @param <T> type of the result
+     * @param post HTTP request executed by the exchange
+     * @param url URL where the message is sent
+     * @param executor executor that runs the HTTP exchange
+     * @param exchange exchange that executes the request
+     * @return future that is completed with the result of the exchange
+     */
+    private static <T> CompletableFuture<T> executeAsync(final HttpPost post, final String url, final Executor executor,
+                                                         final HttpExchange<T> exchange) {
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return exchange.execute();
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        future.whenComplete((response, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                LOGGER.debug("Request to \"{}\" was cancelled. Abort HTTP request.", url);
+                post.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Executes the given HTTP request and converts the response to
+     * SOAPMessage.
+     *
+     * @param post HTTP request to be executed
+     * @param url URL where the message is sent
+     * @return the SOAPMessage object that is the response to the request or
+     * null if the endpoint returned an empty response
+     * @throws SOAPException if sending the message fails or the endpoint
+     * returned an unexpected HTTP status code
+     */
+    private SOAPMessage execute(final HttpPost post, final String url) throws SOAPException {
+        applyDeadline(post);
+        RawResponse response;
+        try {
+            response = this.httpClient.execute(post, this::readResponse);
+        } catch (IOException ex) {
+            throw new SOAPException("Sending SOAP message to \"" + url + "\" failed : " + ex.getMessage(), ex);
+        }
+        LOGGER.trace("HTTP response received. Status code : {}.", response.statusCode);
+        return this.toSOAPMessage(response);
+    }
+
+    /**
+     * Returns statistics of the connection pool.
+     *
+     * @return connection pool statistics
+     */
+    public PoolStats getPoolStats() {
+        return this.connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes the underlying HTTP client and all the pooled connections.
+     * Closing the shared instance has no effect.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.shared) {
+            LOGGER.debug("Shared PooledHttpSOAPTransport is not closed.");
+            return;
+        }
+        LOGGER.debug("Close PooledHttpSOAPTransport.");
+        this.httpClient.close();
+    }
+
+    /**
+     * Builds a new HTTP POST request containing the given SOAP message. All
+     * the MIME headers of the message, e.g. Content-Type and SOAPAction, are
+     * copied to the HTTP request.
+     *
+     * @param request SOAP message to be sent
+     * @param url URL where the message is sent
+     * @return new HTTP POST request
+     * @throws SOAPException if there's a SOAP error
+     */
+    private HttpPost buildHttpPost(final SOAPMessage request, final String url) throws SOAPException {
+        if (request.saveRequired()) {
+            request.saveChanges();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            request.writeTo(out);
+        } catch (IOException ex) {
+            throw new SOAPException(ex.getMessage(), ex);
+        }
+        HttpPost post = new HttpPost(url);
+        for (Iterator<MimeHeader> it = request.getMimeHeaders().getAllHeaders(); it.hasNext();) {
+            MimeHeader header = it.next();
+            if (!CONTENT_LENGTH.equalsIgnoreCase(header.getName())) {
+                post.addHeader(header.getName(), header.getValue());
+            }
+        }
+        post.setEntity(new ByteArrayEntity(out.toByteArray(), null));
+        return post;
+    }
+
+    /**
+     * Builds a new HTTP POST request whose body is written by the given
+     * writer using chunked transfer encoding.
+     *
+     * @param request writer that writes the SOAP envelope
+     * @param url URL where the message is sent
+     * @return new HTTP POST request
+     */
+    private static HttpPost buildHttpPost(final SOAPRequestWriter request, final String url) {
+        HttpPost post = new HttpPost(url);
+        post.addHeader(SOAP_ACTION, "\"\"");
+        post.setEntity(new EntityTemplate(-1, REQUEST_CONTENT_TYPE, null, request::writeTo));
+        return post;
+    }
+
+    /**
+     * Sets the time remaining until the deadline of the calling thread as
+     * the connection request and response timeout of the given request. The
+     * request is left as such if the thread has no deadline.
+     *
+     * @param post HTTP request to be executed
+     */
+    private static void applyDeadline(final HttpPost post) {
+        CallDeadline deadline = CallDeadline.current();
+        if (deadline.isBounded()) {
+            long remainingMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(deadline.getRemainingNanos()), 1L);
+            Timeout timeout = Timeout.ofMilliseconds(remainingMillis);
+            post.setConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(timeout)
+                    .setResponseTimeout(timeout)
+                    .build());
+        }
+    }
+
+    /**
+     * Reads the status code, headers and body of the given HTTP response. The
+     * body must be read completely here, because the connection is returned
+     * to the pool as soon as this method returns.
+     *
+     * @param response HTTP response
+     * @return raw response
+     * @throws IOException if an I/O error occurs
+     */
+    private RawResponse readResponse(final ClassicHttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+        return new RawResponse(response.getCode(), response.getReasonPhrase(), toMimeHeaders(response), body);
+    }
+
+    /**
+     * Copies the headers of the given HTTP response to MimeHeaders.
+     *
+     * @param response HTTP response
+     * @return MIME headers of the response
+     */
+    private static MimeHeaders toMimeHeaders(final ClassicHttpResponse response) {
+        MimeHeaders headers = new MimeHeaders();
+        for (Header header : response.getHeaders()) {
+            headers.addHeader(header.getName(), header.getValue());
+        }
+        return headers;
+    }
+
+    /**
+     * Checks that the given HTTP status code is either successful or HTTP
+     * 500, which is used for SOAP faults.
+     *
+     * @param statusCode HTTP status code
+     * @param reasonPhrase HTTP reason phrase
+     * @throws HttpStatusException if the status code is unexpected
+     */
+    private static void checkStatus(final int statusCode, final String reasonPhrase) throws HttpStatusException {
+        boolean success = statusCode >= HTTP_OK && statusCode < HTTP_MULTIPLE_CHOICES;
+        if (!success && statusCode != HTTP_INTERNAL_SERVER_ERROR) {
+            throw new HttpStatusException(statusCode, "Bad response: (" + statusCode + " " + reasonPhrase + ")");
+        }
+    }
+
+    /**
+     * Converts the given raw response to SOAPMessage. In the same way as the
+     * SAAJ implementation does, successful and HTTP 500 responses are parsed,
+     * because SOAP faults are returned with status code 500.
+     *
+     * @param response raw response
+     * @return SOAPMessage or null if the response has no body
+     * @throws HttpStatusException if the response has an unexpected status
+     * code
+     * @throws SOAPException if parsing the response fails
+     */
+    private SOAPMessage toSOAPMessage(final RawResponse response) throws SOAPException {
+        checkStatus(response.statusCode, response.reasonPhrase);
+        if (response.statusCode == HTTP_NO_CONTENT || response.body.length == 0) {
+            LOGGER.debug("Empty HTTP response received.");
+            return null;
+        }
+        try {
+            return SOAPHelper.createSOAPMessage(response.headers, new ByteArrayInputStream(response.body));
+        } catch (IOException ex) {
+            throw new SOAPException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Holds the shared instance, which is created when the class is first
+     * accessed.
+     */
+    private static final class DefaultHolder {
+        private static final PooledHttpSOAPTransport INSTANCE = createShared();
+
+        private DefaultHolder() {
+        }
+
+        private static PooledHttpSOAPTransport createShared() {
+            PooledHttpSOAPTransport transport = new PooledHttpSOAPTransport();
+            transport.shared = true;
+            return transport;
+        }
+    }
+
+    /**
+     * Holds the parts of an HTTP response that are needed after the
+     * connection has been released.
+     */
+    private static final class RawResponse {
+        private final int statusCode;
+        private final String reasonPhrase;
+        private final MimeHeaders headers;
+        private final byte[] body;
+
+        RawResponse(int statusCode, String reasonPhrase, MimeHeaders headers, byte[] body) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Opens TLS connections using the default SSL socket factory and host
+     * name verifier of HttpsURLConnection. The defaults are read each time a
+     * connection is opened, and the delegate factory is rebuilt only when
+     * they have changed.
+     */
+    private static final class DefaultTlsSocketFactory implements LayeredConnectionSocketFactory {
+        private volatile TlsDefaults current;
+
+        private SSLConnectionSocketFactory delegate() {
+            SSLSocketFactory socketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+            HostnameVerifier hostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+            TlsDefaults defaults = this.current;
+            if (defaults == null || defaults.socketFactory != socketFactory || defaults.hostnameVerifier != hostnameVerifier) {
+                LOGGER.debug("Default SSL settings of HttpsURLConnection changed. Use them for new TLS connections.");
+                defaults = new TlsDefaults(socketFactory, hostnameVerifier);
+                this.current = defaults;
+            }
+            return defaults.delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return this.delegate().createSocket(context);
+        }
+
+        @Override
+        public Socket createSocket(Proxy proxy, HttpContext context) throws IOException {
+            return this.delegate().createSocket(proxy, context);
+        }
+
+        @Override
+        public Socket connectSocket(TimeValue connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            return this.delegate().connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        }
+
+        @Override
+        public Socket connectSocket(Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                    Timeout connectTimeout, Object attachment, HttpContext context) throws IOException {
+            return this.delegate().connectSocket(socket, host, remoteAddress, localAddress, connectTimeout, attachment, context);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            return this.delegate().createLayeredSocket(socket, target, port, context);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, Object attachment, HttpContext context)
+                throws IOException {
+            return this.delegate().createLayeredSocket(socket, target, port, attachment, context);
+        }
+    }
+
+    /**
+     * Holds the default SSL settings and the factory built from them.
+     */
+    private static final class TlsDefaults {
+        private final SSLSocketFactory socketFactory;
+        private final HostnameVerifier hostnameVerifier;
+        private final SSLConnectionSocketFactory delegate;
+
+        TlsDefaults(SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier) {
+            this.socketFactory = socketFactory;
+            this.hostnameVerifier = hostnameVerifier;
+            this.delegate = new SSLConnectionSocketFactory(socketFactory, hostnameVerifier);
+        }
+    }
+
+    /**
+     * An HTTP exchange run by executeAsync.
+     *
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    private interface HttpExchange<T> {
+        T execute() throws SOAPException;
+    }
+
+    /**
+     * Carries a SOAPException through the HTTP client's response handler,
+     * which may only throw IOExceptions.
+     */
+    private static final class SOAPIOException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SOAPIOException(SOAPException cause) {
+            super(cause);
+        }
+
+        SOAPException getSOAPException() {
+            return (SOAPException) this.getCause();
+        }
+    }
+}
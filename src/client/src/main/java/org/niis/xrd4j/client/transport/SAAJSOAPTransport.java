@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.SOAPConnection;
+import jakarta.xml.soap.SOAPConnectionFactory;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * This class implements a transport that uses the SAAJ SOAPConnection API.
+ * A new SOAPConnection is opened for every request and closed right after the
+ * response has been received, so connections are never reused. This transport
+ * is provided for backwards compatibility - PooledHttpSOAPTransport should be
+ * preferred.
+ */
+public class SAAJSOAPTransport implements SOAPTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAAJSOAPTransport.class);
+    private final SOAPConnectionFactory connectionFactory;
+
+    /**
+     * Constructs and initializes a new SAAJSOAPTransport.
+     *
+     * @throws SOAPException if there's a SOAP error
+     */
+    public SAAJSOAPTransport() throws SOAPException {
+        this(SOAPConnectionFactory.newInstance());
+    }
+
+    /**
+     * Constructs and initializes a new SAAJSOAPTransport.
+     *
+     * @param connectionFactory SOAPConnectionFactory object
+     */
+    public SAAJSOAPTransport(SOAPConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Sends the given message to the specified endpoint using a new
+     * SOAPConnection and blocks until it has returned the response.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent
+     * @throws SOAPException if sending the message fails
+     */
+    @Override
+    public SOAPMessage call(final SOAPMessage request, final String url) throws SOAPException {
+        URL endpoint;
+        try {
+            endpoint = new URL(url);
+        } catch (MalformedURLException ex) {
+            throw new SOAPException(ex.getMessage(), ex);
+        }
+        try (SOAPConnection connection = connectionFactory.createConnection()) {
+            LOGGER.trace("New SOAP connection created.");
+            return connection.call(request, endpoint);
+        }
+    }
+}
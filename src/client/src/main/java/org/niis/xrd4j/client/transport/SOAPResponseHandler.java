@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This interface defines a handler that processes the body of a SOAP
+ * response as a stream, without converting it to SOAPMessage first.
+ *
+ * @param <T> type of the result
+ */
+@FunctionalInterface
+public interface SOAPResponseHandler<T> {
+
+    /**
+     * Processes the given response. The stream must not be used after this
+     * method has returned.
+     *
+     * @param headers MIME headers of the response
+     * @param body response body
+     * @return result of the processing
+     * @throws SOAPException if there's a SOAP error
+     * @throws IOException if an I/O error occurs
+     */
+    T handle(MimeHeaders headers, InputStream body) throws SOAPException, IOException;
+}
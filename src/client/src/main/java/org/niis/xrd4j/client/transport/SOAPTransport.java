@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class defines an interface for transports that deliver SOAPMessage
+ * objects to SOAP endpoints over HTTP. A transport instance is shared by all
+ * the requests sent through a SOAP client, and implementations must therefore
+ * be thread-safe.
+ */
+public interface SOAPTransport extends Closeable {
+
+    /**
+     * Name of the Content-Type header.
+     */
+    String CONTENT_TYPE = "Content-Type";
+    /**
+     * Content type of requests written by SOAPRequestWriter.
+     */
+    String TEXT_XML_UTF_8 = Constants.TEXT_XML + "; charset=utf-8";
+
+    /**
+     * Sends the given message to the specified endpoint and blocks until it has
+     * returned the response.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @return the SOAPMessage object that is the response to the request
+     * message that was sent; null if the endpoint returned an empty response
+     * @throws SOAPException if sending the message fails
+     */
+    SOAPMessage call(SOAPMessage request, String url) throws SOAPException;
+
+    /**
+     * Sends the given message to the specified endpoint and passes the
+     * response body to the given handler as a stream. The default
+     * implementation receives the response as SOAPMessage and serializes it
+     * for the handler, so transports should override this method to stream
+     * the HTTP response body directly.
+     *
+     * @param <T> type of the result
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @return result of the handler; null if the endpoint returned an empty
+     * response
+     * @throws SOAPException if sending the message or handling the response
+     * fails
+     */
+    default <T> T call(SOAPMessage request, String url, SOAPResponseHandler<T> handler) throws SOAPException {
+        SOAPMessage response = this.call(request, url);
+        if (response == null) {
+            return null;
+        }
+        try {
+            if (response.saveRequired()) {
+                response.saveChanges();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.writeTo(out);
+            return handler.handle(response.getMimeHeaders(), new ByteArrayInputStream(out.toByteArray()));
+        } catch (IOException ex) {
+            throw new SOAPException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes the given request to the specified endpoint and passes the
+     * response body to the given handler as a stream. The default
+     * implementation converts the request to SOAPMessage and calls
+     * call(SOAPMessage, String, SOAPResponseHandler), so transports should
+     * override this method to write the request straight to the HTTP request
+     * body.
+     *
+     * @param <T> type of the result
+     * @param request writer that writes the SOAP envelope
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @return result of the handler; null if the endpoint returned an empty
+     * response
+     * @throws SOAPException if sending the message or handling the response
+     * fails
+     */
+    default <T> T call(SOAPRequestWriter request, String url, SOAPResponseHandler<T> handler) throws SOAPException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SOAPMessage message;
+        try {
+            request.writeTo(out);
+            MimeHeaders headers = new MimeHeaders();
+            headers.addHeader(CONTENT_TYPE, TEXT_XML_UTF_8);
+            message = SOAPHelper.createSOAPMessage(headers, new ByteArrayInputStream(out.toByteArray()));
+        } catch (IOException ex) {
+            throw new SOAPException(ex.getMessage(), ex);
+        }
+        return this.call(message, url, handler);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint without blocking the
+     * calling thread. The default implementation runs the blocking call using
+     * the given executor. If sending fails, the returned future completes
+     * exceptionally with a CompletionException that wraps the SOAPException.
+     *
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param executor executor that runs the call
+     * @return future that is completed with the response message
+     */
+    default CompletableFuture<SOAPMessage> callAsync(SOAPMessage request, String url, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.call(request, url);
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sends the given message to the specified endpoint and passes the
+     * response body to the given handler without blocking the calling
+     * thread. The default implementation runs the blocking call using the
+     * given executor. If sending fails, the returned future completes
+     * exceptionally with a CompletionException that wraps the SOAPException.
+     *
+     * @param <T> type of the result
+     * @param request the SOAPMessage object to be sent
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @param executor executor that runs the call
+     * @return future that is completed with the result of the handler
+     */
+    default <T> CompletableFuture<T> callAsync(SOAPMessage request, String url, SOAPResponseHandler<T> handler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.call(request, url, handler);
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Writes the given request to the specified endpoint and passes the
+     * response body to the given handler without blocking the calling
+     * thread. The default implementation runs the blocking call using the
+     * given executor. If sending fails, the returned future completes
+     * exceptionally with a CompletionException that wraps the SOAPException.
+     *
+     * @param <T> type of the result
+     * @param request writer that writes the SOAP envelope
+     * @param url URL that identifies where the message should be sent
+     * @param handler handler that processes the response
+     * @param executor executor that runs the call
+     * @return future that is completed with the result of the handler
+     */
+    default <T> CompletableFuture<T> callAsync(SOAPRequestWriter request, String url, SOAPResponseHandler<T> handler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.call(request, url, handler);
+            } catch (SOAPException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Releases the resources held by this transport. The default
+     * implementation does nothing.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    default void close() throws IOException {
+        // Nothing to release by default
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ErrorMessage;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for CachingSOAPClient class.
+ */
+class CachingSOAPClientTest {
+
+    private static final String URL = "http://localhost:8080/";
+
+    private SOAPClient soapClient;
+    private CachingSOAPClient client;
+
+    @BeforeEach
+    void setUp() {
+        this.soapClient = mock(SOAPClient.class);
+        this.client = new CachingSOAPClient(this.soapClient);
+    }
+
+    /**
+     * listClients responses are cached by security server URL.
+     */
+    @Test
+    void testListClients() throws Exception {
+        List<ConsumerMember> clients = new ArrayList<>();
+        clients.add(new ConsumerMember("FI", "GOV", "MEMBER1"));
+        when(this.soapClient.listClients(URL)).thenReturn(clients);
+        assertEquals(clients, this.client.listClients(URL));
+        assertEquals(clients, this.client.listClients(URL));
+        verify(this.soapClient, times(1)).listClients(URL);
+        assertThrows(UnsupportedOperationException.class, () -> this.client.listClients(URL).clear());
+        assertEquals(1, this.client.getCache().getHitCount());
+        assertEquals(1, this.client.getCache().getMissCount());
+    }
+
+    /**
+     * listMethods responses are cached by consumer and producer, and error
+     * responses are not cached.
+     */
+    @Test
+    void testListMethods() throws Exception {
+        ServiceRequest<String> request1 = createRequest("MEMBER1");
+        ServiceRequest<String> request2 = createRequest("MEMBER2");
+        ServiceResponse<String, List<ProducerMember>> response = new ServiceResponse<>();
+        ServiceResponse<String, List<ProducerMember>> error = new ServiceResponse<>();
+        error.setErrorMessage(new ErrorMessage("Server.ServerProxy.ServiceFailed", "Service failed", null, null));
+        when(this.soapClient.listMethods(producer("MEMBER1"), eq(URL))).thenReturn(response);
+        when(this.soapClient.listMethods(producer("MEMBER2"), eq(URL))).thenReturn(error);
+        when(this.soapClient.allowedMethods(producer("MEMBER1"), eq(URL))).thenReturn(response);
+        assertSame(response, this.client.listMethods(request1, URL));
+        assertSame(response, this.client.listMethods(createRequest("MEMBER1"), URL));
+        assertSame(error, this.client.listMethods(request2, URL));
+        assertSame(error, this.client.listMethods(request2, URL));
+        verify(this.soapClient, times(1)).listMethods(producer("MEMBER1"), eq(URL));
+        verify(this.soapClient, times(2)).listMethods(producer("MEMBER2"), eq(URL));
+        this.client.allowedMethods(request1, URL);
+        this.client.allowedMethods(request1, URL);
+        verify(this.soapClient, times(1)).allowedMethods(producer("MEMBER1"), eq(URL));
+        // Monitoring data is not cached
+        this.client.getSecurityServerMetrics(request1, URL);
+        this.client.getSecurityServerMetrics(request1, URL);
+        verify(this.soapClient, times(2)).getSecurityServerMetrics(request1, URL);
+    }
+
+    /**
+     * The cache key does not depend on the service code and version, which
+     * are replaced by the meta service call, and the request of the caller is
+     * not modified. The request that is sent has a message id of its own.
+     */
+    @Test
+    void testRequestNotModified() throws Exception {
+        ServiceResponse<String, List<ProducerMember>> response = new ServiceResponse<>();
+        List<String> sentIds = new ArrayList<>();
+        when(this.soapClient.listMethods(any(), eq(URL))).thenAnswer(invocation -> {
+            ServiceRequest<String> sent = invocation.getArgument(0);
+            sentIds.add(sent.getId());
+            sent.getProducer().setServiceCode("listMethods");
+            sent.getProducer().setServiceVersion(null);
+            return response;
+        });
+        ServiceRequest<String> request = createRequest("MEMBER1");
+        request.getProducer().setServiceCode("getRandom");
+        request.getProducer().setServiceVersion("v1");
+        assertSame(response, this.client.listMethods(request, URL));
+        assertEquals("getRandom", request.getProducer().getServiceCode());
+        assertEquals("v1", request.getProducer().getServiceVersion());
+        assertEquals(1, sentIds.size());
+        assertNotEquals(request.getId(), sentIds.get(0));
+        ServiceRequest<String> other = createRequest("MEMBER1");
+        other.getProducer().setServiceCode("helloService");
+        assertSame(response, this.client.listMethods(other, URL));
+        verify(this.soapClient, times(1)).listMethods(any(), eq(URL));
+    }
+
+    private static ServiceRequest<String> producer(String producerCode) {
+        return argThat(request -> request != null && producerCode.equals(request.getProducer().getMemberCode()));
+    }
+
+    private static ServiceRequest<String> createRequest(String producerCode) throws Exception {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", "MEMBER1", "subsystem");
+        ProducerMember producer = new ProducerMember("FI", "COM", producerCode, "subsystem", "listMethods");
+        return new ServiceRequest<>(consumer, producer, "ID-" + producerCode);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client;
+
+import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.serializer.AbstractStreamingRequestSerializer;
+import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.MessageFactory;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for CoalescingSOAPClient class.
+ */
+class CoalescingSOAPClientTest {
+
+    private static final String URL = "http://localhost:8080/";
+    private static final int THREADS = 8;
+
+    /**
+     * Concurrent identical listClients calls share one call.
+     */
+    @Test
+    void testListClients() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        List<ConsumerMember> clients = new ArrayList<>();
+        SOAPClientImpl delegate = new SOAPClientImpl((request, url) -> null) {
+            @Override
+            public List<ConsumerMember> listClients(String url) {
+                calls.incrementAndGet();
+                await(release);
+                return clients;
+            }
+        };
+        CoalescingSOAPClient client = new CoalescingSOAPClient(delegate);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<ConsumerMember>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> client.listClients(URL)));
+            }
+            waitFor(() -> client.getCoalescedCount() == THREADS - 1);
+            assertEquals(1, client.getInFlightCount());
+            release.countDown();
+            for (Future<List<ConsumerMember>> future : futures) {
+                assertSame(clients, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, client.getInFlightCount());
+        // Calls made after the shared call has completed are sent again
+        client.listClients(URL);
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * The error of a shared call is thrown to all the callers, and calls
+     * with different consumers are not coalesced.
+     */
+    @Test
+    void testListMethods() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        SOAPClientImpl delegate = new SOAPClientImpl((request, url) -> null) {
+            @Override
+            public ServiceResponse<String, List<ProducerMember>> listMethods(ServiceRequest<String> request, String url)
+                    throws SOAPException {
+                calls.incrementAndGet();
+                await(release);
+                throw new SOAPException("Service failed");
+            }
+        };
+        CoalescingSOAPClient client = new CoalescingSOAPClient(delegate);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                ServiceRequest<String> request = createRequest(i % 2 == 0 ? "MEMBER1" : "MEMBER2");
+                futures.add(executor.submit(() -> client.listMethods(request, URL)));
+            }
+            waitFor(() -> client.getCoalescedCount() == THREADS - 2);
+            assertEquals(2, client.getInFlightCount());
+            release.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof SOAPException);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, calls.get());
+        assertThrows(SOAPException.class, () -> client.listMethods(createRequest("MEMBER1"), URL));
+    }
+
+    /**
+     * A caller that doesn't receive the result of an identical call in time
+     * sends the request itself.
+     */
+    @Test
+    void testMaxWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        List<ConsumerMember> clients = new ArrayList<>();
+        SOAPClientImpl delegate = new SOAPClientImpl((request, url) -> null) {
+            @Override
+            public List<ConsumerMember> listClients(String url) {
+                if (calls.incrementAndGet() == 1) {
+                    await(release);
+                }
+                return clients;
+            }
+        };
+        CoalescingSOAPClient client = new CoalescingSOAPClient(delegate, Collections.emptySet(), 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<ConsumerMember>> first = executor.submit(() -> client.listClients(URL));
+            waitFor(() -> calls.get() == 1);
+            long start = System.nanoTime();
+            assertSame(clients, client.listClients(URL));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 4000);
+            assertEquals(2, calls.get());
+            assertEquals(0, client.getCoalescedCount());
+            release.countDown();
+            assertSame(clients, first.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests of streaming serializers are not coalesced, and they are sent
+     * with the original serializer.
+     */
+    @Test
+    void testStreamingSerializer() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ServiceRequestSerializer<String> serializer = new AbstractStreamingRequestSerializer<String>() {
+            @Override
+            protected void serializeRequest(ServiceRequest<String> request, XMLStreamWriter writer) {
+                throw new AssertionError("Request must not be serialized.");
+            }
+        };
+        SOAPClientImpl delegate = new SOAPClientImpl((request, url) -> null) {
+            @Override
+            public <T1, T2> ServiceResponse<T1, T2> send(ServiceRequest<T1> request, String url, ServiceRequestSerializer<T1> requestSerializer,
+                                                         ServiceResponseDeserializer<T1, T2> deserializer) {
+                calls.incrementAndGet();
+                assertSame(serializer, requestSerializer);
+                return null;
+            }
+        };
+        ServiceRequest<String> request = createRequest("MEMBER1");
+        CoalescingSOAPClient client = new CoalescingSOAPClient(delegate, Collections.singleton("listMethods"));
+        client.send(request, URL, serializer, null);
+        assertEquals(1, calls.get());
+        assertEquals(0, client.getCoalescedCount());
+    }
+
+    /**
+     * Requests with attachments are not coalesced, and they are not
+     * serialized again when they are sent.
+     */
+    @Test
+    void testAttachmentSerializedOnce() throws Exception {
+        AtomicInteger serialized = new AtomicInteger();
+        SOAPMessage message = MessageFactory.newInstance().createMessage();
+        message.addAttachmentPart(message.createAttachmentPart("data", "text/plain"));
+        ServiceRequestSerializer<String> serializer = r -> {
+            serialized.incrementAndGet();
+            return message;
+        };
+        SOAPClientImpl delegate = new SOAPClientImpl((request, url) -> null) {
+            @Override
+            public <T1, T2> ServiceResponse<T1, T2> send(ServiceRequest<T1> request, String url, ServiceRequestSerializer<T1> requestSerializer,
+                                                         ServiceResponseDeserializer<T1, T2> deserializer) {
+                assertSame(message, requestSerializer.serialize(request));
+                return null;
+            }
+        };
+        ServiceRequest<String> request = createRequest("MEMBER1");
+        CoalescingSOAPClient client = new CoalescingSOAPClient(delegate, Collections.singleton("listMethods"));
+        client.send(request, URL, serializer, null);
+        assertEquals(1, serialized.get());
+        assertEquals(0, client.getCoalescedCount());
+    }
+
+    private static ServiceRequest<String> createRequest(String consumerCode) throws Exception {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", consumerCode, "subsystem");
+        ProducerMember producer = new ProducerMember("FI", "COM", "MEMBER3", "subsystem", "listMethods");
+        return new ServiceRequest<>(consumer, producer, "1234567890");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XRd4JRuntimeException("Interrupted");
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -22,14 +22,54 @@
  */
 package org.niis.xrd4j.client;
 
+import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
+import org.niis.xrd4j.client.loadbalancing.CircuitBreaker;
+import org.niis.xrd4j.client.loadbalancing.CircuitBreakerConfig;
+import org.niis.xrd4j.client.loadbalancing.Endpoint;
+import org.niis.xrd4j.client.loadbalancing.HedgingPolicy;
+import org.niis.xrd4j.client.loadbalancing.LeastOutstandingRequestsStrategy;
+import org.niis.xrd4j.client.loadbalancing.RetryPolicy;
+import org.niis.xrd4j.client.transport.CallDeadline;
+import org.niis.xrd4j.client.transport.HttpStatusException;
+import org.niis.xrd4j.client.transport.SOAPTransport;
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
 import org.junit.jupiter.api.Test;
 
 import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
 
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -105,4 +145,497 @@ class LoadBalancedSOAPClientImplTest {
         assertEquals("http://server3.myhost.com", client.getTargetUrl());
         assertEquals("http://server1.myhost.com", client.getTargetUrl());
     }
+
+    /**
+     * Test that ejected endpoint is skipped and re-admitted after successful
+     * probe
+     * @throws SOAPException
+     */
+    @Test
+    void test5() throws SOAPException {
+        List<String> urls = new ArrayList<>();
+        urls.add("http://server1.myhost.com");
+        urls.add("http://server2.myhost.com");
+        urls.add("http://server3.myhost.com");
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(urls);
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setConsecutiveFailureThreshold(2);
+        config.setOpenDurationMillis(0);
+        client.setCircuitBreakerConfig(config);
+        CircuitBreaker server2 = client.getEndpoints().get(1).getCircuitBreaker();
+        server2.onFailure(CircuitBreaker.Permit.CALL);
+        server2.onFailure(CircuitBreaker.Permit.CALL);
+        assertEquals(CircuitBreaker.State.OPEN, server2.getState());
+        // Selecting the target URL does not take the probe permission
+        assertEquals("http://server1.myhost.com", client.getTargetUrl());
+        assertEquals("http://server2.myhost.com", client.getTargetUrl());
+        assertEquals(CircuitBreaker.State.OPEN, server2.getState());
+        // Open duration is zero, so the next request to server2 is a probe
+        CircuitBreaker.Permit probe = null;
+        for (int i = 0; i < 3 && probe == null; i++) {
+            LoadBalancedSOAPClientImpl.Target target = client.selectEndpoint();
+            if (target.endpoint.getCircuitBreaker() == server2) {
+                probe = target.permit;
+            }
+        }
+        assertTrue(probe.isProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, server2.getState());
+        // Probe is in progress, so server2 is skipped
+        for (int i = 0; i < 4; i++) {
+            assertNotEquals("http://server2.myhost.com", client.getTargetUrl());
+        }
+        server2.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, server2.getState());
+        Set<String> targets = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            targets.add(client.getTargetUrl());
+        }
+        assertEquals(3, targets.size());
+    }
+
+    /**
+     * Test that requests are sent to all the endpoints in turn when all the
+     * endpoints are ejected
+     * @throws SOAPException
+     */
+    @Test
+    void test6() throws SOAPException {
+        List<String> urls = new ArrayList<>();
+        urls.add("http://server1.myhost.com");
+        urls.add("http://server2.myhost.com");
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(urls);
+        for (Endpoint endpoint : client.getEndpoints()) {
+            for (int i = 0; i < CircuitBreakerConfig.DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD; i++) {
+                endpoint.getCircuitBreaker().onFailure(CircuitBreaker.Permit.CALL);
+            }
+            assertFalse(endpoint.isAvailable());
+        }
+        assertEquals("http://server1.myhost.com", client.getTargetUrl());
+        assertEquals("http://server2.myhost.com", client.getTargetUrl());
+        assertEquals("http://server1.myhost.com", client.getTargetUrl());
+    }
+
+    /**
+     * Test that the configured load balancing strategy is used
+     * @throws SOAPException
+     */
+    @Test
+    void test7() throws SOAPException {
+        List<String> urls = new ArrayList<>();
+        urls.add("http://server1.myhost.com");
+        urls.add("http://server2.myhost.com");
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(urls);
+        client.setLoadBalancingStrategy(new LeastOutstandingRequestsStrategy());
+        client.getEndpoints().get(0).requestStarted();
+        assertEquals("http://server2.myhost.com", client.getTargetUrl());
+        assertEquals("http://server2.myhost.com", client.getTargetUrl());
+    }
+
+    /**
+     * Test that the endpoint list can be replaced and the endpoints that stay
+     * on the list keep their health information
+     * @throws SOAPException
+     */
+    @Test
+    void test8() throws SOAPException {
+        List<String> urls = new ArrayList<>();
+        urls.add("http://server1.myhost.com");
+        urls.add("http://server2.myhost.com");
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(urls);
+        Endpoint server2 = client.getEndpoints().get(1);
+        server2.requestStarted();
+        List<String> newUrls = new ArrayList<>();
+        newUrls.add("http://server2.myhost.com");
+        newUrls.add("http://server3.myhost.com");
+        client.setEndpointUrls(newUrls);
+        // Changing the given list does not affect the client
+        newUrls.clear();
+        assertEquals(2, client.getEndpointUrls().size());
+        assertSame(server2, client.getEndpoints().get(0));
+        assertEquals(1, client.getEndpoints().get(0).getInFlight());
+        assertEquals("http://server3.myhost.com", client.getEndpoints().get(1).getUrl());
+        for (int i = 0; i < 4; i++) {
+            assertNotEquals("http://server1.myhost.com", client.getTargetUrl());
+        }
+    }
+
+    /**
+     * Test that targets are selected concurrently while the endpoint list is
+     * replaced
+     * @throws Exception
+     */
+    @Test
+    void test9() throws Exception {
+        List<String> first = new ArrayList<>();
+        first.add("http://server1.myhost.com");
+        first.add("http://server2.myhost.com");
+        first.add("http://server3.myhost.com");
+        List<String> second = new ArrayList<>();
+        second.add("http://server4.myhost.com");
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(first);
+        Set<String> allUrls = new HashSet<>(first);
+        allUrls.addAll(second);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        if (!allUrls.contains(client.getTargetUrl())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (int i = 0; i < 1000; i++) {
+                client.setEndpointUrls(i % 2 == 0 ? second : first);
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a request that fails on connect is retried on another
+     * endpoint and the retry is recorded
+     * @throws SOAPException
+     */
+    @Test
+    void test10() throws SOAPException {
+        List<String> calls = new ArrayList<>();
+        SOAPMessage response = createMessage();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            if (url.equals("http://server1.myhost.com")) {
+                throw new SOAPException("Message send failed", new ConnectException("Connection refused"));
+            }
+            return response;
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        client.setRetryPolicy(fastRetryPolicy());
+        assertSame(response, client.send(createMessage()));
+        assertEquals(2, calls.size());
+        assertEquals("http://server2.myhost.com", calls.get(1));
+        assertEquals(1, client.getEndpoints().get(0).getRetryCount());
+        assertEquals(0, client.getEndpoints().get(1).getRetryCount());
+        assertEquals(0, client.getEndpoints().get(0).getInFlight());
+    }
+
+    /**
+     * Test that a read timeout is not retried, because the request may have
+     * been processed
+     */
+    @Test
+    void test11() {
+        List<String> calls = new ArrayList<>();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            throw new SOAPException("Message send failed", new SocketTimeoutException("Read timed out"));
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        client.setRetryPolicy(fastRetryPolicy());
+        assertThrows(SOAPException.class, () -> client.send(createMessage()));
+        assertEquals(1, calls.size());
+    }
+
+    /**
+     * Test that retries stop at max attempts and the deadline
+     */
+    @Test
+    void test12() {
+        List<String> calls = new ArrayList<>();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            throw new HttpStatusException(503, "Bad response: (503 Service Unavailable)");
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        RetryPolicy policy = fastRetryPolicy();
+        policy.setMaxAttempts(3);
+        client.setRetryPolicy(policy);
+        assertThrows(HttpStatusException.class, () -> client.send(createMessage()));
+        assertEquals(3, calls.size());
+        // Backoff does not fit in the deadline
+        calls.clear();
+        RetryPolicy slowPolicy = new RetryPolicy() {
+            @Override
+            public long getBackoffNanos(int retry) {
+                return TimeUnit.SECONDS.toNanos(1);
+            }
+        };
+        slowPolicy.setMaxAttempts(3);
+        slowPolicy.setDeadlineMillis(500);
+        client.setRetryPolicy(slowPolicy);
+        assertThrows(HttpStatusException.class, () -> client.send(createMessage()));
+        assertEquals(1, calls.size());
+    }
+
+    /**
+     * Test that an asynchronous request is retried on another endpoint
+     * @throws Exception
+     */
+    @Test
+    void test13() throws Exception {
+        SOAPMessage response = createMessage();
+        SOAPTransport transport = (request, url) -> {
+            if (url.equals("http://server1.myhost.com")) {
+                throw new SOAPException("Message send failed", new UnknownHostException("server1.myhost.com"));
+            }
+            return response;
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        client.setRetryPolicy(fastRetryPolicy());
+        // Round robin selects server1 first on both calls
+        assertSame(response, client.sendAsync(createMessage()).get(30, TimeUnit.SECONDS));
+        assertSame(response, client.sendAsync(createMessage()).get(30, TimeUnit.SECONDS));
+        assertEquals(2, client.getEndpoints().get(0).getRetryCount());
+        assertEquals(0, client.getEndpoints().get(0).getInFlight());
+    }
+
+    /**
+     * A request to a hedged service is sent to another endpoint too if the
+     * first one does not respond within the hedge delay, and the first
+     * response is returned.
+     */
+    @Test
+    void test14() throws Exception {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        Map<SOAPMessage, String> responses = new ConcurrentHashMap<>();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            if (url.contains("server1")) {
+                sleep(1000);
+            }
+            SOAPMessage response = createMessage();
+            responses.put(response, url);
+            return response;
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        policy.setDefaultDelayMillis(20);
+        client.setHedgingPolicy(policy);
+        long start = System.nanoTime();
+        ServiceResponse<String, String> response = client.send(createRequest("getRandom"), request -> createMessage(),
+                new UrlDeserializer(responses));
+        assertEquals("http://server2.myhost.com", response.getResponseData());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(2, calls.size());
+        // Asynchronous requests are hedged too
+        calls.clear();
+        response = client.sendAsync(createRequest("getRandom"), request -> createMessage(), new UrlDeserializer(responses))
+                .get(900, TimeUnit.MILLISECONDS);
+        assertEquals("http://server2.myhost.com", response.getResponseData());
+        assertEquals(2, calls.size());
+    }
+
+    /**
+     * Requests to other services and requests exceeding the budget are not
+     * hedged.
+     */
+    @Test
+    void test15() throws Exception {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        Map<SOAPMessage, String> responses = new ConcurrentHashMap<>();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            sleep(100);
+            SOAPMessage response = createMessage();
+            responses.put(response, url);
+            return response;
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        policy.setDefaultDelayMillis(1);
+        policy.setMaxBurst(0);
+        client.setHedgingPolicy(policy);
+        ServiceResponse<String, String> response = client.send(createRequest("helloService"), request -> createMessage(),
+                new UrlDeserializer(responses));
+        assertEquals("http://server1.myhost.com", response.getResponseData());
+        assertEquals(1, calls.size());
+        response = client.send(createRequest("getRandom"), request -> createMessage(), new UrlDeserializer(responses));
+        assertEquals("http://server2.myhost.com", response.getResponseData());
+        assertEquals(2, calls.size());
+    }
+
+    /**
+     * Serialization and deserialization errors are not counted as failures
+     * of the endpoint.
+     */
+    @Test
+    void test16() throws Exception {
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), (request, url) -> createMessage());
+        ServiceResponseDeserializer<String, String> failingDeserializer = new UrlDeserializer(new ConcurrentHashMap<>()) {
+            @Override
+            public ServiceResponse<String, String> deserialize(SOAPMessage message) {
+                throw new XRd4JRuntimeException("Deserialization failed.");
+            }
+        };
+        for (int i = 0; i < CircuitBreakerConfig.DEFAULT_CONSECUTIVE_FAILURE_THRESHOLD; i++) {
+            assertThrows(XRd4JRuntimeException.class, () -> client.send(createRequest("helloService"), request -> {
+                throw new XRd4JRuntimeException("Serialization failed.");
+            }, failingDeserializer));
+            assertThrows(XRd4JRuntimeException.class, () -> client.send(createRequest("helloService"), request -> createMessage(),
+                    failingDeserializer));
+            Future<ServiceResponse<String, String>> future = client.sendAsync(createRequest("helloService"), request -> createMessage(),
+                    failingDeserializer);
+            assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        }
+        for (Endpoint endpoint : client.getEndpoints()) {
+            assertEquals(CircuitBreaker.State.CLOSED, endpoint.getCircuitBreaker().getState());
+            assertTrue(endpoint.isAvailable());
+            assertEquals(0, endpoint.getInFlight());
+        }
+    }
+
+    /**
+     * An attempt to an endpoint that does not respond fails when the deadline
+     * of the call is exceeded, and the failure is recorded.
+     */
+    @Test
+    void test17() throws Exception {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        SOAPTransport transport = (request, url) -> {
+            threads.add(Thread.currentThread());
+            // Blocking calls are bounded by the deadline of the calling thread
+            // in the same way as in PooledHttpSOAPTransport
+            long remaining = CallDeadline.current().getRemainingNanos();
+            if (remaining < TimeUnit.SECONDS.toNanos(5)) {
+                sleep(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                throw new SOAPException("Message send failed", new SocketTimeoutException("Read timed out"));
+            }
+            sleep(5000);
+            return createMessage();
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        RetryPolicy policy = RetryPolicy.noRetries();
+        policy.setDeadlineMillis(200);
+        client.setRetryPolicy(policy);
+        long start = System.nanoTime();
+        SOAPException ex = assertThrows(SOAPException.class, () -> client.send(createMessage()));
+        assertTrue(ex.getMessage().startsWith("Deadline of the call exceeded."));
+        assertTrue(ex.getCause().getCause() instanceof SocketTimeoutException);
+        assertEquals(Collections.singleton(Thread.currentThread()), threads);
+        assertSame(CallDeadline.NONE, CallDeadline.current());
+        Future<SOAPMessage> future = client.sendAsync(createMessage());
+        ExecutionException async = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        assertTrue(async.getCause().getCause() instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(4000));
+        for (Endpoint endpoint : client.getEndpoints()) {
+            assertEquals(0, endpoint.getInFlight());
+        }
+    }
+
+    /**
+     * Without a retry policy the calls have no deadline, so an endpoint that
+     * responds slower than the default deadline of RetryPolicy does not fail.
+     */
+    @Test
+    void test18() throws Exception {
+        SOAPTransport transport = (request, url) -> {
+            sleep(RetryPolicy.DEFAULT_DEADLINE_MILLIS + 500);
+            return createMessage();
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        Future<SOAPMessage> future = client.sendAsync(createMessage());
+        assertNotNull(client.send(createMessage()));
+        assertNotNull(future.get(30, TimeUnit.SECONDS));
+        for (Endpoint endpoint : client.getEndpoints()) {
+            assertEquals(CircuitBreaker.State.CLOSED, endpoint.getCircuitBreaker().getState());
+            assertEquals(0, endpoint.getInFlight());
+        }
+    }
+
+    /**
+     * The hedged request shares the deadline of the call with the original
+     * request instead of starting a new one.
+     */
+    @Test
+    void test19() throws Exception {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        SOAPTransport transport = (request, url) -> {
+            calls.add(url);
+            sleep(5000);
+            return createMessage();
+        };
+        LoadBalancedSOAPClientImpl client = new LoadBalancedSOAPClientImpl(twoUrls(), transport);
+        RetryPolicy retryPolicy = RetryPolicy.noRetries();
+        retryPolicy.setDeadlineMillis(500);
+        client.setRetryPolicy(retryPolicy);
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        policy.setDefaultDelayMillis(400);
+        client.setHedgingPolicy(policy);
+        long start = System.nanoTime();
+        Future<ServiceResponse<String, String>> future = client.sendAsync(createRequest("getRandom"), request -> createMessage(),
+                new UrlDeserializer(new ConcurrentHashMap<>()));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        assertTrue(ex.getCause().getMessage().startsWith("Deadline of the call exceeded."));
+        // A new deadline for the hedged request would fail it 900 ms after the start
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+        assertEquals(2, calls.size());
+    }
+
+    private static List<String> twoUrls() {
+        List<String> urls = new ArrayList<>();
+        urls.add("http://server1.myhost.com");
+        urls.add("http://server2.myhost.com");
+        return urls;
+    }
+
+    private static RetryPolicy fastRetryPolicy() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoffMillis(1);
+        policy.setMaxBackoffMillis(1);
+        return policy;
+    }
+
+    private static SOAPMessage createMessage() {
+        return SOAPHelper.toSOAP("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><data>1234567890</data></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+    }
+
+    private static ServiceRequest<String> createRequest(String serviceCode) throws XRd4JException {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", "MEMBER1", "subsystem");
+        ProducerMember producer = new ProducerMember("FI", "COM", "MEMBER2", "subsystem", serviceCode, "v1");
+        return new ServiceRequest<>(consumer, producer, "ID-1234567890");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deserializer that returns the URL where the response was received from.
+     */
+    private static class UrlDeserializer implements ServiceResponseDeserializer<String, String> {
+
+        private final Map<SOAPMessage, String> responses;
+
+        UrlDeserializer(Map<SOAPMessage, String> responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public ServiceResponse<String, String> deserialize(SOAPMessage message) {
+            ServiceResponse<String, String> response = new ServiceResponse<>();
+            response.setResponseData(this.responses.get(message));
+            return response;
+        }
+
+        @Override
+        public ServiceResponse<String, String> deserialize(SOAPMessage message, String producerNamespaceURI) {
+            return this.deserialize(message);
+        }
+
+        @Override
+        public ServiceResponse<String, String> deserialize(SOAPMessage message, String producerNamespaceURI, boolean processingWrappers) {
+            return this.deserialize(message);
+        }
+    }
 }
@@ -23,18 +23,26 @@
 package org.niis.xrd4j.client;
 
 import org.niis.xrd4j.client.deserializer.AbstractResponseDeserializer;
+import org.niis.xrd4j.client.deserializer.AbstractStreamingResponseDeserializer;
 import org.niis.xrd4j.client.deserializer.ServiceResponseDeserializer;
 import org.niis.xrd4j.client.serializer.AbstractServiceRequestSerializer;
+import org.niis.xrd4j.client.serializer.AbstractStreamingRequestSerializer;
 import org.niis.xrd4j.client.serializer.ServiceRequestSerializer;
+import org.niis.xrd4j.client.transport.SOAPRequestWriter;
+import org.niis.xrd4j.client.transport.SOAPResponseHandler;
+import org.niis.xrd4j.client.transport.SOAPTransport;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
 import org.niis.xrd4j.common.member.ConsumerMember;
 import org.niis.xrd4j.common.member.ProducerMember;
 import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
 import org.niis.xrd4j.common.util.SOAPHelper;
 
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import jakarta.xml.soap.MimeHeaders;
 import jakarta.xml.soap.Node;
 import jakarta.xml.soap.SOAPConnection;
 import jakarta.xml.soap.SOAPConnectionFactory;
@@ -43,6 +51,18 @@ import jakarta.xml.soap.SOAPEnvelope;
 import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
@@ -227,6 +247,141 @@ class SOAPClientTest {
         Assertions.assertThat(receivedResponse).isEqualTo(response);
     }
 
+    @Test
+    void testSendRequestAsync() throws Exception {
+        var connectionFactory = mock(SOAPConnectionFactory.class);
+        var connection = mock(SOAPConnection.class);
+        when(connectionFactory.createConnection()).thenReturn(connection);
+        var response = SOAPHelper.toSOAP(
+                "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+                        + "  <SOAP-ENV:Body>\n"
+                        + "    <data>1234567890</data>\n"
+                        + "  </SOAP-ENV:Body>\n"
+                        + "</SOAP-ENV:Envelope>");
+        when(connection.call(any(), any())).thenReturn(response);
+
+        var client = new SOAPClientImpl(connectionFactory);
+        var receivedResponse = client.sendAsync(request.getSoapMessage(), "http://localhost:8080").get(10, TimeUnit.SECONDS);
+
+        Assertions.assertThat(receivedResponse).isEqualTo(response);
+    }
+
+    @Test
+    void testSendRequestAsyncFailure() throws Exception {
+        var connectionFactory = mock(SOAPConnectionFactory.class);
+        var connection = mock(SOAPConnection.class);
+        when(connectionFactory.createConnection()).thenReturn(connection);
+        when(connection.call(any(), any())).thenThrow(new SOAPException("Connection refused"));
+
+        var client = new SOAPClientImpl(connectionFactory);
+        var future = client.sendAsync(request.getSoapMessage(), "http://localhost:8080");
+
+        Assertions.assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(SOAPException.class);
+    }
+
+    @Test
+    void testSendRequestAsyncMalformedUrl() throws Exception {
+        var client = new SOAPClientImpl(mock(SOAPConnectionFactory.class));
+        var future = client.sendAsync(this.request, "localhost:8080", new TestRequestSerializer(), new TestResponseDeserializer());
+
+        Assertions.assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(XRd4JRuntimeException.class);
+    }
+
+    @Test
+    void testSendStreamingDeserializer() throws Exception {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://consumer.x-road.ee\"><data>9876543210</data>"
+                + "</ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        AtomicBoolean streamed = new AtomicBoolean();
+        SOAPTransport transport = new SOAPTransport() {
+            @Override
+            public SOAPMessage call(SOAPMessage soapRequest, String url) {
+                throw new AssertionError("Response must be streamed.");
+            }
+
+            @Override
+            public <T> T call(SOAPMessage soapRequest, String url, SOAPResponseHandler<T> handler) throws SOAPException {
+                streamed.set(true);
+                MimeHeaders headers = new MimeHeaders();
+                headers.addHeader("Content-Type", "text/xml; charset=utf-8");
+                try {
+                    return handler.handle(headers, new ByteArrayInputStream(soapString.getBytes(StandardCharsets.UTF_8)));
+                } catch (IOException ex) {
+                    throw new SOAPException(ex);
+                }
+            }
+        };
+
+        var client = new SOAPClientImpl(transport);
+        ServiceResponse<String, String> response = client.send(this.request, "http://localhost:8080", new TestRequestSerializer(),
+                new TestStreamingDeserializer());
+
+        Assertions.assertThat(streamed).isTrue();
+        Assertions.assertThat(response.getResponseData()).isEqualTo("9876543210");
+        Assertions.assertThat(response.getSoapMessage()).isNull();
+    }
+
+    @Test
+    void testSendAsyncStreaming() throws Exception {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://consumer.x-road.ee\"><data>9876543210</data>"
+                + "</ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        AtomicBoolean streamed = new AtomicBoolean();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        SOAPTransport transport = new SOAPTransport() {
+            @Override
+            public SOAPMessage call(SOAPMessage soapRequest, String url) {
+                throw new AssertionError("Response must be streamed.");
+            }
+
+            @Override
+            public <T> T call(SOAPMessage soapRequest, String url, SOAPResponseHandler<T> handler) throws SOAPException {
+                streamed.set(true);
+                return this.respond(handler);
+            }
+
+            @Override
+            public <T> T call(SOAPRequestWriter writer, String url, SOAPResponseHandler<T> handler) throws SOAPException {
+                try {
+                    writer.writeTo(written);
+                } catch (IOException ex) {
+                    throw new SOAPException(ex);
+                }
+                return this.respond(handler);
+            }
+
+            private <T> T respond(SOAPResponseHandler<T> handler) throws SOAPException {
+                MimeHeaders headers = new MimeHeaders();
+                headers.addHeader("Content-Type", "text/xml; charset=utf-8");
+                try {
+                    return handler.handle(headers, new ByteArrayInputStream(soapString.getBytes(StandardCharsets.UTF_8)));
+                } catch (IOException ex) {
+                    throw new SOAPException(ex);
+                }
+            }
+        };
+        var client = new SOAPClientImpl(transport);
+
+        // Streaming serializer writes the request straight to the transport
+        ServiceResponse<String, String> response = client.sendAsync(this.request, "http://localhost:8080", new TestStreamingSerializer(),
+                new TestStreamingDeserializer()).get(10, TimeUnit.SECONDS);
+
+        Assertions.assertThat(written.toString(StandardCharsets.UTF_8)).contains("<data>1234567890</data>");
+        Assertions.assertThat(response.getResponseData()).isEqualTo("9876543210");
+        Assertions.assertThat(response.getSoapMessage()).isNull();
+
+        // Streaming deserializer reads the response straight from the transport
+        var streamedResponse = (ServiceResponse<?, ?>) client.sendAsync(this.request, "http://localhost:8080", new TestRequestSerializer(),
+                new TestStreamingDeserializer()).get(10, TimeUnit.SECONDS);
+
+        Assertions.assertThat(streamed).isTrue();
+        Assertions.assertThat(streamedResponse.getResponseData()).isEqualTo("9876543210");
+        Assertions.assertThat(streamedResponse.getSoapMessage()).isNull();
+    }
 
     private final class TestRequestSerializer extends AbstractServiceRequestSerializer {
 
@@ -256,4 +411,39 @@ class SOAPClientTest {
             return null;
         }
     }
+
+    private static final class TestStreamingSerializer extends AbstractStreamingRequestSerializer<String> {
+
+        @Override
+        protected void serializeRequest(ServiceRequest<String> serviceRequest, XMLStreamWriter writer) throws XMLStreamException {
+            writer.writeStartElement("data");
+            writer.writeCharacters(serviceRequest.getRequestData());
+            writer.writeEndElement();
+        }
+    }
+
+    private static final class TestStreamingDeserializer extends AbstractStreamingResponseDeserializer<String, String> {
+
+        @Override
+        protected String deserializeRequestData(XMLStreamReader reader) throws XMLStreamException {
+            return readData(reader);
+        }
+
+        @Override
+        protected String deserializeResponseData(XMLStreamReader reader) throws XMLStreamException {
+            return readData(reader);
+        }
+
+        private static String readData(XMLStreamReader reader) throws XMLStreamException {
+            String data = null;
+            while (reader.nextTag() == XMLStreamReader.START_ELEMENT) {
+                if ("data".equals(reader.getLocalName())) {
+                    data = reader.getElementText();
+                } else {
+                    reader.getElementText();
+                }
+            }
+            return data;
+        }
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test cases for TtlCache class.
+ */
+class TtlCacheTest {
+
+    private final AtomicLong time = new AtomicLong();
+
+    /**
+     * Values are loaded once and returned from the cache until the TTL.
+     */
+    @Test
+    void testHitAndMiss() {
+        AtomicInteger loads = new AtomicInteger();
+        TtlCache<String, Integer> cache = new TtlCache<>(1000, 0, 10, Runnable::run, this.time::get);
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        this.advance(999);
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        this.advance(1);
+        assertEquals(2, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    /**
+     * A stale value is returned while it's refreshed in the background.
+     */
+    @Test
+    void testStaleWhileRevalidate() {
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicInteger loads = new AtomicInteger();
+        TtlCache<String, Integer> cache = new TtlCache<>(1000, 5000, 10, tasks::add, this.time::get);
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        this.advance(2000);
+        // Stale value is returned and a single refresh is scheduled
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(1, tasks.size());
+        assertEquals(1, loads.get());
+        tasks.get(0).run();
+        assertEquals(2, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(2, cache.getStaleHitCount());
+        assertEquals(1, cache.getRefreshCount());
+        assertEquals(1, cache.getHitCount());
+        // After the stale period the value is loaded in the calling thread
+        this.advance(6000);
+        assertEquals(3, (int) cache.get("a", loads::incrementAndGet));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * A failed refresh keeps the stale value.
+     */
+    @Test
+    void testRefreshFailure() {
+        TtlCache<String, Integer> cache = new TtlCache<>(1000, 5000, 10, Runnable::run, this.time::get);
+        assertEquals(1, (int) cache.get("a", () -> 1));
+        this.advance(2000);
+        assertEquals(1, (int) cache.get("a", () -> {
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals(1, cache.getRefreshFailureCount());
+        assertEquals(1, (int) cache.get("a", () -> 2));
+        assertEquals(2, (int) cache.get("a", () -> 3));
+        assertThrows(IllegalStateException.class, () -> cache.get("b", () -> {
+            throw new IllegalStateException("failed");
+        }));
+    }
+
+    /**
+     * The least recently used entry is evicted when the cache is full.
+     */
+    @Test
+    void testEviction() {
+        TtlCache<String, Integer> cache = new TtlCache<>(100000, 0, 2, Runnable::run, this.time::get);
+        cache.get("a", () -> 1);
+        this.advance(1);
+        cache.get("b", () -> 2);
+        this.advance(1);
+        cache.get("a", () -> 1);
+        this.advance(1);
+        cache.get("c", () -> 3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, (int) cache.get("a", () -> 10));
+        assertEquals(20, (int) cache.get("b", () -> 20));
+    }
+
+    /**
+     * Values rejected by the cacheable predicate are returned but not
+     * cached.
+     */
+    @Test
+    void testCacheable() {
+        TtlCache<String, Integer> cache = new TtlCache<>(1000, 0, 10, Runnable::run, this.time::get);
+        cache.setCacheable(value -> value != null && value > 0);
+        assertEquals(-1, (int) cache.get("a", () -> -1));
+        assertEquals(0, cache.size());
+        assertEquals(1, (int) cache.get("a", () -> 1));
+        assertEquals(1, cache.size());
+        cache.invalidate("a");
+        assertEquals(0, cache.size());
+    }
+
+    private void advance(long millis) {
+        this.time.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.deserializer;
+
+import org.niis.xrd4j.common.member.ObjectType;
+import org.niis.xrd4j.common.message.ErrorMessageType;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.SOAPMessage;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for AbstractStreamingResponseDeserializer class.
+ */
+class StreamingResponseDeserializerTest {
+
+    /**
+     * Response to subsystem -> service level service call.
+     */
+    @Test
+    void test1() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion><xrd:requestHash algorithmId=\"SHA-512\">ZPbWPAOcJxzE81EmSk//R3DUQtqwMcuMMF9tsccJypdNcukzICQtlhhr3a/bTmexDrn8e/BrBVyl2t0ni/cUvw==</xrd:requestHash></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><data>9876543210</data></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "*", false);
+
+        assertEquals("FI", response.getConsumer().getXRoadInstance());
+        assertEquals("GOV", response.getConsumer().getMemberClass());
+        assertEquals("MEMBER1", response.getConsumer().getMemberCode());
+        assertEquals("subsystem", response.getConsumer().getSubsystemCode());
+        assertEquals(ObjectType.SUBSYSTEM, response.getConsumer().getObjectType());
+
+        assertEquals("FI", response.getProducer().getXRoadInstance());
+        assertEquals("COM", response.getProducer().getMemberClass());
+        assertEquals("MEMBER2", response.getProducer().getMemberCode());
+        assertEquals("subsystem", response.getProducer().getSubsystemCode());
+        assertEquals("getRandom", response.getProducer().getServiceCode());
+        assertEquals("v1", response.getProducer().getServiceVersion());
+        assertEquals("http://producer.x-road.ee", response.getProducer().getNamespaceUrl());
+        assertEquals("ID-1234567890", response.getId());
+        assertEquals("EE1234567890", response.getUserId());
+        assertEquals("4.0", response.getProtocolVersion());
+        assertEquals(ObjectType.SERVICE, response.getProducer().getObjectType());
+        assertEquals(null, response.getRequestData());
+        assertEquals("9876543210", response.getResponseData());
+
+        assertEquals("SHA-512", response.getRequestHashAlgorithm());
+        assertEquals("ZPbWPAOcJxzE81EmSk//R3DUQtqwMcuMMF9tsccJypdNcukzICQtlhhr3a/bTmexDrn8e/BrBVyl2t0ni/cUvw==", response.getRequestHash());
+
+        assertEquals(false, response.hasError());
+        assertEquals(null, response.getSoapMessage());
+    }
+
+    /**
+     * Response to subsystem -> service level service call. Request and
+     * response wrappers are processed.
+     */
+    @Test
+    void test1WithWrappers() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion><xrd:requestHash algorithmId=\"SHA-512\">ZPbWPAOcJxzE81EmSk//R3DUQtqwMcuMMF9tsccJypdNcukzICQtlhhr3a/bTmexDrn8e/BrBVyl2t0ni/cUvw==</xrd:requestHash></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><request><data>1234567890</data></request><response><data>9876543210</data></response></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "http://producer.x-road.ee", true);
+
+        assertEquals("getRandom", response.getProducer().getServiceCode());
+        assertEquals("ID-1234567890", response.getId());
+        assertEquals("1234567890", response.getRequestData());
+        assertEquals("9876543210", response.getResponseData());
+        assertEquals(false, response.hasError());
+    }
+
+    /**
+     * Response element in an unexpected namespace is not deserialized.
+     */
+    @Test
+    void testWrongNamespace() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion><xrd:requestHash algorithmId=\"SHA-512\">ZPbWPAOcJxzE81EmSk//R3DUQtqwMcuMMF9tsccJypdNcukzICQtlhhr3a/bTmexDrn8e/BrBVyl2t0ni/cUvw==</xrd:requestHash></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><data>9876543210</data></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "http://other.x-road.ee", false);
+
+        assertEquals("ID-1234567890", response.getId());
+        assertEquals(null, response.getResponseData());
+    }
+
+    /**
+     * Response to subsystem -> service level service call. Technical error
+     * with header.
+     */
+    @Test
+    void testTechError() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body><SOAP-ENV:Fault><faultcode>fault code</faultcode><faultstring>fault string</faultstring><faultactor>fault actor</faultactor><detail>fault details</detail></SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "*", false);
+
+        assertEquals("MEMBER1", response.getConsumer().getMemberCode());
+        assertEquals("getRandom", response.getProducer().getServiceCode());
+        assertEquals(null, response.getResponseData());
+        assertEquals(true, response.hasError());
+        assertEquals("fault code", response.getErrorMessage().getFaultCode());
+        assertEquals("fault string", response.getErrorMessage().getFaultString());
+        assertEquals("fault actor", response.getErrorMessage().getFaultActor());
+        assertEquals("fault details", response.getErrorMessage().getDetail());
+        assertEquals(ErrorMessageType.STANDARD_SOAP_ERROR_MESSAGE, response.getErrorMessage().getErrorMessageType());
+    }
+
+    /**
+     * Technical error without header.
+     */
+    @Test
+    void testTechErrorWithoutHeader() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header /><SOAP-ENV:Body><SOAP-ENV:Fault><faultCode>fault code</faultCode><faultString>fault string</faultString><faultActor>fault actor</faultActor><detail>fault details</detail></SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "*", false);
+
+        assertEquals(null, response.getConsumer());
+        assertEquals(null, response.getProducer());
+        assertEquals(true, response.hasError());
+        assertEquals("fault code", response.getErrorMessage().getFaultCode());
+        assertEquals("fault string", response.getErrorMessage().getFaultString());
+        assertEquals(ErrorMessageType.STANDARD_SOAP_ERROR_MESSAGE, response.getErrorMessage().getErrorMessageType());
+    }
+
+    /**
+     * Response to subsystem -> service level service call. Non technical
+     * error.
+     */
+    @Test
+    void testNonTechError() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>5.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><faultCode>fault code</faultCode><faultString>fault string</faultString></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(toStream(soapString), "*", false);
+
+        assertEquals("5.0", response.getProtocolVersion());
+        assertEquals(null, response.getResponseData());
+        assertEquals(true, response.hasError());
+        assertEquals("fault code", response.getErrorMessage().getFaultCode());
+        assertEquals("fault string", response.getErrorMessage().getFaultString());
+        assertEquals(ErrorMessageType.NON_TECHNICAL_SOAP_ERROR_MESSAGE, response.getErrorMessage().getErrorMessageType());
+    }
+
+    /**
+     * Response to subsystem -> service level service call deserialized from
+     * a SOAPMessage.
+     */
+    @Test
+    void testSOAPMessage() {
+        String soapString = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><data>9876543210</data></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        SOAPMessage message = SOAPHelper.toSOAP(soapString);
+
+        ServiceResponse<String, String> response = new TestStreamingDeserializer().deserialize(message);
+
+        assertEquals("MEMBER1", response.getConsumer().getMemberCode());
+        assertEquals("getRandom", response.getProducer().getServiceCode());
+        assertEquals("ID-1234567890", response.getId());
+        assertEquals("9876543210", response.getResponseData());
+        assertEquals(message, response.getSoapMessage());
+    }
+
+    private static InputStream toStream(String soapString) {
+        return new ByteArrayInputStream(soapString.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class TestStreamingDeserializer extends AbstractStreamingResponseDeserializer<String, String> {
+
+        @Override
+        protected String deserializeRequestData(XMLStreamReader reader) throws XMLStreamException {
+            return readData(reader);
+        }
+
+        @Override
+        protected String deserializeResponseData(XMLStreamReader reader) throws XMLStreamException {
+            return readData(reader);
+        }
+
+        private static String readData(XMLStreamReader reader) throws XMLStreamException {
+            String data = null;
+            while (reader.nextTag() == XMLStreamReader.START_ELEMENT) {
+                if ("data".equals(reader.getLocalName())) {
+                    data = reader.getElementText();
+                } else {
+                    reader.getElementText();
+                }
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for CircuitBreaker class.
+ */
+class CircuitBreakerTest {
+
+    private static final CircuitBreaker.Permit CALL = CircuitBreaker.Permit.CALL;
+
+    private AtomicLong clock;
+    private CircuitBreakerConfig config;
+
+    @BeforeEach
+    void setUp() {
+        this.clock = new AtomicLong();
+        this.config = new CircuitBreakerConfig();
+        this.config.setConsecutiveFailureThreshold(3);
+        this.config.setErrorRateThreshold(0.5);
+        this.config.setSlidingWindowSize(10);
+        this.config.setMinimumNumberOfCalls(6);
+        this.config.setOpenDurationMillis(1000);
+        this.config.setHalfOpenProbes(2);
+    }
+
+    /**
+     * Consecutive failures open the circuit.
+     */
+    @Test
+    void testConsecutiveFailures() {
+        CircuitBreaker breaker = this.newBreaker();
+        breaker.onFailure(CALL);
+        breaker.onFailure(CALL);
+        breaker.onSuccess(CALL);
+        breaker.onFailure(CALL);
+        breaker.onFailure(CALL);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(CALL);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        assertNull(breaker.tryAcquirePermission());
+    }
+
+    /**
+     * Error rate over the sliding window opens the circuit.
+     */
+    @Test
+    void testErrorRate() {
+        CircuitBreaker breaker = this.newBreaker();
+        breaker.onSuccess(CALL);
+        breaker.onFailure(CALL);
+        breaker.onSuccess(CALL);
+        breaker.onFailure(CALL);
+        breaker.onSuccess(CALL);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // 3 failures out of 6 calls
+        breaker.onFailure(CALL);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    /**
+     * Old outcomes drop out of the sliding window.
+     */
+    @Test
+    void testSlidingWindow() {
+        CircuitBreaker breaker = this.newBreaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(CALL);
+            breaker.onSuccess(CALL);
+            breaker.onSuccess(CALL);
+            breaker.onSuccess(CALL);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * Successful probes re-admit the endpoint.
+     */
+    @Test
+    void testHalfOpenSuccess() {
+        CircuitBreaker breaker = this.openBreaker();
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertNull(breaker.tryAcquirePermission());
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(breaker.isCallPermitted());
+        CircuitBreaker.Permit probe1 = breaker.tryAcquirePermission();
+        assertTrue(probe1.isProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        CircuitBreaker.Permit probe2 = breaker.tryAcquirePermission();
+        assertTrue(probe2.isProbe());
+        // Only two probes are permitted
+        assertNull(breaker.tryAcquirePermission());
+        assertFalse(breaker.isCallPermitted());
+        breaker.onSuccess(probe1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(probe2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertSame(CALL, breaker.tryAcquirePermission());
+    }
+
+    /**
+     * Failed probe opens the circuit again.
+     */
+    @Test
+    void testHalfOpenFailure() {
+        CircuitBreaker breaker = this.openBreaker();
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        CircuitBreaker.Permit probe = breaker.tryAcquirePermission();
+        assertNotNull(probe);
+        breaker.onFailure(probe);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquirePermission());
+    }
+
+    /**
+     * Released probe permission lets another probe through.
+     */
+    @Test
+    void testReleasePermission() {
+        CircuitBreaker breaker = this.openBreaker();
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        CircuitBreaker.Permit probe = breaker.tryAcquirePermission();
+        assertNotNull(probe);
+        assertNotNull(breaker.tryAcquirePermission());
+        assertNull(breaker.tryAcquirePermission());
+        breaker.releasePermission(probe);
+        assertNotNull(breaker.tryAcquirePermission());
+        // Releasing a call that was not a probe does not free a probe slot
+        breaker.releasePermission(CALL);
+        assertNull(breaker.tryAcquirePermission());
+    }
+
+    /**
+     * Only the outcomes of the probes of the current half-open period change
+     * the half-open state.
+     */
+    @Test
+    void testOutcomesAttributedByPermit() {
+        CircuitBreaker breaker = this.openBreaker();
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        CircuitBreaker.Permit probe1 = breaker.tryAcquirePermission();
+        CircuitBreaker.Permit probe2 = breaker.tryAcquirePermission();
+        // Calls that were permitted before the breaker opened complete now
+        breaker.onSuccess(CALL);
+        breaker.onSuccess(CALL);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(CALL);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure(probe1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // Probes of the previous half-open period are ignored
+        this.clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        CircuitBreaker.Permit probe3 = breaker.tryAcquirePermission();
+        CircuitBreaker.Permit probe4 = breaker.tryAcquirePermission();
+        breaker.onSuccess(probe2);
+        breaker.releasePermission(probe2);
+        assertNull(breaker.tryAcquirePermission());
+        breaker.onSuccess(probe3);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(probe4);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private CircuitBreaker newBreaker() {
+        return new CircuitBreaker("test", this.config, this.clock::get);
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = this.newBreaker();
+        breaker.onFailure(CALL);
+        breaker.onFailure(CALL);
+        breaker.onFailure(CALL);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for HedgingPolicy class.
+ */
+class HedgingPolicyTest {
+
+    /**
+     * Only the configured services are hedged.
+     */
+    @Test
+    void testHedgedServices() {
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        assertTrue(policy.isHedged("getRandom"));
+        assertFalse(policy.isHedged("helloService"));
+        assertFalse(policy.isHedged(null));
+    }
+
+    /**
+     * The default delay is used until there are enough samples, and then
+     * the percentile limited by the minimum and maximum delay.
+     */
+    @Test
+    void testDelay() {
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        policy.setMinSamples(10);
+        policy.setMaxDelayMillis(500);
+        Endpoint endpoint = new Endpoint("http://server1.myhost.com", new CircuitBreakerConfig());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(HedgingPolicy.DEFAULT_DELAY_MILLIS), policy.getDelayNanos(endpoint));
+        for (int i = 0; i < 10; i++) {
+            endpoint.requestStarted();
+            endpoint.requestSucceeded(TimeUnit.MILLISECONDS.toNanos(20), CircuitBreaker.Permit.CALL);
+        }
+        long delay = TimeUnit.NANOSECONDS.toMillis(policy.getDelayNanos(endpoint));
+        assertTrue(delay >= 20 && delay <= 25, "delay: " + delay);
+        policy.setMinDelayMillis(50);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), policy.getDelayNanos(endpoint));
+        for (int i = 0; i < 10; i++) {
+            endpoint.requestStarted();
+            endpoint.requestSucceeded(TimeUnit.SECONDS.toNanos(5), CircuitBreaker.Permit.CALL);
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), policy.getDelayNanos(endpoint));
+    }
+
+    /**
+     * The budget allows the burst first and then the ratio of the requests.
+     */
+    @Test
+    void testBudget() {
+        HedgingPolicy policy = new HedgingPolicy(Collections.singleton("getRandom"));
+        policy.setBudgetRatio(0.1);
+        policy.setMaxBurst(2);
+        assertTrue(policy.tryAcquireHedge());
+        assertTrue(policy.tryAcquireHedge());
+        assertFalse(policy.tryAcquireHedge());
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+        assertEquals(10, hedges);
+        // Unused tokens are accumulated up to the burst
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+        }
+        assertTrue(policy.tryAcquireHedge());
+        assertTrue(policy.tryAcquireHedge());
+        assertFalse(policy.tryAcquireHedge());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for LoadBalancingStrategy implementations.
+ */
+class LoadBalancingStrategyTest {
+
+    private List<Endpoint> endpoints;
+    private Endpoint server1;
+    private Endpoint server2;
+    private Endpoint server3;
+
+    @BeforeEach
+    void setUp() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        this.server1 = new Endpoint("http://server1.myhost.com", config);
+        this.server2 = new Endpoint("http://server2.myhost.com", config);
+        this.server3 = new Endpoint("http://server3.myhost.com", config);
+        this.endpoints = new ArrayList<>();
+        this.endpoints.add(this.server1);
+        this.endpoints.add(this.server2);
+        this.endpoints.add(this.server3);
+    }
+
+    /**
+     * Round robin selects the endpoints in turn.
+     */
+    @Test
+    void testRoundRobin() {
+        LoadBalancingStrategy strategy = new RoundRobinStrategy();
+        assertSame(this.server1, strategy.select(this.endpoints));
+        assertSame(this.server2, strategy.select(this.endpoints));
+        assertSame(this.server3, strategy.select(this.endpoints));
+        assertSame(this.server1, strategy.select(this.endpoints));
+    }
+
+    /**
+     * Weighted round robin interleaves the endpoints in proportion to their
+     * weights.
+     */
+    @Test
+    void testWeightedRoundRobin() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put(this.server1.getUrl(), 3);
+        weights.put(this.server3.getUrl(), 2);
+        LoadBalancingStrategy strategy = new WeightedRoundRobinStrategy(weights);
+        Endpoint[] expected = {this.server1, this.server2, this.server3, this.server1, this.server3, this.server1};
+        for (int round = 0; round < 2; round++) {
+            for (Endpoint endpoint : expected) {
+                assertSame(endpoint, strategy.select(this.endpoints));
+            }
+        }
+    }
+
+    /**
+     * Weighted round robin rebuilds its schedule when the candidates change.
+     */
+    @Test
+    void testWeightedRoundRobinCandidatesChange() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put(this.server1.getUrl(), 3);
+        LoadBalancingStrategy strategy = new WeightedRoundRobinStrategy(weights);
+        strategy.select(this.endpoints);
+        List<Endpoint> candidates = new ArrayList<>();
+        candidates.add(this.server2);
+        candidates.add(this.server3);
+        for (int i = 0; i < 4; i++) {
+            Endpoint selected = strategy.select(candidates);
+            assertTrue(selected == this.server2 || selected == this.server3);
+        }
+    }
+
+    /**
+     * Weighted round robin keeps the schedule of all the endpoints and skips
+     * the endpoints that are not available.
+     */
+    @Test
+    void testWeightedRoundRobinSkipsUnavailable() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put(this.server1.getUrl(), 3);
+        LoadBalancingStrategy strategy = new WeightedRoundRobinStrategy(weights);
+        List<Endpoint> candidates = new ArrayList<>();
+        candidates.add(this.server2);
+        candidates.add(this.server3);
+        for (int i = 0; i < 5; i++) {
+            Endpoint selected = strategy.select(this.endpoints, candidates);
+            assertTrue(selected == this.server2 || selected == this.server3);
+        }
+        // The schedule was not rebuilt, so a full round follows the weights
+        int server1Count = 0;
+        for (int i = 0; i < 5; i++) {
+            if (strategy.select(this.endpoints, this.endpoints) == this.server1) {
+                server1Count++;
+            }
+        }
+        assertEquals(3, server1Count);
+    }
+
+    /**
+     * Weights must be positive.
+     */
+    @Test
+    void testWeightedRoundRobinInvalidWeight() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put(this.server1.getUrl(), 0);
+        assertThrows(IllegalArgumentException.class, () -> new WeightedRoundRobinStrategy(weights));
+    }
+
+    /**
+     * Least outstanding requests selects the endpoint with the least requests
+     * in flight and breaks ties in turn.
+     */
+    @Test
+    void testLeastOutstandingRequests() {
+        LoadBalancingStrategy strategy = new LeastOutstandingRequestsStrategy();
+        this.server1.requestStarted();
+        this.server1.requestStarted();
+        this.server2.requestStarted();
+        assertSame(this.server3, strategy.select(this.endpoints));
+        this.server3.requestStarted();
+        this.server3.requestStarted();
+        assertSame(this.server2, strategy.select(this.endpoints));
+        this.server1.requestSucceeded(1, CircuitBreaker.Permit.CALL);
+        this.server1.requestFailed(CircuitBreaker.Permit.CALL);
+        this.server3.requestCancelled(CircuitBreaker.Permit.CALL);
+        this.server3.requestCancelled(CircuitBreaker.Permit.CALL);
+        this.server2.requestSucceeded(1, CircuitBreaker.Permit.CALL);
+        int server1Count = 0;
+        for (int i = 0; i < 3; i++) {
+            if (strategy.select(this.endpoints) == this.server1) {
+                server1Count++;
+            }
+        }
+        assertEquals(1, server1Count);
+    }
+
+    /**
+     * Power of two choices prefers the endpoint with the lower latency.
+     */
+    @Test
+    void testPowerOfTwoChoices() {
+        LoadBalancingStrategy strategy = new PowerOfTwoChoicesStrategy();
+        List<Endpoint> candidates = new ArrayList<>();
+        candidates.add(this.server1);
+        candidates.add(this.server2);
+        this.server1.requestStarted();
+        this.server1.requestSucceeded(TimeUnit.MILLISECONDS.toNanos(100), CircuitBreaker.Permit.CALL);
+        this.server2.requestStarted();
+        this.server2.requestSucceeded(TimeUnit.MILLISECONDS.toNanos(10), CircuitBreaker.Permit.CALL);
+        for (int i = 0; i < 10; i++) {
+            assertSame(this.server2, strategy.select(candidates));
+        }
+        // Requests in flight increase the cost
+        for (int i = 0; i < 20; i++) {
+            this.server2.requestStarted();
+        }
+        assertSame(this.server1, strategy.select(candidates));
+        assertSame(this.server1, strategy.select(this.endpoints.subList(0, 1)));
+    }
+
+    /**
+     * Latency EWMA follows the samples.
+     */
+    @Test
+    void testLatencyEwma() {
+        assertEquals(0.0, this.server1.getLatencyEwmaNanos());
+        this.server1.requestStarted();
+        this.server1.requestSucceeded(100, CircuitBreaker.Permit.CALL);
+        assertEquals(100.0, this.server1.getLatencyEwmaNanos());
+        this.server1.requestStarted();
+        this.server1.requestSucceeded(200, CircuitBreaker.Permit.CALL);
+        assertEquals(130.0, this.server1.getLatencyEwmaNanos(), 0.0001);
+        assertEquals(0, this.server1.getInFlight());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.loadbalancing;
+
+import org.niis.xrd4j.client.transport.HttpStatusException;
+
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.SOAPException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for RetryPolicy class.
+ */
+class RetryPolicyTest {
+
+    /**
+     * Connection errors and HTTP 503 are retryable anywhere in the cause
+     * chain.
+     */
+    @Test
+    void testRetryable() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(new SOAPException("failed", new ConnectException("Connection refused"))));
+        assertTrue(policy.isRetryable(new CompletionException(new SOAPException("failed", new NoRouteToHostException()))));
+        assertTrue(policy.isRetryable(new SOAPException("failed", new ConnectTimeoutException("Connect timed out"))));
+        assertTrue(policy.isRetryable(new HttpStatusException(503, "Service Unavailable")));
+    }
+
+    /**
+     * Errors after which the request may have been processed are not
+     * retryable.
+     */
+    @Test
+    void testNotRetryable() {
+        RetryPolicy policy = new RetryPolicy();
+        assertFalse(policy.isRetryable(new SOAPException("failed", new SocketTimeoutException("Read timed out"))));
+        assertFalse(policy.isRetryable(new HttpStatusException(502, "Bad Gateway")));
+        assertFalse(policy.isRetryable(new HttpStatusException(504, "Gateway Timeout")));
+        assertFalse(policy.isRetryable(new SOAPException("Unable to parse response")));
+        assertFalse(policy.isRetryable(new IllegalStateException()));
+    }
+
+    /**
+     * Backoff grows exponentially up to the maximum and is jittered.
+     */
+    @Test
+    void testBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoffMillis(10);
+        policy.setMaxBackoffMillis(40);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getBackoffNanos(1) <= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(policy.getBackoffNanos(2) <= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(policy.getBackoffNanos(100) <= TimeUnit.MILLISECONDS.toNanos(40));
+            assertTrue(policy.getBackoffNanos(1) >= 0);
+        }
+        policy.setInitialBackoffMillis(0);
+        assertEquals(0, policy.getBackoffNanos(1));
+    }
+
+    /**
+     * No retries policy allows a single attempt and has no deadline.
+     */
+    @Test
+    void testNoRetries() {
+        assertEquals(1, RetryPolicy.noRetries().getMaxAttempts());
+        assertEquals(0, RetryPolicy.noRetries().getDeadlineMillis());
+    }
+}
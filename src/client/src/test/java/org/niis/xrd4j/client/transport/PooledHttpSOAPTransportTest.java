@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.client.transport;
+
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test cases for PooledHttpSOAPTransport class.
+ */
+@WireMockTest
+class PooledHttpSOAPTransportTest {
+
+    private static final String RESPONSE = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<SOAP-ENV:Body><data>1234567890</data></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    private static final String FAULT = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<SOAP-ENV:Body><SOAP-ENV:Fault><faultcode>SOAP-ENV:Server</faultcode><faultstring>Error</faultstring>"
+            + "</SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    private static final long WAIT_MILLIS = 10000;
+    private static final int DELAY_MILLIS = 1000;
+
+    private PooledHttpSOAPTransport transport;
+    private SOAPMessage request;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        this.transport = new PooledHttpSOAPTransport(2, 4, 1000);
+        this.request = SOAPHelper.toSOAP("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><request>1234567890</request></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        this.transport.close();
+    }
+
+    /**
+     * Response is parsed and the connection is returned to the pool.
+     */
+    @Test
+    void testCall(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+
+        for (int i = 0; i < 3; i++) {
+            SOAPMessage response = this.transport.call(this.request, wm.getHttpBaseUrl() + "/");
+            assertThat(response.getSOAPBody().getFirstChild().getTextContent()).isEqualTo("1234567890");
+        }
+
+        verify(3, postRequestedFor(urlEqualTo("/"))
+                .withHeader("Content-Type", containing("text/xml"))
+                .withRequestBody(containing("<request>1234567890</request>")));
+        assertThat(this.transport.getPoolStats().getLeased()).isZero();
+        assertThat(this.transport.getPoolStats().getAvailable()).isEqualTo(1);
+    }
+
+    /**
+     * SOAP fault returned with HTTP 500 is parsed.
+     */
+    @Test
+    void testCallFault(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(500)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(FAULT)));
+
+        SOAPMessage response = this.transport.call(this.request, wm.getHttpBaseUrl() + "/");
+
+        assertThat(response.getSOAPBody().hasFault()).isTrue();
+        assertThat(response.getSOAPBody().getFault().getFaultString()).isEqualTo("Error");
+    }
+
+    /**
+     * Unexpected HTTP status code is reported as HttpStatusException.
+     */
+    @Test
+    void testCallBadStatus(WireMockRuntimeInfo wm) {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(404)));
+
+        assertThatThrownBy(() -> this.transport.call(this.request, wm.getHttpBaseUrl() + "/"))
+                .isInstanceOf(HttpStatusException.class)
+                .hasMessageContaining("404");
+    }
+
+    /**
+     * MIME headers of the request are sent as HTTP headers.
+     */
+    @Test
+    void testCallMimeHeaders(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+        this.request.getMimeHeaders().addHeader("SOAPAction", "\"test\"");
+
+        this.transport.call(this.request, wm.getHttpBaseUrl() + "/");
+
+        verify(postRequestedFor(urlEqualTo("/")).withHeader("SOAPAction", equalTo("\"test\"")));
+    }
+
+    /**
+     * Idle connections are evicted after the idle timeout.
+     */
+    @Test
+    void testIdleEviction(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+
+        this.transport.call(this.request, wm.getHttpBaseUrl() + "/");
+        assertThat(this.transport.getPoolStats().getAvailable()).isEqualTo(1);
+
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (this.transport.getPoolStats().getAvailable() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(this.transport.getPoolStats().getAvailable()).isZero();
+    }
+
+    /**
+     * Requests beyond the per-route limit wait for a free connection.
+     */
+    @Test
+    void testMaxConnectionsPerRoute(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200).withFixedDelay(DELAY_MILLIS)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SOAPMessage>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> this.transport.call(this.request, wm.getHttpBaseUrl() + "/")));
+            }
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (this.transport.getPoolStats().getPending() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(this.transport.getPoolStats().getLeased()).isEqualTo(2);
+            assertThat(this.transport.getPoolStats().getPending()).isEqualTo(2);
+            for (Future<SOAPMessage> result : results) {
+                assertThat(result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isNotNull();
+            }
+            assertThat(this.transport.getPoolStats().getLeased()).isZero();
+            assertThat(this.transport.getPoolStats().getAvailable()).isEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The deadline of the calling thread bounds waiting for the response, and
+     * the connection is released.
+     */
+    @Test
+    void testCallDeadline(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200).withFixedDelay(DELAY_MILLIS * 5)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+        long start = System.nanoTime();
+        CallDeadline previous = CallDeadline.setCurrent(CallDeadline.after(200));
+        try {
+            assertThatThrownBy(() -> this.transport.call(this.request, wm.getHttpBaseUrl() + "/"))
+                    .isInstanceOf(SOAPException.class);
+        } finally {
+            CallDeadline.setCurrent(previous);
+        }
+
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS * 4));
+        assertThat(CallDeadline.current()).isSameAs(CallDeadline.NONE);
+        assertThat(this.transport.getPoolStats().getLeased()).isZero();
+    }
+
+    /**
+     * The shared instance is created once and can't be closed.
+     */
+    @Test
+    void testDefault(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post(urlEqualTo("/")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/xml; charset=utf-8").withBody(RESPONSE)));
+        PooledHttpSOAPTransport shared = PooledHttpSOAPTransport.getDefault();
+        assertThat(PooledHttpSOAPTransport.getDefault()).isSameAs(shared);
+
+        shared.close();
+
+        assertThat(shared.call(this.request, wm.getHttpBaseUrl() + "/")).isNotNull();
+    }
+}
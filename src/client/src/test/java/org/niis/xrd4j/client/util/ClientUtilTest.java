@@ -22,6 +22,9 @@
  */
 package org.niis.xrd4j.client.util;
 
+import org.niis.xrd4j.client.transport.PooledHttpSOAPTransport;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
 import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
 import org.assertj.core.api.Assertions;
@@ -29,6 +32,9 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLHandshakeException;
@@ -37,9 +43,11 @@ import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.cert.CertPathBuilderException;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static jakarta.servlet.http.HttpServletResponse.SC_OK;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -87,6 +95,23 @@ class ClientUtilTest {
         assertThat(responseCode).isEqualTo(SC_OK);
     }
 
+    @Test
+    void doTrustToCertificatesAfterTransportCreated(WireMockRuntimeInfo wm) throws Exception {
+        stubFor(post("/").willReturn(ok()));
+        SOAPMessage request = SOAPHelper.toSOAP("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><request>1234567890</request></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+
+        try (PooledHttpSOAPTransport transport = new PooledHttpSOAPTransport()) {
+            Assertions.assertThatThrownBy(() -> transport.call(request, wm.getHttpsBaseUrl() + "/"))
+                    .isInstanceOf(SOAPException.class)
+                    .hasRootCauseInstanceOf(CertPathBuilderException.class);
+
+            ClientUtil.doTrustToCertificates();
+
+            assertThat(transport.call(request, wm.getHttpsBaseUrl() + "/")).isNull();
+        }
+    }
+
     private int getResponseCode(String url) throws IOException {
         var connection = (HttpURLConnection) new URL(url).openConnection();
         return connection.getResponseCode();
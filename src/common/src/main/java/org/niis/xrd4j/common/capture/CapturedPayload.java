@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.capture;
+
+/**
+ * This class represents a single captured message payload. Payloads longer
+ * than the configured byte cap are truncated, in which case the size holds
+ * the length of the original payload, or UNKNOWN_SIZE if the rendering of
+ * the payload was stopped at the cap.
+ */
+public final class CapturedPayload {
+
+    /**
+     * Size of a payload whose original size is not known.
+     */
+    public static final long UNKNOWN_SIZE = -1;
+
+    private final String label;
+    private final String serviceCode;
+    private final String payload;
+    private final long size;
+    private final boolean truncated;
+    private final long timestamp;
+
+    /**
+     * Constructs and initializes a new CapturedPayload object.
+     *
+     * @param label label that describes the payload, e.g. "Outgoing SOAP
+     * request"
+     * @param serviceCode service code of the message or null
+     * @param payload captured, possibly truncated, payload
+     * @param size size of the original payload in bytes or UNKNOWN_SIZE
+     * @param truncated true if the payload was truncated
+     */
+    public CapturedPayload(String label, String serviceCode, String payload, long size, boolean truncated) {
+        this.label = label;
+        this.serviceCode = serviceCode;
+        this.payload = payload;
+        this.size = size;
+        this.truncated = truncated;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the label that describes the payload.
+     *
+     * @return label of the payload
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the service code of the message.
+     *
+     * @return service code or null if it's not known
+     */
+    public String getServiceCode() {
+        return serviceCode;
+    }
+
+    /**
+     * Returns the captured payload.
+     *
+     * @return possibly truncated payload
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the size of the original payload in bytes.
+     *
+     * @return size of the original payload or UNKNOWN_SIZE if it's not known
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if the payload was truncated.
+     *
+     * @return true if the payload was truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the time when the payload was captured in milliseconds since
+     * the epoch.
+     *
+     * @return capture time
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
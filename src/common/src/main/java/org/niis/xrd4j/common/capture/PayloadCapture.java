@@ -0,0 +1,501 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.capture;
+
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.ExecutorHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
+
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPHeader;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class captures message payloads for debugging without slowing down
+ * the request threads. A payload is rendered only if capturing is enabled,
+ * the sink is enabled and the message is sampled. Sampling is done using a
+ * global rate or a service specific rate: rate N captures on average one
+ * message in N. Rendered payloads are truncated to a byte cap and put to a
+ * bounded buffer that is drained to the sink by a background task. If the
+ * buffer is full, the payload is dropped instead of blocking the caller.
+ * Rendering of a sampled message still happens synchronously on the calling
+ * thread, but it's stopped as soon as the byte cap has been reached.
+ *
+ * The default instance writes the payloads to the trace log of this class,
+ * and it renders nothing unless trace logging is enabled.
+ */
+public class PayloadCapture {
+
+    /**
+     * Default capacity of the capture buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Default maximum size of a captured payload in bytes.
+     */
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PayloadCapture.class);
+    // UTF-8 encoding: continuation bytes are 10xxxxxx, and the lead byte of
+    // a character of two, three or four bytes is 110xxxxx, 1110xxxx or
+    // 11110xxx
+    private static final int BYTE_MASK = 0xFF;
+    private static final int CONTINUATION_MASK = 0xC0;
+    private static final int CONTINUATION_BITS = 0x80;
+    private static final int MAX_CONTINUATION_BYTES = 3;
+    private static final int LEAD_2 = 0xC0;
+    private static final int LEAD_3 = 0xE0;
+    private static final int LEAD_4 = 0xF0;
+
+    private final BlockingQueue<CapturedPayload> buffer;
+    private final Executor executor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Map<String, Integer> serviceSampleRates = new ConcurrentHashMap<>();
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean enabled = true;
+    private volatile int sampleRate = 1;
+    private volatile int maxBytes = DEFAULT_MAX_BYTES;
+    private volatile PayloadSink sink = new LoggingPayloadSink();
+
+    /**
+     * Constructs and initializes a new PayloadCapture object that uses the
+     * default capacity and the shared default executor.
+     */
+    public PayloadCapture() {
+        this(DEFAULT_CAPACITY, ExecutorHelper.getDefaultExecutor());
+    }
+
+    /**
+     * Constructs and initializes a new PayloadCapture object.
+     *
+     * @param capacity maximum number of payloads waiting to be delivered
+     * to the sink
+     * @param executor executor that runs the task delivering the payloads
+     */
+    public PayloadCapture(int capacity, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the instance that is shared by all the components that have
+     * not been configured to use a specific instance.
+     *
+     * @return shared default instance
+     */
+    public static PayloadCapture getDefault() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Decides if a message of the given service is captured.
+     *
+     * @param serviceCode service code of the message or null if it's not
+     * known
+     * @return true if the message should be captured
+     */
+    public boolean sample(String serviceCode) {
+        if (!this.isActive()) {
+            return false;
+        }
+        int rate = this.sampleRate;
+        if (serviceCode != null && !this.serviceSampleRates.isEmpty()) {
+            rate = this.serviceSampleRates.getOrDefault(serviceCode, rate);
+        }
+        return rate == 1 || rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    /**
+     * Decides if the given message is captured. The service code is read
+     * from the SOAP header only if service specific rates have been set.
+     *
+     * @param message SOAP message
+     * @return true if the message should be captured
+     */
+    public boolean sample(SOAPMessage message) {
+        if (!this.isActive()) {
+            return false;
+        }
+        return this.sample(this.serviceSampleRates.isEmpty() ? null : getServiceCode(message));
+    }
+
+    /**
+     * Renders the given message and puts it to the capture buffer. The
+     * message should be sampled before calling this method. The message is
+     * rendered synchronously on the calling thread, but the rendering is
+     * aborted when the byte cap has been reached, so large messages and their
+     * attachments are not serialized in full. The size of the original
+     * message is not known in that case.
+     *
+     * @param label label that describes the message
+     * @param message SOAP message to be captured
+     */
+    public void capture(String label, SOAPMessage message) {
+        if (message == null) {
+            return;
+        }
+        CappedOutputStream out = new CappedOutputStream(this.maxBytes);
+        try {
+            message.writeTo(out);
+        } catch (SOAPException | IOException ex) {
+            // SAAJ may wrap the exception thrown by the stream, so check the
+            // stream instead of the exception type
+            if (!out.isTruncated()) {
+                LOGGER.warn("Capturing SOAP message failed : {}", ex.getMessage());
+                return;
+            }
+        }
+        long size = out.isTruncated() ? CapturedPayload.UNKNOWN_SIZE : out.size();
+        this.enqueue(new CapturedPayload(label, getServiceCode(message), out.toString(), size, out.isTruncated()));
+    }
+
+    /**
+     * Puts the given already rendered payload to the capture buffer. The
+     * message should be sampled before calling this method.
+     *
+     * @param label label that describes the payload
+     * @param serviceCode service code of the message or null
+     * @param payload payload to be captured
+     */
+    public void capture(String label, String serviceCode, String payload) {
+        if (payload == null) {
+            return;
+        }
+        byte[] bytes = payload.getBytes(UTF_8);
+        int cap = this.maxBytes;
+        if (bytes.length > cap) {
+            this.enqueue(new CapturedPayload(label, serviceCode, new String(bytes, 0, characterBoundary(bytes, cap), UTF_8),
+                    bytes.length, true));
+        } else {
+            this.enqueue(new CapturedPayload(label, serviceCode, payload, bytes.length, false));
+        }
+    }
+
+    /**
+     * Returns the number of payloads put to the capture buffer.
+     *
+     * @return number of captured payloads
+     */
+    public long getCapturedCount() {
+        return this.captured.sum();
+    }
+
+    /**
+     * Returns the number of payloads dropped because the capture buffer was
+     * full.
+     *
+     * @return number of dropped payloads
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Returns true if capturing is enabled.
+     *
+     * @return true if capturing is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables capturing.
+     *
+     * @param enabled new value
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the global sample rate.
+     *
+     * @return global sample rate
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the global sample rate. Rate N captures on average one message in
+     * N, and zero or a negative rate captures nothing.
+     *
+     * @param sampleRate new value
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the sample rate of the given service. The service specific rate
+     * overrides the global rate.
+     *
+     * @param serviceCode service code
+     * @param sampleRate sample rate of the service
+     */
+    public void setSampleRate(String serviceCode, int sampleRate) {
+        this.serviceSampleRates.put(serviceCode, sampleRate);
+    }
+
+    /**
+     * Removes the sample rate of the given service. The global rate is used
+     * for the service after this.
+     *
+     * @param serviceCode service code
+     */
+    public void removeSampleRate(String serviceCode) {
+        this.serviceSampleRates.remove(serviceCode);
+    }
+
+    /**
+     * Returns the maximum size of a captured payload in bytes.
+     *
+     * @return maximum size in bytes
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum size of a captured payload in bytes. Longer payloads
+     * are truncated.
+     *
+     * @param maxBytes new value
+     */
+    public void setMaxBytes(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Maximum size can't be negative.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the sink that receives the captured payloads.
+     *
+     * @return payload sink
+     */
+    public PayloadSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets the sink that receives the captured payloads.
+     *
+     * @param sink new value
+     */
+    public void setSink(PayloadSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink can't be null.");
+        }
+        this.sink = sink;
+    }
+
+    private boolean isActive() {
+        return this.enabled && this.sink.isEnabled();
+    }
+
+    private void enqueue(CapturedPayload payload) {
+        if (this.buffer.offer(payload)) {
+            this.captured.increment();
+            this.scheduleDrain();
+        } else {
+            this.dropped.increment();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (this.draining.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("Delivering captured payloads was rejected by the executor.");
+                this.draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            CapturedPayload payload;
+            while ((payload = this.buffer.poll()) != null) {
+                try {
+                    this.sink.accept(payload);
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Payload sink failed : {}", ex.getMessage());
+                }
+            }
+        } finally {
+            this.draining.set(false);
+        }
+        // A payload may have been added after the last poll but before the
+        // flag was cleared
+        if (!this.buffer.isEmpty()) {
+            this.scheduleDrain();
+        }
+    }
+
+    /**
+     * Returns the length of the longest prefix of the given UTF-8 bytes that
+     * does not end in the middle of a multi-byte character, so that a
+     * truncated payload is not decoded to a replacement character.
+     *
+     * @param bytes UTF-8 encoded bytes
+     * @param length number of the bytes that are kept
+     * @return length backed off to a character boundary
+     */
+    private static int characterBoundary(byte[] bytes, int length) {
+        // Find the lead byte of the last character, at most three
+        // continuation bytes back
+        int lead = length - 1;
+        while (lead >= 0 && length - lead <= MAX_CONTINUATION_BYTES && (bytes[lead] & CONTINUATION_MASK) == CONTINUATION_BITS) {
+            lead--;
+        }
+        if (lead < 0) {
+            return length;
+        }
+        int b = bytes[lead] & BYTE_MASK;
+        int continuation = b >= LEAD_4 ? MAX_CONTINUATION_BYTES : b >= LEAD_3 ? 2 : b >= LEAD_2 ? 1 : 0;
+        return lead + continuation >= length ? lead : length;
+    }
+
+    private static String getServiceCode(SOAPMessage message) {
+        try {
+            SOAPHeader header = message.getSOAPHeader();
+            if (header == null) {
+                return null;
+            }
+            NodeList list = header.getElementsByTagNameNS(Constants.NS_ID_URL, Constants.NS_ID_ELEM_SERVICE_CODE);
+            return list.getLength() > 0 ? list.item(0).getTextContent() : null;
+        } catch (SOAPException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Output stream that keeps at most the given number of bytes and aborts
+     * the writing by throwing an exception when more bytes are written.
+     */
+    private static final class CappedOutputStream extends OutputStream {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int cap;
+        private boolean truncated;
+
+        CappedOutputStream(int cap) {
+            this.cap = cap;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.out.size() >= this.cap) {
+                throw this.capReached();
+            }
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int n = Math.min(len, this.cap - this.out.size());
+            if (n > 0) {
+                this.out.write(b, off, n);
+            }
+            if (n < len) {
+                throw this.capReached();
+            }
+        }
+
+        private IOException capReached() {
+            this.truncated = true;
+            return new IOException("Capture byte cap reached");
+        }
+
+        int size() {
+            return this.out.size();
+        }
+
+        boolean isTruncated() {
+            return this.truncated;
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = this.out.toByteArray();
+            int length = this.isTruncated() ? characterBoundary(bytes, bytes.length) : bytes.length;
+            return new String(bytes, 0, length, UTF_8);
+        }
+    }
+
+    /**
+     * Sink that writes the payloads to the trace log.
+     */
+    private static final class LoggingPayloadSink implements PayloadSink {
+
+        @Override
+        public boolean isEnabled() {
+            return LOGGER.isTraceEnabled();
+        }
+
+        @Override
+        public void accept(CapturedPayload payload) {
+            if (payload.isTruncated() && payload.getSize() != CapturedPayload.UNKNOWN_SIZE) {
+                LOGGER.trace("{} (truncated, original size {} bytes) : \"{}\".", payload.getLabel(), payload.getSize(), payload.getPayload());
+            } else if (payload.isTruncated()) {
+                LOGGER.trace("{} (truncated) : \"{}\".", payload.getLabel(), payload.getPayload());
+            } else {
+                LOGGER.trace("{} : \"{}\".", payload.getLabel(), payload.getPayload());
+            }
+        }
+    }
+
+    /**
+     * Holds the lazily created default instance.
+     */
+    private static final class DefaultInstanceHolder {
+        private static final PayloadCapture INSTANCE = new PayloadCapture();
+
+        private DefaultInstanceHolder() {
+        }
+    }
+}
@@ -97,6 +97,19 @@ public abstract class AbstractMember implements Serializable {
         ValidationHelper.validateStrNotNullOrEmpty(subsystemCode, Constants.NS_ID_ELEM_SUBSYSTEM_CODE);
     }
 
+    /**
+     * Constructs and initializes a new AbstractMember that is a copy of the
+     * given member.
+     * @param member member to be copied
+     */
+    protected AbstractMember(AbstractMember member) {
+        this.xRoadInstance = member.xRoadInstance;
+        this.memberClass = member.memberClass;
+        this.memberCode = member.memberCode;
+        this.subsystemCode = member.subsystemCode;
+        this.objectType = member.objectType;
+    }
+
     /**
      * Returns the X-Road instance of this member.
      * @return xRoadInstance of this member
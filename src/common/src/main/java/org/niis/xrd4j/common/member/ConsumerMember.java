@@ -60,6 +60,15 @@ public class ConsumerMember extends AbstractMember implements Serializable {
         super(xRoadInstance, memberClass, memberCode, subsystemCode);
     }
 
+    /**
+     * Constructs and initializes a new ConsumerMember that is a copy of the
+     * given member.
+     * @param member member to be copied
+     */
+    public ConsumerMember(ConsumerMember member) {
+        super(member);
+    }
+
     @Override
     /**
      * Returns a String presentation of this ConsumerMember object.
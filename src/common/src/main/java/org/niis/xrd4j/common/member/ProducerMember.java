@@ -134,6 +134,19 @@ public class ProducerMember extends AbstractMember implements Serializable {
         ValidationHelper.validateStrNotNullOrEmpty(serviceVersion, Constants.NS_ID_ELEM_SERVICE_VERSION);
     }
 
+    /**
+     * Constructs and initializes a new ProducerMember that is a copy of the
+     * given member.
+     * @param member member to be copied
+     */
+    public ProducerMember(ProducerMember member) {
+        super(member);
+        this.namespacePrefix = member.namespacePrefix;
+        this.namespaceUrl = member.namespaceUrl;
+        this.serviceCode = member.serviceCode;
+        this.serviceVersion = member.serviceVersion;
+    }
+
     /**
      * Returns the version number of the service.
      * @return version number of the service
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class implements a lock-free histogram of latencies. The latencies are
+ * recorded in microsecond precision into log-linear buckets: each power of two
+ * range is divided into four buckets, so a bucket's width is at most 25% of
+ * its lower bound. Latencies up to 2^37 microseconds (about 38 hours) are
+ * recorded in their own buckets and longer latencies in the last bucket.
+ *
+ * Recording a latency takes two independent atomic updates, one for the
+ * bucket count and one for the sum, so the histogram can be updated
+ * concurrently by all the request threads without locking. A reader may see
+ * the counts and the sum out of step by the latencies being recorded.
+ * Percentiles are calculated from the bucket counts and they are therefore
+ * approximations.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Records the given latency.
+     *
+     * @param latencyNanos latency in nanoseconds
+     */
+    public void record(long latencyNanos) {
+        long latency = Math.max(latencyNanos, 0);
+        this.counts.incrementAndGet(bucketIndex(TimeUnit.NANOSECONDS.toMicros(latency)));
+        this.sumNanos.addAndGet(latency);
+    }
+
+    /**
+     * Returns the sum of the recorded latencies.
+     *
+     * @return sum of the latencies in nanoseconds
+     */
+    public long getSumNanos() {
+        return this.sumNanos.get();
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return number of recorded latencies
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += this.counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the latency that the given fraction of the recorded latencies
+     * does not exceed, e.g. 0.99 for the 99th percentile. The upper bound of
+     * the bucket containing the percentile is returned, so the returned value
+     * may be up to 25% higher than the exact percentile. Zero is returned if
+     * no latencies have been recorded.
+     *
+     * @param percentile percentile between 0 and 1
+     * @return latency in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0.0), 1.0) * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return TimeUnit.MICROSECONDS.toNanos(bucketUpperBound(i));
+            }
+        }
+        return TimeUnit.MICROSECONDS.toNanos(bucketUpperBound(BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Halves all the bucket counts and the sum. Decaying the histogram
+     * periodically makes the percentiles follow the recent latencies instead
+     * of the whole history.
+     */
+    public void decay() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts.getAndUpdate(i, count -> count >> 1);
+        }
+        this.sumNanos.getAndUpdate(sum -> sum >> 1);
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     *
+     * @return bucket counts
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = this.counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the index of the bucket of the given value.
+     *
+     * @param micros value in microseconds
+     * @return bucket index
+     */
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the exclusive upper bound of the given bucket.
+     *
+     * @param index bucket index
+     * @return upper bound in microseconds
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1L;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds named metrics, latency histograms and counters, that
+ * are tagged with labels, and writes them in the Prometheus text format.
+ * Each combination of label values is its own series. Looking up a series
+ * and recording a value are lock-free, so metrics can be recorded by all the
+ * request threads. The number of series per metric is limited, and the
+ * values that don't fit are recorded in a series whose label values are all
+ * "other", so that labels taken from requests can't grow the registry
+ * without bound.
+ */
+public class MetricsRegistry {
+
+    /**
+     * Default maximum number of series per metric.
+     */
+    public static final int DEFAULT_MAX_SERIES = 1000;
+    /**
+     * Content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final String OVERFLOW = "other";
+    private static final String TYPE_HISTOGRAM = "histogram";
+    private static final String TYPE_COUNTER = "counter";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final long[] BUCKETS_MICROS = {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000
+    };
+
+    private final Map<String, Family<?>> families = new ConcurrentHashMap<>();
+    private volatile int maxSeries = DEFAULT_MAX_SERIES;
+
+    /**
+     * Returns the shared instance.
+     *
+     * @return shared MetricsRegistry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the latency histogram of the given metric and labels. The
+     * histogram is created if it doesn't exist.
+     *
+     * @param name name of the metric
+     * @param help description of the metric, used when the metric is created
+     * @param labels label names and values: name1, value1, name2, value2...
+     * @return latency histogram
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return this.series(name, help, TYPE_HISTOGRAM, LatencyHistogram::new, labels);
+    }
+
+    /**
+     * Returns the counter of the given metric and labels. The counter is
+     * created if it doesn't exist. Counter names should end with "_total".
+     *
+     * @param name name of the metric
+     * @param help description of the metric, used when the metric is created
+     * @param labels label names and values: name1, value1, name2, value2...
+     * @return counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return this.series(name, help, TYPE_COUNTER, LongAdder::new, labels);
+    }
+
+    /**
+     * Sets the maximum number of series per metric.
+     *
+     * @param maxSeries maximum number of series
+     */
+    public void setMaxSeries(int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text format. Histogram
+     * latencies are written in seconds.
+     *
+     * @param out Writer where the metrics are written
+     * @throws IOException if writing fails
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Family<?> family : new TreeMap<>(this.families).values()) {
+            out.write("# HELP " + family.name + " " + escapeHelp(family.help) + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<List<String>, ?> series : family.sortedSeries()) {
+                if (series.getValue() instanceof LatencyHistogram) {
+                    writeHistogram(out, family.name, series.getKey(), (LatencyHistogram) series.getValue());
+                } else {
+                    out.write(family.name + labels(series.getKey(), null) + " " + ((LongAdder) series.getValue()).sum() + "\n");
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T series(String name, String help, String type, Supplier<T> factory, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name-value pairs.");
+        }
+        Family<?> family = this.families.get(name);
+        if (family == null) {
+            if (!NAME_PATTERN.matcher(name).matches()) {
+                throw new IllegalArgumentException("Invalid metric name : \"" + name + "\".");
+            }
+            family = this.families.computeIfAbsent(name, n -> new Family<>(n, help, type, factory));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric \"" + name + "\" is not a " + type + ".");
+        }
+        return ((Family<T>) family).get(Arrays.asList(labels), this.maxSeries);
+    }
+
+    private static void writeHistogram(Writer out, String name, List<String> labels, LatencyHistogram histogram) throws IOException {
+        long[] snapshot = histogram.snapshot();
+        long cumulative = 0;
+        int index = 0;
+        for (long bound : BUCKETS_MICROS) {
+            while (index < snapshot.length && LatencyHistogram.bucketUpperBound(index) <= bound) {
+                cumulative += snapshot[index++];
+            }
+            out.write(name + "_bucket" + labels(labels, Double.toString(bound / (double) TimeUnit.SECONDS.toMicros(1))) + " " + cumulative + "\n");
+        }
+        while (index < snapshot.length) {
+            cumulative += snapshot[index++];
+        }
+        out.write(name + "_bucket" + labels(labels, "+Inf") + " " + cumulative + "\n");
+        out.write(name + "_sum" + labels(labels, null) + " " + histogram.getSumNanos() / NANOS_PER_SECOND + "\n");
+        out.write(name + "_count" + labels(labels, null) + " " + cumulative + "\n");
+    }
+
+    private static String labels(List<String> labels, String le) {
+        if (labels.isEmpty() && le == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < labels.size(); i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels.get(i)).append("=\"").append(escapeValue(labels.get(i + 1))).append('"');
+        }
+        if (le != null) {
+            builder.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String escapeValue(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help == null ? "" : help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * All the series of a single metric.
+     *
+     * @param <T> type of the series
+     */
+    private static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Supplier<T> factory;
+        private final Map<List<String>, T> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.factory = factory;
+        }
+
+        T get(List<String> labels, int maxSeries) {
+            T value = this.series.get(labels);
+            if (value != null) {
+                return value;
+            }
+            if (this.series.size() >= maxSeries) {
+                List<String> overflow = new ArrayList<>(labels);
+                for (int i = 1; i < overflow.size(); i += 2) {
+                    overflow.set(i, OVERFLOW);
+                }
+                return this.series.computeIfAbsent(Collections.unmodifiableList(overflow), l -> this.factory.get());
+            }
+            return this.series.computeIfAbsent(labels, l -> this.factory.get());
+        }
+
+        List<Map.Entry<List<String>, T>> sortedSeries() {
+            List<Map.Entry<List<String>, T>> sorted = new ArrayList<>(this.series.entrySet());
+            sorted.sort((a, b) -> String.valueOf(a.getKey()).compareTo(String.valueOf(b.getKey())));
+            return sorted;
+        }
+    }
+}
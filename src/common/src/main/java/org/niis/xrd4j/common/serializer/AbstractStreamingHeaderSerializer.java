@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.serializer;
+
+import org.niis.xrd4j.common.member.ObjectType;
+import org.niis.xrd4j.common.message.AbstractMessage;
+import org.niis.xrd4j.common.message.ErrorMessageType;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.MessageHelper;
+import org.niis.xrd4j.common.util.XMLFactoryRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.SOAPConstants;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This abstract class contains methods for writing valid X-Road version 6 SOAP
+ * headers straight to an OutputStream. The headers are identical to the ones
+ * generated by AbstractHeaderSerializer, but no SOAPMessage is needed.
+ *
+ * The header elements that don't change between messages are rendered once
+ * per consumer, service, security server, user id and protocol version, and
+ * cached in a HeaderTemplateCache. Only the id, issue and securityToken
+ * elements are written for each message.
+ *
+ * The whole envelope is written with the XMLStreamWriter given by the
+ * subclass, so the envelope is a single well-formed document and the
+ * namespace declarations of the envelope are known to the writer. The cached
+ * header elements are written to the stream directly between the elements
+ * written with the writer. They use only the namespaces declared on the
+ * envelope.
+ */
+public abstract class AbstractStreamingHeaderSerializer {
+
+    /**
+     * Namespace prefix used for the SOAP envelope namespace.
+     */
+    protected static final String SOAP_ENV_PREFIX = "SOAP-ENV";
+    /**
+     * SOAP envelope namespace URI.
+     */
+    protected static final String SOAP_ENV_URI = SOAPConstants.URI_NS_SOAP_ENVELOPE;
+    /**
+     * Character encoding of the serialized messages.
+     */
+    protected static final String ENCODING = StandardCharsets.UTF_8.name();
+    /**
+     * Factory used for creating the writers.
+     */
+    protected static final XMLOutputFactory OUTPUT_FACTORY = XMLFactoryRegistry.getXMLOutputFactory();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractStreamingHeaderSerializer.class);
+    private static final HeaderTemplateCache SHARED_TEMPLATES = new HeaderTemplateCache();
+    private static final String ELEM_ENVELOPE = "Envelope";
+    private static final String ELEM_HEADER = "Header";
+
+    /**
+     * Returns the cache where the header templates are stored. By default a
+     * cache shared by all the serializers is returned. Subclasses may return
+     * their own cache, or null to render the whole header for every message.
+     *
+     * @return header template cache or null
+     */
+    protected HeaderTemplateCache getHeaderTemplateCache() {
+        return SHARED_TEMPLATES;
+    }
+
+    /**
+     * Writes the SOAP envelope start tag and the SOAP header containing X-Road
+     * version 6 SOAP headers using the given writer. The given message holds
+     * the actual data used in the headers. The cached header elements are
+     * written to the given stream after flushing the writer. The envelope
+     * element is left open, and the caller must write the body with the given
+     * writer and then call serializeEnvelopeEnd.
+     *
+     * @param message request or response message that holds the data for the
+     * headers
+     * @param writer writer that writes to the given stream
+     * @param out stream where the envelope is written
+     * @throws XMLStreamException if writing the header fails
+     * @throws IOException if an I/O error occurs
+     */
+    protected final void serializeEnvelopeStart(final AbstractMessage message, final XMLStreamWriter writer, final OutputStream out)
+            throws XMLStreamException, IOException {
+        LOGGER.debug("Write SOAP header.");
+        writeEnvelopeStartTag(writer);
+        writer.writeStartElement(SOAP_ENV_PREFIX, ELEM_HEADER, SOAP_ENV_URI);
+        if (message.hasError() && message.getErrorMessage().getErrorMessageType() == ErrorMessageType.STANDARD_SOAP_ERROR_MESSAGE) {
+            LOGGER.warn("Standard SOAP error detected. SOAP header is skipped.");
+            writer.writeEndElement();
+            return;
+        }
+        this.serializeHeaderElements(message, writer, out);
+        writer.writeEndElement();
+        LOGGER.debug("SOAP header was written succesfully.");
+    }
+
+    /**
+     * Writes a standalone SOAP header containing X-Road version 6 SOAP
+     * headers using the given writer. The SOAP envelope namespace is bound
+     * to the given prefix, and it's declared on the header element together
+     * with the X-Road namespaces, so the header can be inserted into any
+     * envelope that uses the same prefix.
+     *
+     * @param message request or response message that holds the data for the
+     * headers
+     * @param envelopePrefix prefix of the SOAP envelope namespace
+     * @param writer writer that writes to the given stream
+     * @param out stream where the header is written
+     * @throws XMLStreamException if writing the header fails
+     * @throws IOException if an I/O error occurs
+     */
+    protected final void serializeHeader(final AbstractMessage message, final String envelopePrefix, final XMLStreamWriter writer,
+                                         final OutputStream out) throws XMLStreamException, IOException {
+        writer.writeStartElement(envelopePrefix, ELEM_HEADER, SOAP_ENV_URI);
+        writer.writeNamespace(envelopePrefix, SOAP_ENV_URI);
+        writer.writeNamespace(Constants.NS_ID_PREFIX, Constants.NS_ID_URL);
+        writer.writeNamespace(Constants.NS_XRD_PREFIX, Constants.NS_XRD_URL);
+        this.serializeHeaderElements(message, writer, out);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    /**
+     * Writes the X-Road header elements inside the header element that the
+     * writer holds open.
+     *
+     * @param message message that holds the data for the headers
+     * @param writer writer that writes to the given stream
+     * @param out stream where the cached header elements are written
+     * @throws XMLStreamException if writing the header fails
+     * @throws IOException if an I/O error occurs
+     */
+    private void serializeHeaderElements(final AbstractMessage message, final XMLStreamWriter writer, final OutputStream out)
+            throws XMLStreamException, IOException {
+        HeaderTemplateCache templates = this.getHeaderTemplateCache();
+        HeaderTemplateCache.Template template = templates == null ? this.render(message) : templates.get(message, this::render);
+        writeRaw(writer, out, template.getHead());
+        writeElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_ID, Constants.NS_XRD_URL, message.getId());
+        if (message.getIssue() != null && !message.getIssue().isEmpty()) {
+            writeElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_ISSUE, Constants.NS_XRD_URL, message.getIssue());
+        }
+        if (message.getSecurityToken() != null && !message.getSecurityToken().isEmpty()) {
+            writer.writeStartElement(Constants.NS_EXT_SECURITY_TOKEN_PREFIX, Constants.NS_EXT_ELEM_SECURITY_TOKEN, Constants.NS_EXT_SECURITY_TOKEN_URL);
+            writer.writeNamespace(Constants.NS_EXT_SECURITY_TOKEN_PREFIX, Constants.NS_EXT_SECURITY_TOKEN_URL);
+            if (message.getSecurityTokenType() != null && !message.getSecurityTokenType().isEmpty()) {
+                writer.writeAttribute(Constants.NS_EXT_SECURITY_TOKEN_PREFIX, Constants.NS_EXT_SECURITY_TOKEN_URL,
+                        Constants.NS_EXT_ATTR_TOKEN_TYPE, message.getSecurityTokenType());
+            }
+            writer.writeCharacters(message.getSecurityToken());
+            writer.writeEndElement();
+        }
+        writeRaw(writer, out, template.getTail());
+    }
+
+    /**
+     * Writes the end tag of the SOAP envelope and flushes the writer. All the
+     * elements opened inside the envelope must have been closed.
+     *
+     * @param writer writer that has written the envelope start tag
+     * @throws XMLStreamException if writing the end tag fails
+     */
+    protected final void serializeEnvelopeEnd(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    /**
+     * Writes the given pre-rendered bytes to the stream of the writer. Writing
+     * empty text closes the start tag that the writer may still hold open, and
+     * flushing makes sure that the bytes are written after everything written
+     * with the writer so far.
+     *
+     * @param writer writer that writes to the given stream
+     * @param out stream where the bytes are written
+     * @param bytes pre-rendered bytes
+     * @throws XMLStreamException if flushing the writer fails
+     * @throws IOException if an I/O error occurs
+     */
+    private static void writeRaw(final XMLStreamWriter writer, final OutputStream out, final byte[] bytes) throws XMLStreamException, IOException {
+        writer.writeCharacters("");
+        writer.flush();
+        out.write(bytes);
+    }
+
+    /**
+     * Renders the header template of the given message. The elements are
+     * rendered inside the same envelope and header elements that
+     * serializeEnvelopeStart writes, so that the rendered document is well
+     * formed, and only the bytes of the header elements are kept. The head
+     * ends with the userId element, or the last element before it, and the
+     * tail contains the protocolVersion element.
+     *
+     * @param message message whose template is rendered
+     * @return header template
+     * @throws XMLStreamException if rendering the template fails
+     */
+    private HeaderTemplateCache.Template render(final AbstractMessage message) throws XMLStreamException {
+        LOGGER.debug("Render SOAP header template.");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(buffer, ENCODING);
+        writeEnvelopeStartTag(writer);
+        writer.writeStartElement(SOAP_ENV_PREFIX, ELEM_HEADER, SOAP_ENV_URI);
+        writer.writeCharacters("");
+        writer.flush();
+        int start = buffer.size();
+        this.serializeClient(message, writer);
+        this.serializeService(message, writer);
+        if (message.getSecurityServer() != null) {
+            this.serializeSecurityServer(message, writer);
+        }
+        if (message.getUserId() != null && !message.getUserId().isEmpty()) {
+            writeElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_USER_ID, Constants.NS_XRD_URL, message.getUserId());
+        }
+        writer.flush();
+        int middle = buffer.size();
+        writeElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_PROTOCOL_VERSION, Constants.NS_XRD_URL, message.getProtocolVersion());
+        writer.flush();
+        int end = buffer.size();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        byte[] bytes = buffer.toByteArray();
+        return new HeaderTemplateCache.Template(Arrays.copyOfRange(bytes, start, middle), Arrays.copyOfRange(bytes, middle, end));
+    }
+
+    private static void writeEnvelopeStartTag(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement(SOAP_ENV_PREFIX, ELEM_ENVELOPE, SOAP_ENV_URI);
+        writer.writeNamespace(SOAP_ENV_PREFIX, SOAP_ENV_URI);
+        writer.writeNamespace(Constants.NS_ID_PREFIX, Constants.NS_ID_URL);
+        writer.writeNamespace(Constants.NS_XRD_PREFIX, Constants.NS_XRD_URL);
+    }
+
+    private void serializeClient(final AbstractMessage message, final XMLStreamWriter writer) throws XMLStreamException {
+        ObjectType clientObjectType = MessageHelper.getObjectType(message.getConsumer());
+        writeStartElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_CLIENT, Constants.NS_XRD_URL, clientObjectType);
+        writeIdElement(writer, Constants.NS_ID_ELEM_XROAD_INSTANCE, message.getConsumer().getXRoadInstance());
+        writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CLASS, message.getConsumer().getMemberClass());
+        writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CODE, message.getConsumer().getMemberCode());
+        if (clientObjectType == ObjectType.SUBSYSTEM) {
+            writeIdElement(writer, Constants.NS_ID_ELEM_SUBSYSTEM_CODE, message.getConsumer().getSubsystemCode());
+        }
+        writer.writeEndElement();
+    }
+
+    private void serializeService(final AbstractMessage message, final XMLStreamWriter writer) throws XMLStreamException {
+        ObjectType serviceObjectType = MessageHelper.getObjectType(message.getProducer());
+        writeStartElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_SERVICE, Constants.NS_XRD_URL, serviceObjectType);
+        writeIdElement(writer, Constants.NS_ID_ELEM_XROAD_INSTANCE, message.getProducer().getXRoadInstance());
+        if (serviceObjectType == ObjectType.SERVICE) {
+            writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CLASS, message.getProducer().getMemberClass());
+            writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CODE, message.getProducer().getMemberCode());
+        }
+        if (message.getProducer().getSubsystemCode() != null && !message.getProducer().getSubsystemCode().isEmpty()) {
+            writeIdElement(writer, Constants.NS_ID_ELEM_SUBSYSTEM_CODE, message.getProducer().getSubsystemCode());
+        }
+        writeIdElement(writer, Constants.NS_ID_ELEM_SERVICE_CODE, message.getProducer().getServiceCode());
+        if (message.getProducer().getServiceVersion() != null && !message.getProducer().getServiceVersion().isEmpty()) {
+            writeIdElement(writer, Constants.NS_ID_ELEM_SERVICE_VERSION, message.getProducer().getServiceVersion());
+        }
+        writer.writeEndElement();
+    }
+
+    private void serializeSecurityServer(final AbstractMessage message, final XMLStreamWriter writer) throws XMLStreamException {
+        writeStartElement(writer, Constants.NS_XRD_PREFIX, Constants.NS_XRD_ELEM_SECURITY_SERVER, Constants.NS_XRD_URL, ObjectType.SERVER);
+        writeIdElement(writer, Constants.NS_ID_ELEM_XROAD_INSTANCE, message.getSecurityServer().getXRoadInstance());
+        writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CLASS, message.getSecurityServer().getMemberClass());
+        writeIdElement(writer, Constants.NS_ID_ELEM_MEMBER_CODE, message.getSecurityServer().getMemberCode());
+        writeIdElement(writer, Constants.NS_ID_ELEM_SERVER_CODE, message.getSecurityServer().getServerCode());
+        writer.writeEndElement();
+    }
+
+    private static void writeStartElement(final XMLStreamWriter writer, final String prefix, final String localName, final String namespaceURI,
+                                          final ObjectType objectType) throws XMLStreamException {
+        writer.writeStartElement(prefix, localName, namespaceURI);
+        writer.writeAttribute(Constants.NS_ID_PREFIX, Constants.NS_ID_URL, Constants.NS_ID_ATTR_OBJECT_TYPE, objectType.toString());
+    }
+
+    private static void writeIdElement(final XMLStreamWriter writer, final String localName, final String value) throws XMLStreamException {
+        writeElement(writer, Constants.NS_ID_PREFIX, localName, Constants.NS_ID_URL, value);
+    }
+
+    /**
+     * Writes a simple element that contains only text. Null text is written
+     * as an empty element.
+     *
+     * @param writer writer where the element is written
+     * @param prefix namespace prefix of the element
+     * @param localName local name of the element
+     * @param namespaceURI namespace URI of the element
+     * @param text text content of the element
+     * @throws XMLStreamException if writing the element fails
+     */
+    protected static void writeElement(final XMLStreamWriter writer, final String prefix, final String localName, final String namespaceURI,
+                                       final String text) throws XMLStreamException {
+        writer.writeStartElement(prefix, localName, namespaceURI);
+        if (text != null) {
+            writer.writeCharacters(text);
+        }
+        writer.writeEndElement();
+    }
+}
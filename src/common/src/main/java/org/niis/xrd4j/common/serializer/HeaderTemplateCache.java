@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.serializer;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.AbstractMessage;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements a size bounded cache of pre-rendered X-Road SOAP
+ * headers. A template holds the serialized bytes of the header elements that
+ * are the same for all the messages sent by the same consumer to the same
+ * service: client, service, securityServer, userId and protocolVersion. Only the per-message elements, i.e. id, issue
+ * and securityToken, are written for each message.
+ *
+ * When the cache is full, the least recently used template is evicted. The
+ * cache is thread-safe.
+ */
+public final class HeaderTemplateCache {
+
+    /**
+     * Default maximum number of templates.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<List<String>, Template> templates;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs and initializes a new HeaderTemplateCache with the default
+     * maximum size.
+     */
+    public HeaderTemplateCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs and initializes a new HeaderTemplateCache.
+     *
+     * @param maxSize maximum number of templates, must be positive
+     */
+    public HeaderTemplateCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive.");
+        }
+        this.maxSize = maxSize;
+        this.templates = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Template> eldest) {
+                if (size() > HeaderTemplateCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the template for the given message. If the cache doesn't
+     * contain the template yet, it's rendered using the given function and
+     * cached. The template is rendered without holding the lock of the cache.
+     *
+     * @param message message whose header is serialized
+     * @param renderer renders the template for the message
+     * @return header template
+     * @throws XMLStreamException if rendering the template fails
+     */
+    Template get(final AbstractMessage message, final Renderer renderer) throws XMLStreamException {
+        List<String> key = key(message);
+        synchronized (this.templates) {
+            Template template = this.templates.get(key);
+            if (template != null) {
+                this.hits.increment();
+                return template;
+            }
+        }
+        this.misses.increment();
+        Template template = renderer.render(message);
+        synchronized (this.templates) {
+            Template existing = this.templates.putIfAbsent(key, template);
+            return existing == null ? template : existing;
+        }
+    }
+
+    /**
+     * Removes all the templates from the cache.
+     */
+    public void clear() {
+        synchronized (this.templates) {
+            this.templates.clear();
+        }
+    }
+
+    /**
+     * Returns the number of templates in the cache.
+     *
+     * @return number of templates
+     */
+    public int size() {
+        synchronized (this.templates) {
+            return this.templates.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of templates.
+     *
+     * @return maximum number of templates
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Returns the number of messages whose template was found in the cache.
+     *
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of messages whose template had to be rendered.
+     *
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the number of templates evicted because the cache was full.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Returns the key of the given message. The key contains all the values
+     * that are written to the template.
+     *
+     * @param message message whose key is returned
+     * @return key of the message
+     */
+    private static List<String> key(final AbstractMessage message) {
+        ConsumerMember consumer = message.getConsumer();
+        ProducerMember producer = message.getProducer();
+        SecurityServer securityServer = message.getSecurityServer();
+        return Arrays.asList(
+                consumer.getXRoadInstance(), consumer.getMemberClass(), consumer.getMemberCode(), consumer.getSubsystemCode(),
+                producer.getXRoadInstance(), producer.getMemberClass(), producer.getMemberCode(), producer.getSubsystemCode(),
+                producer.getServiceCode(), producer.getServiceVersion(),
+                securityServer == null ? null : securityServer.getXRoadInstance(),
+                securityServer == null ? null : securityServer.getMemberClass(),
+                securityServer == null ? null : securityServer.getMemberCode(),
+                securityServer == null ? null : securityServer.getServerCode(),
+                message.getUserId(), message.getProtocolVersion());
+    }
+
+    /**
+     * Renders the header template of a message.
+     */
+    @FunctionalInterface
+    interface Renderer {
+        Template render(AbstractMessage message) throws XMLStreamException;
+    }
+
+    /**
+     * Pre-rendered header. The head contains the header elements before the
+     * id element and the tail the header elements after the securityToken
+     * element.
+     */
+    static final class Template {
+        private final byte[] head;
+        private final byte[] tail;
+
+        Template(byte[] head, byte[] tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        byte[] getHead() {
+            return this.head;
+        }
+
+        byte[] getTail() {
+            return this.tail;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class offers helper methods for creating executors that run
+ * asynchronous, mostly I/O bound, tasks. Virtual threads are used when the
+ * runtime supports them (Java 21 or later). On older runtimes an unbounded
+ * pool of daemon threads is used instead.
+ */
+public final class ExecutorHelper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorHelper.class);
+    private static final String VIRTUAL_THREAD_EXECUTOR_METHOD = "newVirtualThreadPerTaskExecutor";
+
+    /**
+     * Constructs and initializes a new ExecutorHelper object. Should never
+     * be used.
+     */
+    private ExecutorHelper() {
+    }
+
+    /**
+     * Returns an executor that is shared by all the components that have not
+     * been configured to use a specific executor. The executor is created
+     * when this method is called for the first time and it's never shut down.
+     * Its threads are daemon threads, so it does not prevent the JVM from
+     * exiting. Only a plain Executor view of the shared executor is returned,
+     * so that a caller can't shut it down for all the other components.
+     *
+     * @return shared default executor
+     */
+    public static Executor getDefaultExecutor() {
+        return DefaultExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a new executor that starts a new virtual thread for each task.
+     * If virtual threads are not supported by the runtime, a cached thread
+     * pool of daemon threads named with the given prefix is returned. The
+     * caller is responsible for shutting down the returned executor.
+     *
+     * @param threadNamePrefix prefix of the thread names used when virtual
+     * threads are not available
+     * @return new executor
+     */
+    public static ExecutorService newExecutor(String threadNamePrefix) {
+        try {
+            Method method = Executors.class.getMethod(VIRTUAL_THREAD_EXECUTOR_METHOD);
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            LOGGER.debug("Virtual thread executor created.");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOGGER.debug("Virtual threads are not available. Use cached thread pool with prefix \"{}\".", threadNamePrefix);
+            return Executors.newCachedThreadPool(new DaemonThreadFactory(threadNamePrefix));
+        }
+    }
+
+    /**
+     * Thread factory that creates named daemon threads.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.prefix + "-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Executor view that exposes only the execute method of the wrapped
+     * executor service.
+     */
+    private static final class SharedExecutor implements Executor {
+        private final ExecutorService executor;
+
+        SharedExecutor(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.executor.execute(command);
+        }
+    }
+
+    /**
+     * Holds the lazily created default executor.
+     */
+    private static final class DefaultExecutorHolder {
+        private static final Executor INSTANCE = new SharedExecutor(newExecutor("xrd4j-async"));
+
+        private DefaultExecutorHolder() {
+        }
+    }
+}
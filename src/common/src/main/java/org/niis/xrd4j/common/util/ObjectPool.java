@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool of objects that are expensive to create and that must not
+ * be used by more than one thread at a time. Objects are borrowed with poll
+ * and returned with release. If the pool is empty, the caller creates a new
+ * object; if the pool is full, a released object is discarded.
+ *
+ * A pool is used instead of thread-local instances, because asynchronous
+ * tasks may run on virtual threads that are created for each task.
+ *
+ * @param <T> type of the pooled objects
+ */
+final class ObjectPool<T> {
+
+    private final Queue<T> objects = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    /**
+     * Constructs and initializes a new ObjectPool.
+     *
+     * @param maxSize maximum number of idle objects kept in the pool
+     */
+    ObjectPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Takes an object from the pool.
+     *
+     * @return pooled object or null if the pool is empty
+     */
+    T poll() {
+        T object = this.objects.poll();
+        if (object != null) {
+            this.size.decrementAndGet();
+        }
+        return object;
+    }
+
+    /**
+     * Returns the given object to the pool. If the pool is full, the object
+     * is discarded.
+     *
+     * @param object object that is no longer used
+     */
+    void release(T object) {
+        if (this.size.incrementAndGet() <= this.maxSize) {
+            this.objects.offer(object);
+        } else {
+            this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of idle objects in the pool.
+     *
+     * @return number of idle objects
+     */
+    int size() {
+        return this.size.get();
+    }
+}
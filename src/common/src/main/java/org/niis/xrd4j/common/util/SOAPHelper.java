@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 
 import jakarta.xml.soap.AttachmentPart;
 import jakarta.xml.soap.MessageFactory;
@@ -39,12 +40,7 @@ import jakarta.xml.soap.SOAPElement;
 import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
-import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -52,6 +48,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -73,11 +70,16 @@ import static org.w3c.dom.Node.TEXT_NODE;
 public final class SOAPHelper {
     private static final Charset CHARSET = UTF_8;
     private static final Logger LOGGER = LoggerFactory.getLogger(SOAPHelper.class);
-    private static final MessageFactory MSG_FACTORY;
+    // MessageFactory instances are not guaranteed to be thread-safe, so each
+    // thread borrows its own instance from the pool instead of sharing one
+    // instance behind a lock
+    private static final int MSG_FACTORIES_PER_PROCESSOR = 4;
+    private static final ObjectPool<MessageFactory> MSG_FACTORIES =
+            new ObjectPool<>(Runtime.getRuntime().availableProcessors() * MSG_FACTORIES_PER_PROCESSOR);
 
     static {
         try {
-            MSG_FACTORY = MessageFactory.newInstance();
+            MSG_FACTORIES.release(MessageFactory.newInstance());
         } catch (SOAPException e) {
             throw new IllegalStateException(e);
         }
@@ -151,13 +153,7 @@ public final class SOAPHelper {
     public static String toString(Node node) {
         StringWriter sw = new StringWriter();
         try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-            Transformer t = factory.newTransformer();
-            t.setOutputProperty(OutputKeys.ENCODING, CHARSET.toString());
-            t.transform(new DOMSource(node), new StreamResult(sw));
+            XMLFactoryRegistry.transform(new DOMSource(node), new StreamResult(sw));
             return sw.toString();
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
@@ -527,15 +523,9 @@ public final class SOAPHelper {
      */
     public static Document xmlStrToDoc(String xml) {
         LOGGER.debug("Convert XML string to XML document.");
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        builderFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-        builderFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-        builderFactory.setNamespaceAware(true);
-        InputStream stream;
         Document doc;
         try {
-            stream = new ByteArrayInputStream(xml.getBytes());
-            doc = builderFactory.newDocumentBuilder().parse(stream);
+            doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(xml)));
             LOGGER.debug("Converting XML string to XML document succeeded.");
         } catch (Exception e) {
             LOGGER.error(e.getMessage());
@@ -706,8 +696,11 @@ public final class SOAPHelper {
      * @throws SOAPException on soap error
      */
     public static SOAPMessage createSOAPMessage() throws SOAPException {
-        synchronized (MSG_FACTORY) {
-            return MSG_FACTORY.createMessage();
+        MessageFactory factory = borrowMessageFactory();
+        try {
+            return factory.createMessage();
+        } finally {
+            releaseMessageFactory(factory);
         }
     }
 
@@ -722,11 +715,41 @@ public final class SOAPHelper {
      */
     public static SOAPMessage createSOAPMessage(MimeHeaders mimeHeaders, InputStream is)
             throws IOException, SOAPException {
-        synchronized (MSG_FACTORY) {
-            return MSG_FACTORY.createMessage(mimeHeaders, is);
+        MessageFactory factory = borrowMessageFactory();
+        try {
+            return factory.createMessage(mimeHeaders, is);
+        } finally {
+            releaseMessageFactory(factory);
         }
     }
 
+    /**
+     * Takes a MessageFactory from the pool, or creates a new one if the pool
+     * is empty. The factory must be returned with releaseMessageFactory when
+     * it's no longer used.
+     *
+     * @return MessageFactory that is used only by the calling thread
+     * @throws SOAPException if creating a new factory fails
+     */
+    private static MessageFactory borrowMessageFactory() throws SOAPException {
+        MessageFactory factory = MSG_FACTORIES.poll();
+        if (factory == null) {
+            LOGGER.trace("MessageFactory pool is empty. Create a new MessageFactory.");
+            return MessageFactory.newInstance();
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the given MessageFactory to the pool. If the pool is full, the
+     * factory is discarded.
+     *
+     * @param factory MessageFactory that is no longer used
+     */
+    private static void releaseMessageFactory(MessageFactory factory) {
+        MSG_FACTORIES.release(factory);
+    }
+
     /**
      * Reads installed X-Road packages and their version info from environmental
      * monitoring metrics.
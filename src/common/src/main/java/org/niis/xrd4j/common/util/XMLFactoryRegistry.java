@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class holds the XML parser and transformer factories shared by the
+ * whole library. Looking up a factory is expensive, so each factory is
+ * created and hardened against XML external entity (XXE) attacks only once.
+ * DocumentBuilder and Transformer instances are not thread-safe, and they're
+ * pooled so that a thread borrows an instance for the duration of a single
+ * parse or transformation.
+ */
+public final class XMLFactoryRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XMLFactoryRegistry.class);
+    private static final String FEATURE_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+    private static final String FEATURE_EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+    private static final String FEATURE_LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+    private static final int POOLED_PER_PROCESSOR = 4;
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * POOLED_PER_PROCESSOR;
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+    private static final TransformerFactory TRANSFORMER_FACTORY = createTransformerFactory();
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final ObjectPool<DocumentBuilder> DOCUMENT_BUILDERS = new ObjectPool<>(MAX_POOLED);
+    private static final ObjectPool<Transformer> TRANSFORMERS = new ObjectPool<>(MAX_POOLED);
+
+    /**
+     * Constructs and initializes a new XMLFactoryRegistry object. Should
+     * never be used.
+     */
+    private XMLFactoryRegistry() {
+    }
+
+    /**
+     * Parses the given input to a namespace aware XML document. DTDs are
+     * allowed, but external entities and external DTDs are not loaded.
+     *
+     * @param input input to be parsed
+     * @return XML document
+     * @throws SAXException if the input is not valid XML
+     * @throws IOException if reading the input fails
+     */
+    public static Document parse(InputSource input) throws SAXException, IOException {
+        DocumentBuilder builder = borrowDocumentBuilder();
+        try {
+            return builder.parse(input);
+        } finally {
+            builder.reset();
+            DOCUMENT_BUILDERS.release(builder);
+        }
+    }
+
+    /**
+     * Transforms the given source to the given result using an identity
+     * transformer. The output is encoded using UTF-8.
+     *
+     * @param source source to be transformed
+     * @param result result where the output is written
+     * @throws TransformerException if the transformation fails
+     */
+    public static void transform(Source source, Result result) throws TransformerException {
+        Transformer transformer = borrowTransformer();
+        transformer.transform(source, result);
+        // The transformer is never exposed, so its output properties are
+        // never changed and it can be reused as is. A transformer whose
+        // transformation failed may be left in an undefined state, so it's
+        // discarded instead.
+        TRANSFORMERS.release(transformer);
+    }
+
+    /**
+     * Returns the shared XMLInputFactory. DTDs and external entities are not
+     * supported, and the readers are namespace aware and coalescing. The
+     * factory must not be reconfigured.
+     *
+     * @return shared XMLInputFactory
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        return INPUT_FACTORY;
+    }
+
+    /**
+     * Returns the shared XMLOutputFactory. The factory must not be
+     * reconfigured.
+     *
+     * @return shared XMLOutputFactory
+     */
+    public static XMLOutputFactory getXMLOutputFactory() {
+        return OUTPUT_FACTORY;
+    }
+
+    private static DocumentBuilder borrowDocumentBuilder() throws IOException {
+        DocumentBuilder builder = DOCUMENT_BUILDERS.poll();
+        if (builder != null) {
+            return builder;
+        }
+        LOGGER.trace("DocumentBuilder pool is empty. Create a new DocumentBuilder.");
+        try {
+            // DocumentBuilderFactory is not guaranteed to be thread-safe
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private static Transformer borrowTransformer() throws TransformerConfigurationException {
+        Transformer transformer = TRANSFORMERS.poll();
+        if (transformer != null) {
+            return transformer;
+        }
+        LOGGER.trace("Transformer pool is empty. Create a new Transformer.");
+        // TransformerFactory is not guaranteed to be thread-safe
+        synchronized (TRANSFORMER_FACTORY) {
+            transformer = TRANSFORMER_FACTORY.newTransformer();
+        }
+        transformer.setOutputProperty(OutputKeys.ENCODING, UTF_8.toString());
+        return transformer;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature(FEATURE_EXTERNAL_GENERAL_ENTITIES, false);
+            factory.setFeature(FEATURE_EXTERNAL_PARAMETER_ENTITIES, false);
+            factory.setFeature(FEATURE_LOAD_EXTERNAL_DTD, false);
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        factory.setXIncludeAware(false);
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+
+    private static TransformerFactory createTransformerFactory() {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (TransformerConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        return factory;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
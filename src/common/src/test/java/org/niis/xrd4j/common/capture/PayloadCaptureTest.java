@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.capture;
+
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for PayloadCapture class.
+ */
+class PayloadCaptureTest {
+
+    private static final String PAYLOAD = "<data>1234567890</data>";
+    private static final int ROUNDS = 10000;
+
+    /**
+     * Nothing is sampled when capturing or the sink is disabled.
+     */
+    @Test
+    void testDisabled() {
+        PayloadCapture capture = new PayloadCapture();
+        capture.setSink(new RecordingSink(false, 0));
+        assertFalse(capture.sample("getRandom"));
+        capture.setSink(new RecordingSink(true, 0));
+        assertTrue(capture.sample("getRandom"));
+        capture.setEnabled(false);
+        assertFalse(capture.sample("getRandom"));
+    }
+
+    /**
+     * Global and service specific sample rates are applied.
+     */
+    @Test
+    void testSampling() {
+        PayloadCapture capture = new PayloadCapture();
+        capture.setSink(new RecordingSink(true, 0));
+        capture.setSampleRate(0);
+        capture.setSampleRate("getRandom", 1);
+        capture.setSampleRate("helloService", 10);
+        int random = 0;
+        int hello = 0;
+        int other = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            random += capture.sample("getRandom") ? 1 : 0;
+            hello += capture.sample("helloService") ? 1 : 0;
+            other += capture.sample("other") ? 1 : 0;
+        }
+        assertEquals(ROUNDS, random);
+        assertTrue(hello > 0 && hello < ROUNDS / 5, "Sampled " + hello);
+        assertEquals(0, other);
+        capture.removeSampleRate("getRandom");
+        assertFalse(capture.sample("getRandom"));
+    }
+
+    /**
+     * Payloads are delivered to the sink and truncated to the byte cap.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void testCaptureAndTruncate() throws InterruptedException {
+        RecordingSink sink = new RecordingSink(true, 2);
+        PayloadCapture capture = new PayloadCapture();
+        capture.setSink(sink);
+        capture.setMaxBytes(6);
+        capture.capture("Incoming", "getRandom", PAYLOAD);
+        capture.capture("Outgoing", null, "<a/>");
+        assertTrue(sink.latch.await(5, TimeUnit.SECONDS));
+
+        CapturedPayload first = sink.payloads.get(0);
+        assertEquals("Incoming", first.getLabel());
+        assertEquals("getRandom", first.getServiceCode());
+        assertEquals("<data>", first.getPayload());
+        assertEquals(PAYLOAD.length(), first.getSize());
+        assertTrue(first.isTruncated());
+
+        CapturedPayload second = sink.payloads.get(1);
+        assertEquals("<a/>", second.getPayload());
+        assertFalse(second.isTruncated());
+        assertEquals(2, capture.getCapturedCount());
+    }
+
+    /**
+     * Truncation does not split a multi-byte character.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testTruncateAtCharacterBoundary() throws Exception {
+        RecordingSink sink = new RecordingSink(true, 2);
+        PayloadCapture capture = new PayloadCapture();
+        capture.setSink(sink);
+        // "<a>" and two characters of two bytes fit, the third is cut
+        capture.setMaxBytes(8);
+        capture.capture("Incoming", null, "<a>\u00e4\u00e4\u00e4</a>");
+        SOAPMessage message = SOAPHelper.toSOAP("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Body><data>\u00e4\u00e4\u00e4</data></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        int first = 0;
+        while ((bytes[first] & 0xFF) < 0xC0) {
+            first++;
+        }
+        capture.setMaxBytes(first + 1);
+        capture.capture("Outgoing", message);
+        assertTrue(sink.latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals("<a>\u00e4\u00e4", sink.payloads.get(0).getPayload());
+        assertTrue(sink.payloads.get(0).isTruncated());
+        assertEquals(new String(bytes, 0, first, StandardCharsets.UTF_8), sink.payloads.get(1).getPayload());
+        assertTrue(sink.payloads.get(1).isTruncated());
+        // Rendering of the message was stopped at the cap
+        assertEquals(CapturedPayload.UNKNOWN_SIZE, sink.payloads.get(1).getSize());
+    }
+
+    /**
+     * Payloads are dropped instead of blocking when the buffer is full.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void testDropWhenFull() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            // Keep the only executor thread busy, so nothing is drained
+            executor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            RecordingSink sink = new RecordingSink(true, 2);
+            PayloadCapture capture = new PayloadCapture(2, executor);
+            capture.setSink(sink);
+            capture.capture("1", null, PAYLOAD);
+            capture.capture("2", null, PAYLOAD);
+            capture.capture("3", null, PAYLOAD);
+            assertEquals(2, capture.getCapturedCount());
+            assertEquals(1, capture.getDroppedCount());
+            blocked.countDown();
+            assertTrue(sink.latch.await(5, TimeUnit.SECONDS));
+            assertEquals("1", sink.payloads.get(0).getLabel());
+            assertEquals("2", sink.payloads.get(1).getLabel());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sink that records the payloads it receives.
+     */
+    private static final class RecordingSink implements PayloadSink {
+        private final boolean enabled;
+        private final CountDownLatch latch;
+        private final List<CapturedPayload> payloads = new CopyOnWriteArrayList<>();
+
+        RecordingSink(boolean enabled, int expected) {
+            this.enabled = enabled;
+            this.latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return this.enabled;
+        }
+
+        @Override
+        public void accept(CapturedPayload payload) {
+            this.payloads.add(payload);
+            this.latch.countDown();
+        }
+    }
+}
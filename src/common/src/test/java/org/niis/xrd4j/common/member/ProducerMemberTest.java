@@ -56,6 +56,25 @@ class ProducerMemberTest {
         assertFalse(producer.toString().equals("Fi-TEST.GOV.12345-6.system.TestService"));
     }
 
+    /**
+     * Test for copy constructor. Changing the copy does not change the
+     * original member.
+     * @throws XRd4JException if there's a XRd4J error
+     */
+    @Test
+    void testCopy() throws XRd4JException {
+        ProducerMember producer = new ProducerMember("FI_TEST", "GOV", "12345-6", "system", "TestService", "v1");
+        producer.setNamespacePrefix("ts");
+        producer.setNamespaceUrl("http://test.x-road.fi/producer");
+        ProducerMember copy = new ProducerMember(producer);
+        assertEquals(producer, copy);
+        assertEquals("ts", copy.getNamespacePrefix());
+        assertEquals("http://test.x-road.fi/producer", copy.getNamespaceUrl());
+        copy.setServiceCode("listMethods");
+        copy.setServiceVersion(null);
+        assertEquals("FI_TEST.GOV.12345-6.system.TestService.v1", producer.toString());
+    }
+
     /**
      * Test for equals method.
      * @throws XRd4JException if there's a XRd4J error
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for LatencyHistogram class.
+ */
+class LatencyHistogramTest {
+
+    /**
+     * Each value falls into a bucket whose upper bound is above the value and
+     * at most 25% higher than it.
+     */
+    @Test
+    void testBuckets() {
+        int previous = -1;
+        for (long micros = 0; micros < 100000; micros++) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(index >= previous);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upper > micros);
+            assertTrue(upper <= Math.max(micros + 1, micros + micros / 4 + 1));
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE), LatencyHistogram.bucketIndex(1L << 40));
+    }
+
+    /**
+     * Percentiles are calculated from the recorded latencies.
+     */
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.getCount());
+        long median = TimeUnit.NANOSECONDS.toMillis(histogram.getPercentileNanos(0.5));
+        assertTrue(median >= 50 && median <= 63, "median: " + median);
+        long p95 = TimeUnit.NANOSECONDS.toMillis(histogram.getPercentileNanos(0.95));
+        assertTrue(p95 >= 95 && p95 <= 119, "p95: " + p95);
+        assertTrue(histogram.getPercentileNanos(1.0) >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    /**
+     * Decaying halves the counts.
+     */
+    @Test
+    void testDecay() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        histogram.decay();
+        assertEquals(5, histogram.getCount());
+        histogram.decay();
+        histogram.decay();
+        histogram.decay();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for MetricsRegistry class.
+ */
+class MetricsRegistryTest {
+
+    /**
+     * Histogram buckets are cumulative and the sum is written in seconds.
+     *
+     * @throws IOException if writing fails
+     */
+    @Test
+    void testHistogram() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.histogram("test_seconds", "Test latency.", "service_code", "getRandom");
+        assertSame(histogram, registry.histogram("test_seconds", "Test latency.", "service_code", "getRandom"));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+        String text = write(registry);
+        assertTrue(text.startsWith("# HELP test_seconds Test latency.\n# TYPE test_seconds histogram\n"), text);
+        assertTrue(text.contains("test_seconds_bucket{service_code=\"getRandom\",le=\"1.0E-4\"} 1\n"), text);
+        assertTrue(text.contains("test_seconds_bucket{service_code=\"getRandom\",le=\"0.001\"} 1\n"), text);
+        assertTrue(text.contains("test_seconds_bucket{service_code=\"getRandom\",le=\"0.0025\"} 2\n"), text);
+        assertTrue(text.contains("test_seconds_bucket{service_code=\"getRandom\",le=\"30.0\"} 2\n"), text);
+        assertTrue(text.contains("test_seconds_bucket{service_code=\"getRandom\",le=\"+Inf\"} 3\n"), text);
+        assertTrue(text.contains("test_seconds_sum{service_code=\"getRandom\"} 60.00105\n"), text);
+        assertTrue(text.contains("test_seconds_count{service_code=\"getRandom\"} 3\n"), text);
+    }
+
+    /**
+     * Counters are written sorted by name and label values are escaped.
+     *
+     * @throws IOException if writing fails
+     */
+    @Test
+    void testCounter() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_b_total", "Second.").add(2);
+        registry.counter("test_a_total", "First.", "code", "a\"b\\c\nd").increment();
+        assertEquals("# HELP test_a_total First.\n# TYPE test_a_total counter\ntest_a_total{code=\"a\\\"b\\\\c\\nd\"} 1\n"
+                + "# HELP test_b_total Second.\n# TYPE test_b_total counter\ntest_b_total 2\n", write(registry));
+    }
+
+    /**
+     * Series beyond the maximum are recorded in the overflow series.
+     *
+     * @throws IOException if writing fails
+     */
+    @Test
+    void testMaxSeries() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setMaxSeries(2);
+        registry.counter("test_total", "Test.", "code", "a").increment();
+        registry.counter("test_total", "Test.", "code", "b").increment();
+        registry.counter("test_total", "Test.", "code", "c").increment();
+        registry.counter("test_total", "Test.", "code", "d").increment();
+        assertNotSame(registry.counter("test_total", "Test.", "code", "a"), registry.counter("test_total", "Test.", "code", "c"));
+        assertSame(registry.counter("test_total", "Test.", "code", "c"), registry.counter("test_total", "Test.", "code", "d"));
+        String text = write(registry);
+        assertTrue(text.contains("test_total{code=\"a\"} 1\n"), text);
+        assertTrue(text.contains("test_total{code=\"other\"} 2\n"), text);
+    }
+
+    /**
+     * Invalid names, labels and types are rejected.
+     */
+    @Test
+    void testInvalid() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "Test.");
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("test_total", "Test."));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("test-total", "Test."));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("test_total", "Test.", "code"));
+    }
+
+    private static String write(MetricsRegistry registry) throws IOException {
+        StringWriter writer = new StringWriter();
+        registry.writePrometheus(writer);
+        return writer.toString();
+    }
+}
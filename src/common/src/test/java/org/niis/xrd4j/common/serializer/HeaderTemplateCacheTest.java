@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.serializer;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test cases for HeaderTemplateCache class.
+ */
+class HeaderTemplateCacheTest {
+
+    /**
+     * Messages between the same consumer and service share the template, and
+     * only the per-message elements differ.
+     */
+    @Test
+    void testTemplateIsReused() throws XRd4JException, XMLStreamException, IOException {
+        HeaderTemplateCache cache = new HeaderTemplateCache(2);
+        TestHeaderSerializer serializer = new TestHeaderSerializer(cache);
+
+        String first = serializer.write(createRequest("getRandom", "ID-1", null));
+        String second = serializer.write(createRequest("getRandom", "ID-2", "issue <2>"));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(true, first.contains("<xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion>"));
+        assertEquals(true, second.contains("<xrd:id>ID-2</xrd:id><xrd:issue>issue &lt;2&gt;</xrd:issue><xrd:protocolVersion>"));
+    }
+
+    /**
+     * Cached and uncached headers are identical.
+     */
+    @Test
+    void testCachedEqualsUncached() throws XRd4JException, XMLStreamException, IOException {
+        TestHeaderSerializer cached = new TestHeaderSerializer(new HeaderTemplateCache());
+        TestHeaderSerializer uncached = new TestHeaderSerializer(null);
+        ServiceRequest<String> request = createRequest("getRandom", "ID-1", null);
+        request.setSecurityToken("token");
+        request.setSecurityTokenType("urn:ietf:params:oauth:token-type:jwt");
+
+        cached.write(request);
+        String expected = uncached.write(request);
+
+        assertEquals(expected, cached.write(request));
+        assertEquals("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" "
+                + "xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance>"
+                + "<id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client>"
+                + "<xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass>"
+                + "<id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode>"
+                + "<id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1</xrd:id>"
+                + "<extsec:securityToken xmlns:extsec=\"http://x-road.eu/xsd/security-token.xsd\" extsec:tokenType=\"urn:ietf:params:oauth:token-type:jwt\">"
+                + "token</extsec:securityToken><xrd:protocolVersion>4.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body></SOAP-ENV:Body>"
+                + "</SOAP-ENV:Envelope>", expected);
+    }
+
+    /**
+     * The least recently used template is evicted when the cache is full.
+     */
+    @Test
+    void testLeastRecentlyUsedIsEvicted() throws XRd4JException, XMLStreamException, IOException {
+        HeaderTemplateCache cache = new HeaderTemplateCache(2);
+        TestHeaderSerializer serializer = new TestHeaderSerializer(cache);
+
+        serializer.write(createRequest("service1", "ID-1", null));
+        serializer.write(createRequest("service2", "ID-2", null));
+        serializer.write(createRequest("service1", "ID-3", null));
+        serializer.write(createRequest("service3", "ID-4", null));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // service1 was used more recently than service2
+        serializer.write(createRequest("service1", "ID-5", null));
+        assertEquals(2, cache.getHitCount());
+        serializer.write(createRequest("service2", "ID-6", null));
+        assertEquals(4, cache.getMissCount());
+    }
+
+    /**
+     * The maximum size must be positive.
+     */
+    @Test
+    void testInvalidMaxSize() {
+        assertThrows(IllegalArgumentException.class, () -> new HeaderTemplateCache(0));
+    }
+
+    private static ServiceRequest<String> createRequest(String serviceCode, String id, String issue) throws XRd4JException {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", "MEMBER1", "subsystem");
+        ProducerMember producer = new ProducerMember("FI", "COM", "MEMBER2", "subsystem", serviceCode, "v1");
+        ServiceRequest<String> request = new ServiceRequest<>(consumer, producer, id);
+        request.setUserId("EE1234567890");
+        request.setIssue(issue);
+        return request;
+    }
+
+    private static final class TestHeaderSerializer extends AbstractStreamingHeaderSerializer {
+        private final HeaderTemplateCache cache;
+
+        TestHeaderSerializer(HeaderTemplateCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        protected HeaderTemplateCache getHeaderTemplateCache() {
+            return this.cache;
+        }
+
+        String write(ServiceRequest<String> request) throws XMLStreamException, IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+            this.serializeEnvelopeStart(request, writer, out);
+            writer.writeStartElement(SOAP_ENV_PREFIX, "Body", SOAP_ENV_URI);
+            writer.writeEndElement();
+            this.serializeEnvelopeEnd(writer);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
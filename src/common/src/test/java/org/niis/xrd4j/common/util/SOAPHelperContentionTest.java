@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Contention test cases for SOAPHelper message creation. The benchmark is
+ * run only when the "xrd4j.benchmark" Gradle property is set to true, e.g.
+ * "./gradlew :common:test -Pxrd4j.benchmark=true".
+ */
+class SOAPHelperContentionTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SOAPHelperContentionTest.class);
+    private static final String MESSAGE = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><SOAP-ENV:Header><xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client><xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass><id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode><id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service><xrd:userId>EE1234567890</xrd:userId><xrd:id>ID-1234567890</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body><ns1:getRandomResponse xmlns:ns1=\"http://producer.x-road.ee\"><data>9876543210</data></ns1:getRandomResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 2000;
+    private static final int MAX_THREADS = 32;
+
+    /**
+     * Messages created concurrently by many threads are all parsed correctly.
+     *
+     * @throws Exception if the test fails
+     */
+    @Test
+    void testConcurrentCreation() throws Exception {
+        int threads = 8;
+        int messagesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int parsed = 0;
+                    for (int j = 0; j < messagesPerThread; j++) {
+                        if ("getRandomResponse".equals(parse().getSOAPBody().getFirstChild().getLocalName())) {
+                            parsed++;
+                        }
+                        SOAPHelper.createSOAPMessage().getSOAPPart().getEnvelope();
+                    }
+                    return parsed;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(messagesPerThread, result.get(1, TimeUnit.MINUTES).intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Throughput of message creation grows with the number of threads. The
+     * throughput is measured with 1, 2, 4 ... threads up to the number of
+     * available processors, and the results are logged.
+     *
+     * @throws Exception if the test fails
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "xrd4j.benchmark", matches = "true")
+    void benchmarkCreationThroughput() throws Exception {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+        measure(processors, WARMUP_MILLIS);
+        double single = measure(1, MEASURE_MILLIS);
+        LOGGER.info("1 thread(s): {} messages/s", Math.round(single));
+        double best = single;
+        for (int threads = 2; threads <= processors; threads *= 2) {
+            double throughput = measure(threads, MEASURE_MILLIS);
+            LOGGER.info("{} thread(s): {} messages/s, speedup {}", threads, Math.round(throughput), String.format("%.2f", throughput / single));
+            best = Math.max(best, throughput);
+        }
+        if (processors > 1) {
+            assertTrue(best > single * 1.2, "Throughput doesn't scale with the number of threads");
+        }
+    }
+
+    /**
+     * Measures how many messages the given number of threads create and parse
+     * per second.
+     *
+     * @param threads number of threads
+     * @param millis measurement time in milliseconds
+     * @return messages per second
+     * @throws Exception if creating a message fails
+     */
+    private static double measure(int threads, long millis) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        parse().getSOAPBody();
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            start.countDown();
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total * 1000.0 / millis;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SOAPMessage parse() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.addHeader("Content-Type", "text/xml; charset=utf-8");
+        return SOAPHelper.createSOAPMessage(headers, new ByteArrayInputStream(MESSAGE.getBytes(UTF_8)));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.common.util;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for XMLFactoryRegistry class.
+ */
+class XMLFactoryRegistryTest {
+
+    private static final String XML = "<ns1:getRandom xmlns:ns1=\"http://producer.x-road.ee\"><data>1234567890</data></ns1:getRandom>";
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    /**
+     * Parsed document is namespace aware.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testParse() throws Exception {
+        Document doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(XML)));
+        assertEquals("getRandom", doc.getDocumentElement().getLocalName());
+        assertEquals("http://producer.x-road.ee", doc.getDocumentElement().getNamespaceURI());
+        assertEquals("1234567890", doc.getDocumentElement().getTextContent());
+    }
+
+    /**
+     * Transforming a parsed document produces the original elements.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testTransform() throws Exception {
+        Document doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(XML)));
+        StringWriter sw = new StringWriter();
+        XMLFactoryRegistry.transform(new DOMSource(doc), new StreamResult(sw));
+        assertTrue(sw.toString().contains("encoding=\"UTF-8\""));
+        assertTrue(sw.toString().endsWith(XML));
+    }
+
+    /**
+     * A failed transformation doesn't affect the following ones.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testTransformAfterFailure() throws Exception {
+        assertThrows(TransformerException.class, () -> XMLFactoryRegistry.transform(
+                new StreamSource(new StringReader("<data><unclosed></data>")), new StreamResult(new StringWriter())));
+        Document doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(XML)));
+        StringWriter sw = new StringWriter();
+        XMLFactoryRegistry.transform(new DOMSource(doc), new StreamResult(sw));
+        assertTrue(sw.toString().endsWith(XML));
+    }
+
+    /**
+     * External entities are not resolved.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testExternalEntityNotResolved() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE data [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]><data>&xxe;</data>";
+        Document doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(xml)));
+        assertEquals("", doc.getDocumentElement().getTextContent());
+    }
+
+    /**
+     * Pooled builders and transformers can be used by many threads at the
+     * same time.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testConcurrentUse() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < ROUNDS; j++) {
+                        Document doc = XMLFactoryRegistry.parse(new InputSource(new StringReader(XML)));
+                        StringWriter sw = new StringWriter();
+                        XMLFactoryRegistry.transform(new DOMSource(doc), new StreamResult(sw));
+                        if (!sw.toString().endsWith(XML)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.inttest;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xmlunit.assertj3.XmlAssert;
+
+import jakarta.xml.soap.SOAPException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_OK;
+import static org.apache.catalina.startup.Tomcat.addServlet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test cases for asynchronous request processing of AbstractAdapterServlet.
+ */
+class AsyncServletTest {
+    private static final long SLOW_TIMEOUT_MILLIS = 200;
+    private static final long SLOW_DELAY_MILLIS = 2000;
+
+    @TempDir
+    private static Path tomcatBaseDir;
+    private static Tomcat tomcat;
+    private static int serverPort;
+
+    @BeforeAll
+    static void startTomcat() throws LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(tomcatBaseDir.toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", new File(".").getAbsolutePath());
+
+        var async = addServlet(context, "AsyncServlet", new AsyncExampleServlet(AsyncExampleServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS, 0));
+        async.setAsyncSupported(true);
+        async.addMapping("/async");
+        var slow = addServlet(context, "SlowServlet", new AsyncExampleServlet(SLOW_TIMEOUT_MILLIS, SLOW_DELAY_MILLIS));
+        slow.setAsyncSupported(true);
+        slow.addMapping("/slow");
+
+        tomcat.start();
+        serverPort = tomcat.getConnector().getLocalPort();
+    }
+
+    @AfterAll
+    static void stopTomcat() throws LifecycleException {
+        tomcat.stop();
+    }
+
+    @Test
+    void successfulRequest() throws IOException, InterruptedException {
+        var response = post("async");
+
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        XmlAssert.assertThat(response.body())
+                .and(Path.of(ServletTest.TEST_DATA_DIR + "hello-response.xml"))
+                .ignoreWhitespace()
+                .areIdentical();
+    }
+
+    @Test
+    void timeout() throws IOException, InterruptedException {
+        var response = post("slow");
+
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//faultcode")
+                .isEqualTo("SOAP-ENV:Server");
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//faultstring")
+                .isEqualTo("Request processing timed out.");
+    }
+
+    private HttpResponse<String> post(String path) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .header("Content-Type", "text/xml")
+                .uri(URI.create("http://localhost:" + serverPort + "/" + path))
+                .POST(HttpRequest.BodyPublishers.ofFile(Path.of(ServletTest.TEST_DATA_DIR + "hello-request.xml")))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Example servlet that processes the requests asynchronously, optionally
+     * after a delay.
+     */
+    private static final class AsyncExampleServlet extends ExampleServletImpl {
+        private static final long serialVersionUID = 1L;
+        private final long timeoutMillis;
+        private final long delayMillis;
+
+        AsyncExampleServlet(long timeoutMillis, long delayMillis) {
+            this.timeoutMillis = timeoutMillis;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        protected boolean isAsyncEnabled() {
+            return true;
+        }
+
+        @Override
+        protected long getAsyncTimeoutMillis() {
+            return this.timeoutMillis;
+        }
+
+        @Override
+        protected ServiceResponse<?, ?> handleRequest(ServiceRequest request) throws SOAPException, XRd4JException {
+            if (this.delayMillis > 0) {
+                try {
+                    Thread.sleep(this.delayMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.handleRequest(request);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.inttest;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.metrics.MetricsRegistry;
+import org.niis.xrd4j.server.cache.ResponseCache;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Element;
+import org.xmlunit.assertj3.XmlAssert;
+
+import jakarta.xml.soap.SOAPEnvelope;
+import jakarta.xml.soap.SOAPException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.catalina.startup.Tomcat.addServlet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test cases for the ResponseCache of AbstractAdapterServlet. A cached
+ * response must carry the header of the request that it answers and keep
+ * the namespaces of the original response.
+ */
+class CacheServletTest {
+    private static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+    private static final String TYPES_NS = "http://test.x-road.global/types";
+    private static final String MESSAGE_XPATH = "//*[local-name()='message']";
+
+    @TempDir
+    private static Path tomcatBaseDir;
+    private static Tomcat tomcat;
+    private static int serverPort;
+    private static CachingExampleServlet servlet;
+
+    @BeforeAll
+    static void startTomcat() throws LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(tomcatBaseDir.toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", new File(".").getAbsolutePath());
+
+        servlet = new CachingExampleServlet();
+        addServlet(context, "CachingServlet", servlet).addMapping("/");
+
+        tomcat.start();
+        serverPort = tomcat.getConnector().getLocalPort();
+    }
+
+    @AfterAll
+    static void stopTomcat() throws LifecycleException {
+        tomcat.stop();
+    }
+
+    @Test
+    void cacheHitEchoesRequestHeader() throws IOException, InterruptedException {
+        int handled = servlet.handled.get();
+        var first = post(helloRequest("Cached"));
+        var second = post(helloRequest("Cached").replace("ID11234", "ID99999"));
+
+        assertThat(first.statusCode()).isEqualTo(SC_OK);
+        assertThat(second.statusCode()).isEqualTo(SC_OK);
+        assertThat(servlet.handled.get()).isEqualTo(handled + 1);
+        XmlAssert.assertThat(first.body()).valueByXPath("//*[local-name()='Header']/*[local-name()='id']").isEqualTo("ID11234");
+        XmlAssert.assertThat(second.body()).valueByXPath("//*[local-name()='Header']/*[local-name()='id']").isEqualTo("ID99999");
+        XmlAssert.assertThat(second.body()).valueByXPath(MESSAGE_XPATH).isEqualTo("Hello Cached!");
+    }
+
+    @Test
+    void cacheMissForOtherRequest() throws IOException, InterruptedException {
+        int handled = servlet.handled.get();
+        var first = post(helloRequest("First"));
+        var second = post(helloRequest("Second"));
+
+        assertThat(servlet.handled.get()).isEqualTo(handled + 2);
+        XmlAssert.assertThat(first.body()).valueByXPath(MESSAGE_XPATH).isEqualTo("Hello First!");
+        XmlAssert.assertThat(second.body()).valueByXPath(MESSAGE_XPATH).isEqualTo("Hello Second!");
+    }
+
+    @Test
+    void cacheHitKeepsNamespaces() throws IOException, InterruptedException {
+        post(helloRequest("Namespaces"));
+        // The envelope of the request binds the prefix of the QName value
+        // to another namespace
+        var response = post(helloRequest("Namespaces").replace("<soapenv:Envelope ", "<soapenv:Envelope xmlns:types=\"urn:other\" "));
+
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        XmlAssert.assertThat(response.body()).valueByXPath(MESSAGE_XPATH + "/@*[local-name()='type']").isEqualTo("types:Greeting");
+        XmlAssert.assertThat(response.body()).valueByXPath(MESSAGE_XPATH + "/namespace::*[name()='types']").isEqualTo(TYPES_NS);
+        XmlAssert.assertThat(response.body()).valueByXPath(MESSAGE_XPATH + "/namespace::*[name()='xsi']").isEqualTo(XSI_NS);
+    }
+
+    @Test
+    void cacheHitsAndMissesAreRecorded() throws IOException, InterruptedException {
+        post(helloRequest("Metrics"));
+        post(helloRequest("Metrics"));
+
+        StringWriter metrics = new StringWriter();
+        servlet.registry.writePrometheus(metrics);
+        assertThat(metrics.toString())
+                .contains("xrd4j_server_cache_hits_total{service_code=\"helloService\",member_class=\"GOV\"}")
+                .contains("xrd4j_server_cache_misses_total{service_code=\"helloService\",member_class=\"GOV\"}");
+    }
+
+    private static String helloRequest(String name) throws IOException {
+        return Files.readString(Path.of(ServletTest.TEST_DATA_DIR + "hello-request.xml"), UTF_8)
+                .replace("<prod:name>Test<", "<prod:name>" + name + "<");
+    }
+
+    private HttpResponse<String> post(String body) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .header("Content-Type", "text/xml")
+                .uri(URI.create("http://localhost:" + serverPort + "/"))
+                .POST(HttpRequest.BodyPublishers.ofString(body, UTF_8))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Example servlet that caches the responses of helloService and counts
+     * the requests that are handled. The response envelope declares the
+     * namespaces of an xsi:type value in the body.
+     */
+    private static final class CachingExampleServlet extends ExampleServletImpl {
+        private static final long serialVersionUID = 1L;
+        private final transient ResponseCache cache = new ResponseCache();
+        private final transient MetricsRegistry registry = new MetricsRegistry();
+        private final AtomicInteger handled = new AtomicInteger();
+
+        CachingExampleServlet() {
+            this.cache.enable("helloService", null, 60000, false);
+        }
+
+        @Override
+        protected ResponseCache getResponseCache() {
+            return this.cache;
+        }
+
+        @Override
+        protected MetricsRegistry getMetricsRegistry() {
+            return this.registry;
+        }
+
+        @Override
+        protected ServiceResponse<?, ?> handleRequest(ServiceRequest request) throws SOAPException, XRd4JException {
+            this.handled.incrementAndGet();
+            ServiceResponse<?, ?> response = super.handleRequest(request);
+            SOAPEnvelope envelope = response.getSoapMessage().getSOAPPart().getEnvelope();
+            envelope.addNamespaceDeclaration("xsi", XSI_NS);
+            envelope.addNamespaceDeclaration("types", TYPES_NS);
+            Element message = (Element) envelope.getBody().getElementsByTagNameNS("*", "message").item(0);
+            message.setAttributeNS(XSI_NS, "xsi:type", "types:Greeting");
+            return response;
+        }
+    }
+}
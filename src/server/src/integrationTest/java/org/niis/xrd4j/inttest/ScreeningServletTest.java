@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.inttest;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xmlunit.assertj3.XmlAssert;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.catalina.startup.Tomcat.addServlet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test cases for the routing and authorization checks of
+ * AbstractAdapterServlet. The checks must be applied whether or not the
+ * SOAP header can be read before the body is parsed.
+ */
+class ScreeningServletTest {
+    private static final String DENIED_CLIENT = "TestClient";
+    private static final String TEXT_XML = "text/xml";
+    private static final String MULTIPART = "multipart/related; start=\"<rootpart>\"; boundary=MIME_boundary";
+
+    @TempDir
+    private static Path tomcatBaseDir;
+    private static Tomcat tomcat;
+    private static int serverPort;
+
+    @BeforeAll
+    static void startTomcat() throws LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(tomcatBaseDir.toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", new File(".").getAbsolutePath());
+
+        addServlet(context, "ScreeningServlet", new ScreeningExampleServlet()).addMapping("/");
+        var async = addServlet(context, "AsyncScreeningServlet", new AsyncScreeningExampleServlet());
+        async.setAsyncSupported(true);
+        async.addMapping("/async");
+        addServlet(context, "HeaderInFaultsServlet", new HeaderInFaultsExampleServlet()).addMapping("/header");
+
+        tomcat.start();
+        serverPort = tomcat.getConnector().getLocalPort();
+    }
+
+    @AfterAll
+    static void stopTomcat() throws LifecycleException {
+        tomcat.stop();
+    }
+
+    @Test
+    void allowedClient() throws IOException, InterruptedException {
+        var response = post("", TEXT_XML, helloRequest().replace(DENIED_CLIENT, "OtherClient"));
+
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//*[local-name()='message']")
+                .isEqualTo("Hello Test!");
+    }
+
+    @Test
+    void deniedClient() throws IOException, InterruptedException {
+        assertAccessDenied(post("", TEXT_XML, helloRequest()));
+    }
+
+    @Test
+    void deniedClientAsync() throws IOException, InterruptedException {
+        assertAccessDenied(post("async", TEXT_XML, helloRequest()));
+    }
+
+    @Test
+    void deniedClientTextInHeader() throws IOException, InterruptedException {
+        // The pre-parser can't read the header, the deserializer can
+        String request = helloRequest().replace("<soapenv:Header>", "<soapenv:Header>text");
+
+        assertAccessDenied(post("", TEXT_XML, request));
+        assertAccessDenied(post("async", TEXT_XML, request));
+    }
+
+    @Test
+    void deniedClientWrappedHeader() throws IOException, InterruptedException {
+        String request = helloRequest()
+                .replace("<xro:client ", "<ext:wrapper xmlns:ext=\"http://example.com\"><xro:client ")
+                .replace("</xro:client>", "</xro:client></ext:wrapper>")
+                .replace("<xro:service ", "<ext:wrapper xmlns:ext=\"http://example.com\"><xro:service ")
+                .replace("</xro:service>", "</xro:service></ext:wrapper>");
+
+        assertAccessDenied(post("", TEXT_XML, request));
+        assertAccessDenied(post("async", TEXT_XML, request));
+    }
+
+    @Test
+    void deniedClientMultipart() throws IOException, InterruptedException {
+        String request = Files.readString(Path.of(ServletTest.TEST_DATA_DIR + "store-attachments-request.txt"), UTF_8);
+
+        assertAccessDenied(post("", MULTIPART, request));
+        assertAccessDenied(post("async", MULTIPART, request));
+    }
+
+    @Test
+    void deniedClientHeaderInFault() throws IOException, InterruptedException {
+        var response = post("header", TEXT_XML, helloRequest());
+
+        assertAccessDenied(response);
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//*[local-name()='Header']/*[local-name()='id']")
+                .isEqualTo("ID11234");
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//*[local-name()='Header']/*[local-name()='service']/*[local-name()='serviceCode']")
+                .isEqualTo("helloService");
+    }
+
+    private static void assertAccessDenied(HttpResponse<String> response) {
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//faultcode")
+                .isEqualTo("SOAP-ENV:Client");
+        XmlAssert.assertThat(response.body())
+                .valueByXPath("//faultstring")
+                .isEqualTo("Access denied.");
+    }
+
+    private static String helloRequest() throws IOException {
+        return Files.readString(Path.of(ServletTest.TEST_DATA_DIR + "hello-request.xml"), UTF_8);
+    }
+
+    private HttpResponse<String> post(String path, String contentType, String body) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .header("Content-Type", contentType)
+                .uri(URI.create("http://localhost:" + serverPort + "/" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body, UTF_8))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Example servlet that denies the requests of one client.
+     */
+    private static class ScreeningExampleServlet extends ExampleServletImpl {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean isAuthorized(ServiceRequest<?> header) {
+            return !DENIED_CLIENT.equals(header.getConsumer().getSubsystemCode());
+        }
+    }
+
+    /**
+     * Example servlet that denies the requests of one client and processes
+     * the requests asynchronously.
+     */
+    private static final class AsyncScreeningExampleServlet extends ScreeningExampleServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean isAsyncEnabled() {
+            return true;
+        }
+    }
+
+    /**
+     * Example servlet that denies the requests of one client and adds the
+     * SOAP header of the request to SOAP Faults.
+     */
+    private static final class HeaderInFaultsExampleServlet extends ScreeningExampleServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean isHeaderInFaults() {
+            return true;
+        }
+    }
+}
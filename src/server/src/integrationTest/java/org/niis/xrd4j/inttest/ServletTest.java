@@ -22,6 +22,8 @@
  */
 package org.niis.xrd4j.inttest;
 
+import org.niis.xrd4j.server.attachment.AttachmentSpooler;
+
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.startup.Tomcat;
@@ -49,6 +51,7 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -66,9 +69,10 @@ public class ServletTest {
     private static Path tomcatBaseDir;
     private static Tomcat tomcat;
     private static int serverPort;
+    private static Path spoolDir;
 
     @BeforeAll
-    static void startTomcat() throws LifecycleException {
+    static void startTomcat() throws LifecycleException, IOException {
         LOGGER.info("Starting server");
         tomcat = new Tomcat();
         tomcat.setBaseDir(tomcatBaseDir.toString());
@@ -76,6 +80,8 @@ public class ServletTest {
         Context context = tomcat.addContext("", new File(".").getAbsolutePath());
 
         addServlet(context, "TestServlet", new ExampleServletImpl()).addMapping("/");
+        spoolDir = Files.createDirectories(tomcatBaseDir.resolve("spool"));
+        addServlet(context, "SpoolingServlet", new SpoolingExampleServlet(spoolDir)).addMapping("/spooling");
 
         tomcat.start();
         serverPort = tomcat.getConnector().getLocalPort();
@@ -102,6 +108,26 @@ public class ServletTest {
         assertThat(response.statusCode()).isEqualTo(200);
     }
 
+    @Test
+    void getWSDLNotModified() throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        var response = client.send(HttpRequest.newBuilder()
+                .uri(getServerUri().resolve("?wsdl"))
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        var etag = response.headers().firstValue("ETag");
+        assertThat(etag).isPresent();
+
+        var notModified = client.send(HttpRequest.newBuilder()
+                .uri(getServerUri().resolve("?wsdl"))
+                .header("If-None-Match", etag.get())
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(notModified.statusCode()).isEqualTo(304);
+        assertThat(notModified.body()).isEmpty();
+    }
+
     @Test
     void successfulRequest() throws IOException, InterruptedException {
         HttpClient client = HttpClient.newHttpClient();
@@ -117,6 +143,24 @@ public class ServletTest {
 
     }
 
+    @Test
+    void responseWrittenAsIs() throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .header("Content-Type", "text/xml")
+                .uri(getServerUri())
+                .POST(HttpRequest.BodyPublishers.ofFile(testData("hello-request.xml")))
+                .build();
+
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(SC_OK);
+        assertThat(response.headers().firstValue("Content-Type")).hasValueSatisfying(
+                contentType -> assertThat(contentType).startsWithIgnoringCase("text/xml"));
+        assertThat(response.headers().firstValueAsLong("Content-Length")).hasValue(response.body().getBytes(UTF_8).length);
+        assertThat(response.body()).endsWith("Envelope>");
+    }
+
     @Test
     void multipartRequest() throws IOException, InterruptedException {
         HttpClient client = HttpClient.newHttpClient();
@@ -132,6 +176,23 @@ public class ServletTest {
 
     }
 
+    @Test
+    void multipartRequestSpooled() throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .headers("Content-Type", "multipart/related; start=\"<rootpart>\"; boundary=MIME_boundary")
+                .uri(getServerUri().resolve("spooling"))
+                .POST(HttpRequest.BodyPublishers.ofFile(testData("store-attachments-request.txt")))
+                .build();
+
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertResponseSuccess(response, "store-attachments-response.xml");
+        try (var files = Files.list(spoolDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
     @Test
     void multipartResponse() throws IOException, InterruptedException, MimeException {
         HttpClient client = HttpClient.newHttpClient();
@@ -300,5 +361,23 @@ public class ServletTest {
         return Path.of(TEST_DATA_DIR + filename);
     }
 
+    /**
+     * Example servlet that spools all the attachments to files.
+     */
+    private static final class SpoolingExampleServlet extends ExampleServletImpl {
+        private static final long serialVersionUID = 1L;
+        private final transient AttachmentSpooler spooler = new AttachmentSpooler();
+
+        SpoolingExampleServlet(Path directory) {
+            this.spooler.setMemoryThreshold(0);
+            this.spooler.setDirectory(directory);
+        }
+
+        @Override
+        protected AttachmentSpooler getAttachmentSpooler() {
+            return this.spooler;
+        }
+    }
+
 
 }
@@ -22,35 +22,38 @@
  */
 package org.niis.xrd4j.server;
 
+import org.niis.xrd4j.common.capture.PayloadCapture;
 import org.niis.xrd4j.common.exception.XRd4JException;
 import org.niis.xrd4j.common.message.ErrorMessage;
 import org.niis.xrd4j.common.message.ServiceRequest;
 import org.niis.xrd4j.common.message.ServiceResponse;
-import org.niis.xrd4j.common.util.Constants;
-import org.niis.xrd4j.common.util.FileUtil;
-import org.niis.xrd4j.common.util.SOAPHelper;
-import org.niis.xrd4j.server.deserializer.ServiceRequestDeserializer;
-import org.niis.xrd4j.server.deserializer.ServiceRequestDeserializerImpl;
+import org.niis.xrd4j.common.metrics.MetricsRegistry;
+import org.niis.xrd4j.common.util.ExecutorHelper;
+import org.niis.xrd4j.server.admission.AdmissionController;
+import org.niis.xrd4j.server.attachment.AttachmentSpooler;
+import org.niis.xrd4j.server.cache.ResponseCache;
+import org.niis.xrd4j.server.dispatch.ServiceDispatcher;
+import org.niis.xrd4j.server.metrics.RequestMetrics;
 import org.niis.xrd4j.server.serializer.AbstractServiceResponseSerializer;
 import org.niis.xrd4j.server.serializer.ServiceResponseSerializer;
-import org.niis.xrd4j.server.utils.AdapterUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
-import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.xml.soap.MimeHeaders;
 import jakarta.xml.soap.SOAPElement;
 import jakarta.xml.soap.SOAPEnvelope;
 import jakarta.xml.soap.SOAPException;
 import jakarta.xml.soap.SOAPMessage;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executor;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -58,254 +61,321 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  * This an abstract base class for Servlets that implement SOAP message
  * processing.
  *
+ * The request pipeline is implemented by package-private collaborators:
+ * RequestReader parses the request and screens its header, RequestProcessor
+ * deserializes, screens, caches and handles it, AsyncRequestProcessor runs
+ * the processing on an executor, and ResponseWriter writes the response.
+ * Subclasses customize the pipeline only through the protected methods of
+ * this class.
+ *
  * @author Petteri Kivimäki
  */
 public abstract class AbstractAdapterServlet extends HttpServlet {
 
+    /**
+     * Default timeout of asynchronous request processing in milliseconds.
+     */
+    public static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30000L;
+    /**
+     * Default size of the response buffer in bytes.
+     */
+    public static final int DEFAULT_RESPONSE_BUFFER_SIZE = 64 * 1024;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractAdapterServlet.class);
-    private static final String FAULT_CODE_CLIENT = "SOAP-ENV:Client";
-    private final ServiceRequestDeserializer deserializer;
+    private static final String INCOMING_REQUEST = "Incoming SOAP message";
     private final ServiceResponseSerializer serializer;
-    private final String errGetNotSupportedStr;
-    private final String errWsdlNotFoundStr;
-    private final String errInternalServerErrStr;
-    private final ErrorMessage errGetNotSupported = new ErrorMessage(FAULT_CODE_CLIENT, "HTTP GET method not implemented", null, null);
-    private final ErrorMessage errWsdlNotFound = new ErrorMessage(FAULT_CODE_CLIENT, "WSDL not found", null, null);
-    private final ErrorMessage errInternalServerErr = new ErrorMessage(FAULT_CODE_CLIENT, "500 Internal Server Error", null, null);
-    private final ErrorMessage errUnknownServiceCode = new ErrorMessage(FAULT_CODE_CLIENT, "Unknown service code.", null, null);
+    private final ServiceDispatcher dispatcher = new ServiceDispatcher();
+    private final AdapterFaults faults;
+    private final RequestProcessor processor;
+    private final RequestReader requestReader;
+    private final ResponseWriter responseWriter;
+    private final AsyncRequestProcessor asyncProcessor;
+    private final WSDLWriter wsdlWriter;
 
     /**
      * Constructor
      */
     public AbstractAdapterServlet() {
         LOGGER.debug("Starting to initialize AbstractServlet.");
-        LOGGER.debug("Initialize deserializer");
-        this.deserializer = new ServiceRequestDeserializerImpl();
         LOGGER.debug("Initialize serializer");
         this.serializer = new DummyServiceResponseSerializer();
-        LOGGER.debug("Initialize \"errGetNotSupportedStr\" error message.");
-        this.errGetNotSupportedStr = SOAPHelper.toString(this.errorToSOAP(this.errGetNotSupported, null));
-        LOGGER.debug("Initialize \"errWsdlNotFoundStr\" error message.");
-        this.errWsdlNotFoundStr = SOAPHelper.toString(this.errorToSOAP(this.errWsdlNotFound, null));
-        LOGGER.debug("Initialize \"errInternalServerErrStr\" error message.");
-        this.errInternalServerErrStr = SOAPHelper.toString(this.errorToSOAP(this.errInternalServerErr, null));
+        this.faults = new AdapterFaults(error -> this.errorToSOAP(error, null), this::isHeaderInFaults);
+        LOGGER.debug("Initialize request pipeline.");
+        this.processor = new RequestProcessor(this, this.faults);
+        this.requestReader = new RequestReader(this, this.processor, this.faults);
+        this.responseWriter = new ResponseWriter(this.faults, this::getResponseBufferSize);
+        this.asyncProcessor = new AsyncRequestProcessor(this, this.processor, this.responseWriter, this.faults);
+        this.wsdlWriter = new WSDLWriter(this::getWSDLPath, this.faults);
         LOGGER.debug("AbstractServlet initialized.");
     }
 
+    /**
+     * Registers the service handlers of this servlet: the methods annotated
+     * with XRoadService and the handlers added by registerServices.
+     *
+     * @param config servlet configuration
+     * @throws ServletException if a servlet-specific error occurs
+     */
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        LOGGER.debug("Register service handlers.");
+        this.dispatcher.setMetricsRegistry(this.getMetricsRegistry());
+        try {
+            this.dispatcher.registerAnnotated(this);
+            this.registerServices(this.dispatcher);
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Registers service handlers to the given dispatcher. This method is
+     * called once when the servlet is initialized. The default
+     * implementation does nothing.
+     *
+     * @param serviceDispatcher dispatcher where the handlers are registered
+     */
+    protected void registerServices(ServiceDispatcher serviceDispatcher) {
+        // No handlers by default
+    }
+
     /**
      * Handles and processes the given request and returns a SOAP message as a
-     * response.
+     * response. The default implementation dispatches the request to the
+     * handler registered for its service code and service version, and
+     * returns null if no handler is registered.
      *
      * @param request ServiceRequest to be processed
      * @return ServiceResponse that contains the SOAP response
      * @throws SOAPException if there's a SOAP error
      * @throws XRd4JException if there's a XRd4J error
      */
-    protected abstract ServiceResponse handleRequest(ServiceRequest request) throws SOAPException, XRd4JException;
+    protected ServiceResponse handleRequest(ServiceRequest request) throws SOAPException, XRd4JException {
+        return this.dispatcher.dispatch(request);
+    }
 
     /**
-     * Must return the path of the WSDL file.
+     * Must return the path of the WSDL file. The file is read when the WSDL
+     * is requested the first time and kept in memory after that. Changes to
+     * the file in file system are detected and the file is reloaded.
      *
      * @return path of the WSDL file
      */
     protected abstract String getWSDLPath();
 
     /**
-     * Handles the HTTP <code>POST</code> method.
+     * Returns the PayloadCapture that captures the sampled request and
+     * response payloads. By default the shared instance is used, which
+     * writes the payloads to the trace log. Subclasses may override this
+     * method to use a different instance.
      *
-     * @param request servlet request
-     * @param response servlet response
-     * @throws ServletException if a servlet-specific error occurs
-     * @throws IOException if an I/O error occurs
+     * @return PayloadCapture used by this servlet
      */
-    @Override
-    protected void doPost(HttpServletRequest request, HttpServletResponse response)
-            throws ServletException, IOException {
-        String errString = "Invalid SOAP message.";
-        LOGGER.debug("New request received.");
-        SOAPMessage soapRequest = null;
-        SOAPMessage soapResponse = null;
+    protected PayloadCapture getPayloadCapture() {
+        return PayloadCapture.getDefault();
+    }
 
-        // Log HTTP headers if debug is enabled
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug(AdapterUtils.getHeaderInfo(request));
-            LOGGER.debug("Request content length {} bytes.", request.getContentLength());
-        }
+    /**
+     * Returns true if requests are processed asynchronously. In asynchronous
+     * mode the container thread only reads and parses the request, and the
+     * handleRequest method is called using the executor returned by
+     * getAsyncExecutor. The servlet must be declared asynchronous in the
+     * deployment, e.g. with "async-supported" in web.xml, or requests are
+     * processed synchronously. Asynchronous mode is disabled by default.
+     *
+     * @return true if requests are processed asynchronously
+     */
+    protected boolean isAsyncEnabled() {
+        return false;
+    }
 
-        // Get incoming SOAP message
-        var requestContentType = request.getContentType();
-        if (contentTypeMatches(requestContentType, Constants.TEXT_XML)) {
-            // Regular SOAP message without attachments
-            LOGGER.info("Request's content type is \"{}\".", Constants.TEXT_XML);
-            soapRequest = SOAPHelper.toSOAP(getInputStream(request));
-        } else if (contentTypeMatches(requestContentType, Constants.MULTIPART_RELATED)) {
-            // SOAP message with attachments
-            LOGGER.info("Request's content type is \"{}\".", Constants.MULTIPART_RELATED);
-            MimeHeaders mh = AdapterUtils.getHeaders(request);
-            soapRequest = SOAPHelper.toSOAP(getInputStream(request), mh);
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace(AdapterUtils.getAttachmentsInfo(soapRequest));
-            }
-        } else {
-            // Invalid content type -> message is not processed
-            LOGGER.warn("Invalid content type : \"{}\".", requestContentType);
-            errString = "Invalid content type : \"" + requestContentType + "\".";
-        }
+    /**
+     * Returns the executor that processes the requests in asynchronous mode.
+     * By default the shared executor is used, which runs each request in a
+     * new virtual thread if the runtime supports them.
+     *
+     * @return executor that processes the requests
+     */
+    protected Executor getAsyncExecutor() {
+        return ExecutorHelper.getDefaultExecutor();
+    }
 
-        // Conversion has failed if soapRequest is null. Return SOAP Fault.
-        if (soapRequest == null) {
-            LOGGER.warn("Unable to deserialize the request to SOAP. SOAP Fault is returned.");
-            logIncomingMessage(request);
-            ErrorMessage errorMessage = new ErrorMessage(FAULT_CODE_CLIENT, errString, "", "");
-            soapResponse = this.errorToSOAP(errorMessage, null);
-        }
+    /**
+     * Returns the timeout of asynchronous request processing in
+     * milliseconds. If the response is not ready before the timeout, a SOAP
+     * Fault is returned and the response is discarded when it's ready.
+     *
+     * @return timeout in milliseconds
+     */
+    protected long getAsyncTimeoutMillis() {
+        return DEFAULT_ASYNC_TIMEOUT_MILLIS;
+    }
 
-        // Deserialize incoming SOAP message to ServiceRequest object
-        if (soapResponse == null) {
-            // Convert SOAP request to service request
-            ServiceRequest serviceRequest = this.fromSOAPToServiceRequest(soapRequest);
-            // If conversion fails, return SOAP fault
-            if (serviceRequest == null) {
-                ErrorMessage errorMessage = new ErrorMessage(FAULT_CODE_CLIENT, "Invalid X-Road SOAP message. Unable to parse the request.", "", "");
-                soapResponse = this.errorToSOAP(errorMessage, null);
-            }
+    /**
+     * Returns the size of the response buffer in bytes. Responses that fit
+     * in the buffer are sent with a Content-Length header, and larger
+     * responses are sent using chunked transfer encoding.
+     *
+     * @return size of the response buffer in bytes
+     */
+    protected int getResponseBufferSize() {
+        return DEFAULT_RESPONSE_BUFFER_SIZE;
+    }
 
-            // Process ServiceRequest object
-            if (soapResponse == null) {
-                // Process request and generate SOAP response
-                soapResponse = this.processServiceRequest(serviceRequest);
-            }
-        }
-        // Write the SOAP response to output stream
-        writeResponse(soapResponse, response);
+    /**
+     * Returns the MetricsRegistry where the parse, handle, serialize and
+     * write times, the request and response bytes and the SOAP Faults are
+     * recorded, tagged with the service code and the member class of the
+     * consumer. By default the shared instance is used, and null disables
+     * the metrics.
+     *
+     * @return MetricsRegistry or null if no metrics are recorded
+     */
+    protected MetricsRegistry getMetricsRegistry() {
+        return MetricsRegistry.getDefault();
     }
 
-    private void logIncomingMessage(HttpServletRequest request) {
-        if (LOGGER.isTraceEnabled()) {
-            String msg = null;
-            try {
-                ServletInputStream inputStream = getInputStream(request);
-                if (inputStream != null) {
-                    msg = new String(inputStream.readAllBytes(), UTF_8)
-                            .replaceAll("[\r\n]", " "); // sonar javasecurity:S5145
-                }
-                LOGGER.trace("Incoming message : \"{}\"", msg);
-            } catch (IOException e) {
-                LOGGER.trace("Error reading incoming message", e);
-            }
-        }
+    /**
+     * Returns the path, relative to the servlet path, where the metrics are
+     * served in the Prometheus text format by the HTTP GET method, for
+     * example "/metrics". By default the metrics are not served.
+     *
+     * @return path of the metrics or null if the metrics are not served
+     */
+    protected String getMetricsPath() {
+        return null;
     }
 
-    private ServletInputStream getInputStream(HttpServletRequest request) {
-        try {
-            return request.getInputStream();
-        } catch (IOException e) {
-            LOGGER.error("Error getting InputStream from request", e);
-            return null;
-        }
+    /**
+     * Returns the AttachmentSpooler that parses multipart/related requests.
+     * The spooler keeps small attachments in memory and streams large ones
+     * to temporary files, which are deleted when the response has been
+     * written. The attachments can be read through the SpooledDataSource of
+     * their DataHandler. By default SAAJ parses the requests and buffers the
+     * attachments on the heap, and subclasses may override this method to
+     * return a shared instance.
+     *
+     * @return AttachmentSpooler or null if attachments are not spooled
+     */
+    protected AttachmentSpooler getAttachmentSpooler() {
+        return null;
     }
 
-    private boolean contentTypeMatches(String contentType, String expected) {
-        return contentType != null && contentType.toLowerCase().startsWith(expected);
+    /**
+     * Returns the ResponseCache that answers repeated requests to the
+     * services whose caching is enabled without calling handleRequest. The
+     * cached response body is combined with the header of each request.
+     * By default responses are not cached, and subclasses may override this
+     * method to return a shared instance.
+     *
+     * @return ResponseCache or null if responses are not cached
+     */
+    protected ResponseCache getResponseCache() {
+        return null;
     }
 
     /**
-     * Writes the given SOAP response to output stream. Sets the necessary HTTP
-     * headers according to the content of the response.
+     * Returns the AdmissionController that limits the number of requests
+     * processed at the same time. Rejected requests get a SOAP Fault with
+     * HTTP status 503. By default there is no limit, and subclasses may
+     * override this method to return a shared instance.
      *
-     * @param soapResponse SOAP response
-     * @param response servlet response
+     * @return AdmissionController or null if the requests are not limited
      */
-    private void writeResponse(SOAPMessage soapResponse, HttpServletResponse response) {
-        PrintWriter out = null;
-        try {
-            LOGGER.debug("Send response.");
-            // SOAPMessage to String
-            String responseStr = SOAPHelper.toString(soapResponse);
-            // Set response headers
-            if (responseStr != null && soapResponse != null && soapResponse.getAttachments().hasNext()) {
-                // Get MIME boundary from SOAP message
-                String boundary = AdapterUtils.getMIMEBoundary(responseStr);
-                response.setContentType(Constants.MULTIPART_RELATED + "; type=\"text/xml\"; boundary=\"" + boundary + "\"; charset=UTF-8");
-            } else {
-                response.setContentType(Constants.TEXT_XML + "; charset=UTF-8");
-            }
-            LOGGER.debug("Response content type : \"{}\".", response.getContentType());
-            // Get writer
-            out = response.getWriter();
-            // Send response
-            if (responseStr != null) {
-                out.println(responseStr);
-                LOGGER.trace("SOAP response : \"{}\"", responseStr);
-            } else {
-                out.println(this.errInternalServerErrStr);
-                LOGGER.warn("Internal serveri error. Message processing failed.");
-                LOGGER.trace("SOAP response : \"{}\"", this.errInternalServerErrStr);
-            }
-        } catch (Exception e) {
-            LOGGER.error(e.getMessage(), e);
-            if (out != null) {
-                out.println(this.errInternalServerErrStr);
-            }
-        } finally {
-            if (out != null) {
-                out.close();
-            }
-            LOGGER.debug("Request was succesfully processed.");
-        }
+    protected AdmissionController getAdmissionController() {
+        return null;
     }
 
     /**
-     * Converts the give SOAPMessage to ServiceRequest object.
+     * Returns true if the SOAP header of the request is added to the SOAP
+     * Faults returned after the header has been read. Faults returned before
+     * the header is read, e.g. because the request is malformed, have no
+     * header in any case. By default SOAP Faults have no header.
      *
-     * @param soapRequest SOAPMessage to be converted
-     * @return ServiceRequest or null
+     * @return true if the SOAP header of the request is added to SOAP Faults
      */
-    private ServiceRequest fromSOAPToServiceRequest(SOAPMessage soapRequest) {
-        LOGGER.trace("Incoming SOAP message : \"{}\"", SOAPHelper.toString(soapRequest));
-        ServiceRequest serviceRequest = null;
-        try {
-            // Try to deserialize SOAP Message to ServiceRequest
-            serviceRequest = deserializer.deserialize(soapRequest);
-            LOGGER.debug("SOAP message header was succesfully deserialized to ServiceRequest.");
-        } catch (Exception ex) {
-            // If deserializing SOAP Message fails, return SOAP Fault
-            LOGGER.error("Deserializing SOAP message header to ServiceRequest failed. Return SOAP Fault.");
-            LOGGER.error(ex.getMessage(), ex);
-        }
-        return serviceRequest;
+    protected boolean isHeaderInFaults() {
+        return false;
     }
 
     /**
-     * Processes the given ServiceRequest object and generates SOAPMessage
-     * object that's used as a response.
+     * Returns true if the given service is processed by this servlet.
+     * Requests to other services are rejected with a SOAP Fault before the
+     * SOAP body is parsed. By default all the services are supported if no
+     * handlers are registered, otherwise only the registered services are
+     * supported. Subclasses that implement handleRequest for services that
+     * have no registered handler should override this method.
      *
-     * @param serviceRequest ServiceRequest object to be processed
-     * @return SOAPMessage representing the service response
+     * @param serviceCode service code of the request
+     * @param serviceVersion service version of the request or null
+     * @return true if the service is supported
      */
-    private SOAPMessage processServiceRequest(ServiceRequest serviceRequest) {
+    protected boolean isServiceSupported(String serviceCode, String serviceVersion) {
+        return this.dispatcher.isEmpty() || this.dispatcher.isRegistered(serviceCode, serviceVersion);
+    }
+
+    /**
+     * Returns true if the client of the given request is allowed to call
+     * the requested service. The method is called before the SOAP body is
+     * parsed, so the request contains only the values read from the SOAP
+     * header: consumer, producer, id, userId, issue and protocolVersion. If
+     * the header can't be read before parsing the body, e.g. in multipart
+     * requests, the method is called with the deserialized request instead.
+     * By default all the requests are allowed.
+     *
+     * @param header ServiceRequest containing the SOAP header values
+     * @return true if the request is allowed
+     */
+    protected boolean isAuthorized(ServiceRequest<?> header) {
+        return true;
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        LOGGER.debug("New request received.");
+        RequestMetrics metrics = new RequestMetrics(this.getMetricsRegistry(), request.getContentLengthLong());
+        boolean async = this.isAsyncEnabled() && request.isAsyncSupported();
+        IncomingRequest incoming = this.requestReader.read(request, metrics, async);
+
+        // Capture the request and the response if the request is sampled
+        PayloadCapture capture = this.getPayloadCapture();
+        boolean captured = incoming.soapRequest != null && capture.sample(incoming.soapRequest);
+        if (captured) {
+            capture.capture(INCOMING_REQUEST, incoming.soapRequest);
+        }
+
+        // Hand the request over to the executor in asynchronous mode
+        if (incoming.outcome == null && async) {
+            this.asyncProcessor.start(incoming, request, response, captured ? capture : null, metrics);
+            return;
+        }
+
+        // Deserialize and process incoming SOAP message
         try {
-            // Process application specific requests
-            LOGGER.debug("Process ServiceRequest.");
-            ServiceResponse serviceResponse = this.handleRequest(serviceRequest);
-            if (serviceResponse == null) {
-                LOGGER.warn("ServiceRequest was not processed. Unknown service code.");
-                return this.errorToSOAP(this.errUnknownServiceCode, null);
-            } else {
-                SOAPMessage soapResponse = serviceResponse.getSoapMessage();
-                LOGGER.debug("ServiceRequest was processed succesfully.");
-                return soapResponse;
-            }
-        } catch (XRd4JException ex) {
-            LOGGER.error(ex.getMessage(), ex);
-            if (serviceRequest != null && serviceRequest.hasError()) {
-                return this.errorToSOAP(this.cloneErrorMessage(serviceRequest.getErrorMessage()), null);
-            } else {
-                return this.errorToSOAP(this.errInternalServerErr, null);
+            Outcome outcome = incoming.outcome;
+            try {
+                if (outcome == null) {
+                    outcome = this.processor.process(incoming.soapRequest, incoming.screened, incoming.getPermit(), metrics);
+                }
+            } finally {
+                incoming.releasePermit();
             }
-        } catch (SOAPException | NullPointerException ex) {
-            LOGGER.error(ex.getMessage(), ex);
-            return this.errorToSOAP(this.errInternalServerErr, null);
+            // Write the SOAP response to output stream
+            this.responseWriter.write(outcome, response, captured ? capture : null, metrics);
+        } finally {
+            // The response may refer to the attachments of the request, so
+            // they're deleted only after the response has been written
+            incoming.releaseAttachments();
         }
     }
 
@@ -320,31 +390,23 @@ public abstract class AbstractAdapterServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        response.setContentType(Constants.TEXT_XML + ";charset=UTF-8");
-
-        try (PrintWriter responseWriter = response.getWriter()) {
-            if (request.getParameter("wsdl") != null) {
-                LOGGER.debug("WSDL file request received.");
-                String path = this.getWSDLPath();
-
-                // Read WSDL file
-                String wsdl = FileUtil.read(path);
-
-                if (!wsdl.isEmpty()) {
-                    responseWriter.println(wsdl);
-                    LOGGER.trace("WSDL file was found and returned to the requester.");
-                } else {
-                    responseWriter.println(this.errWsdlNotFoundStr);
-                    LOGGER.warn("WSDL file was not found. SOAP Fault was returned.");
-                }
-
-                LOGGER.debug("WSDL file request processed.");
-            } else {
-                LOGGER.warn("New GET request received. Not supported. SOAP Fault is returned.");
-                responseWriter.println(errGetNotSupportedStr);
+        String metricsPath = this.getMetricsPath();
+        MetricsRegistry registry = this.getMetricsRegistry();
+        if (metricsPath != null && registry != null && metricsPath.equals(request.getPathInfo())) {
+            LOGGER.debug("Metrics request received.");
+            response.setContentType(MetricsRegistry.CONTENT_TYPE);
+            try (Writer writer = new OutputStreamWriter(response.getOutputStream(), UTF_8)) {
+                registry.writePrometheus(writer);
+            } catch (IOException | IllegalStateException e) {
+                LOGGER.error(e.getMessage(), e);
             }
-        } catch (Exception e) {
-            LOGGER.error(e.getMessage(), e);
+        } else if (request.getParameter("wsdl") != null) {
+            LOGGER.debug("WSDL file request received.");
+            this.wsdlWriter.write(request, response);
+            LOGGER.debug("WSDL file request processed.");
+        } else {
+            LOGGER.warn("New GET request received. Not supported. SOAP Fault is returned.");
+            ResponseWriter.writeRendered(this.faults.getNotSupported(), response);
         }
     }
 
@@ -362,18 +424,6 @@ public abstract class AbstractAdapterServlet extends HttpServlet {
         return this.serializer.serialize(serviceResponse, serviceRequest);
     }
 
-    /**
-     * Clones the given error message by using the constructor with four
-     * arguments. In this way it's sure that the error's type is
-     * "STANDARD_SOAP_ERROR_MESSAGE".
-     *
-     * @param errorMsg ErrorMessage object to be cloned
-     * @return new ErrorMessage object
-     */
-    private ErrorMessage cloneErrorMessage(ErrorMessage errorMsg) {
-        return new ErrorMessage(errorMsg.getFaultCode(), errorMsg.getFaultString(), errorMsg.getFaultActor(), errorMsg.getDetail());
-    }
-
     /**
      * This is a dummy implementation of the AbstractServiceResponseSerializer
      * class. It's needed only for generating SOAP Fault messages.
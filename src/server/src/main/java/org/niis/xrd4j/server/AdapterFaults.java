@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.message.ErrorMessage;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.util.SOAPHelper;
+import org.niis.xrd4j.server.serializer.SOAPFaultTemplates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * This class renders the SOAP Faults returned by AbstractAdapterServlet. The
+ * faults that never contain the request header are rendered when the object
+ * is created, and the others are rendered using SOAP Fault templates, so that
+ * each fault is serialized only once.
+ */
+final class AdapterFaults {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdapterFaults.class);
+    private static final String FAULT_CODE_CLIENT = "SOAP-ENV:Client";
+    private static final String FAULT_CODE_SERVER = "SOAP-ENV:Server";
+
+    private final ErrorMessage errGetNotSupported = new ErrorMessage(FAULT_CODE_CLIENT, "HTTP GET method not implemented", null, null);
+    private final ErrorMessage errWsdlNotFound = new ErrorMessage(FAULT_CODE_CLIENT, "WSDL not found", null, null);
+    private final ErrorMessage errInternalServerErr = new ErrorMessage(FAULT_CODE_CLIENT, "500 Internal Server Error", null, null);
+    private final ErrorMessage errUnknownServiceCode = new ErrorMessage(FAULT_CODE_CLIENT, "Unknown service code.", null, null);
+    private final ErrorMessage errTimeout = new ErrorMessage(FAULT_CODE_SERVER, "Request processing timed out.", null, null);
+    private final ErrorMessage errInvalidMessage = new ErrorMessage(FAULT_CODE_CLIENT, "Invalid X-Road SOAP message. Unable to parse the request.", "", "");
+    private final ErrorMessage errAccessDenied = new ErrorMessage(FAULT_CODE_CLIENT, "Access denied.", null, null);
+    private final ErrorMessage errOverloaded = new ErrorMessage(FAULT_CODE_SERVER, "Service is overloaded. Try again later.", null, null);
+    private final String errGetNotSupportedStr;
+    private final String errWsdlNotFoundStr;
+    private final String errInternalServerErrStr;
+    private final String errTimeoutStr;
+    private final SOAPFaultTemplates templates;
+    private final Outcome overloaded;
+    private final BooleanSupplier headerInFaults;
+
+    /**
+     * Constructs and initializes a new AdapterFaults object.
+     *
+     * @param errorToSOAP function that converts an ErrorMessage to SOAP Fault
+     * @param headerInFaults tells if the SOAP header of the request is added
+     * to the SOAP Faults
+     */
+    AdapterFaults(Function<ErrorMessage, SOAPMessage> errorToSOAP, BooleanSupplier headerInFaults) {
+        LOGGER.debug("Initialize SOAP Fault messages.");
+        this.errGetNotSupportedStr = SOAPHelper.toString(errorToSOAP.apply(this.errGetNotSupported));
+        this.errWsdlNotFoundStr = SOAPHelper.toString(errorToSOAP.apply(this.errWsdlNotFound));
+        this.errInternalServerErrStr = SOAPHelper.toString(errorToSOAP.apply(this.errInternalServerErr));
+        this.errTimeoutStr = SOAPHelper.toString(errorToSOAP.apply(this.errTimeout));
+        LOGGER.debug("Initialize SOAP Fault templates.");
+        this.templates = new SOAPFaultTemplates(error -> SOAPHelper.toString(errorToSOAP.apply(error)));
+        this.overloaded = new Outcome(null, this.templates.render(this.errOverloaded), this.errOverloaded.getFaultCode(),
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        this.headerInFaults = headerInFaults;
+    }
+
+    /**
+     * Renders the given ErrorMessage to SOAP Fault.
+     *
+     * @param error ErrorMessage object that contains the error details
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome fault(ErrorMessage error) {
+        return new Outcome(null, this.templates.render(error), error.getFaultCode(), HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Renders the given ErrorMessage to SOAP Fault that contains the SOAP
+     * header of the given request, if the header is added to SOAP Faults.
+     *
+     * @param error ErrorMessage object that contains the error details
+     * @param header request whose SOAP header is added to the fault
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome fault(ErrorMessage error, ServiceRequest<?> header) {
+        if (!this.headerInFaults.getAsBoolean()) {
+            return this.fault(error);
+        }
+        return new Outcome(null, this.templates.render(error, header), error.getFaultCode(), HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Returns the SOAP Fault for an error that the request processing set to
+     * the given request. The error is cloned by using the constructor with
+     * four arguments, so that the error's type is
+     * "STANDARD_SOAP_ERROR_MESSAGE".
+     *
+     * @param serviceRequest request that has an error message
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome requestError(ServiceRequest<?> serviceRequest) {
+        ErrorMessage error = serviceRequest.getErrorMessage();
+        return this.fault(new ErrorMessage(error.getFaultCode(), error.getFaultString(), error.getFaultActor(), error.getDetail()),
+                serviceRequest);
+    }
+
+    /**
+     * Returns the SOAP Fault for a request that can't be parsed. The fault
+     * string may contain request data, so it's spliced into the template.
+     *
+     * @param faultString description of the error
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome invalidRequest(String faultString) {
+        return this.fault(new ErrorMessage(FAULT_CODE_CLIENT, faultString, "", ""));
+    }
+
+    /**
+     * Returns the SOAP Fault for a request that could not be deserialized.
+     *
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome invalidMessage() {
+        return this.fault(this.errInvalidMessage);
+    }
+
+    /**
+     * Returns the SOAP Fault for a request to an unknown service.
+     *
+     * @param header request whose SOAP header is added to the fault
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome unknownServiceCode(ServiceRequest<?> header) {
+        return this.fault(this.errUnknownServiceCode, header);
+    }
+
+    /**
+     * Returns the SOAP Fault for a request whose client is not allowed to
+     * call the service.
+     *
+     * @param header request whose SOAP header is added to the fault
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome accessDenied(ServiceRequest<?> header) {
+        return this.fault(this.errAccessDenied, header);
+    }
+
+    /**
+     * Returns the SOAP Fault for a request whose processing failed.
+     *
+     * @param header request whose SOAP header is added to the fault or null
+     * @return pre-rendered SOAP Fault
+     */
+    Outcome internalServerError(ServiceRequest<?> header) {
+        return this.fault(this.errInternalServerErr, header);
+    }
+
+    /**
+     * Returns the SOAP Fault for a request that was rejected because the
+     * service is overloaded.
+     *
+     * @param header request whose SOAP header is added to the fault
+     * @return pre-rendered SOAP Fault with HTTP status 503
+     */
+    Outcome overloaded(ServiceRequest<?> header) {
+        if (!this.headerInFaults.getAsBoolean()) {
+            return this.overloaded;
+        }
+        return new Outcome(null, this.templates.render(this.errOverloaded, header), this.errOverloaded.getFaultCode(),
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Returns the SOAP Fault for GET requests that are not supported.
+     *
+     * @return SOAP Fault as a String
+     */
+    String getNotSupported() {
+        return this.errGetNotSupportedStr;
+    }
+
+    /**
+     * Returns the SOAP Fault for a WSDL request when the WSDL is not found.
+     *
+     * @return SOAP Fault as a String
+     */
+    String getWsdlNotFound() {
+        return this.errWsdlNotFoundStr;
+    }
+
+    /**
+     * Returns the SOAP Fault for a request whose processing failed.
+     *
+     * @return SOAP Fault as a String
+     */
+    String getInternalServerError() {
+        return this.errInternalServerErrStr;
+    }
+
+    /**
+     * Returns the fault code of the internal server error.
+     *
+     * @return fault code
+     */
+    String getInternalServerErrorCode() {
+        return this.errInternalServerErr.getFaultCode();
+    }
+
+    /**
+     * Returns the SOAP Fault for a request whose processing timed out.
+     *
+     * @return SOAP Fault as a String
+     */
+    String getTimeout() {
+        return this.errTimeoutStr;
+    }
+
+    /**
+     * Returns the fault code of the timeout error.
+     *
+     * @return fault code
+     */
+    String getTimeoutCode() {
+        return this.errTimeout.getFaultCode();
+    }
+}
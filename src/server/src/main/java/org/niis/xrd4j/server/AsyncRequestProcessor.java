@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.capture.PayloadCapture;
+import org.niis.xrd4j.server.metrics.RequestMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class processes requests of AbstractAdapterServlet using the
+ * asynchronous executor of the servlet, so that the container thread is
+ * released. Either the response or, if the timeout expires first, a SOAP
+ * Fault is written, whichever is ready first. The request is admitted on the
+ * executor.
+ */
+final class AsyncRequestProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRequestProcessor.class);
+
+    private final AbstractAdapterServlet servlet;
+    private final RequestProcessor processor;
+    private final ResponseWriter writer;
+    private final AdapterFaults faults;
+
+    /**
+     * Constructs and initializes a new AsyncRequestProcessor object.
+     *
+     * @param servlet servlet whose requests are processed
+     * @param processor RequestProcessor that processes the requests
+     * @param writer ResponseWriter that writes the responses
+     * @param faults SOAP Faults of the servlet
+     */
+    AsyncRequestProcessor(AbstractAdapterServlet servlet, RequestProcessor processor, ResponseWriter writer, AdapterFaults faults) {
+        this.servlet = servlet;
+        this.processor = processor;
+        this.writer = writer;
+        this.faults = faults;
+    }
+
+    /**
+     * Starts asynchronous processing of the given request.
+     *
+     * @param incoming parsed request
+     * @param request servlet request
+     * @param response servlet response
+     * @param capture PayloadCapture that captures the response or null if
+     * the response is not captured
+     * @param metrics metrics of the request
+     */
+    void start(IncomingRequest incoming, HttpServletRequest request, HttpServletResponse response, PayloadCapture capture,
+            RequestMetrics metrics) {
+        LOGGER.debug("Process request asynchronously.");
+        AsyncContext asyncContext = request.startAsync(request, response);
+        AtomicBoolean responded = new AtomicBoolean();
+        asyncContext.setTimeout(this.servlet.getAsyncTimeoutMillis());
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (responded.compareAndSet(false, true)) {
+                    LOGGER.warn("Request processing timed out. SOAP Fault is returned.");
+                    metrics.fault(faults.getTimeoutCode());
+                    metrics.finish(ResponseWriter.writeRendered(faults.getTimeout(), response), 0);
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (responded.compareAndSet(false, true)) {
+                    LOGGER.error("Asynchronous request processing failed.", event.getThrowable());
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // Nothing to do
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Nothing to do
+            }
+        });
+        try {
+            this.servlet.getAsyncExecutor().execute(() -> {
+                Outcome outcome;
+                try {
+                    outcome = this.processor.process(incoming.soapRequest, incoming.screened, null, metrics);
+                } catch (RuntimeException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                    outcome = this.faults.internalServerError(null);
+                }
+                try {
+                    if (responded.compareAndSet(false, true)) {
+                        this.complete(asyncContext, outcome, response, capture, metrics);
+                    } else {
+                        LOGGER.warn("Response is ready after the request has timed out. Response is discarded.");
+                    }
+                } finally {
+                    incoming.releaseAttachments();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.error("Executor rejected the request. SOAP Fault is returned.");
+            if (responded.compareAndSet(false, true)) {
+                this.complete(asyncContext, this.faults.internalServerError(null), response, capture, metrics);
+            }
+            incoming.releaseAttachments();
+        }
+    }
+
+    /**
+     * Writes the given SOAP response and completes the asynchronous request.
+     *
+     * @param asyncContext context of the asynchronous request
+     * @param outcome SOAP response or SOAP Fault
+     * @param response servlet response
+     * @param capture PayloadCapture that captures the response or null if
+     * the response is not captured
+     * @param metrics metrics of the request
+     */
+    private void complete(AsyncContext asyncContext, Outcome outcome, HttpServletResponse response, PayloadCapture capture,
+            RequestMetrics metrics) {
+        try {
+            this.writer.write(outcome, response, capture, metrics);
+        } finally {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ex) {
+                // The container has already completed the request
+                LOGGER.warn("Completing asynchronous request failed : {}", ex.getMessage());
+            }
+        }
+    }
+}
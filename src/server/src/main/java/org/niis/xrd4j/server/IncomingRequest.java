@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.server.admission.AdmissionController;
+import org.niis.xrd4j.server.attachment.AttachmentSpooler;
+
+import jakarta.xml.soap.SOAPMessage;
+
+/**
+ * This class holds an incoming request that has been read by RequestReader.
+ * If the request was rejected or could not be parsed, the outcome holds the
+ * SOAP Fault to be returned.
+ */
+final class IncomingRequest {
+    final SOAPMessage soapRequest;
+    final Outcome outcome;
+    final ServiceRequest<?> screened;
+    private final AdmissionController.Permit permit;
+    private final AttachmentSpooler.SpooledMessage spooled;
+
+    /**
+     * Constructs and initializes a new IncomingRequest object.
+     *
+     * @param soapRequest parsed SOAP request or null
+     * @param outcome SOAP Fault if the request is not processed, otherwise
+     * null
+     * @param screened pre-parsed header that has passed screening or null
+     * @param permit admission permit of the request or null
+     * @param spooled SpooledMessage whose attachments are released after the
+     * response has been written or null
+     */
+    IncomingRequest(SOAPMessage soapRequest, Outcome outcome, ServiceRequest<?> screened, AdmissionController.Permit permit,
+            AttachmentSpooler.SpooledMessage spooled) {
+        this.soapRequest = soapRequest;
+        this.outcome = outcome;
+        this.screened = screened;
+        this.permit = permit;
+        this.spooled = spooled;
+    }
+
+    /**
+     * Returns the admission permit of the request.
+     *
+     * @return permit or null if the request has not been admitted yet
+     */
+    AdmissionController.Permit getPermit() {
+        return this.permit;
+    }
+
+    /**
+     * Releases the admission permit of the request, if it has one.
+     */
+    void releasePermit() {
+        if (this.permit != null) {
+            this.permit.release();
+        }
+    }
+
+    /**
+     * Deletes the temporary files of the spooled attachments, if the
+     * attachments have been spooled.
+     */
+    void releaseAttachments() {
+        if (this.spooled != null) {
+            this.spooled.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import jakarta.xml.soap.SOAPMessage;
+
+/**
+ * This class represents the result of request processing: either a SOAP
+ * response or a pre-rendered SOAP Fault or cached SOAP response with its
+ * HTTP status code. If both are null, processing has failed and the internal
+ * server error is returned.
+ */
+final class Outcome {
+    final SOAPMessage message;
+    final String rendered;
+    final String faultCode;
+    final int status;
+
+    /**
+     * Constructs and initializes a new Outcome object.
+     *
+     * @param message SOAP response or null
+     * @param rendered pre-rendered SOAP message or null
+     * @param faultCode fault code of a SOAP Fault or null
+     * @param status HTTP status code
+     */
+    Outcome(SOAPMessage message, String rendered, String faultCode, int status) {
+        this.message = message;
+        this.rendered = rendered;
+        this.faultCode = faultCode;
+        this.status = status;
+    }
+}
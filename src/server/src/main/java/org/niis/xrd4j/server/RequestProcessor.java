@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.server.admission.AdmissionController;
+import org.niis.xrd4j.server.cache.ResponseCache;
+import org.niis.xrd4j.server.cache.ResponseCacheHelper;
+import org.niis.xrd4j.server.deserializer.ServiceRequestDeserializer;
+import org.niis.xrd4j.server.deserializer.ServiceRequestDeserializerImpl;
+import org.niis.xrd4j.server.metrics.RequestMetrics;
+import org.niis.xrd4j.server.metrics.ServerMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.util.Objects;
+
+/**
+ * This class processes a parsed SOAP request of AbstractAdapterServlet: the
+ * request is deserialized, screened, answered from the response cache or
+ * admitted and handled by the servlet. The servlet provides the screening,
+ * the collaborators and the handling through its protected methods.
+ */
+final class RequestProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestProcessor.class);
+
+    private final AbstractAdapterServlet servlet;
+    private final AdapterFaults faults;
+    private final ServiceRequestDeserializer deserializer = new ServiceRequestDeserializerImpl();
+
+    /**
+     * Constructs and initializes a new RequestProcessor object.
+     *
+     * @param servlet servlet whose requests are processed
+     * @param faults SOAP Faults of the servlet
+     */
+    RequestProcessor(AbstractAdapterServlet servlet, AdapterFaults faults) {
+        this.servlet = servlet;
+        this.faults = faults;
+    }
+
+    /**
+     * Checks the routing and authorization of the given request.
+     *
+     * @param header ServiceRequest containing the SOAP header values
+     * @return SOAP Fault if the request is rejected, otherwise null
+     */
+    Outcome screen(ServiceRequest<?> header) {
+        String serviceCode = header.getProducer().getServiceCode();
+        if (!this.servlet.isServiceSupported(serviceCode, header.getProducer().getServiceVersion())) {
+            LOGGER.warn("Unknown service code \"{}\". SOAP Fault is returned.", serviceCode);
+            return this.faults.unknownServiceCode(header);
+        }
+        if (!this.servlet.isAuthorized(header)) {
+            LOGGER.warn("Access to service \"{}\" denied. SOAP Fault is returned.", serviceCode);
+            return this.faults.accessDenied(header);
+        }
+        return null;
+    }
+
+    /**
+     * Deserializes the given SOAP request to ServiceRequest and processes it.
+     * The deserialized request is screened, unless the pre-parsed header of
+     * the request has already been screened and the deserialized request has
+     * the same header values.
+     *
+     * @param soapRequest SOAP request
+     * @param screened pre-parsed header that has passed screening or null
+     * @param permit admission permit of the request or null if the request
+     * has not been admitted yet
+     * @param metrics metrics of the request
+     * @return SOAP response or SOAP Fault
+     */
+    Outcome process(SOAPMessage soapRequest, ServiceRequest<?> screened, AdmissionController.Permit permit, RequestMetrics metrics) {
+        // Convert SOAP request to service request
+        long start = System.nanoTime();
+        ServiceRequest serviceRequest = this.fromSOAPToServiceRequest(soapRequest);
+        metrics.parsed(System.nanoTime() - start);
+        // If conversion fails, return SOAP fault
+        if (serviceRequest == null) {
+            return this.faults.invalidMessage();
+        }
+        metrics.setRequest(serviceRequest);
+        // The header could not be pre-parsed, e.g. in multipart requests, or
+        // the pre-parser read different values than the deserializer
+        if (screened == null || !sameHeader(screened, serviceRequest)) {
+            if (serviceRequest.getProducer() == null) {
+                return this.faults.invalidMessage();
+            }
+            Outcome rejected = this.screen(serviceRequest);
+            if (rejected != null) {
+                return rejected;
+            }
+        }
+        // Answer from the cache if the response is cached
+        ResponseCache cache = this.servlet.getResponseCache();
+        ResponseCache.Key cacheKey = cache == null ? null : ResponseCacheHelper.getKey(cache, serviceRequest, soapRequest);
+        if (cacheKey != null) {
+            String cached = ResponseCacheHelper.getResponse(cache, cacheKey, soapRequest);
+            if (cached != null) {
+                metrics.count(ServerMetrics.CACHE_HITS, ServerMetrics.CACHE_HITS_HELP);
+                // The latency of a cached response says nothing about the
+                // load of the service
+                if (permit != null) {
+                    permit.releaseWithoutLatency();
+                }
+                return new Outcome(null, cached, null, HttpServletResponse.SC_OK);
+            }
+            metrics.count(ServerMetrics.CACHE_MISSES, ServerMetrics.CACHE_MISSES_HELP);
+        }
+        // Process request and generate SOAP response, if it's admitted
+        AdmissionController admission = this.servlet.getAdmissionController();
+        if (permit != null || admission == null) {
+            return this.processServiceRequest(serviceRequest, cache, cacheKey, metrics);
+        }
+        AdmissionController.Permit newPermit = admission.tryAdmit(serviceRequest.getProducer().getServiceCode());
+        if (newPermit == null) {
+            return this.faults.overloaded(serviceRequest);
+        }
+        try {
+            return this.processServiceRequest(serviceRequest, cache, cacheKey, metrics);
+        } finally {
+            newPermit.release();
+        }
+    }
+
+    /**
+     * Returns true if the given requests have the same values in all the
+     * fields that the pre-parsed header contains.
+     *
+     * @param header pre-parsed ServiceRequest
+     * @param request deserialized ServiceRequest
+     * @return true if the requests have the same header values
+     */
+    private static boolean sameHeader(ServiceRequest<?> header, ServiceRequest<?> request) {
+        return Objects.equals(header.getConsumer(), request.getConsumer()) && Objects.equals(header.getProducer(), request.getProducer())
+                && Objects.equals(header.getId(), request.getId()) && Objects.equals(header.getUserId(), request.getUserId())
+                && Objects.equals(header.getIssue(), request.getIssue())
+                && Objects.equals(header.getProtocolVersion(), request.getProtocolVersion());
+    }
+
+    /**
+     * Converts the give SOAPMessage to ServiceRequest object.
+     *
+     * @param soapRequest SOAPMessage to be converted
+     * @return ServiceRequest or null
+     */
+    private ServiceRequest fromSOAPToServiceRequest(SOAPMessage soapRequest) {
+        ServiceRequest serviceRequest = null;
+        try {
+            // Try to deserialize SOAP Message to ServiceRequest
+            serviceRequest = this.deserializer.deserialize(soapRequest);
+            LOGGER.debug("SOAP message header was succesfully deserialized to ServiceRequest.");
+        } catch (Exception ex) {
+            // If deserializing SOAP Message fails, return SOAP Fault
+            LOGGER.error("Deserializing SOAP message header to ServiceRequest failed. Return SOAP Fault.");
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return serviceRequest;
+    }
+
+    /**
+     * Processes the given ServiceRequest object and generates SOAPMessage
+     * object that's used as a response.
+     *
+     * @param serviceRequest ServiceRequest object to be processed
+     * @param cache ResponseCache where the response is cached or null
+     * @param cacheKey key of the cached response or null if the response is
+     * not cached
+     * @param metrics metrics of the request
+     * @return SOAPMessage representing the service response
+     */
+    private Outcome processServiceRequest(ServiceRequest serviceRequest, ResponseCache cache, ResponseCache.Key cacheKey,
+            RequestMetrics metrics) {
+        try {
+            // Process application specific requests
+            LOGGER.debug("Process ServiceRequest.");
+            ServiceResponse serviceResponse;
+            long start = System.nanoTime();
+            try {
+                serviceResponse = this.servlet.handleRequest(serviceRequest);
+            } finally {
+                metrics.record(ServerMetrics.HANDLE_SECONDS, ServerMetrics.HANDLE_HELP, System.nanoTime() - start);
+            }
+            if (serviceResponse == null) {
+                LOGGER.warn("ServiceRequest was not processed. Unknown service code.");
+                return this.faults.unknownServiceCode(serviceRequest);
+            } else {
+                SOAPMessage soapResponse = serviceResponse.getSoapMessage();
+                LOGGER.debug("ServiceRequest was processed succesfully.");
+                if (cacheKey != null && !serviceResponse.hasError()) {
+                    ResponseCacheHelper.putResponse(cache, cacheKey, soapResponse);
+                }
+                return new Outcome(soapResponse, null, null, HttpServletResponse.SC_OK);
+            }
+        } catch (XRd4JException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            if (serviceRequest != null && serviceRequest.hasError()) {
+                return this.faults.requestError(serviceRequest);
+            } else {
+                return this.faults.internalServerError(serviceRequest);
+            }
+        } catch (SOAPException | NullPointerException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return this.faults.internalServerError(serviceRequest);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.SOAPHelper;
+import org.niis.xrd4j.server.admission.AdmissionController;
+import org.niis.xrd4j.server.attachment.AttachmentSpooler;
+import org.niis.xrd4j.server.deserializer.HeaderPreParser;
+import org.niis.xrd4j.server.metrics.RequestMetrics;
+import org.niis.xrd4j.server.utils.AdapterUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class reads and parses the incoming requests of AbstractAdapterServlet.
+ * The SOAP header of a text/xml request is read first, and the request is
+ * screened and, in synchronous mode, admitted before the whole message is
+ * parsed. Multipart requests are parsed by the AttachmentSpooler of the
+ * servlet if it has one, otherwise by SAAJ.
+ */
+final class RequestReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestReader.class);
+
+    private final AbstractAdapterServlet servlet;
+    private final RequestProcessor processor;
+    private final AdapterFaults faults;
+    private final HeaderPreParser headerPreParser = new HeaderPreParser();
+
+    /**
+     * Constructs and initializes a new RequestReader object.
+     *
+     * @param servlet servlet whose requests are read
+     * @param processor RequestProcessor that screens the requests
+     * @param faults SOAP Faults of the servlet
+     */
+    RequestReader(AbstractAdapterServlet servlet, RequestProcessor processor, AdapterFaults faults) {
+        this.servlet = servlet;
+        this.processor = processor;
+        this.faults = faults;
+    }
+
+    /**
+     * Reads and parses the given request. In asynchronous mode the request
+     * is admitted on the executor, so that waiting for a permit doesn't
+     * block the container thread.
+     *
+     * @param request servlet request
+     * @param metrics metrics of the request
+     * @param async true if the request is processed asynchronously
+     * @return incoming request
+     */
+    IncomingRequest read(HttpServletRequest request, RequestMetrics metrics, boolean async) {
+        String errString = "Invalid SOAP message.";
+        SOAPMessage soapRequest = null;
+        Outcome outcome = null;
+        AdmissionController.Permit permit = null;
+        AttachmentSpooler.SpooledMessage spooled = null;
+        ServiceRequest<?> screened = null;
+
+        // Log HTTP headers if debug is enabled
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(AdapterUtils.getHeaderInfo(request));
+            LOGGER.debug("Request content length {} bytes.", request.getContentLength());
+        }
+
+        // Get incoming SOAP message
+        long parseStart = System.nanoTime();
+        var requestContentType = request.getContentType();
+        if (contentTypeMatches(requestContentType, Constants.TEXT_XML)) {
+            // Regular SOAP message without attachments
+            LOGGER.info("Request's content type is \"{}\".", Constants.TEXT_XML);
+            // Read the SOAP header first and parse the whole message only
+            // if the request is accepted
+            HeaderPreParser.PreParsedRequest preParsed = this.headerPreParser.parse(getInputStream(request));
+            ServiceRequest<?> header = preParsed.getRequest();
+            if (header != null && header.getProducer() != null) {
+                metrics.setRequest(header);
+                outcome = this.processor.screen(header);
+                screened = outcome == null ? header : null;
+                AdmissionController admission = this.servlet.getAdmissionController();
+                if (outcome == null && admission != null && !async) {
+                    permit = admission.tryAdmit(header.getProducer().getServiceCode());
+                    outcome = permit == null ? this.faults.overloaded(header) : null;
+                }
+            }
+            if (outcome == null) {
+                soapRequest = SOAPHelper.toSOAP(preParsed.getInputStream());
+            }
+        } else if (contentTypeMatches(requestContentType, Constants.MULTIPART_RELATED)) {
+            // SOAP message with attachments
+            LOGGER.info("Request's content type is \"{}\".", Constants.MULTIPART_RELATED);
+            AttachmentSpooler spooler = this.servlet.getAttachmentSpooler();
+            if (spooler != null && spooler.supports(requestContentType)) {
+                spooled = spool(spooler, request, requestContentType);
+                soapRequest = spooled == null ? null : spooled.getSOAPMessage();
+            } else {
+                MimeHeaders mh = AdapterUtils.getHeaders(request);
+                soapRequest = SOAPHelper.toSOAP(getInputStream(request), mh);
+            }
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(AdapterUtils.getAttachmentsInfo(soapRequest));
+            }
+        } else {
+            // Invalid content type -> message is not processed
+            LOGGER.warn("Invalid content type : \"{}\".", requestContentType);
+            errString = "Invalid content type : \"" + requestContentType + "\".";
+        }
+        metrics.parsed(System.nanoTime() - parseStart);
+
+        // Conversion has failed if soapRequest is null. Return SOAP Fault.
+        if (soapRequest == null && outcome == null) {
+            LOGGER.warn("Unable to deserialize the request to SOAP. SOAP Fault is returned.");
+            logIncomingMessage(request);
+            outcome = this.faults.invalidRequest(errString);
+        }
+        return new IncomingRequest(soapRequest, outcome, screened, permit, spooled);
+    }
+
+    /**
+     * Parses the given multipart/related request using the given spooler.
+     *
+     * @param spooler AttachmentSpooler
+     * @param request servlet request
+     * @param contentType content type of the request
+     * @return SpooledMessage or null if parsing the request fails
+     */
+    private static AttachmentSpooler.SpooledMessage spool(AttachmentSpooler spooler, HttpServletRequest request, String contentType) {
+        try {
+            return spooler.parse(request.getInputStream(), contentType);
+        } catch (IOException | SOAPException | RuntimeException ex) {
+            LOGGER.error("Parsing multipart request failed : {}", ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    private static void logIncomingMessage(HttpServletRequest request) {
+        if (LOGGER.isTraceEnabled()) {
+            String msg = null;
+            try {
+                ServletInputStream inputStream = getInputStream(request);
+                if (inputStream != null) {
+                    msg = new String(inputStream.readAllBytes(), UTF_8)
+                            .replaceAll("[\r\n]", " "); // sonar javasecurity:S5145
+                }
+                LOGGER.trace("Incoming message : \"{}\"", msg);
+            } catch (IOException e) {
+                LOGGER.trace("Error reading incoming message", e);
+            }
+        }
+    }
+
+    private static ServletInputStream getInputStream(HttpServletRequest request) {
+        try {
+            return request.getInputStream();
+        } catch (IOException e) {
+            LOGGER.error("Error getting InputStream from request", e);
+            return null;
+        }
+    }
+
+    private static boolean contentTypeMatches(String contentType, String expected) {
+        return contentType != null && contentType.toLowerCase().startsWith(expected);
+    }
+}
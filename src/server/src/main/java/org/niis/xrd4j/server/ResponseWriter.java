@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.common.capture.PayloadCapture;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.server.metrics.RequestMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.IntSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class writes the outcome of request processing to the servlet
+ * response. SOAP responses are written directly to the output stream without
+ * converting them to String, and pre-rendered SOAP messages are written as
+ * they are.
+ */
+final class ResponseWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseWriter.class);
+    private static final String CONTENT_TYPE = "Content-Type";
+    static final String TEXT_XML_UTF_8 = Constants.TEXT_XML + "; charset=UTF-8";
+    private static final String OUTGOING_RESPONSE = "SOAP response";
+
+    private final AdapterFaults faults;
+    private final IntSupplier bufferSize;
+
+    /**
+     * Constructs and initializes a new ResponseWriter object.
+     *
+     * @param faults SOAP Faults of the servlet
+     * @param bufferSize supplies the size of the response buffer in bytes
+     */
+    ResponseWriter(AdapterFaults faults, IntSupplier bufferSize) {
+        this.faults = faults;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Writes the given outcome to the output stream and records the response
+     * metrics. The Content-Type header is taken from the MIME headers of the
+     * message. Up to the size of the response buffer is buffered before the
+     * response is committed, so larger responses are sent chunked.
+     *
+     * @param outcome SOAP response or pre-rendered SOAP message
+     * @param response servlet response
+     * @param capture PayloadCapture that captures the response or null if
+     * the response is not captured
+     * @param metrics metrics of the request
+     */
+    void write(Outcome outcome, HttpServletResponse response, PayloadCapture capture, RequestMetrics metrics) {
+        LOGGER.debug("Send response.");
+        long start = System.nanoTime();
+        long bytes = this.writeOutcome(outcome, response, capture, metrics);
+        metrics.finish(bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the given pre-rendered SOAP Fault or SOAP message to output
+     * stream.
+     *
+     * @param rendered SOAP Fault or SOAP message
+     * @param response servlet response
+     * @return number of bytes written
+     */
+    static int writeRendered(String rendered, HttpServletResponse response) {
+        response.setContentType(TEXT_XML_UTF_8);
+        byte[] bytes = rendered.getBytes(UTF_8);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(bytes);
+            return bytes.length;
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.error(e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the given outcome to output stream.
+     *
+     * @param outcome SOAP response or pre-rendered SOAP message
+     * @param response servlet response
+     * @param capture PayloadCapture that captures the response or null if
+     * the response is not captured
+     * @param metrics metrics of the request
+     * @return number of bytes written
+     */
+    private long writeOutcome(Outcome outcome, HttpServletResponse response, PayloadCapture capture, RequestMetrics metrics) {
+        if (outcome.rendered != null) {
+            LOGGER.debug("Send pre-rendered SOAP message.");
+            if (outcome.faultCode != null) {
+                metrics.fault(outcome.faultCode);
+            }
+            response.setStatus(outcome.status);
+            if (capture != null) {
+                capture.capture(OUTGOING_RESPONSE, null, outcome.rendered);
+            }
+            return writeRendered(outcome.rendered, response);
+        }
+        SOAPMessage soapResponse = outcome.message;
+        if (soapResponse == null) {
+            LOGGER.warn("Internal serveri error. Message processing failed.");
+            metrics.fault(this.faults.getInternalServerErrorCode());
+            if (capture != null) {
+                capture.capture(OUTGOING_RESPONSE, null, this.faults.getInternalServerError());
+            }
+            return writeRendered(this.faults.getInternalServerError(), response);
+        }
+        CountingOutputStream counter = null;
+        try {
+            // Make sure that the MIME headers match the content
+            if (soapResponse.saveRequired()) {
+                soapResponse.saveChanges();
+            }
+            response.setContentType(getContentType(soapResponse));
+            response.setBufferSize(this.bufferSize.getAsInt());
+            LOGGER.debug("Response content type : \"{}\".", response.getContentType());
+            if (capture != null) {
+                capture.capture(OUTGOING_RESPONSE, soapResponse);
+            }
+            counter = new CountingOutputStream(response.getOutputStream());
+            try (OutputStream out = counter) {
+                soapResponse.writeTo(out);
+            }
+            LOGGER.debug("Request was succesfully processed.");
+            return counter.count;
+        } catch (SOAPException | IOException | RuntimeException e) {
+            LOGGER.error(e.getMessage(), e);
+            // The fault can be sent only if nothing has been sent yet
+            if (!response.isCommitted()) {
+                response.reset();
+                metrics.fault(this.faults.getInternalServerErrorCode());
+                return writeRendered(this.faults.getInternalServerError(), response);
+            }
+            return counter == null ? 0 : counter.count;
+        }
+    }
+
+    /**
+     * Returns the Content-Type of the given message. If the message has no
+     * Content-Type MIME header, "text/xml; charset=UTF-8" is returned.
+     *
+     * @param message SOAP message
+     * @return content type of the message
+     */
+    private static String getContentType(SOAPMessage message) {
+        String[] contentType = message.getMimeHeaders().getHeader(CONTENT_TYPE);
+        if (contentType == null || contentType.length == 0) {
+            return TEXT_XML_UTF_8;
+        }
+        return contentType[0];
+    }
+
+    /**
+     * Output stream that counts the bytes written to it.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server;
+
+import org.niis.xrd4j.server.wsdl.WSDLCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+/**
+ * This class writes the WSDL file of AbstractAdapterServlet from an
+ * in-memory cache. The gzip compressed variant is written if the client
+ * accepts it, and nothing is written if the client already has the current
+ * version.
+ */
+final class WSDLWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WSDLWriter.class);
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_VARY = "Vary";
+    private static final String GZIP = "gzip";
+
+    private final Supplier<String> wsdlPath;
+    private final AdapterFaults faults;
+    private volatile WSDLCache wsdlCache;
+
+    /**
+     * Constructs and initializes a new WSDLWriter object.
+     *
+     * @param wsdlPath supplies the path of the WSDL file
+     * @param faults SOAP Faults of the servlet
+     */
+    WSDLWriter(Supplier<String> wsdlPath, AdapterFaults faults) {
+        this.wsdlPath = wsdlPath;
+        this.faults = faults;
+    }
+
+    /**
+     * Writes the cached WSDL file to the response.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     */
+    void write(HttpServletRequest request, HttpServletResponse response) {
+        WSDLCache.Entry wsdl = this.getWSDLCache().get();
+        if (wsdl == null) {
+            ResponseWriter.writeRendered(this.faults.getWsdlNotFound(), response);
+            LOGGER.warn("WSDL file was not found. SOAP Fault was returned.");
+            return;
+        }
+        boolean gzip = wsdl.hasGzip() && acceptsGzip(request.getHeader(HEADER_ACCEPT_ENCODING));
+        String etag = gzip ? wsdl.getGzipETag() : wsdl.getETag();
+        response.setContentType(ResponseWriter.TEXT_XML_UTF_8);
+        response.setHeader(HEADER_ETAG, etag);
+        if (wsdl.hasGzip()) {
+            response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        }
+        if (WSDLCache.matches(request.getHeader(HEADER_IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            LOGGER.trace("WSDL file was not modified.");
+            return;
+        }
+        if (gzip) {
+            response.setHeader(HEADER_CONTENT_ENCODING, GZIP);
+        }
+        response.setContentLengthLong(gzip ? wsdl.getGzipLength() : wsdl.getContentLength());
+        try (OutputStream out = response.getOutputStream()) {
+            if (gzip) {
+                wsdl.writeGzipTo(out);
+            } else {
+                wsdl.writeTo(out);
+            }
+            LOGGER.trace("WSDL file was found and returned to the requester.");
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the cache of the WSDL file. The cache is created when the
+     * WSDL is requested the first time.
+     *
+     * @return cache of the WSDL file
+     */
+    private WSDLCache getWSDLCache() {
+        WSDLCache cache = this.wsdlCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = this.wsdlCache;
+                if (cache == null) {
+                    cache = new WSDLCache(this.wsdlPath.get());
+                    this.wsdlCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (GZIP.equalsIgnoreCase(parts[0].trim())) {
+                // "q=0" means that gzip is not acceptable
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.admission;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class decides if a request is admitted for processing. A request
+ * must get a permit from the limiter of its service code, if there is one,
+ * and from the global limiter, if there is one. Service specific limits
+ * keep expensive services from using up the global limit, so that cheap
+ * services can still be served under load. If a permit is not available, the
+ * request waits at most the configured time before it's rejected.
+ */
+public class AdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final ConcurrencyLimiter globalLimiter;
+    private final Map<String, ConcurrencyLimiter> serviceLimiters = new ConcurrentHashMap<>();
+    private volatile long maxWaitMillis;
+
+    /**
+     * Constructs and initializes a new AdmissionController object.
+     *
+     * @param globalLimiter limiter shared by all the services, or null if
+     * only service specific limits are used
+     */
+    public AdmissionController(ConcurrencyLimiter globalLimiter) {
+        this.globalLimiter = globalLimiter;
+    }
+
+    /**
+     * Sets the limiter of the given service.
+     *
+     * @param serviceCode service code
+     * @param limiter limiter of the service
+     */
+    public void setServiceLimiter(String serviceCode, ConcurrencyLimiter limiter) {
+        this.serviceLimiters.put(serviceCode, limiter);
+    }
+
+    /**
+     * Returns the limiter of the given service.
+     *
+     * @param serviceCode service code
+     * @return limiter of the service or null if the service has no limiter
+     * of its own
+     */
+    public ConcurrencyLimiter getServiceLimiter(String serviceCode) {
+        return serviceCode == null ? null : this.serviceLimiters.get(serviceCode);
+    }
+
+    /**
+     * Returns the limiter shared by all the services.
+     *
+     * @return global limiter or null
+     */
+    public ConcurrencyLimiter getGlobalLimiter() {
+        return globalLimiter;
+    }
+
+    /**
+     * Returns the maximum time a request waits for a permit in
+     * milliseconds.
+     *
+     * @return maximum wait time in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Sets the maximum time a request waits for a permit in milliseconds.
+     * Zero, which is the default, rejects the request immediately if no
+     * permit is available.
+     *
+     * @param maxWaitMillis new value
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Tries to admit a request of the given service.
+     *
+     * @param serviceCode service code of the request
+     * @return permit that must be released when the request has been
+     * processed, or null if the request was rejected
+     */
+    public Permit tryAdmit(String serviceCode) {
+        long start = System.nanoTime();
+        ConcurrencyLimiter serviceLimiter = this.getServiceLimiter(serviceCode);
+        if (serviceLimiter != null && !serviceLimiter.tryAcquire(this.maxWaitMillis)) {
+            LOGGER.warn("Request to service \"{}\" was rejected. Service limit {} reached.", serviceCode, serviceLimiter.getLimit());
+            return null;
+        }
+        if (this.globalLimiter != null) {
+            long remainingMillis = Math.max(0, this.maxWaitMillis - (System.nanoTime() - start) / NANOS_PER_MILLI);
+            if (!this.globalLimiter.tryAcquire(remainingMillis)) {
+                if (serviceLimiter != null) {
+                    serviceLimiter.release(-1);
+                }
+                LOGGER.warn("Request to service \"{}\" was rejected. Global limit {} reached.", serviceCode, this.globalLimiter.getLimit());
+                return null;
+            }
+        }
+        return new Permit(serviceLimiter, this.globalLimiter);
+    }
+
+    /**
+     * Permit to process a single request.
+     */
+    public static final class Permit {
+        private final ConcurrencyLimiter serviceLimiter;
+        private final ConcurrencyLimiter globalLimiter;
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        private Permit(ConcurrencyLimiter serviceLimiter, ConcurrencyLimiter globalLimiter) {
+            this.serviceLimiter = serviceLimiter;
+            this.globalLimiter = globalLimiter;
+        }
+
+        /**
+         * Releases the permit. The processing time of the request is passed
+         * to the limiters. Releasing the same permit again has no effect.
+         */
+        public void release() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            long latency = System.nanoTime() - this.start;
+            if (this.globalLimiter != null) {
+                this.globalLimiter.release(latency);
+            }
+            if (this.serviceLimiter != null) {
+                this.serviceLimiter.release(latency);
+            }
+        }
+
+        /**
+         * Releases the permit without passing the processing time to the
+         * limiters. This is used when the request was answered without
+         * calling the service, e.g. from a cache, and the processing time
+         * doesn't reflect the latency of the service. Releasing the same
+         * permit again has no effect.
+         */
+        public void releaseWithoutLatency() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            if (this.globalLimiter != null) {
+                this.globalLimiter.release(-1);
+            }
+            if (this.serviceLimiter != null) {
+                this.serviceLimiter.release(-1);
+            }
+        }
+    }
+}
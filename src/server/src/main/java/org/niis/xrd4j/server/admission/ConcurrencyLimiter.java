@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class limits the number of requests that are processed at the same
+ * time. The limit is either fixed or adaptive. In adaptive mode the limit
+ * follows the ratio between the minimum latency, which is the latency of an
+ * unloaded service, and the recent latency: when the latency grows because
+ * requests start queuing in the service, the limit shrinks, and when the
+ * latency returns to normal, the limit grows again. The limit is kept
+ * between the minimum and the maximum limit.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Default minimum limit in adaptive mode.
+     */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    /**
+     * Default maximum limit in adaptive mode.
+     */
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+
+    private static final double RECENT_LATENCY_WEIGHT = 0.1;
+    private static final double MIN_LATENCY_DECAY = 0.001;
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = this.lock.newCondition();
+    private final LongAdder rejected = new LongAdder();
+    private double limit;
+    private int inFlight;
+    private boolean adaptive;
+    private int minLimit = DEFAULT_MIN_LIMIT;
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+    private double minLatency;
+    private double recentLatency;
+
+    /**
+     * Constructs and initializes a new ConcurrencyLimiter object.
+     *
+     * @param limit maximum number of concurrent requests, or the initial
+     * limit in adaptive mode
+     */
+    public ConcurrencyLimiter(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Acquires a permit to process a request. If the limit has been reached,
+     * waits until a permit is released or the given time has passed.
+     *
+     * @param maxWaitMillis maximum time to wait in milliseconds, zero means
+     * that the request is rejected immediately
+     * @return true if a permit was acquired, false if the request was
+     * rejected
+     */
+    public boolean tryAcquire(long maxWaitMillis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.lock.lock();
+        try {
+            while (this.inFlight >= (int) this.limit) {
+                if (nanos <= 0) {
+                    this.rejected.increment();
+                    return false;
+                }
+                nanos = this.available.awaitNanos(nanos);
+            }
+            this.inFlight++;
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.rejected.increment();
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit acquired with tryAcquire. In adaptive mode the
+     * latency of the request is used for adjusting the limit.
+     *
+     * @param latencyNanos latency of the request in nanoseconds, or a
+     * negative value if the latency should not be used
+     */
+    public void release(long latencyNanos) {
+        this.lock.lock();
+        try {
+            int inFlightBefore = this.inFlight;
+            this.inFlight--;
+            if (this.adaptive && latencyNanos > 0) {
+                this.update(latencyNanos, inFlightBefore);
+            }
+            this.available.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the adaptive limit with a new latency sample.
+     *
+     * @param latencyNanos latency of the request in nanoseconds
+     * @param inFlightBefore number of requests in flight before the request
+     * was completed
+     */
+    private void update(long latencyNanos, int inFlightBefore) {
+        if (this.minLatency == 0) {
+            this.minLatency = latencyNanos;
+            this.recentLatency = latencyNanos;
+            return;
+        }
+        this.recentLatency += (latencyNanos - this.recentLatency) * RECENT_LATENCY_WEIGHT;
+        // The minimum slowly drifts up, so that a permanent change in the
+        // latency of the service is eventually accepted as the new normal
+        this.minLatency = Math.min(this.recentLatency, this.minLatency + (this.recentLatency - this.minLatency) * MIN_LATENCY_DECAY);
+        // Don't grow the limit if the service is not using it
+        if (inFlightBefore < this.limit / 2 && this.recentLatency <= this.minLatency) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, this.minLatency / this.recentLatency));
+        double target = this.limit * gradient + Math.sqrt(this.limit);
+        double newLimit = this.limit + (target - this.limit) * LIMIT_SMOOTHING;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return current limit
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests that are currently processed.
+     *
+     * @return number of requests in flight
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of rejected requests.
+     *
+     * @return number of rejected requests
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Returns true if the limit is adaptive.
+     *
+     * @return true if the limit is adaptive
+     */
+    public boolean isAdaptive() {
+        this.lock.lock();
+        try {
+            return this.adaptive;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the limit adaptive or fixed.
+     *
+     * @param adaptive new value
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.lock.lock();
+        try {
+            this.adaptive = adaptive;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the minimum limit in adaptive mode.
+     *
+     * @param minLimit new value
+     */
+    public void setMinLimit(int minLimit) {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("Minimum limit must be positive.");
+        }
+        this.lock.lock();
+        try {
+            this.minLimit = minLimit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum limit in adaptive mode.
+     *
+     * @param maxLimit new value
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit <= 0) {
+            throw new IllegalArgumentException("Maximum limit must be positive.");
+        }
+        this.lock.lock();
+        try {
+            this.maxLimit = maxLimit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.activation.DataHandler;
+import jakarta.xml.soap.AttachmentPart;
+import jakarta.xml.soap.MimeHeader;
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class parses multipart/related SOAP requests without letting SAAJ
+ * buffer the attachments on the heap. The parts are read one at a time, and
+ * each part is kept in memory if it's not larger than the memory threshold
+ * and otherwise streamed to a temporary file. The attachments of the
+ * resulting SOAPMessage are backed by SpooledDataSource objects, and the
+ * temporary files are deleted when the SpooledMessage is closed. Base64
+ * encoded parts are decoded while they're spooled, other transfer encodings
+ * are kept as is.
+ *
+ * The number of parts and the total size of the parts of a request are
+ * limited. Parts that don't fit in the memory limit are spooled to files
+ * even if they're smaller than the memory threshold, and requests that
+ * exceed the part limit or the file limit are rejected.
+ */
+public class AttachmentSpooler {
+
+    /**
+     * Default size in bytes above which a part is spooled to a file.
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+    /**
+     * Default maximum number of parts in a request, including the root part.
+     */
+    public static final int DEFAULT_MAX_PARTS = 100;
+    /**
+     * Default maximum total size in bytes of the parts of a request that are
+     * kept in memory.
+     */
+    public static final long DEFAULT_MAX_MEMORY_SIZE = 16L * 1024 * 1024;
+    /**
+     * Default maximum total size in bytes of the temporary files of a
+     * request.
+     */
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttachmentSpooler.class);
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_ID = "Content-ID";
+    private static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final String BASE64 = "base64";
+    private static final String PARAM_BOUNDARY = "boundary";
+    private static final String PARAM_START = "start";
+    private static final String PARAM_TYPE = "type";
+    private static final String FILE_PREFIX = "xrd4j-attachment-";
+    private static final String FILE_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 8192;
+
+    private volatile int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+    private volatile int maxParts = DEFAULT_MAX_PARTS;
+    private volatile long maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+    private volatile long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    private volatile Path directory;
+
+    /**
+     * Sets the size in bytes above which a part is spooled to a temporary
+     * file.
+     *
+     * @param memoryThreshold new value
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("Memory threshold must not be negative.");
+        }
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Sets the maximum number of parts in a request, including the root
+     * part. Requests with more parts are rejected.
+     *
+     * @param maxParts new value
+     */
+    public void setMaxParts(int maxParts) {
+        if (maxParts < 1) {
+            throw new IllegalArgumentException("Maximum number of parts must be positive.");
+        }
+        this.maxParts = maxParts;
+    }
+
+    /**
+     * Sets the maximum total size in bytes of the parts of a request that
+     * are kept in memory. Parts that don't fit are spooled to temporary
+     * files.
+     *
+     * @param maxMemorySize new value
+     */
+    public void setMaxMemorySize(long maxMemorySize) {
+        if (maxMemorySize < 0) {
+            throw new IllegalArgumentException("Maximum memory size must not be negative.");
+        }
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * Sets the maximum total size in bytes of the temporary files of a
+     * request. Requests whose parts don't fit are rejected.
+     *
+     * @param maxFileSize new value
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        if (maxFileSize < 0) {
+            throw new IllegalArgumentException("Maximum file size must not be negative.");
+        }
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Sets the directory where the temporary files are created. By default
+     * the default temporary-file directory is used.
+     *
+     * @param directory directory or null
+     */
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Checks if the request with the given content type can be spooled. The
+     * content type must define a boundary, and the root part must be a
+     * SOAP 1.1 envelope. Other requests, e.g. MTOM/XOP requests, should be
+     * parsed by SAAJ.
+     *
+     * @param contentType multipart/related content type of the request
+     * @return true if the request can be spooled
+     */
+    public boolean supports(String contentType) {
+        String type = MultipartReader.getParameter(contentType, PARAM_TYPE);
+        return MultipartReader.getParameter(contentType, PARAM_BOUNDARY) != null
+                && (type == null || type.equalsIgnoreCase(Constants.TEXT_XML));
+    }
+
+    /**
+     * Parses the given multipart/related request. The root part is the part
+     * identified by the start parameter of the content type, or the first
+     * part if the parameter is not present. The returned SpooledMessage must
+     * be closed when the request has been processed.
+     *
+     * @param in stream containing the request
+     * @param contentType multipart/related content type of the request
+     * @return SpooledMessage holding the SOAPMessage and its attachments
+     * @throws IOException if reading or spooling the request fails, or if
+     * the request exceeds the part limit or the file limit
+     * @throws SOAPException if the root part is not a valid SOAP message
+     */
+    public SpooledMessage parse(InputStream in, String contentType) throws IOException, SOAPException {
+        String boundary = MultipartReader.getParameter(contentType, PARAM_BOUNDARY);
+        if (boundary == null) {
+            throw new IOException("Multipart boundary is missing.");
+        }
+        MultipartReader reader = new MultipartReader(in, boundary);
+        List<Part> parts = new ArrayList<>();
+        Totals totals = new Totals();
+        int limit = this.maxParts;
+        boolean parsed = false;
+        try {
+            while (reader.next()) {
+                if (parts.size() >= limit) {
+                    throw new IOException("Multipart request has more than " + limit + " parts.");
+                }
+                parts.add(this.spool(reader.getHeaders(), reader.getBody(), totals));
+            }
+            if (parts.isEmpty()) {
+                throw new IOException("Multipart request has no parts.");
+            }
+            SpooledMessage message = build(parts, rootIndex(parts, MultipartReader.getParameter(contentType, PARAM_START)));
+            parsed = true;
+            return message;
+        } finally {
+            if (!parsed) {
+                for (Part part : parts) {
+                    part.source.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the body of a single part to memory or to a temporary file.
+     *
+     * @param headers MIME headers of the part
+     * @param body stream containing the body of the part
+     * @param totals sizes of the parts of the request spooled so far, which
+     * are updated with the size of this part
+     * @return spooled part
+     * @throws IOException if reading or writing fails, or if the temporary
+     * files of the request exceed the file limit
+     */
+    private Part spool(MimeHeaders headers, InputStream body, Totals totals) throws IOException {
+        String encoding = getHeader(headers, CONTENT_TRANSFER_ENCODING);
+        boolean decoded = encoding != null && encoding.trim().equalsIgnoreCase(BASE64);
+        InputStream content = decoded ? Base64.getMimeDecoder().wrap(body) : body;
+        long threshold = Math.min(this.memoryThreshold, this.maxMemorySize - totals.memory);
+        long maxFile = this.maxFileSize;
+        byte[] chunk = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        OutputStream out = memory;
+        Path file = null;
+        long size = 0;
+        try {
+            int n;
+            while ((n = content.read(chunk)) >= 0) {
+                if (file == null && size + n > threshold) {
+                    file = this.createFile();
+                    LOGGER.debug("Part exceeds {} bytes. Spool it to \"{}\".", threshold, file);
+                    out = Files.newOutputStream(file);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                if (file != null && totals.file + size + n > maxFile) {
+                    throw new IOException("Temporary files of the multipart request exceed " + maxFile + " bytes.");
+                }
+                out.write(chunk, 0, n);
+                size += n;
+            }
+            out.close();
+        } catch (IOException | RuntimeException ex) {
+            if (file != null) {
+                discard(out, file, ex);
+            }
+            throw ex;
+        }
+        if (file == null) {
+            totals.memory += size;
+        } else {
+            totals.file += size;
+        }
+        String contentType = getHeader(headers, CONTENT_TYPE);
+        SpooledDataSource source = new SpooledDataSource(contentType == null ? DEFAULT_CONTENT_TYPE : contentType,
+                getHeader(headers, CONTENT_ID), memory == null ? null : memory.toByteArray(), file, size);
+        return new Part(headers, source, decoded);
+    }
+
+    /**
+     * Closes the given stream and deletes the given file after spooling has
+     * failed. Errors are added to the failure as suppressed exceptions.
+     *
+     * @param out stream writing to the file
+     * @param file temporary file
+     * @param failure exception that made spooling fail
+     */
+    private static void discard(OutputStream out, Path file, Exception failure) {
+        try {
+            out.close();
+        } catch (IOException | RuntimeException ex) {
+            failure.addSuppressed(ex);
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                failure.addSuppressed(ex);
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private Path createFile() throws IOException {
+        Path dir = this.directory;
+        return dir == null ? Files.createTempFile(FILE_PREFIX, FILE_SUFFIX) : Files.createTempFile(dir, FILE_PREFIX, FILE_SUFFIX);
+    }
+
+    /**
+     * Builds the SOAPMessage from the root part and adds the other parts to
+     * it as attachments.
+     *
+     * @param parts spooled parts
+     * @param root index of the root part
+     * @return SpooledMessage
+     * @throws IOException if reading the root part fails
+     * @throws SOAPException if the root part is not a valid SOAP message
+     */
+    private static SpooledMessage build(List<Part> parts, int root) throws IOException, SOAPException {
+        Part rootPart = parts.get(root);
+        MimeHeaders mimeHeaders = new MimeHeaders();
+        String rootType = getHeader(rootPart.headers, CONTENT_TYPE);
+        mimeHeaders.addHeader(CONTENT_TYPE, rootType == null ? Constants.TEXT_XML : rootType);
+        SOAPMessage message;
+        try (InputStream in = rootPart.source.getInputStream()) {
+            message = SOAPHelper.createSOAPMessage(mimeHeaders, in);
+            // SAAJ parses the envelope lazily, so it's parsed before the
+            // stream is closed
+            message.getSOAPPart().getEnvelope();
+        }
+        List<SpooledDataSource> attachments = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i == root) {
+                continue;
+            }
+            Part part = parts.get(i);
+            AttachmentPart attachment = message.createAttachmentPart(new DataHandler(part.source));
+            attachment.removeAllMimeHeaders();
+            Iterator<MimeHeader> headers = part.headers.getAllHeaders();
+            while (headers.hasNext()) {
+                MimeHeader header = headers.next();
+                if (!part.decoded || !header.getName().equalsIgnoreCase(CONTENT_TRANSFER_ENCODING)) {
+                    attachment.addMimeHeader(header.getName(), header.getValue());
+                }
+            }
+            if (getHeader(part.headers, CONTENT_TYPE) == null) {
+                attachment.setContentType(DEFAULT_CONTENT_TYPE);
+            }
+            message.addAttachmentPart(attachment);
+            attachments.add(part.source);
+        }
+        return new SpooledMessage(message, rootPart.source, attachments);
+    }
+
+    private static int rootIndex(List<Part> parts, String start) {
+        if (start == null) {
+            return 0;
+        }
+        String id = stripBrackets(start);
+        for (int i = 0; i < parts.size(); i++) {
+            String contentId = parts.get(i).source.getName();
+            if (contentId != null && stripBrackets(contentId).equals(id)) {
+                return i;
+            }
+        }
+        LOGGER.warn("Root part \"{}\" not found. The first part is used as the root part.", start);
+        return 0;
+    }
+
+    private static String stripBrackets(String contentId) {
+        String id = contentId.trim();
+        if (id.startsWith("<") && id.endsWith(">")) {
+            return id.substring(1, id.length() - 1);
+        }
+        return id;
+    }
+
+    private static String getHeader(MimeHeaders headers, String name) {
+        String[] values = headers.getHeader(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    /**
+     * Total sizes of the parts of a request kept in memory and in temporary
+     * files.
+     */
+    private static final class Totals {
+        private long memory;
+        private long file;
+    }
+
+    /**
+     * A single spooled part.
+     */
+    private static final class Part {
+        private final MimeHeaders headers;
+        private final SpooledDataSource source;
+        private final boolean decoded;
+
+        Part(MimeHeaders headers, SpooledDataSource source, boolean decoded) {
+            this.headers = headers;
+            this.source = source;
+            this.decoded = decoded;
+        }
+    }
+
+    /**
+     * This class holds a SOAPMessage parsed by AttachmentSpooler. Closing it
+     * deletes the temporary files of the attachments, so it must be closed
+     * only after the request and the response have been processed.
+     */
+    public static final class SpooledMessage implements Closeable {
+
+        private final SOAPMessage soapMessage;
+        private final SpooledDataSource root;
+        private final List<SpooledDataSource> attachments;
+
+        private SpooledMessage(SOAPMessage soapMessage, SpooledDataSource root, List<SpooledDataSource> attachments) {
+            this.soapMessage = soapMessage;
+            this.root = root;
+            this.attachments = Collections.unmodifiableList(attachments);
+        }
+
+        /**
+         * Returns the SOAPMessage.
+         *
+         * @return SOAPMessage
+         */
+        public SOAPMessage getSOAPMessage() {
+            return this.soapMessage;
+        }
+
+        /**
+         * Returns the data sources of the attachments in the order they were
+         * received.
+         *
+         * @return attachments
+         */
+        public List<SpooledDataSource> getAttachments() {
+            return this.attachments;
+        }
+
+        /**
+         * Deletes the temporary files.
+         */
+        @Override
+        public void close() {
+            this.root.delete();
+            for (SpooledDataSource attachment : this.attachments) {
+                attachment.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import jakarta.xml.soap.MimeHeaders;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * This class reads the parts of a MIME multipart stream one at a time. The
+ * body of the current part is read through a stream that ends at the next
+ * boundary, so a part is never held in memory as a whole. Like SAAJ, the
+ * reader accepts bare LF line breaks in addition to CRLF.
+ */
+final class MultipartReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+    private static final int BYTE_MASK = 0xff;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private final InputStream body = new BodyInputStream();
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean partEnd;
+    private boolean finished;
+    private MimeHeaders headers;
+
+    /**
+     * Constructs and initializes a new MultipartReader object.
+     *
+     * @param in stream containing the multipart content
+     * @param boundary boundary of the parts
+     */
+    MultipartReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\n--" + boundary).getBytes(ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, this.delimiter.length * 2)];
+        // The first boundary may be at the very beginning of the stream,
+        // so the stream is read as if it started with a line break
+        this.buffer[0] = LF;
+        this.limit = 1;
+    }
+
+    /**
+     * Moves to the next part. The rest of the current part, or the preamble
+     * before the first part, is skipped.
+     *
+     * @return true if there's a next part, false if the closing boundary
+     * has been reached
+     * @throws IOException if reading fails or the content is malformed
+     */
+    boolean next() throws IOException {
+        if (this.finished) {
+            return false;
+        }
+        this.body.skip(Long.MAX_VALUE);
+        int b = this.readByte();
+        if (b == DASH) {
+            if (this.readByte() != DASH) {
+                throw new IOException("Malformed multipart boundary.");
+            }
+            this.finished = true;
+            return false;
+        }
+        // Skip transport padding after the boundary
+        while (b == ' ' || b == '\t') {
+            b = this.readByte();
+        }
+        if (b == CR) {
+            b = this.readByte();
+        }
+        if (b != LF) {
+            throw new IOException("Malformed multipart boundary.");
+        }
+        this.headers = this.readHeaders();
+        this.partEnd = false;
+        return true;
+    }
+
+    /**
+     * Returns the MIME headers of the current part.
+     *
+     * @return MIME headers
+     */
+    MimeHeaders getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Returns a stream containing the body of the current part. The stream
+     * ends at the next boundary, and it must not be closed.
+     *
+     * @return body of the current part
+     */
+    InputStream getBody() {
+        return this.body;
+    }
+
+    /**
+     * Returns the value of the given parameter of the given header value,
+     * for example the boundary of a multipart Content-Type. Quotes around
+     * the value are removed.
+     *
+     * @param header header value
+     * @param name name of the parameter
+     * @return parameter value or null if the parameter is not present
+     */
+    static String getParameter(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i + 1);
+            if (eq < 0) {
+                return null;
+            }
+            String key = header.substring(i + 1, eq).trim();
+            int start = eq + 1;
+            while (start < header.length() && header.charAt(start) == ' ') {
+                start++;
+            }
+            String value;
+            int end;
+            if (start < header.length() && header.charAt(start) == '"') {
+                end = header.indexOf('"', start + 1);
+                if (end < 0) {
+                    return null;
+                }
+                value = header.substring(start + 1, end);
+                end = header.indexOf(';', end);
+            } else {
+                end = header.indexOf(';', start);
+                value = header.substring(start, end < 0 ? header.length() : end).trim();
+            }
+            if (key.equalsIgnoreCase(name)) {
+                return value;
+            }
+            i = end;
+        }
+        return null;
+    }
+
+    private MimeHeaders readHeaders() throws IOException {
+        MimeHeaders result = new MimeHeaders();
+        String name = null;
+        StringBuilder value = null;
+        for (int count = 0;; count++) {
+            if (count > MAX_HEADERS) {
+                throw new IOException("Too many headers in multipart part.");
+            }
+            String line = this.readLine();
+            boolean folded = !line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t');
+            if (folded && name != null) {
+                value.append(' ').append(line.trim());
+                continue;
+            }
+            if (name != null) {
+                result.addHeader(name, value.toString());
+                name = null;
+            }
+            if (line.isEmpty()) {
+                return result;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed header in multipart part.");
+            }
+            name = line.substring(0, colon).trim();
+            value = new StringBuilder(line.substring(colon + 1).trim());
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (;;) {
+            int b = this.readByte();
+            if (b == LF) {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == CR) {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LINE) {
+                throw new IOException("Too long header line in multipart part.");
+            }
+            line.append((char) b);
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (this.pos == this.limit && !this.fill(1)) {
+            throw new EOFException("Unexpected end of multipart content.");
+        }
+        return this.buffer[this.pos++] & BYTE_MASK;
+    }
+
+    /**
+     * Reads more data to the buffer until it holds at least the given number
+     * of bytes or the stream ends.
+     *
+     * @param needed number of bytes needed
+     * @return true if the buffer holds the needed bytes
+     * @throws IOException if reading fails
+     */
+    private boolean fill(int needed) throws IOException {
+        if (this.limit - this.pos >= needed) {
+            return true;
+        }
+        if (this.pos > 0) {
+            System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit - this.pos);
+            this.limit -= this.pos;
+            this.pos = 0;
+        }
+        while (this.limit < needed && !this.eof) {
+            int n = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if (n < 0) {
+                this.eof = true;
+            } else {
+                this.limit += n;
+            }
+        }
+        return this.limit >= needed;
+    }
+
+    private int indexOfDelimiter() {
+        byte first = this.delimiter[0];
+        int last = this.limit - this.delimiter.length;
+        for (int i = this.pos; i <= last; i++) {
+            if (this.buffer[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < this.delimiter.length && this.buffer[i + j] == this.delimiter[j]) {
+                j++;
+            }
+            if (j == this.delimiter.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stream that returns the body of the current part.
+     */
+    private final class BodyInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & BYTE_MASK;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (partEnd) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            // One extra byte is needed to tell if a CR precedes the delimiter
+            if (!fill(delimiter.length + 1) && limit - pos < delimiter.length) {
+                throw new EOFException("Unexpected end of multipart content.");
+            }
+            int index = indexOfDelimiter();
+            // The CR of a CRLF line break belongs to the delimiter
+            int end = index > pos && buffer[index - 1] == CR ? index - 1 : index;
+            if (end == pos) {
+                pos = index + delimiter.length;
+                partEnd = true;
+                return -1;
+            }
+            if (index < 0) {
+                // Bytes that may be the start of the delimiter are kept in
+                // the buffer until more data has been read
+                end = limit - delimiter.length + 1;
+                if (end - 1 > pos && buffer[end - 1] == CR) {
+                    end--;
+                }
+            }
+            int n = Math.min(len, end - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[BUFFER_SIZE];
+            long total = 0;
+            while (total < n) {
+                int read = this.read(skipped, 0, (int) Math.min(skipped.length, n - total));
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+    }
+}
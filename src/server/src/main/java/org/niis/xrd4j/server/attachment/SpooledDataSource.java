@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.activation.DataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a read-only DataSource holding the content of an attachment
+ * spooled by AttachmentSpooler. Small attachments are held in memory and
+ * large attachments in a temporary file. The content can be read as a
+ * stream, transferred to a channel without copying it through the heap, or
+ * mapped to memory. A file-backed attachment is available only until the
+ * request that carried it has been processed.
+ */
+public final class SpooledDataSource implements DataSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpooledDataSource.class);
+
+    private final String contentType;
+    private final String name;
+    private final byte[] content;
+    private final Path file;
+    private final long size;
+
+    /**
+     * Constructs and initializes a new SpooledDataSource object.
+     *
+     * @param contentType content type of the attachment
+     * @param name name of the attachment or null
+     * @param content content of the attachment or null if the content is in
+     * a file
+     * @param file file holding the content or null if the content is in
+     * memory
+     * @param size size of the content in bytes
+     */
+    SpooledDataSource(String contentType, String name, byte[] content, Path file, long size) {
+        this.contentType = contentType;
+        this.name = name;
+        this.content = content;
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * Returns a new stream containing the content.
+     *
+     * @return stream containing the content
+     * @throws IOException if the file can't be opened
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (this.file == null) {
+            return new ByteArrayInputStream(this.content);
+        }
+        return Files.newInputStream(this.file);
+    }
+
+    /**
+     * Always throws an exception, because the content is read-only.
+     *
+     * @return never returns
+     * @throws IOException always
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Spooled attachment is read-only.");
+    }
+
+    /**
+     * Returns the content type of the attachment.
+     *
+     * @return content type
+     */
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Returns the name of the attachment, i.e. its Content-ID.
+     *
+     * @return name or null
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the size of the content in bytes.
+     *
+     * @return size of the content
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns true if the content is held in memory, and false if it has
+     * been spooled to a temporary file.
+     *
+     * @return true if the content is in memory
+     */
+    public boolean isInMemory() {
+        return this.file == null;
+    }
+
+    /**
+     * Returns the temporary file holding the content, or null if the content
+     * is in memory. The file is deleted when the request has been
+     * processed.
+     *
+     * @return temporary file or null
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Writes the whole content to the given channel. A file-backed content
+     * is transferred with FileChannel.transferTo, which lets the operating
+     * system copy the data without passing it through the heap.
+     *
+     * @param target channel where the content is written
+     * @return number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (this.file == null) {
+            ByteBuffer src = ByteBuffer.wrap(this.content);
+            while (src.hasRemaining()) {
+                target.write(src);
+            }
+            return this.content.length;
+        }
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, length - position, target);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Writes the whole content to the given stream.
+     *
+     * @param out stream where the content is written
+     * @return number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        if (this.file == null) {
+            out.write(this.content);
+            return this.content.length;
+        }
+        return this.transferTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Returns a read-only buffer containing the content. A file-backed
+     * content is mapped to memory, so it's not read to the heap. The mapping
+     * stays valid after the file has been deleted.
+     *
+     * @return read-only buffer containing the content
+     * @throws IOException if mapping the file fails
+     */
+    public ByteBuffer map() throws IOException {
+        if (this.file == null) {
+            return ByteBuffer.wrap(this.content).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Deletes the temporary file if there's one.
+     */
+    void delete() {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException ex) {
+            LOGGER.warn("Deleting spooled attachment \"{}\" failed : {}", this.file, ex.getMessage());
+        }
+    }
+}
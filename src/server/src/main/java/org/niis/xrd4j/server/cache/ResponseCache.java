@@ -0,0 +1,484 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.cache;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class caches the serialized response bodies of services that return
+ * the same response to the same request. Caching is enabled per service
+ * code and version. The key of a response is a digest of the canonical
+ * request body, and optionally of the consumer, so that whitespace and
+ * namespace prefixes don't affect it. Entries expire after the TTL of the
+ * service, and the least recently used entries are evicted when the total
+ * size of the cached bodies exceeds the maximum size. Sizes are measured in
+ * UTF-8 encoded bytes.
+ */
+public class ResponseCache {
+
+    /**
+     * Default maximum total size of the cached bodies in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+    /**
+     * Default maximum size of a single cached body in bytes.
+     */
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    private static final String ANY_VERSION = "";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int HEX_MASK = 0xff;
+    private static final int HEX_BASE = 0x100;
+    private static final int HEX_RADIX = 16;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<List<String>, Policy> policies = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long size;
+    private volatile long maxSize = DEFAULT_MAX_SIZE;
+    private volatile int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+
+    /**
+     * Enables caching of the responses of the given service.
+     *
+     * @param serviceCode service code
+     * @param serviceVersion service version, or null or empty if the
+     * setting applies to all the versions that have no setting of their own
+     * @param ttlMillis time to live of the cached responses in milliseconds
+     * @param perConsumer true if each consumer has its own cached responses
+     */
+    public void enable(String serviceCode, String serviceVersion, long ttlMillis, boolean perConsumer) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("TTL must be positive.");
+        }
+        this.policies.put(Arrays.asList(serviceCode, normalize(serviceVersion)), new Policy(TimeUnit.MILLISECONDS.toNanos(ttlMillis), perConsumer));
+    }
+
+    /**
+     * Disables caching of the responses of the given service. Responses
+     * that are already cached expire normally.
+     *
+     * @param serviceCode service code
+     * @param serviceVersion service version or null
+     */
+    public void disable(String serviceCode, String serviceVersion) {
+        this.policies.remove(Arrays.asList(serviceCode, normalize(serviceVersion)));
+    }
+
+    /**
+     * Returns the cache key of the given request, or null if the responses
+     * of the requested service are not cached.
+     *
+     * @param request ServiceRequest containing the SOAP request
+     * @param body SOAP body of the request
+     * @return cache key or null
+     */
+    public Key getKey(ServiceRequest<?> request, Node body) {
+        if (request.getProducer() == null || body == null) {
+            return null;
+        }
+        String serviceCode = request.getProducer().getServiceCode();
+        String serviceVersion = request.getProducer().getServiceVersion();
+        Policy policy = this.policies.get(Arrays.asList(serviceCode, normalize(serviceVersion)));
+        if (policy == null) {
+            policy = this.policies.get(Arrays.asList(serviceCode, ANY_VERSION));
+        }
+        if (policy == null) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        update(digest, serviceCode);
+        update(digest, serviceVersion);
+        if (policy.perConsumer) {
+            update(digest, request.getConsumer() == null ? null : request.getConsumer().toString());
+        }
+        digest(body, digest);
+        return new Key(toHex(digest.digest()), policy.ttlNanos);
+    }
+
+    /**
+     * Returns the cached response body of the given key.
+     *
+     * @param key cache key
+     * @return serialized response body or null if there's no valid entry
+     */
+    public String get(Key key) {
+        long now = System.nanoTime();
+        synchronized (this.entries) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && now - entry.expiresNanos < 0) {
+                this.hits.incrementAndGet();
+                return entry.body;
+            }
+            if (entry != null) {
+                this.remove(key, entry);
+            }
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the given response body. Bodies that are larger than the
+     * maximum entry size are not cached.
+     *
+     * @param key cache key
+     * @param body serialized response body
+     */
+    public void put(Key key, String body) {
+        // A body never has fewer bytes than characters, so there's no need
+        // to encode a body that is too long anyway
+        if (body.length() > this.maxEntrySize) {
+            return;
+        }
+        int bytes = body.getBytes(UTF_8).length;
+        if (bytes > this.maxEntrySize) {
+            return;
+        }
+        Entry entry = new Entry(body, bytes, System.nanoTime() + key.ttlNanos);
+        synchronized (this.entries) {
+            Entry previous = this.entries.put(key, entry);
+            if (previous != null) {
+                this.size -= previous.size;
+            }
+            this.size += bytes;
+            this.evict();
+        }
+    }
+
+    /**
+     * Removes all the cached responses.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.size = 0;
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+        // Iteration order is from the least recently used to the most
+        // recently used
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            Map.Entry<Key, Entry> next = iterator.next();
+            iterator.remove();
+            this.size -= next.getValue().size;
+            if (now - next.getValue().expiresNanos < 0) {
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(Key key, Entry entry) {
+        this.entries.remove(key);
+        this.size -= entry.size;
+    }
+
+    /**
+     * Sets the maximum total size of the cached bodies.
+     *
+     * @param maxSize maximum size in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        synchronized (this.entries) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Sets the maximum size of a single cached body.
+     *
+     * @param maxEntrySize maximum size in bytes
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Returns the number of cached responses.
+     *
+     * @return number of cached responses
+     */
+    public int getEntryCount() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the total size of the cached bodies.
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        synchronized (this.entries) {
+            return this.size;
+        }
+    }
+
+    /**
+     * Returns the number of requests that were answered from the cache.
+     *
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of cacheable requests that were not found in the
+     * cache.
+     *
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the number of valid entries that were evicted, because the
+     * maximum size was exceeded.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Returns the share of cacheable requests that were answered from the
+     * cache.
+     *
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hitCount = this.hits.get();
+        long total = hitCount + this.misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns a deep copy of the given element that declares all the
+     * namespaces in scope of the element. The declarations of the ancestors,
+     * e.g. the SOAP envelope, are copied to the element, so that prefixes
+     * used in its descendants and in QName values, such as xsi:type, resolve
+     * to the same URIs when the element is serialized on its own and spliced
+     * into another envelope. Declarations nearer to the element take
+     * precedence.
+     *
+     * @param element element to be copied
+     * @return copy of the element
+     */
+    public static Element withNamespaces(Element element) {
+        Element copy = (Element) element.cloneNode(true);
+        for (Node node = element.getParentNode(); node != null && node.getNodeType() == Node.ELEMENT_NODE; node = node.getParentNode()) {
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                        && !copy.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, localName(attr))) {
+                    copy.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getName(), attr.getValue());
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Updates the given digest with the canonical form of the given node:
+     * namespace URIs and local names instead of prefixes, attributes in
+     * sorted order without namespace declarations, and text without
+     * whitespace-only nodes.
+     *
+     * @param node node to be digested
+     * @param digest MessageDigest to be updated
+     */
+    static void digest(Node node, MessageDigest digest) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+                digestChildren(node, digest);
+                break;
+            case Node.ELEMENT_NODE:
+                digest.update((byte) '<');
+                update(digest, node.getNamespaceURI());
+                update(digest, localName(node));
+                digestAttributes(node.getAttributes(), digest);
+                digestChildren(node, digest);
+                digest.update((byte) '>');
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                String text = node.getNodeValue();
+                if (!text.trim().isEmpty()) {
+                    digest.update((byte) '"');
+                    update(digest, text);
+                }
+                break;
+            default:
+                // Comments and processing instructions don't affect the key
+                break;
+        }
+    }
+
+    private static void digestChildren(Node node, MessageDigest digest) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            digest(child, digest);
+        }
+    }
+
+    private static void digestAttributes(NamedNodeMap attributes, MessageDigest digest) {
+        if (attributes == null || attributes.getLength() == 0) {
+            return;
+        }
+        List<String[]> sorted = new ArrayList<>(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                String ns = attr.getNamespaceURI() == null ? "" : attr.getNamespaceURI();
+                sorted.add(new String[]{ns, localName(attr), attr.getValue()});
+            }
+        }
+        sorted.sort((a, b) -> a[0].equals(b[0]) ? a[1].compareTo(b[1]) : a[0].compareTo(b[0]));
+        for (String[] attr : sorted) {
+            digest.update((byte) '@');
+            update(digest, attr[0]);
+            update(digest, attr[1]);
+            update(digest, attr[2]);
+        }
+    }
+
+    private static String localName(Node node) {
+        return node.getLocalName() == null ? node.getNodeName() : node.getLocalName();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        // Length prefix keeps the boundaries of the values unambiguous
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Integer.toString((b & HEX_MASK) + HEX_BASE, HEX_RADIX).substring(1));
+        }
+        return builder.toString();
+    }
+
+    private static String normalize(String serviceVersion) {
+        return serviceVersion == null ? ANY_VERSION : serviceVersion;
+    }
+
+    /**
+     * Cache key of a request.
+     */
+    public static final class Key {
+        private final String digest;
+        private final long ttlNanos;
+
+        private Key(String digest, long ttlNanos) {
+            this.digest = digest;
+            this.ttlNanos = ttlNanos;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && this.digest.equals(((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.digest.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.digest;
+        }
+    }
+
+    private static final class Policy {
+        private final long ttlNanos;
+        private final boolean perConsumer;
+
+        Policy(long ttlNanos, boolean perConsumer) {
+            this.ttlNanos = ttlNanos;
+            this.perConsumer = perConsumer;
+        }
+    }
+
+    private static final class Entry {
+        private final String body;
+        private final int size;
+        private final long expiresNanos;
+
+        Entry(String body, int size, long expiresNanos) {
+            this.body = body;
+            this.size = size;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.cache;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.util.SOAPHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.Node;
+import jakarta.xml.soap.SOAPElement;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * This class connects ResponseCache to SOAP messages. It computes the cache
+ * keys of SOAP requests, caches the bodies of SOAP responses and combines a
+ * cached body with the envelope of another request, as the response
+ * serializer would have copied the header of the request.
+ */
+public final class ResponseCacheHelper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheHelper.class);
+    private static final String XML_DECLARATION_START = "<?xml";
+    private static final String XML_DECLARATION_END = "?>";
+    private static final String MARKER = "XRD4J_CACHED_BODY_" + UUID.randomUUID().toString().replace("-", "");
+
+    /**
+     * Constructs and initializes a new ResponseCacheHelper object. Should
+     * never be used.
+     */
+    private ResponseCacheHelper() {
+    }
+
+    /**
+     * Returns the cache key of the given request, or null if the response
+     * is not cached. Requests with attachments are never cached, because
+     * the attachments are not part of the key.
+     *
+     * @param cache ResponseCache
+     * @param serviceRequest ServiceRequest object
+     * @param soapRequest SOAP request
+     * @return cache key or null
+     */
+    public static ResponseCache.Key getKey(ResponseCache cache, ServiceRequest<?> serviceRequest, SOAPMessage soapRequest) {
+        if (soapRequest.countAttachments() > 0) {
+            return null;
+        }
+        try {
+            return cache.getKey(serviceRequest, soapRequest.getSOAPBody());
+        } catch (SOAPException ex) {
+            LOGGER.warn("Unable to compute cache key : {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached response of the given key combined with the header
+     * of the given request.
+     *
+     * @param cache ResponseCache
+     * @param key cache key
+     * @param soapRequest SOAP request
+     * @return cached response or null if there's no cached response
+     */
+    public static String getResponse(ResponseCache cache, ResponseCache.Key key, SOAPMessage soapRequest) {
+        String body = cache.get(key);
+        if (body == null) {
+            return null;
+        }
+        try {
+            SOAPMessage message = SOAPHelper.cloneSOAPMsgWithoutBody(soapRequest);
+            if (message == null) {
+                return null;
+            }
+            message.getSOAPBody().addTextNode(MARKER);
+            String envelope = SOAPHelper.toString(message);
+            int index = envelope.indexOf(MARKER);
+            if (index < 0) {
+                return null;
+            }
+            LOGGER.debug("Response was found in the cache.");
+            return envelope.substring(0, index) + body + envelope.substring(index + MARKER.length());
+        } catch (SOAPException ex) {
+            LOGGER.warn("Unable to render cached response : {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Caches the body of the given SOAP response. Responses with attachments
+     * or SOAP Fault are not cached. Each element of the body is cached with
+     * the namespace declarations of the response envelope, because the
+     * cached body is spliced into the envelope of another request.
+     *
+     * @param cache ResponseCache
+     * @param key cache key
+     * @param soapResponse SOAP response or null
+     */
+    public static void putResponse(ResponseCache cache, ResponseCache.Key key, SOAPMessage soapResponse) {
+        try {
+            if (soapResponse == null || soapResponse.countAttachments() > 0 || soapResponse.getSOAPBody().hasFault()) {
+                return;
+            }
+            StringBuilder body = new StringBuilder();
+            Iterator<Node> children = soapResponse.getSOAPBody().getChildElements();
+            while (children.hasNext()) {
+                Node node = children.next();
+                if (!(node instanceof SOAPElement)) {
+                    continue;
+                }
+                String element = SOAPHelper.toString((SOAPElement) ResponseCache.withNamespaces((SOAPElement) node));
+                if (element.isEmpty()) {
+                    return;
+                }
+                // Drop the XML declaration of the standalone element
+                body.append(element.startsWith(XML_DECLARATION_START)
+                        ? element.substring(element.indexOf(XML_DECLARATION_END) + XML_DECLARATION_END.length()) : element);
+            }
+            cache.put(key, body.toString());
+        } catch (SOAPException ex) {
+            LOGGER.warn("Unable to cache response : {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.deserializer;
+
+import org.niis.xrd4j.common.deserializer.AbstractHeaderDeserializer;
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ObjectType;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.util.Constants;
+import org.niis.xrd4j.common.util.XMLFactoryRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.SOAPConstants;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class reads the X-Road SOAP header of an incoming request using StAX
+ * before the request is parsed to a SOAPMessage. Only the client, service,
+ * id, userId, issue and protocolVersion elements are read, and the reading
+ * stops at the end of the header. The bytes read so far are kept, so the
+ * returned stream still contains the whole request, and the body is
+ * materialized only if the request is accepted.
+ */
+public class HeaderPreParser extends AbstractHeaderDeserializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeaderPreParser.class);
+    private static final String ELEM_HEADER = "Header";
+    private static final String ELEM_BODY = "Body";
+
+    /**
+     * Reads the SOAP header from the given stream. If reading the header
+     * fails, the request of the result is null, and the request should be
+     * processed without the pre-parsed header.
+     *
+     * @param in stream containing the SOAP request
+     * @return pre-parsed request
+     */
+    public PreParsedRequest parse(final InputStream in) {
+        RecordingInputStream recording = new RecordingInputStream(in);
+        ServiceRequest<?> request = null;
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLFactoryRegistry.getXMLInputFactory().createXMLStreamReader(recording);
+            request = this.parseHeader(reader);
+        } catch (XMLStreamException | XRd4JException | RuntimeException ex) {
+            LOGGER.debug("Pre-parsing SOAP header failed : {}", ex.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    // Does not close the underlying stream
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    LOGGER.debug(ex.getMessage(), ex);
+                }
+            }
+        }
+        return new PreParsedRequest(request, recording.replay());
+    }
+
+    /**
+     * Reads the document until the end of the SOAP header or the start of
+     * the SOAP body.
+     *
+     * @param reader XMLStreamReader positioned at the start of the document
+     * @return header-only ServiceRequest or null if there's no header
+     * @throws XMLStreamException if there's an error reading the header
+     * @throws XRd4JException if there's a XRd4J error
+     */
+    private ServiceRequest<?> parseHeader(final XMLStreamReader reader) throws XMLStreamException, XRd4JException {
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (isEnvelopeElement(reader, ELEM_HEADER)) {
+                return this.deserializeHeader(reader);
+            } else if (isEnvelopeElement(reader, ELEM_BODY)) {
+                break;
+            }
+        }
+        LOGGER.debug("No SOAP header was found.");
+        return null;
+    }
+
+    /**
+     * Deserializes the X-Road header elements. The reader is positioned at
+     * the START_ELEMENT of the header. Like the DOM based deserializer, the
+     * elements are searched from all the descendants of the header, and the
+     * first occurrence of each element is used.
+     *
+     * @param reader XMLStreamReader positioned at the header
+     * @return header-only ServiceRequest
+     * @throws XMLStreamException if there's an error reading the header
+     * @throws XRd4JException if there's a XRd4J error
+     */
+    private ServiceRequest<?> deserializeHeader(final XMLStreamReader reader) throws XMLStreamException, XRd4JException {
+        Map<String, String> client = null;
+        ObjectType clientObjectType = null;
+        Map<String, String> service = null;
+        ObjectType serviceObjectType = null;
+        Map<String, String> values = new HashMap<>();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            } else if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = reader.getLocalName();
+            boolean xrd = Constants.NS_XRD_URL.equals(reader.getNamespaceURI());
+            if (xrd && client == null && Constants.NS_XRD_ELEM_CLIENT.equals(name)) {
+                clientObjectType = readObjectType(reader);
+                client = readLeafValues(reader);
+            } else if (xrd && service == null && Constants.NS_XRD_ELEM_SERVICE.equals(name)) {
+                serviceObjectType = readObjectType(reader);
+                service = readLeafValues(reader);
+            } else if (xrd && !values.containsKey(name) && (Constants.NS_XRD_ELEM_ID.equals(name) || Constants.NS_XRD_ELEM_USER_ID.equals(name)
+                    || Constants.NS_XRD_ELEM_ISSUE.equals(name) || Constants.NS_XRD_ELEM_PROTOCOL_VERSION.equals(name))) {
+                values.put(name, readText(reader));
+            } else {
+                // Descend into the element
+                depth++;
+            }
+        }
+        ConsumerMember consumer = client == null || clientObjectType == null ? null : super.getConsumerMember(client, clientObjectType);
+        ProducerMember producer = service == null || serviceObjectType == null ? null : super.getProducerMember(service, serviceObjectType);
+        ServiceRequest<?> request = new ServiceRequest<>(consumer, producer, values.get(Constants.NS_XRD_ELEM_ID));
+        request.setUserId(values.get(Constants.NS_XRD_ELEM_USER_ID));
+        request.setIssue(values.get(Constants.NS_XRD_ELEM_ISSUE));
+        request.setProtocolVersion(values.get(Constants.NS_XRD_ELEM_PROTOCOL_VERSION));
+        LOGGER.debug("SOAP header was succesfully pre-parsed.");
+        return request;
+    }
+
+    /**
+     * Checks if the reader is positioned at the given SOAP 1.1 or SOAP 1.2
+     * envelope element.
+     *
+     * @param reader XMLStreamReader positioned at a START_ELEMENT
+     * @param name local name of the element
+     * @return true if the element is the given envelope element
+     */
+    private static boolean isEnvelopeElement(final XMLStreamReader reader, final String name) {
+        String namespace = reader.getNamespaceURI();
+        return name.equals(reader.getLocalName())
+                && (SOAPConstants.URI_NS_SOAP_1_1_ENVELOPE.equals(namespace) || SOAPConstants.URI_NS_SOAP_1_2_ENVELOPE.equals(namespace));
+    }
+
+    private static ObjectType readObjectType(final XMLStreamReader reader) {
+        String value = reader.getAttributeValue(Constants.NS_ID_URL, Constants.NS_ID_ATTR_OBJECT_TYPE);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(ObjectType.class, value.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Invalid object type : \"{}\"", value);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the current element and returns the values of its leaf
+     * elements, local name as the key and trimmed text as the value. The
+     * reader is left at the END_ELEMENT of the element.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @return values of the leaf elements
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private static Map<String, String> readLeafValues(final XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> map = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        boolean leaf = false;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                leaf = true;
+                text.setLength(0);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (leaf) {
+                    map.put(reader.getLocalName(), text.toString().trim());
+                }
+                leaf = false;
+            } else if (leaf && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                text.append(reader.getText());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Reads the current element and returns its text content, including the
+     * text of its descendants. The reader is left at the END_ELEMENT of the
+     * element.
+     *
+     * @param reader XMLStreamReader positioned at the element
+     * @return text content of the element
+     * @throws XMLStreamException if there's an error reading the element
+     */
+    private static String readText(final XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Result of pre-parsing a request.
+     */
+    public static final class PreParsedRequest {
+        private final ServiceRequest<?> request;
+        private final InputStream inputStream;
+
+        private PreParsedRequest(ServiceRequest<?> request, InputStream inputStream) {
+            this.request = request;
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Returns the header-only request. The request has no SOAP message
+         * and no request data.
+         *
+         * @return header-only ServiceRequest or null if the header could
+         * not be read
+         */
+        public ServiceRequest<?> getRequest() {
+            return request;
+        }
+
+        /**
+         * Returns a stream that contains the whole request, including the
+         * part that was read while pre-parsing.
+         *
+         * @return stream containing the whole request
+         */
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+    }
+
+    /**
+     * Input stream that keeps a copy of the bytes read from it.
+     */
+    private static final class RecordingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+        RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.recorded.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.recorded.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must be recorded as well
+            byte[] buffer = new byte[(int) Math.min(n, Integer.MAX_VALUE)];
+            int read = this.read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The underlying stream is closed by the servlet container
+        }
+
+        InputStream replay() {
+            return new SequenceInputStream(new ByteArrayInputStream(this.recorded.toByteArray()), this.in);
+        }
+    }
+}
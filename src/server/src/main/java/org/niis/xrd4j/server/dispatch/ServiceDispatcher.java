@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.dispatch;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.exception.XRd4JRuntimeException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.common.metrics.MetricsRegistry;
+import org.niis.xrd4j.server.deserializer.CustomRequestDeserializer;
+import org.niis.xrd4j.server.metrics.ServerMetrics;
+import org.niis.xrd4j.server.serializer.ServiceResponseSerializer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.SOAPException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class dispatches service requests to the handlers registered for
+ * their service code and service version. The handlers are registered
+ * once, either by calling the register methods or by annotating methods
+ * with XRoadService, and each handler has its own deserializer and
+ * serializer that are reused for all the requests. Dispatching a request is
+ * a single map lookup: a handler registered for the exact service version
+ * is preferred, and a handler registered without a version is used for the
+ * other versions.
+ */
+public class ServiceDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceDispatcher.class);
+    private static final String ANY_VERSION = "";
+    private static final String ANY_NAMESPACE = "*";
+
+    private final Map<List<String>, Registration<?, ?>> registrations = new ConcurrentHashMap<>();
+    private volatile MetricsRegistry metricsRegistry;
+
+    /**
+     * Registers the given handler for the given service. The request data
+     * is deserialized ignoring the namespace of the request element.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param serviceCode service code
+     * @param serviceVersion service version, or null or empty if the handler
+     * handles all the versions that have no handler of their own
+     * @param deserializer deserializer that parses the request data, or null
+     * if the request data is not deserialized
+     * @param serializer serializer that serializes the response
+     * @param handler handler that processes the request
+     */
+    public <T1, T2> void register(String serviceCode, String serviceVersion, CustomRequestDeserializer<T1> deserializer,
+                                  ServiceResponseSerializer<T1, T2> serializer, ServiceHandler<T1, T2> handler) {
+        this.register(serviceCode, serviceVersion, ANY_NAMESPACE, deserializer, serializer, handler);
+    }
+
+    /**
+     * Registers the given handler for the given service.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     * @param serviceCode service code
+     * @param serviceVersion service version, or null or empty if the handler
+     * handles all the versions that have no handler of their own
+     * @param producerNamespaceURI namespace URI of the request element, "*"
+     * means that the namespace is ignored
+     * @param deserializer deserializer that parses the request data, or null
+     * if the request data is not deserialized
+     * @param serializer serializer that serializes the response
+     * @param handler handler that processes the request
+     */
+    public <T1, T2> void register(String serviceCode, String serviceVersion, String producerNamespaceURI,
+                                  CustomRequestDeserializer<T1> deserializer, ServiceResponseSerializer<T1, T2> serializer,
+                                  ServiceHandler<T1, T2> handler) {
+        if (serviceCode == null || serviceCode.isEmpty()) {
+            throw new IllegalArgumentException("Service code can't be null or empty.");
+        }
+        if (serializer == null || handler == null) {
+            throw new IllegalArgumentException("Serializer and handler can't be null.");
+        }
+        List<String> key = key(serviceCode, serviceVersion);
+        Registration<T1, T2> registration = new Registration<>(producerNamespaceURI, deserializer, serializer, handler);
+        if (this.registrations.putIfAbsent(key, registration) != null) {
+            throw new IllegalArgumentException("Handler is already registered for service \"" + serviceCode + "\" version \""
+                    + key.get(1) + "\".");
+        }
+        LOGGER.debug("Registered handler for service \"{}\" version \"{}\".", serviceCode, key.get(1));
+    }
+
+    /**
+     * Registers all the methods of the given object, and of its
+     * superclasses, that are annotated with XRoadService. A method that is
+     * overridden in a subclass is registered only once, using the annotation
+     * of the overriding method. Deserializers and serializers of the same
+     * class are shared by the handlers.
+     *
+     * @param target object whose annotated methods are registered
+     */
+    public void registerAnnotated(Object target) {
+        Map<Class<?>, Object> instances = new HashMap<>();
+        Set<List<Object>> signatures = new HashSet<>();
+        for (Class<?> clazz = target.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.isBridge() || method.isSynthetic()) {
+                    continue;
+                }
+                boolean overridden = !Modifier.isPrivate(method.getModifiers())
+                        && !signatures.add(Arrays.asList(method.getName(), Arrays.asList(method.getParameterTypes())));
+                XRoadService service = method.getAnnotation(XRoadService.class);
+                if (service != null && !overridden) {
+                    this.registerAnnotated(target, method, service, instances);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if a handler is registered for the given service.
+     *
+     * @param serviceCode service code
+     * @param serviceVersion service version or null
+     * @return true if the request would be dispatched to a handler
+     */
+    public boolean isRegistered(String serviceCode, String serviceVersion) {
+        return this.lookup(serviceCode, serviceVersion) != null;
+    }
+
+    /**
+     * Returns true if no handlers are registered.
+     *
+     * @return true if no handlers are registered
+     */
+    public boolean isEmpty() {
+        return this.registrations.isEmpty();
+    }
+
+    /**
+     * Dispatches the given request to the handler registered for its
+     * service. The request data is deserialized, the handler is called and
+     * the response is serialized.
+     *
+     * @param request ServiceRequest to be processed
+     * @return serialized ServiceResponse or null if no handler is
+     * registered for the service
+     * @throws SOAPException if there's a SOAP error
+     * @throws XRd4JException if there's a XRd4J error
+     */
+    public ServiceResponse<?, ?> dispatch(ServiceRequest<?> request) throws SOAPException, XRd4JException {
+        String serviceCode = request.getProducer().getServiceCode();
+        Registration<?, ?> registration = this.lookup(serviceCode, request.getProducer().getServiceVersion());
+        if (registration == null) {
+            LOGGER.debug("No handler is registered for service \"{}\".", serviceCode);
+            return null;
+        }
+        LOGGER.info("Process \"{}\" service.", serviceCode);
+        return registration.process(request, this.metricsRegistry);
+    }
+
+    /**
+     * Sets the MetricsRegistry where the serialization time of the
+     * responses is recorded. By default no metrics are recorded.
+     *
+     * @param metricsRegistry MetricsRegistry or null
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    private Registration<?, ?> lookup(String serviceCode, String serviceVersion) {
+        if (serviceCode == null) {
+            return null;
+        }
+        Registration<?, ?> registration = this.registrations.get(key(serviceCode, serviceVersion));
+        if (registration == null && serviceVersion != null && !serviceVersion.isEmpty()) {
+            registration = this.registrations.get(key(serviceCode, ANY_VERSION));
+        }
+        return registration;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void registerAnnotated(Object target, Method method, XRoadService service, Map<Class<?>, Object> instances) {
+        Class<?>[] params = method.getParameterTypes();
+        if (params.length != 2 || !params[0].isAssignableFrom(ServiceRequest.class) || !params[1].isAssignableFrom(ServiceResponse.class)) {
+            throw new IllegalArgumentException("Method \"" + method.getName() + "\" must take ServiceRequest and ServiceResponse as parameters.");
+        }
+        method.setAccessible(true);
+        CustomRequestDeserializer deserializer = null;
+        if (service.deserializer() != CustomRequestDeserializer.class) {
+            deserializer = (CustomRequestDeserializer) instances.computeIfAbsent(service.deserializer(), ServiceDispatcher::newInstance);
+        }
+        ServiceResponseSerializer serializer = (ServiceResponseSerializer) instances.computeIfAbsent(service.serializer(),
+                ServiceDispatcher::newInstance);
+        ServiceHandler handler = (request, response) -> invoke(target, method, request, response);
+        this.register(service.serviceCode(), service.serviceVersion(), service.producerNamespaceURI(), deserializer, serializer, handler);
+    }
+
+    private static Object newInstance(Class<?> clazz) {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Unable to instantiate \"" + clazz.getName() + "\".", ex);
+        }
+    }
+
+    private static void invoke(Object target, Method method, ServiceRequest<?> request, ServiceResponse<?, ?> response)
+            throws SOAPException, XRd4JException {
+        try {
+            method.invoke(target, request, response);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SOAPException) {
+                throw (SOAPException) cause;
+            } else if (cause instanceof XRd4JException) {
+                throw (XRd4JException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            LOGGER.error("Handler method \"{}\" failed.", method.getName(), cause);
+            throw new XRd4JRuntimeException(cause.getMessage());
+        } catch (IllegalAccessException ex) {
+            LOGGER.error("Unable to call handler method \"{}\".", method.getName(), ex);
+            throw new XRd4JRuntimeException(ex.getMessage());
+        }
+    }
+
+    private static List<String> key(String serviceCode, String serviceVersion) {
+        return Arrays.asList(serviceCode, serviceVersion == null ? ANY_VERSION : serviceVersion);
+    }
+
+    /**
+     * Handler of a single service together with its deserializer and
+     * serializer.
+     *
+     * @param <T1> runtime type of the request data
+     * @param <T2> runtime type of the response data
+     */
+    private static final class Registration<T1, T2> {
+        private final String producerNamespaceURI;
+        private final CustomRequestDeserializer<T1> deserializer;
+        private final ServiceResponseSerializer<T1, T2> serializer;
+        private final ServiceHandler<T1, T2> handler;
+
+        Registration(String producerNamespaceURI, CustomRequestDeserializer<T1> deserializer, ServiceResponseSerializer<T1, T2> serializer,
+                     ServiceHandler<T1, T2> handler) {
+            this.producerNamespaceURI = producerNamespaceURI == null || producerNamespaceURI.isEmpty() ? ANY_NAMESPACE : producerNamespaceURI;
+            this.deserializer = deserializer;
+            this.serializer = serializer;
+            this.handler = handler;
+        }
+
+        @SuppressWarnings("unchecked")
+        ServiceResponse<T1, T2> process(ServiceRequest<?> serviceRequest, MetricsRegistry metrics) throws SOAPException, XRd4JException {
+            ServiceRequest<T1> request = (ServiceRequest<T1>) serviceRequest;
+            if (this.deserializer != null) {
+                this.deserializer.deserialize(request, this.producerNamespaceURI);
+            }
+            ServiceResponse<T1, T2> response = new ServiceResponse<>(request.getConsumer(), request.getProducer(), request.getId());
+            this.handler.handle(request, response);
+            long start = System.nanoTime();
+            this.serializer.serialize(response, request);
+            if (metrics != null) {
+                metrics.histogram(ServerMetrics.SERIALIZE_SECONDS, ServerMetrics.SERIALIZE_HELP, ServerMetrics.labels(request))
+                        .record(System.nanoTime() - start);
+            }
+            return response;
+        }
+    }
+}
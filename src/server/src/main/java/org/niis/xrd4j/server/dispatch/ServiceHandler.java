@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.dispatch;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+
+import jakarta.xml.soap.SOAPException;
+
+/**
+ * This interface defines the application specific processing of a single
+ * service. The request data has already been deserialized when the handler
+ * is called, and the response is serialized after the handler returns.
+ *
+ * @param <T1> runtime type of the request data
+ * @param <T2> runtime type of the response data
+ */
+@FunctionalInterface
+public interface ServiceHandler<T1, T2> {
+
+    /**
+     * Processes the given request and sets the response data of the given
+     * response.
+     *
+     * @param request ServiceRequest to be processed
+     * @param response ServiceResponse to be filled in
+     * @throws SOAPException if there's a SOAP error
+     * @throws XRd4JException if there's a XRd4J error
+     */
+    void handle(ServiceRequest<T1> request, ServiceResponse<T1, T2> response) throws SOAPException, XRd4JException;
+}
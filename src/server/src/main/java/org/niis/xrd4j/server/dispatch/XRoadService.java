@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.dispatch;
+
+import org.niis.xrd4j.server.deserializer.CustomRequestDeserializer;
+import org.niis.xrd4j.server.serializer.ServiceResponseSerializer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as the handler of an X-Road service. The method must take
+ * a ServiceRequest and a ServiceResponse as parameters, like
+ * ServiceHandler.handle. The deserializer and the serializer classes must
+ * have a no-argument constructor, and they're instantiated only once when
+ * the handlers are registered.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface XRoadService {
+
+    /**
+     * Service code of the service.
+     *
+     * @return service code
+     */
+    String serviceCode();
+
+    /**
+     * Version of the service. An empty value matches any version that has
+     * no handler of its own.
+     *
+     * @return service version
+     */
+    String serviceVersion() default "";
+
+    /**
+     * Class of the deserializer that parses the request data. The default
+     * value means that the request data is not deserialized.
+     *
+     * @return class of the request deserializer
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends CustomRequestDeserializer> deserializer() default CustomRequestDeserializer.class;
+
+    /**
+     * Class of the serializer that serializes the response.
+     *
+     * @return class of the response serializer
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends ServiceResponseSerializer> serializer();
+
+    /**
+     * Namespace URI of the request element. Value "*" means that the
+     * namespace is ignored.
+     *
+     * @return namespace URI of the request
+     */
+    String producerNamespaceURI() default "*";
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.metrics;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+
+/**
+ * This class records the metrics of a single request. The labels are updated
+ * when the service and the consumer of the request are known, and the parse
+ * time is accumulated until the response has been written. If the registry is
+ * null, nothing is recorded.
+ */
+public final class RequestMetrics {
+
+    private final MetricsRegistry registry;
+    private final long requestBytes;
+    private volatile String[] labels = ServerMetrics.labels(null, null);
+    private volatile long parseNanos;
+
+    /**
+     * Constructs and initializes a new RequestMetrics object.
+     *
+     * @param registry MetricsRegistry where the metrics are recorded or null
+     * @param requestBytes size of the request in bytes, or a negative value
+     * if the size is not known
+     */
+    public RequestMetrics(MetricsRegistry registry, long requestBytes) {
+        this.registry = registry;
+        this.requestBytes = requestBytes;
+    }
+
+    /**
+     * Sets the request whose service and consumer are used as the labels of
+     * the metrics.
+     *
+     * @param request ServiceRequest containing at least the SOAP header
+     */
+    public void setRequest(ServiceRequest<?> request) {
+        this.labels = ServerMetrics.labels(request);
+    }
+
+    /**
+     * Adds the given time to the parse time of the request.
+     *
+     * @param nanos parse time in nanoseconds
+     */
+    public void parsed(long nanos) {
+        // Parsing steps are sequential, so there are no concurrent updates
+        this.parseNanos += nanos;
+    }
+
+    /**
+     * Records the given time to the given histogram.
+     *
+     * @param name name of the histogram
+     * @param help description of the histogram
+     * @param nanos time in nanoseconds
+     */
+    public void record(String name, String help, long nanos) {
+        if (this.registry != null) {
+            this.registry.histogram(name, help, this.labels).record(nanos);
+        }
+    }
+
+    /**
+     * Increments the given counter.
+     *
+     * @param name name of the counter
+     * @param help description of the counter
+     */
+    public void count(String name, String help) {
+        if (this.registry != null) {
+            this.registry.counter(name, help, this.labels).increment();
+        }
+    }
+
+    /**
+     * Counts a SOAP Fault with the given fault code.
+     *
+     * @param faultCode fault code or null if it's not known
+     */
+    public void fault(String faultCode) {
+        if (this.registry != null) {
+            String[] faultLabels = Arrays.copyOf(this.labels, this.labels.length + 2);
+            faultLabels[this.labels.length] = ServerMetrics.FAULT_CODE;
+            faultLabels[this.labels.length + 1] = faultCode == null ? ServerMetrics.UNKNOWN : faultCode;
+            this.registry.counter(ServerMetrics.FAULTS, ServerMetrics.FAULTS_HELP, faultLabels).increment();
+        }
+    }
+
+    /**
+     * Records the parse and write times and the request and response bytes
+     * after the response has been written.
+     *
+     * @param responseBytes number of response bytes written
+     * @param writeNanos time spent writing the response in nanoseconds
+     */
+    public void finish(long responseBytes, long writeNanos) {
+        if (this.registry == null) {
+            return;
+        }
+        this.record(ServerMetrics.PARSE_SECONDS, ServerMetrics.PARSE_HELP, this.parseNanos);
+        this.record(ServerMetrics.WRITE_SECONDS, ServerMetrics.WRITE_HELP, writeNanos);
+        if (this.requestBytes > 0) {
+            this.registry.counter(ServerMetrics.REQUEST_BYTES, ServerMetrics.REQUEST_BYTES_HELP, this.labels).add(this.requestBytes);
+        }
+        this.registry.counter(ServerMetrics.RESPONSE_BYTES, ServerMetrics.RESPONSE_BYTES_HELP, this.labels).add(responseBytes);
+    }
+}
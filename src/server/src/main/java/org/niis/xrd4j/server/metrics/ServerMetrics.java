@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.metrics;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+/**
+ * This class defines the names, descriptions and labels of the metrics
+ * recorded by the server module. Each metric is tagged with the service
+ * code of the request and the member class of the consumer.
+ */
+public final class ServerMetrics {
+
+    /**
+     * Time from receiving the request until it has been deserialized to
+     * ServiceRequest.
+     */
+    public static final String PARSE_SECONDS = "xrd4j_server_parse_seconds";
+    /**
+     * Description of PARSE_SECONDS.
+     */
+    public static final String PARSE_HELP = "Time spent parsing and deserializing requests.";
+    /**
+     * Time spent in handleRequest.
+     */
+    public static final String HANDLE_SECONDS = "xrd4j_server_handle_seconds";
+    /**
+     * Description of HANDLE_SECONDS.
+     */
+    public static final String HANDLE_HELP = "Time spent processing requests in handleRequest, including response serialization.";
+    /**
+     * Time spent serializing responses of dispatched services.
+     */
+    public static final String SERIALIZE_SECONDS = "xrd4j_server_serialize_seconds";
+    /**
+     * Description of SERIALIZE_SECONDS.
+     */
+    public static final String SERIALIZE_HELP = "Time spent serializing responses of dispatched services.";
+    /**
+     * Time spent writing responses.
+     */
+    public static final String WRITE_SECONDS = "xrd4j_server_write_seconds";
+    /**
+     * Description of WRITE_SECONDS.
+     */
+    public static final String WRITE_HELP = "Time spent writing responses to the client.";
+    /**
+     * Number of request bytes received.
+     */
+    public static final String REQUEST_BYTES = "xrd4j_server_request_bytes_total";
+    /**
+     * Description of REQUEST_BYTES.
+     */
+    public static final String REQUEST_BYTES_HELP = "Request bytes received.";
+    /**
+     * Number of response bytes sent.
+     */
+    public static final String RESPONSE_BYTES = "xrd4j_server_response_bytes_total";
+    /**
+     * Description of RESPONSE_BYTES.
+     */
+    public static final String RESPONSE_BYTES_HELP = "Response bytes sent.";
+    /**
+     * Number of SOAP Faults returned.
+     */
+    public static final String FAULTS = "xrd4j_server_faults_total";
+    /**
+     * Description of FAULTS.
+     */
+    public static final String FAULTS_HELP = "SOAP Faults returned.";
+    /**
+     * Number of requests answered from the ResponseCache.
+     */
+    public static final String CACHE_HITS = "xrd4j_server_cache_hits_total";
+    /**
+     * Description of CACHE_HITS.
+     */
+    public static final String CACHE_HITS_HELP = "Requests answered from the response cache.";
+    /**
+     * Number of cacheable requests that were not answered from the
+     * ResponseCache.
+     */
+    public static final String CACHE_MISSES = "xrd4j_server_cache_misses_total";
+    /**
+     * Description of CACHE_MISSES.
+     */
+    public static final String CACHE_MISSES_HELP = "Cacheable requests that were not found in the response cache.";
+    /**
+     * Name of the label that holds the fault code of FAULTS.
+     */
+    public static final String FAULT_CODE = "fault_code";
+    /**
+     * Label value used when the service or the consumer is not known.
+     */
+    public static final String UNKNOWN = "unknown";
+
+    private static final String SERVICE_CODE = "service_code";
+    private static final String MEMBER_CLASS = "member_class";
+
+    /**
+     * Constructs and initializes a new ServerMetrics object. Should never be
+     * used.
+     */
+    private ServerMetrics() {
+    }
+
+    /**
+     * Returns the labels of the given request.
+     *
+     * @param request ServiceRequest or null
+     * @return label names and values
+     */
+    public static String[] labels(ServiceRequest<?> request) {
+        String serviceCode = request == null || request.getProducer() == null ? null : request.getProducer().getServiceCode();
+        String memberClass = request == null || request.getConsumer() == null ? null : request.getConsumer().getMemberClass();
+        return labels(serviceCode, memberClass);
+    }
+
+    /**
+     * Returns the labels of the given service code and member class.
+     *
+     * @param serviceCode service code or null
+     * @param memberClass member class of the consumer or null
+     * @return label names and values
+     */
+    public static String[] labels(String serviceCode, String memberClass) {
+        return new String[]{SERVICE_CODE, serviceCode == null ? UNKNOWN : serviceCode, MEMBER_CLASS, memberClass == null ? UNKNOWN : memberClass};
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.serializer;
+
+import org.niis.xrd4j.common.message.AbstractMessage;
+import org.niis.xrd4j.common.serializer.AbstractStreamingHeaderSerializer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class serializes the X-Road SOAP header of a request to a standalone
+ * SOAP header element that is inserted into a SOAP Fault. The invariant
+ * header elements are taken from the shared header template cache.
+ */
+final class FaultHeaderSerializer extends AbstractStreamingHeaderSerializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FaultHeaderSerializer.class);
+
+    /**
+     * Serializes the header of the given message.
+     *
+     * @param message message that holds the data for the header
+     * @param envelopePrefix prefix of the SOAP envelope namespace
+     * @return SOAP header element or null if serialization fails
+     */
+    String serialize(final AbstractMessage message, final String envelopePrefix) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+            try {
+                super.serializeHeader(message, envelopePrefix, writer, out);
+            } finally {
+                writer.close();
+            }
+        } catch (XMLStreamException | IOException | RuntimeException ex) {
+            LOGGER.warn("Serializing SOAP header of SOAP Fault failed : {}", ex.getMessage());
+            return null;
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.serializer;
+
+import org.niis.xrd4j.common.message.AbstractMessage;
+import org.niis.xrd4j.common.message.ErrorMessage;
+import org.niis.xrd4j.common.message.ErrorMessageType;
+import org.niis.xrd4j.common.util.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class caches rendered SOAP Faults, so that the same fault is
+ * serialized only once. Templates are kept per fault code, fault actor and
+ * the kind of the fault string and the detail. The fault string and a detail
+ * that is a String are escaped and spliced into the template, so faults whose
+ * text contains request data, e.g. the Content-Type of the request, don't
+ * fill the cache. Other details are rendered on every call, because their
+ * serialization may be customized.
+ *
+ * If the header of the request is given, it's serialized and it replaces
+ * the empty SOAP header of the fault. Faults whose SOAP header is not empty,
+ * or that have no SOAP header, are returned without the request header.
+ */
+public final class SOAPFaultTemplates {
+
+    /**
+     * Default maximum number of cached templates.
+     */
+    public static final int DEFAULT_MAX_TEMPLATES = 256;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SOAPFaultTemplates.class);
+    private static final String VALUE_NONE = "none";
+    private static final String VALUE_TEXT = "text";
+    private static final String ELEM_BODY = "Body";
+    // Empty SOAP header element, group 1 is the prefix of the element
+    private static final Pattern EMPTY_HEADER = Pattern.compile("<(?:([\\w.-]+):)?Header\\s*(?:/>|>\\s*</(?:[\\w.-]+:)?Header\\s*>)");
+
+    private final Function<ErrorMessage, String> renderer;
+    private final FaultHeaderSerializer headerSerializer = new FaultHeaderSerializer();
+    private final Map<List<Object>, Template> templates = new ConcurrentHashMap<>();
+    private final String stringMarker = "XRD4J_STRING_" + UUID.randomUUID().toString().replace("-", "");
+    private final String detailMarker = "XRD4J_DETAIL_" + UUID.randomUUID().toString().replace("-", "");
+    private volatile int maxTemplates = DEFAULT_MAX_TEMPLATES;
+
+    /**
+     * Constructs and initializes a new SOAPFaultTemplates object.
+     *
+     * @param renderer function that serializes the given ErrorMessage to a
+     * SOAP Fault, and returns null or an empty string if serialization fails
+     */
+    public SOAPFaultTemplates(Function<ErrorMessage, String> renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Returns the given error serialized to a SOAP Fault.
+     *
+     * @param error ErrorMessage to be serialized
+     * @return SOAP Fault as a String or null if serialization fails
+     */
+    public String render(ErrorMessage error) {
+        return this.render(error, null);
+    }
+
+    /**
+     * Returns the given error serialized to a SOAP Fault that contains the
+     * SOAP header of the given request. If the header can't be serialized,
+     * e.g. because the request has no consumer or producer, the fault is
+     * returned without a header.
+     *
+     * @param error ErrorMessage to be serialized
+     * @param header message whose SOAP header is added to the fault, or null
+     * if the fault has no header
+     * @return SOAP Fault as a String or null if serialization fails
+     */
+    public String render(ErrorMessage error, AbstractMessage header) {
+        Object detail = error.getDetail();
+        if (error.getErrorMessageType() != ErrorMessageType.STANDARD_SOAP_ERROR_MESSAGE
+                || detail != null && !(detail instanceof String)) {
+            return this.addHeader(this.renderNow(error), null, header);
+        }
+        String faultString = error.getFaultString();
+        List<Object> key = Arrays.asList(error.getFaultCode(), error.getFaultActor(), faultString == null ? VALUE_NONE : VALUE_TEXT,
+                detail == null ? VALUE_NONE : VALUE_TEXT);
+        Template template = this.templates.get(key);
+        if (template == null) {
+            template = this.createTemplate(error, faultString != null, detail != null);
+            if (template == null) {
+                return this.addHeader(this.renderNow(error), null, header);
+            }
+            if (this.templates.size() < this.maxTemplates) {
+                this.templates.putIfAbsent(key, template);
+            }
+        }
+        return template.apply(error, header);
+    }
+
+    /**
+     * Sets the maximum number of cached templates. Faults that don't fit in
+     * the cache are serialized on every call.
+     *
+     * @param maxTemplates maximum number of templates
+     */
+    public void setMaxTemplates(int maxTemplates) {
+        this.maxTemplates = maxTemplates;
+    }
+
+    /**
+     * Returns the number of cached templates.
+     *
+     * @return number of templates
+     */
+    public int size() {
+        return this.templates.size();
+    }
+
+    private Template createTemplate(ErrorMessage error, boolean hasString, boolean hasDetail) {
+        ErrorMessage prototype = new ErrorMessage(error.getFaultCode(), hasString ? this.stringMarker : null, error.getFaultActor(),
+                hasDetail ? this.detailMarker : null);
+        String rendered = this.renderNow(prototype);
+        if (rendered == null) {
+            return null;
+        }
+        int stringIndex = hasString ? indexOfOnce(rendered, this.stringMarker) : -1;
+        int detailIndex = hasDetail ? indexOfOnce(rendered, this.detailMarker) : -1;
+        if (hasString && stringIndex < 0 || hasDetail && detailIndex < 0) {
+            // The fault string or the detail has been serialized in a custom
+            // way
+            LOGGER.debug("Placeholder not found in SOAP Fault. Fault is not cached.");
+            return new Template(null, null, null);
+        }
+        // Split the fault at the placeholders in the order they appear
+        List<Placeholder> placeholders = new ArrayList<>();
+        if (hasString) {
+            placeholders.add(new Placeholder(stringIndex, this.stringMarker, false));
+        }
+        if (hasDetail) {
+            placeholders.add(new Placeholder(detailIndex, this.detailMarker, true));
+        }
+        placeholders.sort(Comparator.comparingInt(placeholder -> placeholder.index));
+        List<String> parts = new ArrayList<>();
+        boolean[] details = new boolean[placeholders.size()];
+        int start = 0;
+        for (int i = 0; i < placeholders.size(); i++) {
+            Placeholder placeholder = placeholders.get(i);
+            parts.add(rendered.substring(start, placeholder.index));
+            details[i] = placeholder.detail;
+            start = placeholder.index + placeholder.marker.length();
+        }
+        parts.add(rendered.substring(start));
+        HeaderSlot slot = findHeader(rendered);
+        int firstIndex = placeholders.isEmpty() ? rendered.length() : placeholders.get(0).index;
+        return new Template(parts, details, slot != null && slot.end <= firstIndex ? slot : null);
+    }
+
+    /**
+     * Returns the index of the given marker, or -1 if the marker is not
+     * found exactly once.
+     *
+     * @param rendered rendered SOAP Fault
+     * @param marker placeholder to be searched
+     * @return index of the marker or -1
+     */
+    private static int indexOfOnce(String rendered, String marker) {
+        int index = rendered.indexOf(marker);
+        return index < 0 || rendered.indexOf(marker, index + 1) >= 0 ? -1 : index;
+    }
+
+    /**
+     * Replaces the empty SOAP header of the given fault with the header of
+     * the given message.
+     *
+     * @param fault rendered SOAP Fault or null
+     * @param slot location of the empty header in the fault, or null if it
+     * has to be searched
+     * @param header message whose header is added, or null
+     * @return SOAP Fault with the header, or the given fault if the header
+     * can't be added
+     */
+    private String addHeader(String fault, HeaderSlot slot, AbstractMessage header) {
+        if (fault == null || header == null || header.getConsumer() == null || header.getProducer() == null) {
+            return fault;
+        }
+        HeaderSlot location = slot == null ? findHeader(fault) : slot;
+        if (location == null) {
+            return fault;
+        }
+        String rendered = this.headerSerializer.serialize(header, location.prefix);
+        if (rendered == null) {
+            return fault;
+        }
+        return fault.substring(0, location.start) + rendered + fault.substring(location.end);
+    }
+
+    /**
+     * Finds the empty SOAP header element that precedes the SOAP body. The
+     * header element must have a prefix that is not used by the X-Road
+     * header elements.
+     *
+     * @param fault rendered SOAP Fault
+     * @return location of the empty header or null if there's none
+     */
+    private static HeaderSlot findHeader(String fault) {
+        Matcher matcher = EMPTY_HEADER.matcher(fault);
+        if (!matcher.find() || fault.lastIndexOf(ELEM_BODY, matcher.start()) >= 0 || matcher.group(1) == null
+                || Constants.NS_ID_PREFIX.equals(matcher.group(1)) || Constants.NS_XRD_PREFIX.equals(matcher.group(1))) {
+            return null;
+        }
+        return new HeaderSlot(matcher.start(), matcher.end(), matcher.group(1));
+    }
+
+    private String renderNow(ErrorMessage error) {
+        String rendered = this.renderer.apply(error);
+        return rendered == null || rendered.isEmpty() ? null : rendered;
+    }
+
+    /**
+     * Escapes the characters that are not allowed in XML text content.
+     *
+     * @param text text to be escaped
+     * @return escaped text
+     */
+    static String escape(String text) {
+        StringBuilder builder = null;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement != null && builder == null) {
+                builder = new StringBuilder(text.length() + replacement.length()).append(text, 0, i);
+            }
+            if (replacement != null) {
+                builder.append(replacement);
+            } else if (builder != null) {
+                builder.append(text.charAt(i));
+            }
+        }
+        return builder == null ? text : builder.toString();
+    }
+
+    /**
+     * Rendered SOAP Fault split at the fault string and the detail. Each
+     * part except the last one is followed by the fault string or the
+     * detail. A template without parts can't be used, and the fault is
+     * serialized on every call. The location of the empty SOAP header is
+     * null if the fault has none.
+     */
+    private final class Template {
+        private final List<String> parts;
+        private final boolean[] details;
+        private final HeaderSlot slot;
+
+        Template(List<String> parts, boolean[] details, HeaderSlot slot) {
+            this.parts = parts;
+            this.details = details;
+            this.slot = slot;
+        }
+
+        String apply(ErrorMessage error, AbstractMessage header) {
+            if (this.parts == null) {
+                return addHeader(renderNow(error), null, header);
+            }
+            StringBuilder fault = new StringBuilder(this.parts.get(0));
+            for (int i = 0; i < this.details.length; i++) {
+                fault.append(escape(this.details[i] ? (String) error.getDetail() : error.getFaultString())).append(this.parts.get(i + 1));
+            }
+            return this.slot == null ? fault.toString() : addHeader(fault.toString(), this.slot, header);
+        }
+    }
+
+    /**
+     * Location of the fault string or the detail in a rendered template.
+     */
+    private static final class Placeholder {
+        private final int index;
+        private final String marker;
+        private final boolean detail;
+
+        Placeholder(int index, String marker, boolean detail) {
+            this.index = index;
+            this.marker = marker;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * Location of the empty SOAP header element in a rendered fault.
+     */
+    private static final class HeaderSlot {
+        private final int start;
+        private final int end;
+        private final String prefix;
+
+        HeaderSlot(int start, int end, String prefix) {
+            this.start = start;
+            this.end = end;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.wsdl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class keeps the contents of a WSDL file in memory, so that WSDL
+ * requests don't read the file from disk. Like FileUtil, the path is first
+ * looked up as a class path resource and secondly as a file in file system.
+ * Files are reloaded when their modification time or size changes, and
+ * large files are memory-mapped instead of copied to the heap. A large file
+ * is first copied to a private temporary file and the copy is mapped, so
+ * that overwriting the original file in place doesn't change the contents
+ * that are served under the ETag of the old contents. Each version of the
+ * contents has an ETag and optionally a gzip compressed variant.
+ */
+public final class WSDLCache {
+
+    /**
+     * Default minimum interval between the checks whether the file has been
+     * modified, in milliseconds.
+     */
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000L;
+    /**
+     * Default size in bytes starting from which the file is memory-mapped.
+     */
+    public static final int DEFAULT_MAPPING_THRESHOLD = 1024 * 1024;
+    /**
+     * Default size in bytes starting from which a gzip compressed variant is
+     * created.
+     */
+    public static final int DEFAULT_GZIP_MIN_SIZE = 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WSDLCache.class);
+    private static final String FILE_PROTOCOL = "file";
+    private static final String GZIP_SUFFIX = "-gzip";
+    private static final String TEMP_FILE_PREFIX = "xrd4j-wsdl-";
+
+    private final String path;
+    private final Object lock = new Object();
+    private volatile long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+    private volatile int mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+    private volatile boolean gzipEnabled = true;
+    private volatile Entry entry;
+    private volatile boolean loaded;
+    private volatile long nextCheckNanos;
+
+    /**
+     * Constructs and initializes a new WSDLCache object. The file is read
+     * when it's requested the first time.
+     *
+     * @param path resource or file path of the WSDL file
+     */
+    public WSDLCache(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the current contents of the WSDL file. The file is checked
+     * for modifications at most once per check interval. Class path
+     * resources that are not in file system, e.g. inside a JAR file, are
+     * read only once.
+     *
+     * @return contents of the WSDL file or null if the file doesn't exist
+     * or can't be read
+     */
+    public Entry get() {
+        Entry current = this.entry;
+        if (this.loaded && (current != null && current.file == null || System.nanoTime() - this.nextCheckNanos < 0)) {
+            return current;
+        }
+        synchronized (this.lock) {
+            current = this.entry;
+            if (!this.loaded || System.nanoTime() - this.nextCheckNanos >= 0) {
+                if (current == null || current.isModified()) {
+                    current = this.load();
+                    this.entry = current;
+                }
+                this.nextCheckNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.checkIntervalMillis);
+                this.loaded = true;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Sets the minimum interval between the checks whether the file has
+     * been modified. Zero means that the file is checked on every request.
+     *
+     * @param checkIntervalMillis check interval in milliseconds
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        if (checkIntervalMillis < 0) {
+            throw new IllegalArgumentException("Check interval can't be negative.");
+        }
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Sets the size starting from which a copy of the file is memory-mapped.
+     * Takes effect when the file is read the next time.
+     *
+     * @param mappingThreshold size in bytes
+     */
+    public void setMappingThreshold(int mappingThreshold) {
+        this.mappingThreshold = mappingThreshold;
+    }
+
+    /**
+     * Sets whether a gzip compressed variant of the file is created. Takes
+     * effect when the file is read the next time.
+     *
+     * @param gzipEnabled true if the compressed variant is created
+     */
+    public void setGzipEnabled(boolean gzipEnabled) {
+        this.gzipEnabled = gzipEnabled;
+    }
+
+    /**
+     * Returns true if the given If-None-Match header value matches the
+     * given ETag.
+     *
+     * @param ifNoneMatch value of the If-None-Match header or null
+     * @param etag ETag of the current contents
+     * @return true if the client already has the current contents
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry load() {
+        try {
+            URL url = Thread.currentThread().getContextClassLoader().getResource(this.path);
+            if (url != null && !FILE_PROTOCOL.equals(url.getProtocol())) {
+                try (InputStream in = url.openStream()) {
+                    return this.newEntry(null, 0, ByteBuffer.wrap(in.readAllBytes()));
+                }
+            }
+            Path file = url != null ? Paths.get(url.toURI()) : Paths.get(this.path);
+            if (!Files.isRegularFile(file)) {
+                LOGGER.warn("WSDL file '{}' doesn't exist.", this.path);
+                return null;
+            }
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            // If the file is modified while it's read, the modification time
+            // doesn't match anymore and the file is read again on the next
+            // check
+            ByteBuffer content = size >= this.mappingThreshold ? map(file) : ByteBuffer.wrap(Files.readAllBytes(file));
+            LOGGER.debug("WSDL file '{}' loaded, {} bytes.", this.path, content.capacity());
+            return this.newEntry(file, lastModified, content);
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            LOGGER.error("Could not read WSDL file {}.", this.path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the given file to a temporary file and memory-maps the copy.
+     * The copy is deleted right after mapping it. The mapping stays valid
+     * until it's garbage collected. If the platform doesn't allow deleting a
+     * mapped file, the copy is deleted when the JVM exits.
+     *
+     * @param file file to be mapped
+     * @return mapped copy of the file
+     * @throws IOException if copying or mapping the file fails
+     */
+    private static ByteBuffer map(Path file) throws IOException {
+        Path copy = Files.createTempFile(TEMP_FILE_PREFIX, null);
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(copy);
+            } catch (IOException e) {
+                LOGGER.debug("Could not delete mapped copy {} of WSDL file. Copy is deleted on exit.", copy);
+                copy.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private Entry newEntry(Path file, long lastModified, ByteBuffer content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        String tag = Integer.toHexString(content.remaining()) + "-" + Long.toHexString(crc.getValue());
+        byte[] gzipped = null;
+        if (this.gzipEnabled && content.remaining() >= DEFAULT_GZIP_MIN_SIZE) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                write(content, out);
+            }
+            // Compressed variant is served only if it's smaller
+            if (bytes.size() < content.remaining()) {
+                gzipped = bytes.toByteArray();
+            }
+        }
+        return new Entry(file, lastModified, content, gzipped, tag);
+    }
+
+    private static void write(ByteBuffer content, OutputStream out) throws IOException {
+        ByteBuffer buffer = content.duplicate();
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Contents of the WSDL file at the time it was read.
+     */
+    public static final class Entry {
+        private final Path file;
+        private final long lastModified;
+        private final ByteBuffer content;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzipETag;
+
+        private Entry(Path file, long lastModified, ByteBuffer content, byte[] gzipped, String tag) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.content = content;
+            this.gzipped = gzipped;
+            this.etag = "\"" + tag + "\"";
+            this.gzipETag = "\"" + tag + GZIP_SUFFIX + "\"";
+        }
+
+        private boolean isModified() {
+            if (this.file == null) {
+                return false;
+            }
+            try {
+                return Files.getLastModifiedTime(this.file).toMillis() != this.lastModified
+                        || Files.size(this.file) != this.content.capacity();
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Returns the ETag of the uncompressed contents.
+         *
+         * @return quoted ETag
+         */
+        public String getETag() {
+            return this.etag;
+        }
+
+        /**
+         * Returns the ETag of the gzip compressed contents.
+         *
+         * @return quoted ETag
+         */
+        public String getGzipETag() {
+            return this.gzipETag;
+        }
+
+        /**
+         * Returns the size of the uncompressed contents.
+         *
+         * @return size in bytes
+         */
+        public long getContentLength() {
+            return this.content.capacity();
+        }
+
+        /**
+         * Returns true if a gzip compressed variant is available.
+         *
+         * @return true if a gzip compressed variant is available
+         */
+        public boolean hasGzip() {
+            return this.gzipped != null;
+        }
+
+        /**
+         * Returns the size of the gzip compressed contents.
+         *
+         * @return size in bytes or -1 if there's no compressed variant
+         */
+        public long getGzipLength() {
+            return this.gzipped == null ? -1 : this.gzipped.length;
+        }
+
+        /**
+         * Writes the uncompressed contents to the given stream.
+         *
+         * @param out output stream
+         * @throws IOException if writing fails
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            write(this.content, out);
+        }
+
+        /**
+         * Writes the gzip compressed contents to the given stream.
+         *
+         * @param out output stream
+         * @throws IOException if writing fails
+         */
+        public void writeGzipTo(OutputStream out) throws IOException {
+            if (this.gzipped == null) {
+                throw new IllegalStateException("No gzip compressed variant available.");
+            }
+            out.write(this.gzipped);
+        }
+    }
+}
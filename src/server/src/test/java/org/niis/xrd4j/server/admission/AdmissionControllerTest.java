@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.admission;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test cases for AdmissionController class.
+ */
+class AdmissionControllerTest {
+
+    /**
+     * A service limit protects the global limit from an expensive service.
+     */
+    @Test
+    void testServiceLimit() {
+        AdmissionController admission = new AdmissionController(new ConcurrencyLimiter(3));
+        admission.setServiceLimiter("expensive", new ConcurrencyLimiter(2));
+
+        AdmissionController.Permit first = admission.tryAdmit("expensive");
+        assertNotNull(first);
+        assertNotNull(admission.tryAdmit("expensive"));
+        assertNull(admission.tryAdmit("expensive"));
+        assertEquals(2, admission.getGlobalLimiter().getInFlight());
+
+        AdmissionController.Permit cheap = admission.tryAdmit("cheap");
+        assertNotNull(cheap);
+        assertNull(admission.tryAdmit("cheap"));
+
+        first.release();
+        first.release();
+        assertEquals(1, admission.getServiceLimiter("expensive").getInFlight());
+        assertNotNull(admission.tryAdmit("cheap"));
+    }
+
+    /**
+     * A request rejected by the global limit does not keep the service
+     * permit.
+     */
+    @Test
+    void testGlobalLimit() {
+        AdmissionController admission = new AdmissionController(new ConcurrencyLimiter(1));
+        admission.setServiceLimiter("getRandom", new ConcurrencyLimiter(5));
+
+        assertNotNull(admission.tryAdmit("other"));
+        assertNull(admission.tryAdmit("getRandom"));
+        assertEquals(0, admission.getServiceLimiter("getRandom").getInFlight());
+    }
+
+    /**
+     * Without a global limiter only service limits are applied.
+     */
+    @Test
+    void testNoGlobalLimit() {
+        AdmissionController admission = new AdmissionController(null);
+        admission.setServiceLimiter("getRandom", new ConcurrencyLimiter(1));
+
+        assertNotNull(admission.tryAdmit("getRandom"));
+        assertNull(admission.tryAdmit("getRandom"));
+        assertNotNull(admission.tryAdmit(null));
+        assertNotNull(admission.tryAdmit("other"));
+    }
+
+    /**
+     * A permit released without latency frees the permits without adjusting
+     * the adaptive limits, and releasing it again has no effect.
+     */
+    @Test
+    void testReleaseWithoutLatency() {
+        ConcurrencyLimiter global = new ConcurrencyLimiter(10);
+        global.setAdaptive(true);
+        ConcurrencyLimiter service = new ConcurrencyLimiter(5);
+        service.setAdaptive(true);
+        AdmissionController admission = new AdmissionController(global);
+        admission.setServiceLimiter("getRandom", service);
+
+        for (int i = 0; i < 100; i++) {
+            AdmissionController.Permit permit = admission.tryAdmit("getRandom");
+            assertNotNull(permit);
+            permit.releaseWithoutLatency();
+            permit.releaseWithoutLatency();
+            permit.release();
+        }
+        assertEquals(0, global.getInFlight());
+        assertEquals(0, service.getInFlight());
+        assertEquals(10, global.getLimit());
+        assertEquals(5, service.getLimit());
+    }
+}
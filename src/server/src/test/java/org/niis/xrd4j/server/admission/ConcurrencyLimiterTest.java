@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for ConcurrencyLimiter class.
+ */
+class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int ROUNDS = 200;
+
+    /**
+     * Requests over the fixed limit are rejected.
+     */
+    @Test
+    void testFixedLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        assertTrue(limiter.tryAcquire(0));
+        assertTrue(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(0));
+        assertEquals(1, limiter.getRejectedCount());
+        limiter.release(FAST);
+        assertTrue(limiter.tryAcquire(0));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(2, limiter.getLimit());
+    }
+
+    /**
+     * A waiting request gets the permit when another request releases it.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void testWait() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        assertTrue(limiter.tryAcquire(0));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            limiter.release(FAST);
+        });
+        releaser.start();
+        assertTrue(limiter.tryAcquire(5000));
+        releaser.join();
+        assertFalse(limiter.tryAcquire(10));
+    }
+
+    /**
+     * Adaptive limit shrinks when the latency grows and grows back when the
+     * latency returns to normal.
+     */
+    @Test
+    void testAdaptiveLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20);
+        limiter.setAdaptive(true);
+        limiter.setMaxLimit(100);
+        runAtLimit(limiter, FAST);
+        int normal = limiter.getLimit();
+        assertTrue(normal >= 20, "Limit " + normal);
+
+        runAtLimit(limiter, SLOW);
+        int overloaded = limiter.getLimit();
+        assertTrue(overloaded < normal, "Limit " + overloaded + " >= " + normal);
+
+        runAtLimit(limiter, FAST);
+        assertTrue(limiter.getLimit() > overloaded, "Limit " + limiter.getLimit() + " <= " + overloaded);
+        assertTrue(limiter.getLimit() <= 100);
+    }
+
+    private static void runAtLimit(ConcurrencyLimiter limiter, long latency) {
+        for (int i = 0; i < ROUNDS; i++) {
+            int count = 0;
+            while (limiter.tryAcquire(0)) {
+                count++;
+            }
+            for (int j = 0; j < count; j++) {
+                limiter.release(latency);
+            }
+        }
+    }
+}
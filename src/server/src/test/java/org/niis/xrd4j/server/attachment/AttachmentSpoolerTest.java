@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for AttachmentSpooler class.
+ */
+class AttachmentSpoolerTest {
+
+    private static final String CONTENT_TYPE = "multipart/related; type=\"text/xml\"; start=\"<rootpart>\"; boundary=MIME_boundary";
+    private static final String ROOT = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<SOAP-ENV:Body/></SOAP-ENV:Envelope>";
+
+    private Path directory;
+    private AttachmentSpooler spooler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("xrd4j-test-");
+        this.spooler = new AttachmentSpooler();
+        this.spooler.setDirectory(this.directory);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Requests with too many parts are rejected, and the files of the parts
+     * that were already spooled are deleted.
+     *
+     * @throws IOException if listing the files fails
+     */
+    @Test
+    void testMaxParts() throws IOException {
+        this.spooler.setMaxParts(2);
+        this.spooler.setMemoryThreshold(0);
+
+        IOException ex = assertThrows(IOException.class, () -> this.spooler.parse(request("first", "second"), CONTENT_TYPE));
+
+        assertEquals("Multipart request has more than 2 parts.", ex.getMessage());
+        assertEquals(0, this.countFiles());
+    }
+
+    /**
+     * Requests whose temporary files would exceed the file limit are rejected,
+     * and the files are deleted.
+     *
+     * @throws IOException if listing the files fails
+     */
+    @Test
+    void testMaxFileSize() throws IOException {
+        this.spooler.setMemoryThreshold(0);
+        this.spooler.setMaxFileSize(ROOT.length() + 10);
+
+        assertThrows(IOException.class, () -> this.spooler.parse(request("0123456789", "0"), CONTENT_TYPE));
+        assertEquals(0, this.countFiles());
+    }
+
+    /**
+     * Parts that don't fit in the memory limit are spooled to files even if
+     * they're smaller than the memory threshold.
+     *
+     * @throws Exception if parsing fails
+     */
+    @Test
+    void testMaxMemorySize() throws Exception {
+        this.spooler.setMaxMemorySize(ROOT.length() + 10);
+
+        try (AttachmentSpooler.SpooledMessage message = this.spooler.parse(request("0123456789", "0123456789"), CONTENT_TYPE)) {
+            List<SpooledDataSource> attachments = message.getAttachments();
+            assertEquals(2, attachments.size());
+            assertTrue(attachments.get(0).isInMemory());
+            assertFalse(attachments.get(1).isInMemory());
+            assertEquals(1, this.countFiles());
+        }
+        assertEquals(0, this.countFiles());
+    }
+
+    /**
+     * Invalid limits are rejected.
+     */
+    @Test
+    void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> this.spooler.setMaxParts(0));
+        assertThrows(IllegalArgumentException.class, () -> this.spooler.setMaxMemorySize(-1));
+        assertThrows(IllegalArgumentException.class, () -> this.spooler.setMaxFileSize(-1));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.count();
+        }
+    }
+
+    private static ByteArrayInputStream request(String... attachments) {
+        StringBuilder content = new StringBuilder("--MIME_boundary\r\nContent-Type: text/xml; charset=UTF-8\r\nContent-ID: <rootpart>\r\n\r\n")
+                .append(ROOT);
+        for (int i = 0; i < attachments.length; i++) {
+            content.append("\r\n--MIME_boundary\r\nContent-Type: text/plain\r\nContent-ID: <attachment-").append(i).append(">\r\n\r\n")
+                    .append(attachments[i]);
+        }
+        content.append("\r\n--MIME_boundary--\r\n");
+        return new ByteArrayInputStream(content.toString().getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for MultipartReader class.
+ */
+class MultipartReaderTest {
+
+    private static final String BOUNDARY = "MIME_boundary";
+
+    /**
+     * The preamble and the epilogue are skipped, headers are parsed and the
+     * bodies end at the boundaries, also when the input arrives in small
+     * chunks.
+     *
+     * @throws IOException if reading fails
+     */
+    @Test
+    void testParts() throws IOException {
+        String content = "preamble\r\n--MIME_boundary\r\n"
+                + "Content-Type: text/xml;\r\n charset=UTF-8\r\nContent-ID: <rootpart>\r\n\r\n"
+                + "<root/>\r\n--MIME_boundary  \r\n"
+                + "Content-ID: attachment-1\r\n\r\n"
+                + "line\r\n--MIME_bound\r\n\r\n--MIME_boundary--\r\nepilogue";
+        MultipartReader reader = new MultipartReader(new ChunkedInputStream(content.getBytes(ISO_8859_1)), BOUNDARY);
+        assertTrue(reader.next());
+        assertEquals("text/xml; charset=UTF-8", reader.getHeaders().getHeader("content-type")[0]);
+        assertEquals("<rootpart>", reader.getHeaders().getHeader("Content-ID")[0]);
+        assertEquals("<root/>", read(reader.getBody()));
+        assertTrue(reader.next());
+        assertEquals("attachment-1", reader.getHeaders().getHeader("Content-ID")[0]);
+        assertNull(reader.getHeaders().getHeader("Content-Type"));
+        assertEquals("line\r\n--MIME_bound\r\n", read(reader.getBody()));
+        assertFalse(reader.next());
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Bare LF line breaks are accepted and unread bodies are skipped.
+     *
+     * @throws IOException if reading fails
+     */
+    @Test
+    void testBareLineFeeds() throws IOException {
+        String content = "--MIME_boundary\nContent-ID: a\n\nfirst\n\n--MIME_boundary\nContent-ID: b\n\nsecond\n--MIME_boundary--\n";
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(content.getBytes(ISO_8859_1)), BOUNDARY);
+        assertTrue(reader.next());
+        assertEquals("a", reader.getHeaders().getHeader("Content-ID")[0]);
+        assertTrue(reader.next());
+        assertEquals("b", reader.getHeaders().getHeader("Content-ID")[0]);
+        assertEquals("second", read(reader.getBody()));
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Binary bodies larger than the buffer are returned as is.
+     *
+     * @throws IOException if reading fails
+     */
+    @Test
+    void testLargeBody() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("--MIME_boundary\r\n\r\n".getBytes(ISO_8859_1));
+        out.write(data);
+        out.write("\r\n--MIME_boundary--".getBytes(ISO_8859_1));
+        MultipartReader reader = new MultipartReader(new ChunkedInputStream(out.toByteArray()), BOUNDARY);
+        assertTrue(reader.next());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        reader.getBody().transferTo(body);
+        assertArrayEquals(data, body.toByteArray());
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Truncated content is rejected.
+     */
+    @Test
+    void testTruncated() {
+        String content = "--MIME_boundary\r\nContent-ID: a\r\n\r\nbody without end";
+        MultipartReader reader = new MultipartReader(new ByteArrayInputStream(content.getBytes(ISO_8859_1)), BOUNDARY);
+        assertThrows(IOException.class, () -> {
+            reader.next();
+            read(reader.getBody());
+        });
+    }
+
+    /**
+     * Parameters are read from quoted and unquoted values.
+     */
+    @Test
+    void testGetParameter() {
+        String contentType = "multipart/related; type=\"text/xml\"; start=\"<rootpart>\";Boundary=MIME_boundary";
+        assertEquals("text/xml", MultipartReader.getParameter(contentType, "type"));
+        assertEquals("<rootpart>", MultipartReader.getParameter(contentType, "start"));
+        assertEquals("MIME_boundary", MultipartReader.getParameter(contentType, "boundary"));
+        assertNull(MultipartReader.getParameter(contentType, "charset"));
+        assertNull(MultipartReader.getParameter("multipart/related", "boundary"));
+        assertNull(MultipartReader.getParameter(null, "boundary"));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        in.transferTo(out);
+        return out.toString(ISO_8859_1);
+    }
+
+    /**
+     * Stream that returns at most a few bytes at a time.
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+
+        ChunkedInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 3));
+        }
+    }
+}
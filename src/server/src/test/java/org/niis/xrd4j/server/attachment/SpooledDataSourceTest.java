@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.attachment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for SpooledDataSource class.
+ */
+class SpooledDataSourceTest {
+
+    private static final byte[] CONTENT = "attachment content".getBytes(UTF_8);
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.file = Files.createTempFile("xrd4j-test-", ".tmp");
+        Files.write(this.file, CONTENT);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * File-backed content can be streamed, transferred and mapped, and the
+     * file is deleted.
+     *
+     * @throws IOException if reading fails
+     */
+    @Test
+    void testFile() throws IOException {
+        SpooledDataSource source = new SpooledDataSource("application/octet-stream", "attachment-1", null, this.file, CONTENT.length);
+        assertFalse(source.isInMemory());
+        assertEquals(CONTENT.length, source.getSize());
+        assertContent(source);
+        assertThrows(IOException.class, source::getOutputStream);
+        source.delete();
+        assertFalse(Files.exists(this.file));
+    }
+
+    /**
+     * In-memory content can be read the same way.
+     *
+     * @throws IOException if reading fails
+     */
+    @Test
+    void testMemory() throws IOException {
+        SpooledDataSource source = new SpooledDataSource("text/plain", null, CONTENT, null, CONTENT.length);
+        assertTrue(source.isInMemory());
+        assertContent(source);
+        source.delete();
+        assertTrue(Files.exists(this.file));
+    }
+
+    private static void assertContent(SpooledDataSource source) throws IOException {
+        try (InputStream in = source.getInputStream()) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(CONTENT.length, source.transferTo(Channels.newChannel(out)));
+        assertArrayEquals(CONTENT, out.toByteArray());
+        out.reset();
+        assertEquals(CONTENT.length, source.writeTo(out));
+        assertArrayEquals(CONTENT, out.toByteArray());
+        ByteBuffer buffer = source.map();
+        assertTrue(buffer.isReadOnly());
+        byte[] mapped = new byte[buffer.remaining()];
+        buffer.get(mapped);
+        assertArrayEquals(CONTENT, mapped);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.cache;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.util.XMLFactoryRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for ResponseCache class.
+ */
+class ResponseCacheTest {
+
+    private static final String BODY = "<ts1:getCodes xmlns:ts1=\"http://test.x-road.fi/producer\" a=\"1\" b=\"2\"><list>colors</list></ts1:getCodes>";
+
+    /**
+     * Whitespace, prefixes and attribute order don't affect the key.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testCanonicalKey() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.enable("getCodes", null, 60000, false);
+        ResponseCache.Key key = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY));
+
+        assertNotNull(key);
+        assertEquals(key, cache.getKey(request("MEMBER2", "getCodes", "v1"),
+                parse("<ns:getCodes b=\"2\" xmlns:ns=\"http://test.x-road.fi/producer\" a=\"1\">\n  <list>colors</list>\n</ns:getCodes>")));
+        assertNotEquals(key, cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "sizes"))));
+        assertNotEquals(key, cache.getKey(request("MEMBER1", "getCodes", "v2"), parse(BODY)));
+        assertNull(cache.getKey(request("MEMBER1", "getOther", "v1"), parse(BODY)));
+    }
+
+    /**
+     * Per consumer caching separates the consumers.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testPerConsumerKey() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.enable("getCodes", "v1", 60000, true);
+
+        assertNotEquals(cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY)),
+                cache.getKey(request("MEMBER2", "getCodes", "v1"), parse(BODY)));
+        assertNull(cache.getKey(request("MEMBER1", "getCodes", "v2"), parse(BODY)));
+    }
+
+    /**
+     * Entries expire after the TTL, and hits and misses are counted.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testGetAndExpire() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.enable("getCodes", null, 50, false);
+        ResponseCache.Key key = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY));
+
+        assertNull(cache.get(key));
+        cache.put(key, "<response/>");
+        assertEquals("<response/>", cache.get(key));
+        Thread.sleep(100);
+        assertNull(cache.get(key));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 0.0001);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * The least recently used entries are evicted when the cache is full,
+     * and too large entries are not cached.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testEviction() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.enable("getCodes", null, 60000, false);
+        cache.setMaxSize(20);
+        cache.setMaxEntrySize(10);
+        ResponseCache.Key key1 = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "1")));
+        ResponseCache.Key key2 = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "2")));
+        ResponseCache.Key key3 = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "3")));
+
+        cache.put(key1, "0123456789");
+        cache.put(key2, "0123456789");
+        cache.get(key1);
+        cache.put(key3, "0123456789");
+        cache.put(key2, "0123456789A");
+
+        assertEquals("0123456789", cache.get(key1));
+        assertNull(cache.get(key2));
+        assertEquals("0123456789", cache.get(key3));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(20, cache.getSize());
+    }
+
+    /**
+     * Sizes are measured in UTF-8 encoded bytes, not in characters.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testSizeInBytes() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.enable("getCodes", null, 60000, false);
+        cache.setMaxEntrySize(10);
+        ResponseCache.Key key1 = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "1")));
+        ResponseCache.Key key2 = cache.getKey(request("MEMBER1", "getCodes", "v1"), parse(BODY.replace("colors", "2")));
+
+        // Six characters, but twelve bytes
+        cache.put(key1, "\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4");
+        cache.put(key2, "\u00e4\u00e4\u00e4\u00e4\u00e4");
+
+        assertNull(cache.get(key1));
+        assertEquals("\u00e4\u00e4\u00e4\u00e4\u00e4", cache.get(key2));
+        assertEquals(10, cache.getSize());
+    }
+
+    /**
+     * The copy of a body element declares the namespaces of its ancestors,
+     * so that QName values keep their meaning when the copy is serialized
+     * on its own.
+     *
+     * @throws Exception
+     */
+    @Test
+    void testWithNamespaces() throws Exception {
+        Document envelope = (Document) parse("<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:t=\"urn:outer\">"
+                + "<env:Body xmlns:t=\"urn:types\"><ts1:getCodesResponse xmlns:ts1=\"http://test.x-road.fi/producer\">"
+                + "<value xsi:type=\"t:Code\">red</value></ts1:getCodesResponse></env:Body></env:Envelope>");
+        Element body = (Element) envelope.getDocumentElement().getFirstChild();
+        Element element = (Element) body.getFirstChild();
+
+        Element copy = ResponseCache.withNamespaces(element);
+
+        assertEquals("http://www.w3.org/2001/XMLSchema-instance", copy.lookupNamespaceURI("xsi"));
+        assertEquals("urn:types", copy.lookupNamespaceURI("t"));
+        assertEquals("http://test.x-road.fi/producer", copy.lookupNamespaceURI("ts1"));
+        assertEquals("http://schemas.xmlsoap.org/soap/envelope/", copy.lookupNamespaceURI("env"));
+        assertNull(copy.getParentNode());
+        assertEquals("", element.getAttribute("xmlns:xsi"));
+
+        StringWriter out = new StringWriter();
+        XMLFactoryRegistry.transform(new DOMSource(copy), new StreamResult(out));
+        Element reparsed = ((Document) parse(out.toString())).getDocumentElement();
+        Element value = (Element) reparsed.getFirstChild();
+        assertEquals("t:Code", value.getAttributeNS("http://www.w3.org/2001/XMLSchema-instance", "type"));
+        assertEquals("urn:types", value.lookupNamespaceURI("t"));
+        assertTrue(out.toString().contains("xmlns:xsi="));
+    }
+
+    private static ServiceRequest<?> request(String consumerCode, String serviceCode, String serviceVersion) throws XRd4JException {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", consumerCode, "system");
+        ProducerMember producer = new ProducerMember("FI", "COM", "PRODUCER", "system", serviceCode, serviceVersion);
+        return new ServiceRequest<>(consumer, producer, "ID-1");
+    }
+
+    private static Node parse(String xml) throws SAXException, IOException {
+        return XMLFactoryRegistry.parse(new InputSource(new StringReader(xml)));
+    }
+}
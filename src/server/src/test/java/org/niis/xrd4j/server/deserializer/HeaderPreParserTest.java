@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.deserializer;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test cases for HeaderPreParser class.
+ */
+class HeaderPreParserTest {
+
+    private static final String ENVELOPE_START = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+            + "xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\">";
+    private static final String HEADER = "<SOAP-ENV:Header>"
+            + "<xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>GOV</id:memberClass>"
+            + "<id:memberCode>MEMBER1</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode></xrd:client>"
+            + "<xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass>"
+            + "<id:memberCode>MEMBER2</id:memberCode><id:subsystemCode>subsystem</id:subsystemCode>"
+            + "<id:serviceCode>getRandom</id:serviceCode><id:serviceVersion>v1</id:serviceVersion></xrd:service>"
+            + "<xrd:userId>EE1234567890</xrd:userId><xrd:id>ID11234</xrd:id><xrd:protocolVersion>4.0</xrd:protocolVersion>"
+            + "</SOAP-ENV:Header>";
+    private static final String BODY = "<SOAP-ENV:Body><ns1:getRandom xmlns:ns1=\"http://consumer.x-road.ee\"><data>1234567890</data>"
+            + "</ns1:getRandom></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    /**
+     * Header values are read and the returned stream contains the whole
+     * request.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testParseHeader() throws IOException {
+        String soapString = ENVELOPE_START + HEADER + BODY;
+        HeaderPreParser.PreParsedRequest result = new HeaderPreParser().parse(toStream(soapString));
+        ServiceRequest<?> request = result.getRequest();
+
+        assertEquals("ID11234", request.getId());
+        assertEquals("EE1234567890", request.getUserId());
+        assertEquals("4.0", request.getProtocolVersion());
+        assertEquals("FI", request.getConsumer().getXRoadInstance());
+        assertEquals("MEMBER1", request.getConsumer().getMemberCode());
+        assertEquals("subsystem", request.getConsumer().getSubsystemCode());
+        assertEquals("MEMBER2", request.getProducer().getMemberCode());
+        assertEquals("getRandom", request.getProducer().getServiceCode());
+        assertEquals("v1", request.getProducer().getServiceVersion());
+        assertNull(request.getRequestData());
+        assertEquals(soapString, readAll(result.getInputStream()));
+    }
+
+    /**
+     * A request without a header has no pre-parsed request.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testParseNoHeader() throws IOException {
+        String soapString = ENVELOPE_START + BODY;
+        HeaderPreParser.PreParsedRequest result = new HeaderPreParser().parse(toStream(soapString));
+
+        assertNull(result.getRequest());
+        assertEquals(soapString, readAll(result.getInputStream()));
+    }
+
+    /**
+     * Malformed XML has no pre-parsed request, and the returned stream
+     * still contains the whole request.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testParseInvalidXml() throws IOException {
+        String soapString = ENVELOPE_START + "<SOAP-ENV:Header><xrd:id>ID1</xrd:client>";
+        HeaderPreParser.PreParsedRequest result = new HeaderPreParser().parse(toStream(soapString));
+
+        assertNull(result.getRequest());
+        assertEquals(soapString, readAll(result.getInputStream()));
+    }
+
+    /**
+     * X-Road elements wrapped in other elements and text between the
+     * elements are read like the DOM based deserializer reads them.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testParseNestedHeader() throws IOException {
+        String header = HEADER.replace("<xrd:service ", "text<ext:wrapper xmlns:ext=\"http://example.com\"><xrd:service ")
+                .replace("</xrd:service>", "</xrd:service></ext:wrapper>");
+        String soapString = ENVELOPE_START + header + BODY;
+        HeaderPreParser.PreParsedRequest result = new HeaderPreParser().parse(toStream(soapString));
+        ServiceRequest<?> request = result.getRequest();
+
+        assertEquals("ID11234", request.getId());
+        assertEquals("MEMBER1", request.getConsumer().getMemberCode());
+        assertEquals("MEMBER2", request.getProducer().getMemberCode());
+        assertEquals("getRandom", request.getProducer().getServiceCode());
+        assertEquals(soapString, readAll(result.getInputStream()));
+    }
+
+    /**
+     * Elements named "Header" or "Body" outside the SOAP envelope namespace
+     * are not taken as the SOAP header or body.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testParseForeignHeaderAndBody() throws IOException {
+        String soapString = ENVELOPE_START + "<ext:Body xmlns:ext=\"http://example.com\"><ext:Header/></ext:Body>" + HEADER + BODY;
+        HeaderPreParser.PreParsedRequest result = new HeaderPreParser().parse(toStream(soapString));
+        ServiceRequest<?> request = result.getRequest();
+
+        assertEquals("ID11234", request.getId());
+        assertEquals("getRandom", request.getProducer().getServiceCode());
+        assertEquals(soapString, readAll(result.getInputStream()));
+    }
+
+    private static InputStream toStream(String str) {
+        return new ByteArrayInputStream(str.getBytes(UTF_8));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), UTF_8);
+    }
+}
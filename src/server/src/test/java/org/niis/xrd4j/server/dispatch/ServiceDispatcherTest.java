@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.dispatch;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+import org.niis.xrd4j.server.serializer.ServiceResponseSerializer;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPMessage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for ServiceDispatcher class.
+ */
+class ServiceDispatcherTest {
+
+    private static final ServiceResponseSerializer<String, String> SERIALIZER = (response, request) -> null;
+
+    /**
+     * Requests are dispatched by service code and version, and a handler
+     * without a version handles the other versions.
+     *
+     * @throws XRd4JException
+     * @throws SOAPException
+     */
+    @Test
+    void testDispatchByVersion() throws XRd4JException, SOAPException {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        dispatcher.register("getRandom", "v1", null, SERIALIZER, (request, response) -> response.setResponseData("v1"));
+        dispatcher.register("getRandom", null, null, SERIALIZER, (request, response) -> response.setResponseData("any"));
+        dispatcher.register("helloService", "v2", null, SERIALIZER, (request, response) -> response.setResponseData("hello"));
+
+        assertEquals("v1", dispatcher.dispatch(request("getRandom", "v1")).getResponseData());
+        assertEquals("any", dispatcher.dispatch(request("getRandom", "v2")).getResponseData());
+        assertEquals("any", dispatcher.dispatch(request("getRandom", null)).getResponseData());
+        assertEquals("hello", dispatcher.dispatch(request("helloService", "v2")).getResponseData());
+        assertNull(dispatcher.dispatch(request("helloService", "v1")));
+        assertNull(dispatcher.dispatch(request("unknown", "v1")));
+        assertTrue(dispatcher.isRegistered("getRandom", "v3"));
+        assertFalse(dispatcher.isRegistered("helloService", null));
+    }
+
+    /**
+     * Response has the same members and id as the request and it's
+     * serialized after the handler has been called.
+     *
+     * @throws XRd4JException
+     * @throws SOAPException
+     */
+    @Test
+    void testResponse() throws XRd4JException, SOAPException {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        StringBuilder serialized = new StringBuilder();
+        ServiceResponseSerializer<String, String> serializer = (response, request) -> {
+            serialized.append(response.getResponseData());
+            return null;
+        };
+        dispatcher.register("getRandom", "v1", null, serializer, (request, response) -> response.setResponseData("data"));
+
+        ServiceRequest<String> request = request("getRandom", "v1");
+        ServiceResponse<?, ?> response = dispatcher.dispatch(request);
+        assertEquals(request.getId(), response.getId());
+        assertEquals(request.getConsumer(), response.getConsumer());
+        assertEquals(request.getProducer(), response.getProducer());
+        assertEquals("data", serialized.toString());
+    }
+
+    /**
+     * The same service can't be registered twice.
+     */
+    @Test
+    void testDuplicateRegistration() {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        dispatcher.register("getRandom", "v1", null, SERIALIZER, (request, response) -> { });
+        assertThrows(IllegalArgumentException.class,
+                () -> dispatcher.register("getRandom", "v1", null, SERIALIZER, (request, response) -> { }));
+    }
+
+    /**
+     * Annotated methods are registered and share serializer instances.
+     *
+     * @throws XRd4JException
+     * @throws SOAPException
+     */
+    @Test
+    void testAnnotated() throws XRd4JException, SOAPException {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        dispatcher.registerAnnotated(new AnnotatedServices());
+
+        assertEquals("random", dispatcher.dispatch(request("getRandom", "v1")).getResponseData());
+        assertEquals("hello", dispatcher.dispatch(request("helloService", "v1")).getResponseData());
+        assertThrows(XRd4JException.class, () -> dispatcher.dispatch(request("fail", "v1")));
+    }
+
+    /**
+     * An annotated method overridden in a subclass is registered once and
+     * the overriding method handles the requests.
+     *
+     * @throws XRd4JException
+     * @throws SOAPException
+     */
+    @Test
+    void testAnnotatedOverridden() throws XRd4JException, SOAPException {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        dispatcher.registerAnnotated(new OverridingServices());
+
+        assertEquals("overridden", dispatcher.dispatch(request("getRandom", "v1")).getResponseData());
+        assertEquals("hello", dispatcher.dispatch(request("helloService", "v1")).getResponseData());
+    }
+
+    /**
+     * Annotated methods must have the handler parameters.
+     */
+    @Test
+    void testAnnotatedInvalidSignature() {
+        ServiceDispatcher dispatcher = new ServiceDispatcher();
+        assertThrows(IllegalArgumentException.class, () -> dispatcher.registerAnnotated(new InvalidServices()));
+    }
+
+    private static ServiceRequest<String> request(String serviceCode, String serviceVersion) throws XRd4JException {
+        ConsumerMember consumer = new ConsumerMember("FI", "GOV", "MEMBER1", "subsystem");
+        ProducerMember producer = new ProducerMember("FI", "COM", "MEMBER2", "subsystem", serviceCode);
+        producer.setServiceVersion(serviceVersion);
+        return new ServiceRequest<>(consumer, producer, "ID-1234567890");
+    }
+
+    /**
+     * Services declared using annotations.
+     */
+    private static class AnnotatedServices {
+
+        @XRoadService(serviceCode = "getRandom", serviceVersion = "v1", serializer = NullSerializer.class)
+        void getRandom(ServiceRequest<String> request, ServiceResponse<String, String> response) {
+            response.setResponseData("random");
+        }
+
+        @XRoadService(serviceCode = "helloService", serializer = NullSerializer.class)
+        void hello(ServiceRequest<String> request, ServiceResponse<String, String> response) {
+            response.setResponseData("hello");
+        }
+
+        @XRoadService(serviceCode = "fail", serializer = NullSerializer.class)
+        void fail(ServiceRequest<String> request, ServiceResponse<String, String> response) throws XRd4JException {
+            throw new XRd4JException("Failed");
+        }
+    }
+
+    /**
+     * Services that override an annotated method of the superclass.
+     */
+    private static final class OverridingServices extends AnnotatedServices {
+
+        @Override
+        @XRoadService(serviceCode = "getRandom", serviceVersion = "v1", serializer = NullSerializer.class)
+        void getRandom(ServiceRequest<String> request, ServiceResponse<String, String> response) {
+            response.setResponseData("overridden");
+        }
+    }
+
+    /**
+     * Service method with invalid parameters.
+     */
+    private static final class InvalidServices {
+
+        @XRoadService(serviceCode = "getRandom", serializer = NullSerializer.class)
+        void getRandom(ServiceRequest<String> request) {
+            // Not a valid handler
+        }
+    }
+
+    /**
+     * Serializer that does nothing.
+     */
+    private static final class NullSerializer implements ServiceResponseSerializer<String, String> {
+
+        @Override
+        public SOAPMessage serialize(ServiceResponse<String, String> response, ServiceRequest<String> request) {
+            return null;
+        }
+    }
+}
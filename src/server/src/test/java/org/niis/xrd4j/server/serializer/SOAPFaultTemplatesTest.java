@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.serializer;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.message.ErrorMessage;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test cases for SOAPFaultTemplates class.
+ */
+class SOAPFaultTemplatesTest {
+
+    private final AtomicInteger renderCount = new AtomicInteger();
+    private final Function<ErrorMessage, String> renderer = error -> {
+        this.renderCount.incrementAndGet();
+        return "<Fault><faultcode>" + error.getFaultCode() + "</faultcode><faultstring>" + error.getFaultString()
+                + "</faultstring>" + (error.getDetail() == null ? "" : "<detail>" + error.getDetail() + "</detail>") + "</Fault>";
+    };
+
+    /**
+     * Fault without detail is rendered once.
+     */
+    @Test
+    void testRenderWithoutDetail() {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+        ErrorMessage error = new ErrorMessage("SOAP-ENV:Client", "Unknown service code.", null, null);
+
+        String expected = "<Fault><faultcode>SOAP-ENV:Client</faultcode><faultstring>Unknown service code.</faultstring></Fault>";
+        assertEquals(expected, templates.render(error));
+        assertEquals(expected, templates.render(new ErrorMessage("SOAP-ENV:Client", "Unknown service code.", null, null)));
+        assertEquals(1, this.renderCount.get());
+        assertEquals(1, templates.size());
+    }
+
+    /**
+     * Detail text is escaped and spliced into the template.
+     */
+    @Test
+    void testRenderWithDetail() {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+
+        assertEquals("<Fault><faultcode>SOAP-ENV:Server</faultcode><faultstring>Error</faultstring><detail>a &lt;b&gt; &amp; c</detail></Fault>",
+                templates.render(new ErrorMessage("SOAP-ENV:Server", "Error", null, "a <b> & c")));
+        assertEquals("<Fault><faultcode>SOAP-ENV:Server</faultcode><faultstring>Error</faultstring><detail>d</detail></Fault>",
+                templates.render(new ErrorMessage("SOAP-ENV:Server", "Error", null, "d")));
+        assertEquals(1, this.renderCount.get());
+    }
+
+    /**
+     * Faults that differ only by the fault string share one template, and
+     * the fault string is escaped.
+     */
+    @Test
+    void testRenderFaultString() {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+
+        assertEquals("<Fault><faultcode>SOAP-ENV:Client</faultcode><faultstring>Invalid content type : \"a&lt;b&gt;\".</faultstring></Fault>",
+                templates.render(new ErrorMessage("SOAP-ENV:Client", "Invalid content type : \"a<b>\".", null, null)));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("<Fault><faultcode>SOAP-ENV:Client</faultcode><faultstring>Invalid content type : \"" + i + "\".</faultstring></Fault>",
+                    templates.render(new ErrorMessage("SOAP-ENV:Client", "Invalid content type : \"" + i + "\".", null, null)));
+        }
+        assertEquals(1, this.renderCount.get());
+        assertEquals(1, templates.size());
+    }
+
+    /**
+     * Complex details and non-technical errors are rendered on every call.
+     */
+    @Test
+    void testRenderNotCached() {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+        templates.render(new ErrorMessage("SOAP-ENV:Server", "Error", null, 1));
+        templates.render(new ErrorMessage("SOAP-ENV:Server", "Error", null, 1));
+        templates.render(new ErrorMessage("SOAP-ENV:Server", "Error"));
+        templates.render(new ErrorMessage("SOAP-ENV:Server", "Error"));
+
+        assertEquals(4, this.renderCount.get());
+        assertEquals(0, templates.size());
+    }
+
+    /**
+     * The number of templates is limited, and failed rendering returns null.
+     */
+    @Test
+    void testLimitsAndFailure() {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+        templates.setMaxTemplates(2);
+        for (int i = 0; i < 5; i++) {
+            templates.render(new ErrorMessage("SOAP-ENV:Client" + i, "Error", null, null));
+        }
+        assertEquals(2, templates.size());
+        assertNull(new SOAPFaultTemplates(error -> "").render(new ErrorMessage("SOAP-ENV:Client", "Error", null, null)));
+    }
+
+    /**
+     * The header of the request replaces the empty SOAP header of the fault,
+     * and the template is still rendered only once.
+     *
+     * @throws XRd4JException
+     */
+    @Test
+    void testRenderWithHeader() throws XRd4JException {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(error -> "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Header/><SOAP-ENV:Body>" + this.renderer.apply(error) + "</SOAP-ENV:Body></SOAP-ENV:Envelope>");
+        ServiceRequest<String> request = new ServiceRequest<>(new ConsumerMember("FI", "GOV", "MEMBER1"),
+                new ProducerMember("FI", "COM", "MEMBER2", "getRandom"), "ID1");
+        request.setProtocolVersion("4.0");
+
+        String expected = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<SOAP-ENV:Header xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:id=\"http://x-road.eu/xsd/identifiers\" "
+                + "xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"><xrd:client id:objectType=\"MEMBER\"><id:xRoadInstance>FI</id:xRoadInstance>"
+                + "<id:memberClass>GOV</id:memberClass><id:memberCode>MEMBER1</id:memberCode></xrd:client>"
+                + "<xrd:service id:objectType=\"SERVICE\"><id:xRoadInstance>FI</id:xRoadInstance><id:memberClass>COM</id:memberClass>"
+                + "<id:memberCode>MEMBER2</id:memberCode><id:serviceCode>getRandom</id:serviceCode></xrd:service><xrd:id>ID1</xrd:id>"
+                + "<xrd:protocolVersion>4.0</xrd:protocolVersion></SOAP-ENV:Header><SOAP-ENV:Body><Fault><faultcode>SOAP-ENV:Client</faultcode>"
+                + "<faultstring>Error</faultstring><detail>a &amp; b</detail></Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        assertEquals(expected, templates.render(new ErrorMessage("SOAP-ENV:Client", "Error", null, "a & b"), request));
+        assertEquals(expected, templates.render(new ErrorMessage("SOAP-ENV:Client", "Error", null, "a & b"), request));
+        assertEquals(1, this.renderCount.get());
+    }
+
+    /**
+     * A fault without a SOAP header or with a SOAP header that is not empty
+     * is returned without the request header.
+     *
+     * @throws XRd4JException
+     */
+    @Test
+    void testRenderWithoutHeaderSlot() throws XRd4JException {
+        SOAPFaultTemplates templates = new SOAPFaultTemplates(this.renderer);
+        ServiceRequest<String> request = new ServiceRequest<>(new ConsumerMember("FI", "GOV", "MEMBER1"),
+                new ProducerMember("FI", "COM", "MEMBER2", "getRandom"), "ID1");
+
+        String expected = "<Fault><faultcode>SOAP-ENV:Client</faultcode><faultstring>Error</faultstring></Fault>";
+        assertEquals(expected, templates.render(new ErrorMessage("SOAP-ENV:Client", "Error", null, null), request));
+
+        SOAPFaultTemplates filledHeader = new SOAPFaultTemplates(error -> "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<S:Header><x/></S:Header><S:Body/></S:Envelope>");
+        assertEquals("<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Header><x/></S:Header><S:Body/></S:Envelope>",
+                filledHeader.render(new ErrorMessage("SOAP-ENV:Client", "Error", null, null), request));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Nordic Institute for Interoperability Solutions (NIIS)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.niis.xrd4j.server.wsdl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for WSDLCache class.
+ */
+class WSDLCacheTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void createDir() throws IOException {
+        this.dir = Files.createTempDirectory("wsdl");
+    }
+
+    @AfterEach
+    void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.dir);
+    }
+
+    /**
+     * The file is read once and served from memory.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testGetCached() throws IOException {
+        Path file = this.write("test.wsdl", "<definitions/>");
+        WSDLCache cache = new WSDLCache(file.toString());
+        WSDLCache.Entry entry = cache.get();
+
+        assertEquals("<definitions/>", toString(entry));
+        assertEquals(14, entry.getContentLength());
+        assertSame(entry, cache.get());
+    }
+
+    /**
+     * The file is reloaded when it changes, and the ETag changes with it.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testReloadModified() throws IOException {
+        Path file = this.write("test.wsdl", "<definitions/>");
+        WSDLCache cache = new WSDLCache(file.toString());
+        cache.setCheckIntervalMillis(0);
+        WSDLCache.Entry first = cache.get();
+        assertSame(first, cache.get());
+
+        this.write("test.wsdl", "<definitions name=\"test\"/>");
+        WSDLCache.Entry second = cache.get();
+
+        assertEquals("<definitions name=\"test\"/>", toString(second));
+        assertNotEquals(first.getETag(), second.getETag());
+    }
+
+    /**
+     * Large files are memory-mapped and compressed.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testMappedAndGzipped() throws IOException {
+        StringBuilder wsdl = new StringBuilder("<definitions>");
+        for (int i = 0; i < 200; i++) {
+            wsdl.append("<message name=\"m").append(i).append("\"/>");
+        }
+        wsdl.append("</definitions>");
+        Path file = this.write("large.wsdl", wsdl.toString());
+        WSDLCache cache = new WSDLCache(file.toString());
+        cache.setMappingThreshold(0);
+        WSDLCache.Entry entry = cache.get();
+
+        assertEquals(wsdl.toString(), toString(entry));
+        assertTrue(entry.hasGzip());
+        assertTrue(entry.getGzipLength() < entry.getContentLength());
+        assertNotEquals(entry.getETag(), entry.getGzipETag());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.writeGzipTo(out);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(wsdl.toString(), new String(in.readAllBytes(), UTF_8));
+        }
+    }
+
+    /**
+     * Overwriting a memory-mapped file in place doesn't change the contents
+     * of the entry that was read before.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testMappedOverwrittenInPlace() throws IOException {
+        Path file = this.write("test.wsdl", "<definitions name=\"original\"/>");
+        WSDLCache cache = new WSDLCache(file.toString());
+        cache.setMappingThreshold(0);
+        WSDLCache.Entry entry = cache.get();
+
+        // Truncates and rewrites the same file
+        this.write("test.wsdl", "<x/>");
+
+        assertEquals("<definitions name=\"original\"/>", toString(entry));
+        assertEquals(30, entry.getContentLength());
+    }
+
+    /**
+     * Small files and disabled compression have no gzip variant.
+     *
+     * @throws IOException
+     */
+    @Test
+    void testNoGzip() throws IOException {
+        Path file = this.write("test.wsdl", "<definitions/>");
+        assertFalse(new WSDLCache(file.toString()).get().hasGzip());
+    }
+
+    /**
+     * Missing file has no entry.
+     */
+    @Test
+    void testMissingFile() {
+        assertNull(new WSDLCache(this.dir.resolve("missing.wsdl").toString()).get());
+    }
+
+    /**
+     * If-None-Match matches the listed, weak and wildcard ETags.
+     */
+    @Test
+    void testMatches() {
+        assertTrue(WSDLCache.matches("\"a-1\"", "\"a-1\""));
+        assertTrue(WSDLCache.matches("\"b-2\", W/\"a-1\"", "\"a-1\""));
+        assertTrue(WSDLCache.matches("*", "\"a-1\""));
+        assertFalse(WSDLCache.matches("\"a-2\"", "\"a-1\""));
+        assertFalse(WSDLCache.matches(null, "\"a-1\""));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(this.dir.resolve(name), content.getBytes(UTF_8));
+    }
+
+    private static String toString(WSDLCache.Entry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.writeTo(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}